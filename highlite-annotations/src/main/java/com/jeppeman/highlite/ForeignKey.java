@@ -33,4 +33,12 @@ public @interface ForeignKey {
     boolean cascadeOnUpdate() default false;
 
     boolean enabled() default true;
+
+    /**
+     * Specifies whether the column should be indexed, which keeps cascading deletes and updates
+     * as well as lookups of the objects referencing a given object from scanning the whole table
+     *
+     * @return true if the column should be indexed, otherwise false
+     */
+    boolean createIndex() default true;
 }
@@ -0,0 +1,57 @@
+package com.jeppeman.highlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on a table through {@link SQLiteTable#indexes()}. Declared indexes are
+ * created along with the table and kept in line with their declarations on upgrades, indexes
+ * that are no longer declared are dropped.
+ *
+ * @author jesper
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.ANNOTATION_TYPE)
+public @interface Index {
+
+    /**
+     * The name of the index, defaults to index_ followed by the name of the table and the names
+     * of the indexed columns, separated by underscores
+     *
+     * @return a {@link String} representing the name of the index
+     */
+    String name() default "";
+
+    /**
+     * The names of the indexed columns, each optionally followed by ASC or DESC, e.g.
+     * {"lastName", "age DESC"}
+     *
+     * @return the indexed columns
+     */
+    String[] columns() default {};
+
+    /**
+     * An expression to index, e.g. "lower(`name`)", indexed after any columns. Indexes on
+     * expressions need a {@link #name()} and SQLite 3.9.0 or later
+     *
+     * @return the indexed expression
+     */
+    String expression() default "";
+
+    /**
+     * Specifies whether the indexed values have to be unique
+     *
+     * @return true if the index is unique, otherwise false
+     */
+    boolean unique() default false;
+
+    /**
+     * A condition limiting the index to the rows satisfying it, e.g. "`deleted` = 0", making it
+     * a partial index. Partial indexes need SQLite 3.8.0 or later
+     *
+     * @return the condition of the index
+     */
+    String where() default "";
+}
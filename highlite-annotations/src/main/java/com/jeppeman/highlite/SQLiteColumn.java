@@ -56,4 +56,13 @@ public @interface SQLiteColumn {
      * @see {@link ForeignKey}
      */
     ForeignKey foreignKey() default @ForeignKey(fieldReference = "", enabled = false);
+
+    /**
+     * The previous name of the database field, if it has been renamed. On upgrades, a column
+     * with the previous name is renamed in place, keeping its values, rather than being treated
+     * as a deleted column and a new column
+     *
+     * @return the previous name of the field
+     */
+    String renamedFrom() default "";
 }
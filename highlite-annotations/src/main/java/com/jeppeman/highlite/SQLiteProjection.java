@@ -0,0 +1,28 @@
+package com.jeppeman.highlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate a class with {@link SQLiteProjection} to have a mapper generated for it, which fills
+ * objects of the class with some of the columns of {@link SQLiteProjection#table()}. Every field
+ * of the class has to have the same name as a column field of the table and the same type,
+ * foreign keys are projected as the type of the field they reference. Only the columns of the
+ * fields of the projection are selected when fetching it.
+ *
+ * @author jesper
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface SQLiteProjection {
+
+    /**
+     * The table that the projection selects columns from, this must be a class annotated with
+     * {@link SQLiteTable}
+     *
+     * @return the table class
+     */
+    Class<?> table();
+}
@@ -0,0 +1,28 @@
+package com.jeppeman.highlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate an interface with {@link SQLiteQueries} to have an implementation of it generated,
+ * named after the interface with an _Impl suffix. Every method of the interface has to be
+ * annotated with {@link SQLiteQueryMethod}, the queries are validated against the tables of
+ * {@link SQLiteQueries#database()} when compiling.
+ *
+ * @author jesper
+ * @see {@link SQLiteQueryMethod}
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface SQLiteQueries {
+
+    /**
+     * The database that the queries are executed on, this must be a class annotated with
+     * {@link SQLiteDatabaseDescriptor}
+     *
+     * @return the database class
+     */
+    Class<?> database();
+}
@@ -0,0 +1,49 @@
+package com.jeppeman.highlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the query that a method of an interface annotated with {@link SQLiteQueries}
+ * executes. The parameters of the method are bound to the ? placeholders of the query in order,
+ * and the method can return a table class, a list of a table class, a single value of the first
+ * column or a list of the values of the first column, e.g.
+ *
+ * <pre>
+ * &#64;SQLiteQueryMethod("SELECT * FROM company WHERE `name` = ? AND `created` &gt; ?")
+ * List&lt;Company&gt; findByNameCreatedAfter(String name, Date date);
+ *
+ * &#64;SQLiteQueryMethod("SELECT COUNT(*) FROM company")
+ * long count();
+ * </pre>
+ *
+ * @author jesper
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface SQLiteQueryMethod {
+
+    /**
+     * The query, the tables it selects from and the columns quoted with backticks are checked
+     * against the schema when compiling
+     *
+     * @return the query
+     */
+    String value();
+
+    /**
+     * Specifies whether the foreign keys of returned table classes should be fetched
+     *
+     * @return true if foreign keys should be fetched, otherwise false
+     */
+    boolean fetchForeignKeys() default false;
+
+    /**
+     * Specifies whether the relationships of returned table classes should be fetched
+     *
+     * @return true if relationships should be fetched, otherwise false
+     */
+    boolean fetchRelationships() default false;
+}
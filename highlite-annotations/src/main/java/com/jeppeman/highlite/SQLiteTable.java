@@ -50,4 +50,21 @@ public @interface SQLiteTable {
      * @return true if colmuns should be automatically removed, otherwise false
      */
     boolean autoDeleteColumns() default false;
+
+    /**
+     * Specifies whether the table should be copied in the background when an upgrade has to
+     * recreate it, rather than as part of the upgrade. The table keeps its previous definition
+     * until every row has been copied, see BackgroundMigration of the runtime library
+     *
+     * @return true if the table should be migrated in the background, otherwise false
+     */
+    boolean backgroundMigration() default false;
+
+    /**
+     * The indexes of the table, which can only be declared on tables that are created
+     * automatically
+     *
+     * @return the indexes of the table
+     */
+    Index[] indexes() default {};
 }
@@ -0,0 +1,63 @@
+package com.jeppeman.highlite.benchmarks;
+
+import com.jeppeman.highlite.SQLiteOperator;
+import com.jeppeman.highlite.benchmarks.table.Owner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes of single objects. A deleted row cannot be deleted again, so every iteration deletes
+ * a fixed batch of rows inserted before it and reports the time the whole batch took.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteBenchmark {
+
+    private static final int OWNERS = 100;
+
+    /**
+     * Whether the deleted owners have their items cascaded through an indexed foreign key
+     * column, a column without an index, or have no items at all.
+     */
+    @Param({"none", "indexed", "unindexed"})
+    public String children;
+
+    @Param({"1000"})
+    public int childrenPerOwner;
+
+    private SQLiteOperator<Owner> mOperator;
+    private List<Owner> mInserted;
+    private int mCounter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Fixtures.clear();
+        mInserted = Fixtures.insertOwners(OWNERS);
+        if (!"none".equals(children)) {
+            Fixtures.insertItems(mInserted, OWNERS * childrenPerOwner, "indexed".equals(children));
+        }
+        mOperator = SQLiteOperator.from(Fixtures.getContext(), Owner.class);
+        mCounter = 0;
+    }
+
+    @Benchmark
+    @Warmup(iterations = 3, batchSize = OWNERS)
+    @Measurement(iterations = 10, batchSize = OWNERS)
+    public int delete() {
+        return mOperator.delete(mInserted.get(mCounter++)).executeBlocking();
+    }
+}
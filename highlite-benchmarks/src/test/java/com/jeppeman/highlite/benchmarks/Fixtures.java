@@ -0,0 +1,116 @@
+package com.jeppeman.highlite.benchmarks;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.jeppeman.highlite.SQLiteOperator;
+import com.jeppeman.highlite.benchmarks.table.BenchDatabase;
+import com.jeppeman.highlite.benchmarks.table.Item;
+import com.jeppeman.highlite.benchmarks.table.Owner;
+import com.jeppeman.highlite.benchmarks.table.UnindexedItem;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Creates the rows the benchmarks run against. Rows are written through the operator in a
+ * single transaction, so that setting up large tables does not dominate the benchmark run.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+
+    }
+
+    static Context getContext() {
+        return RuntimeEnvironment.application;
+    }
+
+    static SQLiteDatabase getWritableDatabase() {
+        return SQLiteOperator.getWritableDatabase(getContext(), BenchDatabase.class);
+    }
+
+    static void clear() {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.execSQL("DELETE FROM item;");
+        db.execSQL("DELETE FROM unindexed_item;");
+        db.execSQL("DELETE FROM owner;");
+    }
+
+    static Owner newOwner(final int i) {
+        final Owner owner = new Owner();
+        owner.name = "owner " + i;
+        owner.rank = i;
+        owner.created = new Date();
+        return owner;
+    }
+
+    static Item newItem(final Owner owner, final int i) {
+        final Item item = new Item();
+        item.label = "item " + i;
+        item.amount = i * 0.5;
+        item.owner = owner;
+        return item;
+    }
+
+    static UnindexedItem newUnindexedItem(final Owner owner, final int i) {
+        final UnindexedItem item = new UnindexedItem();
+        item.label = "item " + i;
+        item.amount = i * 0.5;
+        item.owner = owner;
+        return item;
+    }
+
+    static List<Owner> newOwners(final int count) {
+        final List<Owner> owners = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            owners.add(newOwner(i));
+        }
+        return owners;
+    }
+
+    static List<Owner> insertOwners(final int count) {
+        final List<Owner> owners = newOwners(count);
+        SQLiteOperator.inTransaction(getContext(), BenchDatabase.class, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return SQLiteOperator.from(getContext(), Owner.class)
+                        .save(owners)
+                        .executeBlocking();
+            }
+        });
+        return owners;
+    }
+
+    /**
+     * Inserts the given number of items, spread evenly over the given owners.
+     */
+    static void insertItems(final List<Owner> owners, final int count, final boolean indexed) {
+        SQLiteOperator.inTransaction(getContext(), BenchDatabase.class, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                if (indexed) {
+                    final List<Item> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        items.add(newItem(owners.get(i % owners.size()), i));
+                    }
+                    return SQLiteOperator.from(getContext(), Item.class)
+                            .save(items)
+                            .executeBlocking();
+                }
+
+                final List<UnindexedItem> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(newUnindexedItem(owners.get(i % owners.size()), i));
+                }
+                return SQLiteOperator.from(getContext(), UnindexedItem.class)
+                        .save(items)
+                        .executeBlocking();
+            }
+        });
+    }
+}
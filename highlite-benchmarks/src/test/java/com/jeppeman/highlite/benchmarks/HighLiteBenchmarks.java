@@ -0,0 +1,41 @@
+package com.jeppeman.highlite.benchmarks;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Runs the JMH benchmarks of this module. The benchmarks need Robolectric's application and
+ * SQLite, which only exist inside the sandbox of a Robolectric test, so JMH is run in-process
+ * from here rather than in forked JVMs. The GC profiler adds the allocation rate of every
+ * benchmark to its throughput.
+ *
+ * <pre>
+ * ./gradlew :highlite-benchmarks:testReleaseUnitTest -Pbenchmark -PbenchmarkInclude=QueryBenchmark
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HighLiteBenchmarks {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(System.getProperty("highlite.benchmark.include", ".*"))
+                .forks(0)
+                .threads(1)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("highlite.benchmark.result", "jmh-results.json"))
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,94 @@
+package com.jeppeman.highlite.benchmarks;
+
+import com.jeppeman.highlite.SQLiteOperator;
+import com.jeppeman.highlite.benchmarks.table.Item;
+import com.jeppeman.highlite.benchmarks.table.Owner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of single objects by id and of whole tables, with and without fetching foreign keys
+ * and relationships. The item table holds {@code rows} items, spread over {@code rows / 10}
+ * owners, so every owner has ten items in its relationship.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private SQLiteOperator<Owner> mOwners;
+    private SQLiteOperator<Item> mItems;
+    private List<Owner> mInserted;
+    private int mCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.clear();
+        mInserted = Fixtures.insertOwners(rows / 10);
+        Fixtures.insertItems(mInserted, rows, true);
+        mOwners = SQLiteOperator.from(Fixtures.getContext(), Owner.class);
+        mItems = SQLiteOperator.from(Fixtures.getContext(), Item.class);
+    }
+
+    @Benchmark
+    public Owner getSingleById() {
+        final Owner owner = mInserted.get(mCounter++ % mInserted.size());
+        return mOwners.getSingle(owner.id)
+                .fetchRelationships(false)
+                .executeBlocking();
+    }
+
+    @Benchmark
+    public Owner getSingleByIdWithRelationships() {
+        final Owner owner = mInserted.get(mCounter++ % mInserted.size());
+        return mOwners.getSingle(owner.id).executeBlocking();
+    }
+
+    @Benchmark
+    public List<Item> getList() {
+        return mItems.getList()
+                .fetchForeignKeys(false)
+                .executeBlocking();
+    }
+
+    @Benchmark
+    public List<Item> getListWithForeignKeys() {
+        return mItems.getList()
+                .fetchForeignKeys(true)
+                .fetchRelationships(false)
+                .executeBlocking();
+    }
+
+    @Benchmark
+    public List<Item> getListWithForeignKeysByJoin() {
+        return mItems.getList()
+                .fetchForeignKeysByJoin()
+                .fetchRelationships(false)
+                .executeBlocking();
+    }
+
+    @Benchmark
+    public List<Owner> getListWithRelationships() {
+        return mOwners.getList()
+                .fetchRelationships(true)
+                .executeBlocking();
+    }
+}
@@ -0,0 +1,67 @@
+package com.jeppeman.highlite.benchmarks;
+
+import com.jeppeman.highlite.SQLiteOperator;
+import com.jeppeman.highlite.benchmarks.table.BenchDatabase;
+import com.jeppeman.highlite.benchmarks.table.Owner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts of new objects, one at a time and in batches. Every iteration starts from empty
+ * tables so that the table size does not grow without bounds over the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SaveBenchmark {
+
+    @Param({"100"})
+    public int batchSize;
+
+    private SQLiteOperator<Owner> mOperator;
+    private int mCounter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Fixtures.clear();
+        mOperator = SQLiteOperator.from(Fixtures.getContext(), Owner.class);
+    }
+
+    @Benchmark
+    public int saveSingle() {
+        return mOperator.save(Fixtures.newOwner(mCounter++)).executeBlocking();
+    }
+
+    @Benchmark
+    public int saveBatch() {
+        return mOperator.save(Fixtures.newOwners(batchSize)).executeBlocking();
+    }
+
+    @Benchmark
+    public int saveBatchInTransaction() {
+        final List<Owner> owners = Fixtures.newOwners(batchSize);
+        return SQLiteOperator.inTransaction(Fixtures.getContext(), BenchDatabase.class,
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return mOperator.save(owners).executeBlocking();
+                    }
+                });
+    }
+}
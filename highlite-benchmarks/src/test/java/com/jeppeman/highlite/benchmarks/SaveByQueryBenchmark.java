@@ -0,0 +1,65 @@
+package com.jeppeman.highlite.benchmarks;
+
+import com.jeppeman.highlite.SQLiteOperator;
+import com.jeppeman.highlite.SQLiteQuery;
+import com.jeppeman.highlite.benchmarks.table.Owner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates by query, of a single row by its primary key and of a range of rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SaveByQueryBenchmark {
+
+    private static final int OWNERS = 1000;
+
+    private SQLiteOperator<Owner> mOperator;
+    private List<Owner> mInserted;
+    private int mCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.clear();
+        mInserted = Fixtures.insertOwners(OWNERS);
+        mOperator = SQLiteOperator.from(Fixtures.getContext(), Owner.class);
+    }
+
+    @Benchmark
+    public int saveByQuerySingleRow() {
+        final Owner owner = mInserted.get(mCounter % OWNERS);
+        return mOperator.save()
+                .withQuery(SQLiteQuery.builder()
+                        .set("rank", mCounter++)
+                        .where("`id` = ?", owner.id)
+                        .build())
+                .executeBlocking();
+    }
+
+    @Benchmark
+    public int saveByQueryRange() {
+        final Owner first = mInserted.get(0);
+        return mOperator.save()
+                .withQuery(SQLiteQuery.builder()
+                        .set("rank", mCounter++)
+                        .where("`id` BETWEEN ? AND ?", first.id, first.id + 99)
+                        .build())
+                .executeBlocking();
+    }
+}
@@ -0,0 +1,90 @@
+package com.jeppeman.highlite.benchmarks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.jeppeman.highlite.benchmarks.table.Bench_db_OpenHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upgrades through the generated helper. When the stored schema fingerprints match, an upgrade
+ * only reads them; when they are missing every table is inspected, but only tables whose columns
+ * have changed are rebuilt and their rows copied over, which the changed schema forces for the
+ * item table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpgradeBenchmark {
+
+    @Param({"1000"})
+    public int rows;
+
+    @Param({"stored", "missing", "changed"})
+    public String schema;
+
+    private Bench_db_OpenHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.clear();
+        Fixtures.insertItems(Fixtures.insertOwners(rows / 10), rows, true);
+        mHelper = Bench_db_OpenHelper.getInstance(Fixtures.getContext());
+        mDatabase = mHelper.getWritableDatabase();
+    }
+
+    @Setup(Level.Invocation)
+    public void forgetFingerprints() {
+        if ("stored".equals(schema)) return;
+
+        mDatabase.execSQL("DELETE FROM highlite_schema;");
+        if ("changed".equals(schema)) {
+            changeItemTable();
+        }
+    }
+
+    /**
+     * Changes the definition of a column of the item table, as an older version of the app could
+     * have created it, so that the upgrade has to rebuild the table.
+     */
+    private void changeItemTable() {
+        final Cursor cursor = mDatabase.rawQuery("SELECT `sql` FROM sqlite_master "
+                + "WHERE `type` = ? AND `name` = ?;", new String[]{"table", "item"});
+        final String create;
+        try {
+            cursor.moveToFirst();
+            create = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+
+        mDatabase.execSQL(create
+                .replace("CREATE TABLE item ", "CREATE TABLE item_changed ")
+                .replace("`label` TEXT", "`label` TEXT COLLATE NOCASE"));
+        mDatabase.execSQL("INSERT INTO item_changed SELECT * FROM item;");
+        mDatabase.execSQL("DROP TABLE item;");
+        mDatabase.execSQL("ALTER TABLE item_changed RENAME TO item;");
+    }
+
+    @Benchmark
+    public SQLiteDatabase upgrade() {
+        mHelper.onUpgrade(mDatabase, 1, 1);
+        return mDatabase;
+    }
+}
@@ -0,0 +1,10 @@
+package com.jeppeman.highlite.benchmarks.table;
+
+import com.jeppeman.highlite.SQLiteDatabaseDescriptor;
+
+@SQLiteDatabaseDescriptor(
+        dbName = "bench.db",
+        dbVersion = 1
+)
+public class BenchDatabase {
+}
@@ -0,0 +1,22 @@
+package com.jeppeman.highlite.benchmarks.table;
+
+import com.jeppeman.highlite.ForeignKey;
+import com.jeppeman.highlite.PrimaryKey;
+import com.jeppeman.highlite.SQLiteColumn;
+import com.jeppeman.highlite.SQLiteTable;
+
+@SQLiteTable(database = BenchDatabase.class)
+public class Item {
+
+    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))
+    public long id;
+
+    @SQLiteColumn
+    public String label;
+
+    @SQLiteColumn
+    public double amount;
+
+    @SQLiteColumn(foreignKey = @ForeignKey(fieldReference = "id", cascadeOnDelete = true))
+    public Owner owner;
+}
@@ -0,0 +1,28 @@
+package com.jeppeman.highlite.benchmarks.table;
+
+import com.jeppeman.highlite.PrimaryKey;
+import com.jeppeman.highlite.SQLiteColumn;
+import com.jeppeman.highlite.SQLiteRelationship;
+import com.jeppeman.highlite.SQLiteTable;
+
+import java.util.Date;
+import java.util.List;
+
+@SQLiteTable(database = BenchDatabase.class)
+public class Owner {
+
+    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))
+    public long id;
+
+    @SQLiteColumn
+    public String name;
+
+    @SQLiteColumn
+    public int rank;
+
+    @SQLiteColumn
+    public Date created;
+
+    @SQLiteRelationship(backReference = "owner")
+    public List<Item> items;
+}
@@ -0,0 +1,28 @@
+package com.jeppeman.highlite.benchmarks.table;
+
+import com.jeppeman.highlite.ForeignKey;
+import com.jeppeman.highlite.PrimaryKey;
+import com.jeppeman.highlite.SQLiteColumn;
+import com.jeppeman.highlite.SQLiteTable;
+
+/**
+ * Same as {@link Item}, but without an index on its foreign key column.
+ */
+@SQLiteTable(database = BenchDatabase.class)
+public class UnindexedItem {
+
+    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))
+    public long id;
+
+    @SQLiteColumn
+    public String label;
+
+    @SQLiteColumn
+    public double amount;
+
+    @SQLiteColumn(foreignKey = @ForeignKey(
+            fieldReference = "id",
+            cascadeOnDelete = true,
+            createIndex = false))
+    public Owner owner;
+}
@@ -0,0 +1,141 @@
+package com.jeppeman.highlite;
+
+import com.google.auto.service.AutoService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the DAO of every class annotated with {@link SQLiteTable}. A DAO is generated from
+ * its table alone, along with the types the table refers to, which makes this processor isolating
+ * for Gradle's incremental annotation processing: changing a table only regenerates its own DAO.
+ * Errors that concern more than one table, such as tables that are defined twice, are reported
+ * by the {@link HighLiteProcessor}. The mappers of classes annotated with {@link SQLiteProjection}
+ * are generated here as well, each from its projection and the table it refers to.
+ *
+ * @author jesper
+ */
+@AutoService(Processor.class)
+@SupportedSourceVersion(SourceVersion.RELEASE_7)
+public class HighLiteDAOProcessor extends AbstractProcessor {
+
+    private Messager mMessager;
+    private Elements mElementUtils;
+    private Types mTypeUtils;
+    private Filer mFiler;
+
+    @Override
+    public synchronized void init(final ProcessingEnvironment processingEnv) {
+        mElementUtils = processingEnv.getElementUtils();
+        mTypeUtils = processingEnv.getTypeUtils();
+        mFiler = processingEnv.getFiler();
+        mMessager = processingEnv.getMessager();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations,
+                           final RoundEnvironment roundEnv) {
+        final RoundMetadata metadata = new RoundMetadata(mTypeUtils);
+        for (final Element element : roundEnv.getElementsAnnotatedWith(SQLiteTable.class)) {
+            if (element.getModifiers().contains(Modifier.ABSTRACT)
+                    || element.getKind().equals(ElementKind.INTERFACE)) continue;
+
+            final SQLiteTable table = element.getAnnotation(SQLiteTable.class);
+
+            TypeMirror mirror = null;
+            try {
+                table.database();
+            } catch (MirroredTypeException e) {
+                mirror = e.getTypeMirror();
+            }
+
+            final Element databaseElement = mTypeUtils.asElement(mirror);
+            final SQLiteDatabaseDescriptor descriptor =
+                    databaseElement.getAnnotation(SQLiteDatabaseDescriptor.class);
+            if (descriptor == null || !hasValidColumns(element, metadata)) continue;
+
+            final String packageName = mElementUtils
+                    .getPackageOf(databaseElement)
+                    .getQualifiedName()
+                    .toString();
+
+            try {
+                new SQLiteDAOClass(packageName, descriptor.dbName(), table, element, metadata,
+                        mElementUtils, mTypeUtils).writeJava().writeTo(mFiler);
+            } catch (IOException e) {
+                error(element, "Unable to generate DAO file for %s: %s",
+                        element.asType().toString(), e.getMessage());
+            } catch (ProcessingException e) {
+                error(e.getElement(), "Unable to generate DAO file for %s: %s",
+                        element.asType().toString(), e.getMessage());
+            }
+        }
+
+        for (final Element element : roundEnv.getElementsAnnotatedWith(SQLiteProjection.class)) {
+            try {
+                new SQLiteProjectionClass(element, metadata, mElementUtils, mTypeUtils)
+                        .writeJava()
+                        .writeTo(mFiler);
+            } catch (IOException e) {
+                error(element, "Unable to generate projection file for %s: %s",
+                        element.asType().toString(), e.getMessage());
+            } catch (ProcessingException e) {
+                error(e.getElement(), "Unable to generate projection file for %s: %s",
+                        element.asType().toString(), e.getMessage());
+            }
+        }
+
+        // The tables are processed by the HighLiteProcessor as well, so they are not claimed
+        return false;
+    }
+
+    /**
+     * Columns that are both primary and foreign keys are reported by the {@link HighLiteProcessor},
+     * no DAO is generated for their tables.
+     */
+    private boolean hasValidColumns(final Element element, final RoundMetadata metadata) {
+        for (final Element enclosed : metadata.getFields(element)) {
+            final SQLiteColumn field = metadata.getColumn(enclosed);
+            if (field != null && field.primaryKey().enabled() && field.foreignKey().enabled()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(
+                SQLiteTable.class.getCanonicalName(),
+                SQLiteProjection.class.getCanonicalName()));
+    }
+
+    private void error(Element element, String message, Object... args) {
+        if (args.length > 0) {
+            message = String.format(message, args);
+        }
+
+        mMessager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
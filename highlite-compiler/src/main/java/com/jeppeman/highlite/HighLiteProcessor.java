@@ -3,6 +3,7 @@ package com.jeppeman.highlite;
 import com.google.auto.service.AutoService;
 import com.squareup.javapoet.JavaFile;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.util.AbstractMap;
@@ -32,16 +33,30 @@ import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 
 /**
+ * Generates the {@code SQLiteOpenHelper} of every class annotated with
+ * {@link SQLiteDatabaseDescriptor}. A helper is generated from all tables of its database, which
+ * makes this processor aggregating for Gradle's incremental annotation processing, unless the
+ * schemas are exported. The exported schemas are read and written outside of the {@link Filer},
+ * which Gradle can not track, so the processor is not incremental then. The DAOs of
+ * the tables are generated by the isolating {@link HighLiteDAOProcessor}. The implementations of
+ * interfaces annotated with {@link SQLiteQueries} are generated here as well, since their queries
+ * are checked against all tables of their databases.
+ *
  * @author jesper
  */
 @AutoService(Processor.class)
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 public class HighLiteProcessor extends AbstractProcessor {
 
+    private static final String OPTION_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
     private Messager mMessager;
     private Elements mElementUtils;
     private Types mTypeUtils;
     private Filer mFiler;
+    private File mSchemaLocation;
+    private AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>, Boolean>
+            mTablesByDatabase;
 
     @Override
     public synchronized void init(final ProcessingEnvironment processingEnv) {
@@ -49,19 +64,34 @@ public class HighLiteProcessor extends AbstractProcessor {
         mTypeUtils = processingEnv.getTypeUtils();
         mFiler = processingEnv.getFiler();
         mMessager = processingEnv.getMessager();
+
+        final String schemaLocation = processingEnv.getOptions()
+                .get(SchemaSnapshot.OPTION_SCHEMA_LOCATION);
+        mSchemaLocation = schemaLocation != null && !schemaLocation.isEmpty()
+                ? new File(schemaLocation)
+                : null;
     }
 
     @Override
     public boolean process(final Set<? extends TypeElement> annotations,
                            final RoundEnvironment roundEnv) {
+        final RoundMetadata metadata = new RoundMetadata(mTypeUtils);
+        mTablesByDatabase = null;
+        generateHelpers(roundEnv, metadata);
+        generateQueries(roundEnv, metadata);
+
+        // The tables are processed by the HighLiteDAOProcessor as well, so they are not claimed
+        return false;
+    }
 
+    private void generateHelpers(final RoundEnvironment roundEnv, final RoundMetadata metadata) {
         for (final Element element : roundEnv.getElementsAnnotatedWith(SQLiteColumn.class)) {
             final SQLiteColumn field = element.getAnnotation(SQLiteColumn.class);
             if (field.primaryKey().enabled() && field.foreignKey().enabled()) {
                 error(element, String.format("%s can't have both %s and %s set to enabled",
                         SQLiteColumn.class.getCanonicalName(), PrimaryKey.class.getCanonicalName(),
                         ForeignKey.class.getCanonicalName()));
-                return true;
+                return;
             }
 
             final SQLiteRelationship relationship = element.getAnnotation(SQLiteRelationship.class);
@@ -72,11 +102,19 @@ public class HighLiteProcessor extends AbstractProcessor {
             }
         }
 
+        final Set<? extends Element> databaseElements =
+                roundEnv.getElementsAnnotatedWith(SQLiteDatabaseDescriptor.class);
+        if (databaseElements.isEmpty()) return;
+
+        final AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>, Boolean>
+                tablesByDatabase = getTableElementMappingByDatabase(roundEnv);
+        if (tablesByDatabase.getValue()) {
+            return;
+        }
+
         final List<String> databases = new ArrayList<>();
-        final Map<Element, JavaFile> helperFiles = new LinkedHashMap<>(),
-                daoFiles = new LinkedHashMap<>();
-        for (final Element element
-                : roundEnv.getElementsAnnotatedWith(SQLiteDatabaseDescriptor.class)) {
+        final Map<Element, JavaFile> helperFiles = new LinkedHashMap<>();
+        for (final Element element : databaseElements) {
 
             final SQLiteDatabaseDescriptor descriptor =
                     element.getAnnotation(SQLiteDatabaseDescriptor.class);
@@ -84,15 +122,15 @@ public class HighLiteProcessor extends AbstractProcessor {
             if (databases.contains(descriptor.dbName())) {
                 error(element, "The database " + descriptor.dbName() + " has already "
                         + "been defined");
-                return true;
+                return;
             } else {
                 databases.add(descriptor.dbName());
             }
 
-            final AbstractMap.SimpleEntry<Map<Element, SQLiteTable>, Boolean> tablesForDatabase =
-                    getTableElementMappingForDatabase(roundEnv, element);
-            if (tablesForDatabase.getValue()) {
-                return true;
+            Map<Element, SQLiteTable> tablesForDatabase = tablesByDatabase.getKey()
+                    .get(element.asType().toString());
+            if (tablesForDatabase == null) {
+                tablesForDatabase = new LinkedHashMap<>();
             }
 
             final String packageName = mElementUtils
@@ -100,15 +138,14 @@ public class HighLiteProcessor extends AbstractProcessor {
                     .getQualifiedName()
                     .toString();
 
-            helperFiles.put(element, new SQLiteOpenHelperClass(element, packageName,
-                    descriptor.dbName(),
-                    tablesForDatabase.getKey(), descriptor.dbVersion(), mElementUtils,
-                    mTypeUtils).writeJava());
-
-            for (final Map.Entry<Element, SQLiteTable> entry
-                    : tablesForDatabase.getKey().entrySet()) {
-                daoFiles.put(entry.getKey(), new SQLiteDAOClass(packageName, descriptor.dbName(),
-                        entry.getValue(), entry.getKey(), mElementUtils, mTypeUtils).writeJava());
+            try {
+                helperFiles.put(element, new SQLiteOpenHelperClass(element, packageName,
+                        descriptor.dbName(), tablesForDatabase, descriptor.dbVersion(),
+                        mSchemaLocation, metadata, mElementUtils, mTypeUtils).writeJava());
+            } catch (ProcessingException e) {
+                error(e.getElement(), "Unable to generate helper file for %s: %s",
+                        element.asType().toString(), e.getMessage());
+                return;
             }
         }
 
@@ -118,41 +155,86 @@ public class HighLiteProcessor extends AbstractProcessor {
             } catch (IOException e) {
                 error(helperFile.getKey(), "Unable to generate helper file for %s: %s",
                         helperFile.getKey().asType().toString(), e.getMessage());
-                return true;
+                return;
             } catch (ProcessingException e) {
                 error(e.getElement(), "Unable to generate helper file for %s: %s",
                         helperFile.getKey().asType().toString(), e.getMessage());
-                return true;
+                return;
             }
         }
+    }
+
+    private void generateQueries(final RoundEnvironment roundEnv, final RoundMetadata metadata) {
+        final Set<? extends Element> queriesElements =
+                roundEnv.getElementsAnnotatedWith(SQLiteQueries.class);
+        if (queriesElements.isEmpty()) return;
+
+        final AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>, Boolean>
+                tablesByDatabase = getTableElementMappingByDatabase(roundEnv);
+        if (tablesByDatabase.getValue()) {
+            return;
+        }
+
+        for (final Element element : queriesElements) {
+            TypeMirror mirror = null;
+            try {
+                element.getAnnotation(SQLiteQueries.class).database();
+            } catch (MirroredTypeException e) {
+                mirror = e.getTypeMirror();
+            }
+
+            final Element databaseElement = mTypeUtils.asElement(mirror);
+            final SQLiteDatabaseDescriptor descriptor =
+                    databaseElement.getAnnotation(SQLiteDatabaseDescriptor.class);
+            if (descriptor == null) {
+                error(element, String.format("The database class must be annotated with %s",
+                        SQLiteDatabaseDescriptor.class.getCanonicalName()));
+                continue;
+            }
+
+            Map<Element, SQLiteTable> tablesForDatabase = tablesByDatabase.getKey()
+                    .get(mirror.toString());
+            if (tablesForDatabase == null) {
+                tablesForDatabase = new LinkedHashMap<>();
+            }
 
-        for (final Map.Entry<Element, JavaFile> daoFile : daoFiles.entrySet()) {
             try {
-                daoFile.getValue().writeTo(mFiler);
+                new SQLiteQueriesClass(element, databaseElement, descriptor.dbName(),
+                        tablesForDatabase, metadata, mElementUtils, mTypeUtils).writeJava()
+                        .writeTo(mFiler);
             } catch (IOException e) {
-                error(daoFile.getKey(), "Unable to generate DAO file for %s: %s",
-                        daoFile.getKey().asType().toString(), e.getMessage());
-                return true;
+                error(element, "Unable to generate queries file for %s: %s",
+                        element.asType().toString(), e.getMessage());
             } catch (ProcessingException e) {
-                error(e.getElement(), "Unable to generate DAO file for %s: %s",
-                        daoFile.getKey().asType().toString(), e.getMessage());
-                return true;
+                error(e.getElement(), "Unable to generate queries file for %s: %s",
+                        element.asType().toString(), e.getMessage());
             }
         }
+    }
 
+    /**
+     * Maps every table to the database it belongs to in a single pass over the tables of the
+     * round, keyed by the qualified name of the database class. The mapping is made once per
+     * round, for both the helpers and the queries.
+     */
+    private AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>,
+            Boolean> getTableElementMappingByDatabase(
+            final RoundEnvironment roundEnvironment) {
+        if (mTablesByDatabase == null) {
+            mTablesByDatabase = mapTablesByDatabase(roundEnvironment);
+        }
 
-        return true;
+        return mTablesByDatabase;
     }
 
-    private AbstractMap.SimpleEntry<Map<Element, SQLiteTable>,
-            Boolean> getTableElementMappingForDatabase(
-            final RoundEnvironment roundEnvironment,
-            final Element databaseElement) {
-        final AbstractMap.SimpleEntry<Map<Element, SQLiteTable>, Boolean> ret =
-                new AbstractMap.SimpleEntry<Map<Element, SQLiteTable>, Boolean>(
-                        new LinkedHashMap<Element, SQLiteTable>(), false);
+    private AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>,
+            Boolean> mapTablesByDatabase(
+            final RoundEnvironment roundEnvironment) {
+        final AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>, Boolean> ret =
+                new AbstractMap.SimpleEntry<Map<String, Map<Element, SQLiteTable>>, Boolean>(
+                        new LinkedHashMap<String, Map<Element, SQLiteTable>>(), false);
 
-        final List<String> tableNamesAdded = new ArrayList<>();
+        final Map<String, Set<String>> tableNamesAdded = new LinkedHashMap<>();
         for (final Element element : roundEnvironment.getElementsAnnotatedWith(SQLiteTable.class)) {
             if (element.getModifiers().contains(Modifier.ABSTRACT)
                     || element.getKind().equals(ElementKind.INTERFACE)) continue;
@@ -175,24 +257,41 @@ public class HighLiteProcessor extends AbstractProcessor {
                 return ret;
             }
 
-            final String tableName = JavaWritableClass.getTableName(element);
-
-            if (mTypeUtils.isSameType(mirror, databaseElement.asType())) {
-                if (tableNamesAdded.contains(tableName)) {
-                    error(element, String.format("The table %s was already defined for database %s",
-                            tableName, dbAnno.dbName()));
-                    ret.setValue(true);
-                    return ret;
-                }
+            final String databaseName = mirror.toString();
+            Map<Element, SQLiteTable> tables = ret.getKey().get(databaseName);
+            Set<String> tableNames = tableNamesAdded.get(databaseName);
+            if (tables == null) {
+                tables = new LinkedHashMap<>();
+                tableNames = new LinkedHashSet<>();
+                ret.getKey().put(databaseName, tables);
+                tableNamesAdded.put(databaseName, tableNames);
+            }
 
-                tableNamesAdded.add(tableName);
-                ret.getKey().put(element, tableAnno);
+            final String tableName = JavaWritableClass.getTableName(element);
+            if (!tableNames.add(tableName)) {
+                error(element, String.format("The table %s was already defined for database %s",
+                        tableName, dbAnno.dbName()));
+                ret.setValue(true);
+                return ret;
             }
+
+            tables.put(element, tableAnno);
         }
 
         return ret;
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        final Set<String> options = new LinkedHashSet<>();
+        options.add(SchemaSnapshot.OPTION_SCHEMA_LOCATION);
+        if (mSchemaLocation == null) {
+            options.add(OPTION_AGGREGATING);
+        }
+
+        return options;
+    }
+
     @Override
     public Set<String> getSupportedAnnotationTypes() {
         final Set<String> types = new LinkedHashSet<>();
@@ -214,6 +313,8 @@ public class HighLiteProcessor extends AbstractProcessor {
         annotations.add(OnUpgrade.class);
         annotations.add(OnOpen.class);
         annotations.add(SQLiteRelationship.class);
+        annotations.add(SQLiteQueries.class);
+        annotations.add(SQLiteQueryMethod.class);
 
         return annotations;
     }
@@ -2,7 +2,6 @@ package com.jeppeman.highlite;
 
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
-import com.squareup.javapoet.TypeName;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -11,15 +10,17 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -39,9 +40,11 @@ abstract class JavaWritableClass {
     static final ClassName OBJECT_OS = ClassName.get(ObjectOutputStream.class);
     static final ClassName OBJECT_IS = ClassName.get(ObjectInputStream.class);
     static final ClassName STRING = ClassName.get(String.class);
+    static final ClassName INTEGER = ClassName.get(Integer.class);
     static final ClassName DATE = ClassName.get(Date.class);
     static final ClassName STRING_BUILDER = ClassName.get(StringBuilder.class);
     static final ClassName LIST = ClassName.get(List.class);
+    static final ClassName COLLECTION = ClassName.get(Collection.class);
     static final ClassName MAP = ClassName.get(Map.class);
     static final ClassName MAP_ENTRY = ClassName.get(Map.Entry.class);
     static final ClassName HASHMAP = ClassName.get(HashMap.class);
@@ -54,6 +57,7 @@ abstract class JavaWritableClass {
     static final ClassName HANDLER = ClassName.get("android.os", "Handler");
     static final ClassName HANDLER_THREAD = ClassName.get("android.os", "HandlerThread");
     static final ClassName CONTEXT = ClassName.get("android.content", "Context");
+    static final ClassName LOG = ClassName.get("android.util", "Log");
     static final ClassName CURSOR = ClassName.get("android.database", "Cursor");
     static final ClassName CONTENT_VALUES = ClassName.get("android.content",
             "ContentValues");
@@ -63,10 +67,27 @@ abstract class JavaWritableClass {
     static final ClassName HIGHLITE_OPEN_HELPER = ClassName.get("com.jeppeman.highlite",
             "HighLiteOpenHelper");
     static final ClassName SQLITE_QUERY = ClassName.get("com.jeppeman.highlite", "SQLiteQuery");
+    static final ClassName FETCH_PLAN = ClassName.get("com.jeppeman.highlite", "FetchPlan");
+    static final ClassName BACKGROUND_MIGRATION = ClassName.get("com.jeppeman.highlite",
+            "BackgroundMigration");
+    static final ClassName DATABASE_CALLS = ClassName.get("com.jeppeman.highlite",
+            "DatabaseCalls");
+    static final ClassName HIGHLITE_TRACER = ClassName.get("com.jeppeman.highlite",
+            "HighLiteTracer");
+    static final ClassName TRACER_SPAN = HIGHLITE_TRACER.nestedClass("Span");
+    static final ClassName ENTITY_SNAPSHOT = ClassName.get("com.jeppeman.highlite",
+            "EntitySnapshot");
+    static final ClassName ENTITY_SNAPSHOT_STORE = ENTITY_SNAPSHOT.nestedClass("Store");
     static final ClassName SQLITE_DATABASE = ClassName.get("android.database.sqlite",
             "SQLiteDatabase");
     static final ClassName SQLITE_OPEN_HELPER = ClassName.get("android.database.sqlite",
             "SQLiteOpenHelper");
+    static final ClassName SQLITE_CONSTRAINT_EXCEPTION = ClassName.get("android.database.sqlite",
+            "SQLiteConstraintException");
+    static final ClassName SQLITE_EXCEPTION = ClassName.get("android.database.sqlite",
+            "SQLiteException");
+    static final ClassName PATTERN = ClassName.get(Pattern.class);
+    static final ClassName MATCHER = ClassName.get(Matcher.class);
     static final ClassName CLASS_NOT_FOUND_EXCEPTION =
             ClassName.get(ClassNotFoundException.class);
 
@@ -96,6 +117,7 @@ abstract class JavaWritableClass {
     }
 
     Types mTypeUtils;
+    RoundMetadata mMetadata;
 
     static String getClassName(TypeElement type, String packageName) {
         int packageLen = packageName.length() + 1;
@@ -113,6 +135,21 @@ abstract class JavaWritableClass {
                 : table.tableName();
     }
 
+    /**
+     * @param element a type element, possibly nested
+     * @return the top level type that the element is declared in, used as the originating element
+     * of the files generated from it, as required by Gradle's incremental annotation processing
+     */
+    static Element getTopLevelElement(final Element element) {
+        Element topLevel = element;
+        while (topLevel.getEnclosingElement() != null
+                && topLevel.getEnclosingElement().getKind() != ElementKind.PACKAGE) {
+            topLevel = topLevel.getEnclosingElement();
+        }
+
+        return topLevel;
+    }
+
     Element findTableElementFromChild(final Element root, final Element child) {
         return findTableElementFromChild(root, child, root);
     }
@@ -169,90 +206,28 @@ abstract class JavaWritableClass {
         return currentTableName;
     }
 
-    private List<Element> getFields(final Element element,
-                                    final List<Element> current,
-                                    final String tableName,
-                                    final boolean onlySearchPrimaryKey) {
-        for (final Element enclosed : element.getEnclosedElements()) {
-            final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
-            final SQLiteRelationship rel = enclosed.getAnnotation(SQLiteRelationship.class);
-            if (enclosed.getKind() != ElementKind.FIELD
-                    || (field == null && rel == null)
-                    || (onlySearchPrimaryKey
-                    && (field == null
-                    || !field.primaryKey().enabled()))) continue;
-
-            current.add(enclosed);
-        }
-
-        for (final TypeMirror superType : mTypeUtils.directSupertypes(element.asType())) {
-            final DeclaredType declared = (DeclaredType) superType;
-            if (declared == null) continue;
-
-            final Element superElement = declared.asElement();
-            if (superElement.getKind().equals(ElementKind.INTERFACE)) continue;
-
-            final SQLiteTable superTable = superElement.getAnnotation(SQLiteTable.class);
-            if (superTable != null
-                    && !getTableName(superElement).equals(tableName)) {
-                current.addAll(getFields(declared.asElement(), new ArrayList<Element>(),
-                        tableName, true));
-                continue;
-            }
-
-            current.addAll(getFields(declared.asElement(), new ArrayList<Element>(), tableName,
-                    false));
-        }
+    SQLiteColumn getColumn(final Element element) {
+        return mMetadata.getColumn(element);
+    }
 
-        return current;
+    SQLiteRelationship getRelationship(final Element element) {
+        return mMetadata.getRelationship(element);
     }
 
     List<Element> getFields(final Element element) {
-        return getFields(element, new ArrayList<Element>(), getTableName(element), false);
+        return mMetadata.getFields(element);
     }
 
     List<Element> getFieldsAndSuperFields(final Element element) {
-        return getFields(element, new ArrayList<Element>(), getTableName(element), false);
+        return mMetadata.getFields(element);
     }
 
     Map<Element, List<Element>> getTypeFieldMap(final Element element) {
-        final Map<Element, List<Element>> ret = new LinkedHashMap<>();
-        final Stack<Element> typeStack = new Stack<>();
-        typeStack.push(element);
-
-        Element currSuperType = element;
-        while (currSuperType != null
-                && !ClassName.get(currSuperType.asType()).equals(TypeName.OBJECT)) {
-            boolean found = false;
-            for (final TypeMirror superType : mTypeUtils.directSupertypes(currSuperType.asType())) {
-                final DeclaredType declared = (DeclaredType) superType;
-                if (declared == null) continue;
-
-                currSuperType = declared.asElement();
-                if (ClassName.get(currSuperType.asType()).equals(TypeName.OBJECT)
-                        || currSuperType.getAnnotation(SQLiteTable.class) == null) break;
-                if (!currSuperType.getKind().equals(ElementKind.CLASS)) continue;
-
-                typeStack.push(currSuperType);
-                found = true;
-                break;
-            }
-
-            if (found) continue;
-
-            currSuperType = null;
-        }
-
-        while (!typeStack.empty()) {
-            final Element typeElem = typeStack.pop();
-            ret.put(typeElem, getFields(typeElem));
-        }
-
-        return ret;
+        return mMetadata.getTypeFieldMap(element);
     }
 
     String getDBFieldName(final Element element, final String activeTableName) {
-        final SQLiteColumn field = element.getAnnotation(SQLiteColumn.class);
+        final SQLiteColumn field = getColumn(element);
         final String tableName = element.getEnclosingElement()
                 .getAnnotation(SQLiteTable.class) == null
                 ? null
@@ -290,7 +265,7 @@ abstract class JavaWritableClass {
                 final Element foreignRefElem = findForeignKeyReferencedField(element,
                         field.foreignKey());
                 return getFieldType(foreignRefElem,
-                        foreignRefElem.getAnnotation(SQLiteColumn.class));
+                        getColumn(foreignRefElem));
             }
             return field.columnType() != SQLiteColumnType.UNSPECIFIED
                     ? field.columnType().toString()
@@ -302,32 +277,7 @@ abstract class JavaWritableClass {
 
     Element findForeignKeyReferencedField(final Element enclosed,
                                           final ForeignKey foreignKey) {
-        Element fieldRefElement = null;
-        Element tableElem = mTypeUtils.asElement(enclosed.asType());
-        for (final Element enc : getFields(tableElem)) {
-            if (!enc.getSimpleName().toString().equals(foreignKey.fieldReference())) {
-                continue;
-            }
-
-            final SQLiteColumn field = enc.getAnnotation(SQLiteColumn.class);
-            if (field == null || (!field.primaryKey().enabled() && !field.unique())) {
-                throw new ProcessingException(enclosed,
-                        String.format("Field %s in class %s needs to be declared as primary key or "
-                                + "unique with @SQLiteColumn to be referenced in "
-                                + "@ForeignKey", enc.toString(), tableElem.toString()));
-            }
-
-            fieldRefElement = enc;
-            break;
-        }
-
-        if (fieldRefElement == null) {
-            throw new ProcessingException(enclosed,
-                    String.format("Field %s in class %s does not exist",
-                            foreignKey.fieldReference(), tableElem.toString()));
-        }
-
-        return fieldRefElement;
+        return mMetadata.findForeignKeyReferencedField(enclosed, foreignKey);
     }
 
     SQLiteTable getForeignKeyReferencedTable(final Element foreignKeyElement) {
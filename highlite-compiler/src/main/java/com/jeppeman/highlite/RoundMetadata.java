@@ -0,0 +1,238 @@
+package com.jeppeman.highlite;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+/**
+ * Metadata of the tables processed in a round, shared by all generators of the round. The fields
+ * of a table, its type hierarchy, its primary key, the fields referenced by its foreign keys and
+ * the annotations of its fields are looked up many times while generating the helper and the
+ * DAOs, so they are computed once per element and kept until the round is over. Annotations are
+ * kept as well since javac builds a new proxy for every {@link Element#getAnnotation} call.
+ *
+ * @author jesper
+ */
+final class RoundMetadata {
+
+    private final Types mTypeUtils;
+    private final Map<Element, SQLiteColumn> mColumns = new HashMap<>();
+    private final Map<Element, SQLiteRelationship> mRelationships = new HashMap<>();
+    private final Map<Element, List<Element>> mFields = new HashMap<>();
+    private final Map<Element, Map<Element, List<Element>>> mTypeFieldMaps = new HashMap<>();
+    private final Map<Element, Element> mPrimaryKeyFields = new HashMap<>();
+    private final Map<Element, Element> mForeignKeyReferencedFields = new HashMap<>();
+
+    RoundMetadata(final Types typeUtils) {
+        mTypeUtils = typeUtils;
+    }
+
+    /**
+     * @param element the field
+     * @return the {@link SQLiteColumn} annotation of the field, or null if it has none
+     */
+    SQLiteColumn getColumn(final Element element) {
+        if (mColumns.containsKey(element)) {
+            return mColumns.get(element);
+        }
+
+        final SQLiteColumn column = element.getAnnotation(SQLiteColumn.class);
+        mColumns.put(element, column);
+        return column;
+    }
+
+    /**
+     * @param element the field
+     * @return the {@link SQLiteRelationship} annotation of the field, or null if it has none
+     */
+    SQLiteRelationship getRelationship(final Element element) {
+        if (mRelationships.containsKey(element)) {
+            return mRelationships.get(element);
+        }
+
+        final SQLiteRelationship relationship = element.getAnnotation(SQLiteRelationship.class);
+        mRelationships.put(element, relationship);
+        return relationship;
+    }
+
+    /**
+     * @param element the table element
+     * @return the fields annotated with {@link SQLiteColumn} or {@link SQLiteRelationship} of the
+     * element and its super classes, only the primary keys of super classes that are tables of
+     * their own
+     */
+    List<Element> getFields(final Element element) {
+        List<Element> fields = mFields.get(element);
+        if (fields == null) {
+            fields = Collections.unmodifiableList(getFields(element, new ArrayList<Element>(),
+                    JavaWritableClass.getTableName(element), false));
+            mFields.put(element, fields);
+        }
+
+        return fields;
+    }
+
+    private List<Element> getFields(final Element element,
+                                    final List<Element> current,
+                                    final String tableName,
+                                    final boolean onlySearchPrimaryKey) {
+        for (final Element enclosed : element.getEnclosedElements()) {
+            final SQLiteColumn field = getColumn(enclosed);
+            final SQLiteRelationship rel = getRelationship(enclosed);
+            if (enclosed.getKind() != ElementKind.FIELD
+                    || (field == null && rel == null)
+                    || (onlySearchPrimaryKey
+                    && (field == null
+                    || !field.primaryKey().enabled()))) continue;
+
+            current.add(enclosed);
+        }
+
+        for (final TypeMirror superType : mTypeUtils.directSupertypes(element.asType())) {
+            final DeclaredType declared = (DeclaredType) superType;
+            if (declared == null) continue;
+
+            final Element superElement = declared.asElement();
+            if (superElement.getKind().equals(ElementKind.INTERFACE)) continue;
+
+            final SQLiteTable superTable = superElement.getAnnotation(SQLiteTable.class);
+            if (superTable != null
+                    && !JavaWritableClass.getTableName(superElement).equals(tableName)) {
+                current.addAll(getFields(declared.asElement(), new ArrayList<Element>(),
+                        tableName, true));
+                continue;
+            }
+
+            current.addAll(getFields(declared.asElement(), new ArrayList<Element>(), tableName,
+                    false));
+        }
+
+        return current;
+    }
+
+    /**
+     * @param element the table element
+     * @return the element and its super classes that are tables, from the top of the hierarchy
+     * down, mapped to their fields
+     */
+    Map<Element, List<Element>> getTypeFieldMap(final Element element) {
+        Map<Element, List<Element>> typeFieldMap = mTypeFieldMaps.get(element);
+        if (typeFieldMap == null) {
+            typeFieldMap = Collections.unmodifiableMap(buildTypeFieldMap(element));
+            mTypeFieldMaps.put(element, typeFieldMap);
+        }
+
+        return typeFieldMap;
+    }
+
+    private Map<Element, List<Element>> buildTypeFieldMap(final Element element) {
+        final Map<Element, List<Element>> ret = new LinkedHashMap<>();
+        final Stack<Element> typeStack = new Stack<>();
+        typeStack.push(element);
+
+        Element currSuperType = element;
+        while (currSuperType != null
+                && !ClassName.get(currSuperType.asType()).equals(TypeName.OBJECT)) {
+            boolean found = false;
+            for (final TypeMirror superType : mTypeUtils.directSupertypes(currSuperType.asType())) {
+                final DeclaredType declared = (DeclaredType) superType;
+                if (declared == null) continue;
+
+                currSuperType = declared.asElement();
+                if (ClassName.get(currSuperType.asType()).equals(TypeName.OBJECT)
+                        || currSuperType.getAnnotation(SQLiteTable.class) == null) break;
+                if (!currSuperType.getKind().equals(ElementKind.CLASS)) continue;
+
+                typeStack.push(currSuperType);
+                found = true;
+                break;
+            }
+
+            if (found) continue;
+
+            currSuperType = null;
+        }
+
+        while (!typeStack.empty()) {
+            final Element typeElem = typeStack.pop();
+            ret.put(typeElem, getFields(typeElem));
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param element the table element
+     * @return the primary key field of the element, or null if it has none
+     */
+    Element getPrimaryKeyField(final Element element) {
+        if (mPrimaryKeyFields.containsKey(element)) {
+            return mPrimaryKeyFields.get(element);
+        }
+
+        Element primaryKeyField = null;
+        for (final Element enclosed : getFields(element)) {
+            final SQLiteColumn field = getColumn(enclosed);
+            if (field != null && field.primaryKey().enabled()) {
+                primaryKeyField = enclosed;
+                break;
+            }
+        }
+
+        mPrimaryKeyFields.put(element, primaryKeyField);
+        return primaryKeyField;
+    }
+
+    /**
+     * @param enclosed   the foreign key field
+     * @param foreignKey the foreign key of the field
+     * @return the field that the foreign key refers to
+     * @throws ProcessingException if the referenced field does not exist or is neither a primary
+     *                             key nor unique
+     */
+    Element findForeignKeyReferencedField(final Element enclosed,
+                                          final ForeignKey foreignKey) {
+        Element fieldRefElement = mForeignKeyReferencedFields.get(enclosed);
+        if (fieldRefElement != null) return fieldRefElement;
+
+        final Element tableElem = mTypeUtils.asElement(enclosed.asType());
+        for (final Element enc : getFields(tableElem)) {
+            if (!enc.getSimpleName().toString().equals(foreignKey.fieldReference())) {
+                continue;
+            }
+
+            final SQLiteColumn field = getColumn(enc);
+            if (field == null || (!field.primaryKey().enabled() && !field.unique())) {
+                throw new ProcessingException(enclosed,
+                        String.format("Field %s in class %s needs to be declared as primary key or "
+                                + "unique with @SQLiteColumn to be referenced in "
+                                + "@ForeignKey", enc.toString(), tableElem.toString()));
+            }
+
+            fieldRefElement = enc;
+            break;
+        }
+
+        if (fieldRefElement == null) {
+            throw new ProcessingException(enclosed,
+                    String.format("Field %s in class %s does not exist",
+                            foreignKey.fieldReference(), tableElem.toString()));
+        }
+
+        mForeignKeyReferencedFields.put(enclosed, fieldRefElement);
+        return fieldRefElement;
+    }
+}
@@ -9,12 +9,15 @@ import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
@@ -36,6 +39,9 @@ final class SQLiteDAOClass extends JavaWritableClass {
 
     private static final String INSTANCE_CACHE_VAR_NAME = "INSTANCE_CACHE";
     private static final String COLUMN_FIELD_MAP_VAR_NAME = "COLUMN_FIELD_MAP";
+    private static final String FIELD_SELECTION_MAP_VAR_NAME = "FIELD_SELECTION_MAP";
+    private static final String SNAPSHOTS_VAR_NAME = "SNAPSHOTS";
+    private static final String MAX_SQL_VARIABLES_VAR_NAME = "MAX_SQL_VARIABLES";
 
     private final String mHelperPackage;
     private final String mDatabaseName;
@@ -47,12 +53,14 @@ final class SQLiteDAOClass extends JavaWritableClass {
                    final String databaseName,
                    final SQLiteTable table,
                    final Element element,
+                   final RoundMetadata metadata,
                    final Elements elementUtils,
                    final Types typeUtils) {
         mHelperPackage = helperPackage;
         mDatabaseName = databaseName;
         mTable = table;
         mElement = element;
+        mMetadata = metadata;
         mElementUtils = elementUtils;
         mTypeUtils = typeUtils;
     }
@@ -72,6 +80,12 @@ final class SQLiteDAOClass extends JavaWritableClass {
         return ClassName.get((TypeElement) mElement);
     }
 
+    private ClassName getDAOClassName() {
+        return ClassName.bestGuess(getPackageName()
+                + "."
+                + getClassName((TypeElement) mElement, getPackageName()) + "_DAO");
+    }
+
     private ClassName getHelperClassName() {
         return ClassName.get(mHelperPackage,
                 (String.valueOf(mDatabaseName.charAt(0)).toUpperCase()
@@ -79,13 +93,8 @@ final class SQLiteDAOClass extends JavaWritableClass {
     }
 
     private Element getPrimaryKeyField(final Element enclosing) {
-        for (final Element enclosed : getFields(enclosing)) {
-            final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
-            if (field == null) continue;
-
-            final PrimaryKey pk = field.primaryKey();
-            if (pk.enabled()) return enclosed;
-        }
+        final Element primaryKeyField = mMetadata.getPrimaryKeyField(enclosing);
+        if (primaryKeyField != null) return primaryKeyField;
 
         throw new ProcessingException(mElement, String.format("No primary key field defined for %s",
                 mElement.getSimpleName()));
@@ -103,7 +112,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
         for (final Map.Entry<Element, List<Element>> typeFieldsEntry
                 : getTypeFieldMap(mElement).entrySet()) {
             for (final Element enclosed : typeFieldsEntry.getValue()) {
-                final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
+                final SQLiteColumn field = getColumn(enclosed);
                 if (field == null) continue;
 
                 final PrimaryKey pk = field.primaryKey();
@@ -118,49 +127,49 @@ final class SQLiteDAOClass extends JavaWritableClass {
                                 enclosed.equals(typeFieldsEntry.getKey())
                                         ? getTableName(mElement)
                                         : null) + "`";
+                final Name javaFieldName = enclosed.getSimpleName();
 
                 final CodeBlock.Builder putStatement = CodeBlock.builder();
                 if (fk.enabled()) {
                     final Element foreignKeyRefElement = findForeignKeyReferencedField(enclosed,
                             fk);
-                    final TypeName foreignKeyRefElementTypeName = ClassName.get(
-                            foreignKeyRefElement.asType());
-                    if (foreignKeyRefElementTypeName.equals(TypeName.SHORT)
-                            || foreignKeyRefElementTypeName.equals(TypeName.INT)
-                            || foreignKeyRefElementTypeName.equals(TypeName.LONG)) {
-                        putStatement.beginControlFlow("if (mTarget.$L != null)", enclosed
-                                .getSimpleName());
-                        putStatement.addStatement("$L.put($S, mTarget.$L.$L)", contentValsVar,
-                                fieldName, enclosed.getSimpleName(),
-                                foreignKeyRefElement.getSimpleName());
-                        putStatement.endControlFlow();
-                    } else {
-                        putStatement.beginControlFlow("if (mTarget.$L != null)",
-                                enclosed.getSimpleName());
-                        putStatement.addStatement("$L.put($S, mTarget.$L.$L)", contentValsVar,
-                                fieldName, enclosed.getSimpleName(),
-                                foreignKeyRefElement.getSimpleName());
-                        putStatement.endControlFlow();
-                    }
+                    final CodeBlock value = CodeBlock.of("mTarget.$L.$L", javaFieldName,
+                            foreignKeyRefElement.getSimpleName());
+                    putStatement.beginControlFlow("if (mTarget.$L != null)", javaFieldName)
+                            .add(buildDirtyCheckedPutBlock(contentValsVar, fieldName,
+                                    javaFieldName, value))
+                            .endControlFlow();
                 } else if (SQLiteColumnType.valueOf(fieldType) == SQLiteColumnType.BLOB) {
-                    putStatement.beginControlFlow("try")
+                    putStatement.beginControlFlow("if (previous != null "
+                                    + "&& previous.isSameBlob($S, mTarget.$L))", javaFieldName,
+                            javaFieldName)
+                            .addStatement("next.putBlob($S, mTarget.$L, previous.getBlob($S))",
+                                    javaFieldName, javaFieldName, javaFieldName)
+                            .nextControlFlow("else")
+                            .beginControlFlow("try")
                             .addStatement("final $T baos = new $T()", BYTE_ARRAY_OS, BYTE_ARRAY_OS)
                             .addStatement("final $T oos = new $T(baos)", OBJECT_OS, OBJECT_OS)
-                            .addStatement("oos.writeObject(mTarget.$L)", enclosed.getSimpleName())
-                            .addStatement("$L.put($S, baos.toByteArray())", contentValsVar,
-                                    fieldName)
+                            .addStatement("oos.writeObject(mTarget.$L)", javaFieldName)
+                            .addStatement("final byte[] bytes = baos.toByteArray()")
+                            .addStatement("next.putBlob($S, mTarget.$L, bytes)", javaFieldName,
+                                    javaFieldName)
+                            .beginControlFlow("if (previous == null "
+                                    + "|| previous.isChanged($S, bytes))", javaFieldName)
+                            .addStatement("$L.put($S, bytes)", contentValsVar, fieldName)
+                            .endControlFlow()
                             .nextControlFlow("catch ($T e)", IO_EXCEPTION)
                             .addStatement("throw new $T(e)", RUNTIME_EXCEPTION)
+                            .endControlFlow()
                             .endControlFlow();
                 } else if (DATE.equals(ClassName.get(enclosed.asType()))) {
-                    putStatement.beginControlFlow("if (mTarget.$L != null)",
-                            enclosed.getSimpleName());
-                    putStatement.addStatement("$L.put($S, mTarget.$L.getTime())", contentValsVar,
-                            fieldName, enclosed.getSimpleName());
-                    putStatement.endControlFlow();
+                    putStatement.beginControlFlow("if (mTarget.$L != null)", javaFieldName)
+                            .add(buildDirtyCheckedPutBlock(contentValsVar, fieldName,
+                                    javaFieldName, CodeBlock.of("mTarget.$L.getTime()",
+                                            javaFieldName)))
+                            .endControlFlow();
                 } else {
-                    putStatement.addStatement("$L.put($S, mTarget.$L)", contentValsVar, fieldName,
-                            enclosed.getSimpleName());
+                    putStatement.add(buildDirtyCheckedPutBlock(contentValsVar, fieldName,
+                            javaFieldName, CodeBlock.of("mTarget.$L", javaFieldName)));
                 }
 
                 putStatements.add(putStatement.build());
@@ -169,6 +178,8 @@ final class SQLiteDAOClass extends JavaWritableClass {
             ret.add(MethodSpec.methodBuilder(String.format("getContentValues%s",
                     typeFieldsEntry.getKey().getSimpleName()))
                     .addModifiers(Modifier.PRIVATE)
+                    .addParameter(ENTITY_SNAPSHOT, "previous", Modifier.FINAL)
+                    .addParameter(ENTITY_SNAPSHOT, "next", Modifier.FINAL)
                     .returns(CONTENT_VALUES)
                     .addStatement("final $T $L = new $T()", CONTENT_VALUES, contentValsVar,
                             CONTENT_VALUES)
@@ -182,29 +193,45 @@ final class SQLiteDAOClass extends JavaWritableClass {
         return ret;
     }
 
+    private CodeBlock buildDirtyCheckedPutBlock(final String contentValsVar,
+                                                final String columnName,
+                                                final Name javaFieldName,
+                                                final CodeBlock value) {
+        return CodeBlock.builder()
+                .addStatement("next.put($S, $L)", javaFieldName, value)
+                .beginControlFlow("if (previous == null || previous.isChanged($S, $L))",
+                        javaFieldName, value)
+                .addStatement("$L.put($S, $L)", contentValsVar, columnName, value)
+                .endControlFlow()
+                .build();
+    }
+
     private FieldSpec buildTargetField() {
         return FieldSpec.builder(getClassNameOfElement(), "mTarget", Modifier.PRIVATE,
                 Modifier.FINAL)
                 .build();
     }
 
-    private FieldSpec buildInstanceCacheField() {
-        TypeName pkTypeName = ClassName.get(getPrimaryKeyField().asType());
-        if (pkTypeName == ClassName.SHORT) {
-            pkTypeName = ClassName.get(Short.class);
-        } else if (pkTypeName == ClassName.INT) {
-            pkTypeName = ClassName.get(Integer.class);
-        } else if (pkTypeName == ClassName.LONG) {
-            pkTypeName = ClassName.get(Long.class);
-        }
+    private TypeName getBoxedPrimaryKeyTypeName() {
+        return ClassName.get(getPrimaryKeyField().asType()).box();
+    }
 
-        return FieldSpec.builder(ParameterizedTypeName.get(CONCURRENT_MAP, pkTypeName,
+    private FieldSpec buildInstanceCacheField() {
+        return FieldSpec.builder(ParameterizedTypeName.get(CONCURRENT_MAP,
+                getBoxedPrimaryKeyTypeName(),
                 ClassName.get(mElement.asType())), INSTANCE_CACHE_VAR_NAME,
                 Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("new $T<>()", CONCURRENT_HASHMAP)
                 .build();
     }
 
+    private FieldSpec buildSnapshotsField() {
+        return FieldSpec.builder(ENTITY_SNAPSHOT_STORE, SNAPSHOTS_VAR_NAME, Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", ENTITY_SNAPSHOT_STORE)
+                .build();
+    }
+
     private FieldSpec buildFieldColumnMapField() {
         return FieldSpec.builder(ParameterizedTypeName.get(MAP, STRING, STRING),
                 COLUMN_FIELD_MAP_VAR_NAME, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
@@ -212,6 +239,20 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .build();
     }
 
+    private FieldSpec buildFieldSelectionMapField() {
+        return FieldSpec.builder(ParameterizedTypeName.get(MAP, STRING, STRING),
+                FIELD_SELECTION_MAP_VAR_NAME, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>()", HASHMAP)
+                .build();
+    }
+
+    private FieldSpec buildMaxSqlVariablesField() {
+        return FieldSpec.builder(TypeName.INT, MAX_SQL_VARIABLES_VAR_NAME, Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", 999)
+                .build();
+    }
+
     private CodeBlock getStaticInitializer() {
         final CodeBlock.Builder putStatements = CodeBlock.builder();
         boolean primaryKeyAdded = false;
@@ -219,7 +260,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
             final List<Element> allElements = getFields(entry.getKey());
             for (int i = 0; i < allElements.size(); i++) {
                 final Element enclosed = allElements.get(i);
-                final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
+                final SQLiteColumn field = getColumn(enclosed);
                 if (field == null) continue;
 
                 if (field.primaryKey().enabled() && primaryKeyAdded) continue;
@@ -227,13 +268,45 @@ final class SQLiteDAOClass extends JavaWritableClass {
 
                 final String columnName = getDBFieldName(enclosed, getTableName(entry.getKey()));
                 putStatements.addStatement("$L.put($S, $S)", COLUMN_FIELD_MAP_VAR_NAME, columnName,
-                        enclosed.getSimpleName().toString());
+                        enclosed.getSimpleName().toString())
+                        .addStatement("$L.put($S, $S)", FIELD_SELECTION_MAP_VAR_NAME,
+                                enclosed.getSimpleName().toString(),
+                                getQualifiedColumnName(entry.getKey(), enclosed));
             }
         }
 
         return putStatements.build();
     }
 
+    private String getQualifiedColumnName(final Element tableElement, final Element enclosed) {
+        final String tableName = getTableName(tableElement);
+        return String.format("%s.`%s`", tableName, getDBFieldName(enclosed, tableName));
+    }
+
+    /**
+     * @return the columns that are selected along with the fields passed to getCursor, the primary
+     * key of the table itself, which instantiateObject reads the key from, and the primary key that
+     * is mapped to the key field, which differ for tables with super tables
+     */
+    private List<String> getSelectionKeyColumns() {
+        final List<String> ret = new ArrayList<>();
+        ret.add(getQualifiedColumnName(mElement, getPrimaryKeyField()));
+        for (final Map.Entry<Element, List<Element>> entry : getTypeFieldMap(mElement).entrySet()) {
+            for (final Element enclosed : getFields(entry.getKey())) {
+                final SQLiteColumn field = getColumn(enclosed);
+                if (field == null || !field.primaryKey().enabled()) continue;
+
+                final String column = getQualifiedColumnName(entry.getKey(), enclosed);
+                if (!ret.contains(column)) {
+                    ret.add(column);
+                }
+                return ret;
+            }
+        }
+
+        return ret;
+    }
+
     private MethodSpec buildCtor() {
         return MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PUBLIC)
@@ -286,9 +359,11 @@ final class SQLiteDAOClass extends JavaWritableClass {
                     .returns(TypeName.INT)
                     .addModifiers(Modifier.PRIVATE)
                     .addParameter(CONTEXT, "context", Modifier.FINAL)
-                    .addStatement("final $T $L = getReadableDatabase($L)"
-                                    + ".rawQuery(\n$S, \nnew $T[] { $T.valueOf(mTarget.$L) })",
-                            CURSOR, cursorVarName, "context",
+                    .addParameter(ENTITY_SNAPSHOT, "previous", Modifier.FINAL)
+                    .addParameter(ENTITY_SNAPSHOT, "next", Modifier.FINAL)
+                    .addStatement("final $T $L = $T.rawQuery(getReadableDatabase($L), "
+                                    + "\n$S, \nnew $T[] { $T.valueOf(mTarget.$L) })",
+                            CURSOR, cursorVarName, DATABASE_CALLS, "context",
                             String.format("SELECT COUNT(*) FROM %s WHERE %s = ?",
                                     getTableName(entry.getKey()), pkFieldName), STRING, STRING,
                             primaryKeyElement.getSimpleName())
@@ -314,10 +389,12 @@ final class SQLiteDAOClass extends JavaWritableClass {
         final CodeBlock.Builder subSaveMethods = CodeBlock.builder();
 
         for (final Map.Entry<Element, List<Element>> entry : getTypeFieldMap(mElement).entrySet()) {
-            subSaveMethods.addStatement("save$L(context)", entry.getKey().getSimpleName());
+            subSaveMethods.addStatement("save$L(context, previous, next)",
+                    entry.getKey().getSimpleName());
         }
 
-        subSaveMethods.addStatement("return 1");
+        subSaveMethods.addStatement("$L.attach(mTarget, next)", SNAPSHOTS_VAR_NAME)
+                .addStatement("return 1");
 
         return MethodSpec.methodBuilder("save")
                 .addAnnotation(Override.class)
@@ -325,6 +402,10 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addStatement("$L.clear()", INSTANCE_CACHE_VAR_NAME)
+                .addStatement("final $T previous = $L.of(mTarget)", ENTITY_SNAPSHOT,
+                        SNAPSHOTS_VAR_NAME)
+                .addStatement("final $T next = previous != null ? previous.copy() : new $T()",
+                        ENTITY_SNAPSHOT, ENTITY_SNAPSHOT)
                 .addCode(subSaveMethods.build())
                 .build();
     }
@@ -339,16 +420,17 @@ final class SQLiteDAOClass extends JavaWritableClass {
         }
 
         final CodeBlock.Builder setIdAfterInsertion = CodeBlock.builder();
-        if (primaryKeyElement.getAnnotation(SQLiteColumn.class).primaryKey().autoIncrement()) {
+        if (getColumn(primaryKeyElement).primaryKey().autoIncrement()) {
             setIdAfterInsertion.addStatement("mTarget.$L = ($T)id",
                     primaryKeyElement.getSimpleName(), ClassName.get(primaryKeyElement.asType()));
         }
 
         return CodeBlock.builder()
                 .add("final long id = ")
-                .addStatement("getWritableDatabase($L)\n.insertOrThrow(\n$S, \nnull, "
-                                + "\ngetContentValues$L())",
-                        "context", getTableName(enclosing), enclosing.getSimpleName())
+                .addStatement("$T.insertOrThrow(getWritableDatabase($L), \n$S, "
+                                + "\ngetContentValues$L(null, next))",
+                        DATABASE_CALLS, "context", getTableName(enclosing),
+                        enclosing.getSimpleName())
                 .add(setIdAfterInsertion.build())
                 .addStatement("return 1")
                 .build();
@@ -366,11 +448,16 @@ final class SQLiteDAOClass extends JavaWritableClass {
         final String pkFieldName = "`" + getDBFieldName(primaryKeyElement, getTableName(enclosing))
                 + "`";
         return CodeBlock.builder()
-                .addStatement("return getWritableDatabase($L)"
-                                + "\n.update(\n$S, \ngetContentValues$L(), \n$S, "
+                .addStatement("final $T contentValues = getContentValues$L(previous, next)",
+                        CONTENT_VALUES, enclosing.getSimpleName())
+                .beginControlFlow("if (contentValues.size() == 0)")
+                .addStatement("return 1")
+                .endControlFlow()
+                .addStatement("return $T.update(getWritableDatabase($L), "
+                                + "\n$S, \ncontentValues, \n$S, "
                                 + "\nnew $T[] { $T.valueOf(mTarget.$L) })",
-                        "context", getTableName(enclosing), enclosing.getSimpleName(),
-                        pkFieldName + " = ?", STRING, STRING, primaryKeyElement.getSimpleName())
+                        DATABASE_CALLS, "context", getTableName(enclosing), pkFieldName + " = ?",
+                        STRING, STRING, primaryKeyElement.getSimpleName())
                 .build();
     }
 
@@ -385,6 +472,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(STRING, "whereClause", Modifier.FINAL)
                 .addParameter(ArrayTypeName.of(STRING), "whereArgs", Modifier.FINAL)
                 .addStatement("$L.clear()", INSTANCE_CACHE_VAR_NAME)
+                .addStatement("$T.invalidateAll()", ENTITY_SNAPSHOT)
                 .addStatement("final $T values = new $T()", CONTENT_VALUES, CONTENT_VALUES)
                 .beginControlFlow("for ($T entry : colsToSave.entrySet())",
                         ParameterizedTypeName.get(MAP_ENTRY, STRING, TypeName.OBJECT))
@@ -423,9 +511,9 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .endControlFlow()
                 .endControlFlow()
                 .endControlFlow()
-                .addStatement("return getWritableDatabase($L)"
-                                + ".update(\n$S, \nvalues, \nwhereClause, \nwhereArgs)",
-                        "context", getTableName(mElement))
+                .addStatement("return $T.update(getWritableDatabase($L), "
+                                + "\n$S, \nvalues, \nwhereClause, \nwhereArgs)",
+                        DATABASE_CALLS, "context", getTableName(mElement))
                 .build();
     }
 
@@ -446,10 +534,10 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
-                .addStatement("return getWritableDatabase($L)"
-                                + ".delete(\n$S, \n$S, \nnew $T[] { $T.valueOf(mTarget.$L) })",
-                        "context", getTableName(mElement), pkFieldName + " = ?", STRING, STRING,
-                        primaryKeyElement.getSimpleName())
+                .addStatement("return $T.delete(getWritableDatabase($L), "
+                                + "\n$S, \n$S, \nnew $T[] { $T.valueOf(mTarget.$L) })",
+                        DATABASE_CALLS, "context", getTableName(mElement), pkFieldName + " = ?",
+                        STRING, STRING, primaryKeyElement.getSimpleName())
                 .build();
     }
 
@@ -461,9 +549,10 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addParameter(STRING, "whereClause", Modifier.FINAL)
                 .addParameter(ArrayTypeName.of(STRING), "whereArgs", Modifier.FINAL)
-                .addStatement("return getWritableDatabase($L)"
-                                + ".delete(\n$S, \nwhereClause, \nwhereArgs)",
-                        "context", getTableName(mElement))
+                .addStatement("$T.invalidateAll()", ENTITY_SNAPSHOT)
+                .addStatement("return $T.delete(getWritableDatabase($L), "
+                                + "\n$S, \nwhereClause, \nwhereArgs)",
+                        DATABASE_CALLS, "context", getTableName(mElement))
                 .build();
     }
 
@@ -485,12 +574,14 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .returns(getClassNameOfElement())
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addParameter(TypeName.OBJECT, "id", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "joinForeignKeys", Modifier.FINAL)
                 .addStatement("return getSingle(\n$L, \n$S, "
                                 + "\nnew $T[] { $T.valueOf(id) }, \nnull, \nnull, \nnull, "
-                                + "\nfetchForeignKeys, \nfetchRelationships, \nfalse)",
-                        "context", pkFieldName + " = ?", STRING, STRING)
+                                + "\nfetchPlan, \njoinForeignKeys, "
+                                + "\nfalse)",
+                        "context", getTableName(mElement) + "." + pkFieldName + " = ?", STRING,
+                        STRING)
                 .build();
     }
 
@@ -503,18 +594,17 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addParameter(STRING, "rawQueryClause", Modifier.FINAL)
                 .addParameter(ArrayTypeName.of(STRING), "rawQueryArgs", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
                 .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
-                .addStatement("final $T $L = getReadableDatabase($L)"
-                                + ".rawQuery(rawQueryClause, rawQueryArgs)",
-                        CURSOR, cursorVarName, "context")
+                .addStatement("final $T $L = $T.rawQuery(getReadableDatabase($L), "
+                                + "rawQueryClause, rawQueryArgs)",
+                        CURSOR, cursorVarName, DATABASE_CALLS, "context")
                 .beginControlFlow("if (!$L.moveToFirst())", cursorVarName)
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return null")
                 .endControlFlow()
                 .addStatement("$T ret = instantiateObject(cursor, context, "
-                                + "fetchForeignKeys, fetchRelationships, fromCache)",
+                                + "fetchPlan, fromCache)",
                         getClassNameOfElement())
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
@@ -533,26 +623,26 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(STRING, "groupBy", Modifier.FINAL)
                 .addParameter(STRING, "having", Modifier.FINAL)
                 .addParameter(STRING, "orderBy", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "joinForeignKeys", Modifier.FINAL)
                 .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
-                .addStatement("final String sql = $S \n"
+                .addStatement("final String sql = (joinForeignKeys \n? $S \n: $S) \n"
                                 + "+ (whereClause != null ? $S + whereClause : $S)\n"
                                 + "+ (groupBy != null ? $S + groupBy : $S)\n"
                                 + "+ (having != null ? $S + groupBy : $S)\n"
                                 + "+ (orderBy != null ? $S + orderBy : $S)\n"
                                 + "+ $S",
-                        getJoinStatementForFetch(), " WHERE ", "", " GROUP BY ", "", " HAVING ",
-                        "", " ORDER BY ", "", " LIMIT 1 ")
-                .addStatement("final $T $L = getReadableDatabase($L)"
-                                + ".rawQuery(sql, whereArgs)",
-                        CURSOR, cursorVarName, "context")
+                        getJoinStatementForFetch(true), getJoinStatementForFetch(), " WHERE ", "",
+                        " GROUP BY ", "", " HAVING ", "", " ORDER BY ", "", " LIMIT 1 ")
+                .addStatement("final $T $L = $T.rawQuery(getReadableDatabase($L), "
+                                + "sql, whereArgs)",
+                        CURSOR, cursorVarName, DATABASE_CALLS, "context")
                 .beginControlFlow("if (!$L.moveToFirst())", cursorVarName)
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return null")
                 .endControlFlow()
                 .addStatement("$T ret = instantiateObject(cursor, context, "
-                                + "fetchForeignKeys, fetchRelationships, fromCache)",
+                                + "fetchPlan, fromCache)",
                         getClassNameOfElement())
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
@@ -568,28 +658,167 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addParameter(STRING, "rawQueryClause", Modifier.FINAL)
                 .addParameter(ArrayTypeName.of(STRING), "rawQueryArgs", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
                 .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
                 .addStatement("final $T<$T> ret = new $T<>()", LIST, getClassNameOfElement(),
                         ARRAY_LIST)
-                .addStatement("final $T $L = getReadableDatabase($L)"
-                                + ".rawQuery(rawQueryClause, rawQueryArgs)",
-                        CURSOR, cursorVarName, "context")
+                .addStatement("final $T $L = getCursor(context, rawQueryClause, rawQueryArgs)",
+                        CURSOR, cursorVarName)
                 .beginControlFlow("if (!$L.moveToFirst())", cursorVarName)
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
                 .endControlFlow()
                 .beginControlFlow("do")
                 .addStatement("ret.add(instantiateObject(cursor, context, "
-                        + "fetchForeignKeys, fetchRelationships, fromCache))")
+                        + "fetchPlan, fromCache))")
                 .endControlFlow("while(cursor.moveToNext())")
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
                 .build();
     }
 
+    private CodeBlock getRequestedIdBlock(final Element pkElement) {
+        final TypeName pkTypeName = ClassName.get(pkElement.asType()).box();
+        final String numberConversion;
+        if (pkTypeName.equals(ClassName.get(Long.class))) {
+            numberConversion = "longValue";
+        } else if (pkTypeName.equals(ClassName.get(Integer.class))) {
+            numberConversion = "intValue";
+        } else if (pkTypeName.equals(ClassName.get(Short.class))) {
+            numberConversion = "shortValue";
+        } else {
+            numberConversion = null;
+        }
+
+        if (numberConversion != null) {
+            return CodeBlock.builder()
+                    .beginControlFlow("if (id instanceof $T)", Number.class)
+                    .addStatement("requested.put((($T) id).$L(), id)", Number.class,
+                            numberConversion)
+                    .endControlFlow()
+                    .build();
+        }
+
+        return CodeBlock.builder()
+                .beginControlFlow("if (id instanceof $T)", pkTypeName)
+                .addStatement("requested.put(($T) id, id)", pkTypeName)
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec buildGetMapByIdsMethod() {
+        final Element pkElement = getPrimaryKeyField();
+        final String cursorVarName = "cursor",
+                tableName = getTableName(mElement),
+                pkFieldName = tableName + ".`" + getDBFieldName(pkElement, tableName) + "`";
+        final ClassName elementCn = getClassNameOfElement();
+        final TypeName pkTypeName = getBoxedPrimaryKeyTypeName();
+
+        return MethodSpec.methodBuilder("getMapByIds")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(MAP, TypeName.OBJECT, elementCn))
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(ParameterizedTypeName.get(COLLECTION,
+                        WildcardTypeName.subtypeOf(Object.class)), "ids", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "joinForeignKeys", Modifier.FINAL)
+                .addStatement("final $T<$T, $T> requested = new $T<>()", MAP, pkTypeName,
+                        TypeName.OBJECT, LINKED_HASHMAP)
+                .beginControlFlow("for (final $T id : ids)", TypeName.OBJECT)
+                .addCode(getRequestedIdBlock(pkElement))
+                .endControlFlow()
+                .addCode("\n// Serve whatever is still held by the instance cache\n")
+                .addStatement("final $T<$T, $T> found = new $T<>()", MAP, pkTypeName,
+                        elementCn, HASHMAP)
+                .addStatement("final $T<$T> misses = new $T<>()", LIST, pkTypeName, ARRAY_LIST)
+                .beginControlFlow("for (final $T.Entry<$T, $T> entry : requested.entrySet())",
+                        MAP, pkTypeName, TypeName.OBJECT)
+                .addStatement("final $T cached = fetchPlan.usesInstanceCache()\n"
+                                + "? $L.get(entry.getKey())\n: null",
+                        elementCn, INSTANCE_CACHE_VAR_NAME)
+                .beginControlFlow("if (fetchPlan.usesInstanceCache())")
+                .addStatement("$T.onCacheLookup(cached != null)", DATABASE_CALLS)
+                .endControlFlow()
+                .beginControlFlow("if (cached != null)")
+                .addStatement("found.put(entry.getKey(), cached)")
+                .nextControlFlow("else")
+                .addStatement("misses.add(entry.getKey())")
+                .endControlFlow()
+                .endControlFlow()
+                .addCode("\n// Fetch the misses in chunks, SQLite limits the number of host "
+                        + "parameters per statement\n")
+                .beginControlFlow("for (int start = 0; start < misses.size(); "
+                        + "start += $L)", MAX_SQL_VARIABLES_VAR_NAME)
+                .addStatement("final int end = $T.min(start + $L, misses.size())", Math.class,
+                        MAX_SQL_VARIABLES_VAR_NAME)
+                .addStatement("final $T placeholders = new $T()", STRING_BUILDER,
+                        STRING_BUILDER)
+                .addStatement("final $T[] args = new $T[end - start]", STRING, STRING)
+                .beginControlFlow("for (int i = start; i < end; i++)")
+                .addStatement("placeholders.append(i == start ? $S : $S)", "?", ", ?")
+                .addStatement("args[i - start] = $T.valueOf(misses.get(i))", STRING)
+                .endControlFlow()
+                .addStatement("final $T $L = $T.rawQuery(getReadableDatabase(context), \n"
+                                + "(joinForeignKeys \n? $S \n: $S) "
+                                + "+ placeholders + $S, args)", CURSOR, cursorVarName,
+                        DATABASE_CALLS,
+                        getJoinStatementForFetch(true) + " WHERE " + pkFieldName + " IN (",
+                        getJoinStatementForFetch() + " WHERE " + pkFieldName + " IN (", ")")
+                .beginControlFlow("if ($L.moveToFirst())", cursorVarName)
+                .beginControlFlow("do")
+                .addStatement("final $T obj = instantiateObject(cursor, context, "
+                        + "fetchPlan, false)", elementCn)
+                .addStatement("found.put(obj.$L, obj)", pkElement.getSimpleName())
+                .endControlFlow("while (cursor.moveToNext())")
+                .endControlFlow()
+                .addStatement("$L.close()", cursorVarName)
+                .endControlFlow()
+                .addCode("\n// Restore the requested order\n")
+                .addStatement("final $T<$T, $T> ret = new $T<>()", MAP, TypeName.OBJECT,
+                        elementCn, LINKED_HASHMAP)
+                .beginControlFlow("for (final $T.Entry<$T, $T> entry : requested.entrySet())",
+                        MAP, pkTypeName, TypeName.OBJECT)
+                .addStatement("final $T obj = found.get(entry.getKey())", elementCn)
+                .beginControlFlow("if (obj != null)")
+                .addStatement("ret.put(entry.getValue(), obj)")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return ret")
+                .build();
+    }
+
+    private List<Element> getJoinableForeignKeyFields() {
+        final List<Element> ret = new ArrayList<>();
+        final List<Element> fields = getTypeFieldMap(mElement).get(mElement);
+        if (fields == null) return ret;
+
+        for (final Element enclosed : fields) {
+            final SQLiteColumn field = getColumn(enclosed);
+            if (field == null || !field.foreignKey().enabled()) continue;
+
+            final Element foreignKeyRefElement = findForeignKeyReferencedField(enclosed,
+                    field.foreignKey());
+            final Element foreignTableElement = mTypeUtils.asElement(enclosed.asType());
+            if (foreignTableElement.equals(findTableElementFromChild(foreignTableElement,
+                    foreignKeyRefElement))
+                    && getTypeFieldMap(foreignTableElement).size() == 1) {
+                ret.add(enclosed);
+            }
+        }
+
+        return ret;
+    }
+
+    private static String getForeignKeyColumnPrefix(final Element foreignKeyElement) {
+        return foreignKeyElement.getSimpleName() + "__";
+    }
+
     private String getJoinStatementForFetch() {
+        return getJoinStatementForFetch(false);
+    }
+
+    private String getJoinStatementForFetch(final boolean joinForeignKeys) {
         final Element pkElem = getPrimaryKeyField();
         final String pkFieldName = getDBFieldName(pkElem, getTableName(mElement)),
                 tableName = getTableName(mElement);
@@ -609,21 +838,57 @@ final class SQLiteDAOClass extends JavaWritableClass {
                     superTableName, tableName, pkFieldName, superTableName, primaryKeyFieldName));
         }
 
+        final List<Element> joinedForeignKeys = joinForeignKeys
+                ? getJoinableForeignKeyFields()
+                : new ArrayList<Element>();
+        for (final Element foreignKeyElement : joinedForeignKeys) {
+            final ForeignKey foreignKey = getColumn(foreignKeyElement)
+                    .foreignKey();
+            final Element foreignTableElement = mTypeUtils.asElement(foreignKeyElement.asType()),
+                    foreignKeyRefElement = findForeignKeyReferencedField(foreignKeyElement,
+                            foreignKey);
+            final String columnPrefix = getForeignKeyColumnPrefix(foreignKeyElement),
+                    alias = columnPrefix + "fk";
+            for (final Element enclosed : getFields(foreignTableElement)) {
+                if (getColumn(enclosed) == null) continue;
+
+                final String columnName = getDBFieldName(enclosed, null);
+                selectPart.append(String.format(", %s.`%s` AS `%s%s`", alias, columnName,
+                        columnPrefix, columnName));
+            }
+            joinPart.append(String.format("LEFT JOIN %s AS %s ON (%s.`%s` = %s.`%s`)\n",
+                    getTableName(foreignTableElement), alias, tableName,
+                    getDBFieldName(foreignKeyElement, null), alias,
+                    getDBFieldName(foreignKeyRefElement, null)));
+        }
+
         selectPart.append(String.format(" FROM %s ", tableName));
 
-        if (set.size() > 1) {
+        if (set.size() > 1 || !joinedForeignKeys.isEmpty()) {
             selectPart.append("\n");
         }
 
         return selectPart.toString() + joinPart.toString();
     }
 
-    private MethodSpec buildGetListMethod() {
-        final String cursorVarName = "cursor";
-        return MethodSpec.methodBuilder("getList")
+    private MethodSpec buildGetCursorByRawQueryMethod() {
+        return MethodSpec.methodBuilder("getCursor")
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
-                .returns(ParameterizedTypeName.get(LIST, getClassNameOfElement()))
+                .returns(CURSOR)
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(STRING, "rawQueryClause", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(STRING), "rawQueryArgs", Modifier.FINAL)
+                .addStatement("return $T.rawQuery(getReadableDatabase($L), "
+                        + "rawQueryClause, rawQueryArgs)", DATABASE_CALLS, "context")
+                .build();
+    }
+
+    private MethodSpec buildGetCursorMethod() {
+        return MethodSpec.methodBuilder("getCursor")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(CURSOR)
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
                 .addParameter(STRING, "whereClause", Modifier.FINAL)
                 .addParameter(ArrayTypeName.of(STRING), "whereArgs", Modifier.FINAL)
@@ -631,29 +896,103 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addParameter(STRING, "having", Modifier.FINAL)
                 .addParameter(STRING, "orderBy", Modifier.FINAL)
                 .addParameter(STRING, "limit", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
-                .addStatement("final String sql = $S \n"
+                .addParameter(TypeName.BOOLEAN, "joinForeignKeys", Modifier.FINAL)
+                .addStatement("final String sql = (joinForeignKeys \n? $S \n: $S) \n"
                                 + "+ (whereClause != null ? $S + whereClause : $S)\n"
                                 + "+ (groupBy != null ? $S + groupBy : $S)\n"
                                 + "+ (having != null ? $S + groupBy : $S)\n"
                                 + "+ (orderBy != null ? $S + orderBy : $S)\n"
                                 + "+ (limit != null ? $S + limit : $S)",
-                        getJoinStatementForFetch(), " WHERE ", "", " GROUP BY ", "", " HAVING ",
-                        "", " ORDER BY ", "", " LIMIT ", "")
+                        getJoinStatementForFetch(true), getJoinStatementForFetch(), " WHERE ", "",
+                        " GROUP BY ", "", " HAVING ", "", " ORDER BY ", "", " LIMIT ", "")
+                .addStatement("return $T.rawQuery(getReadableDatabase($L), sql, whereArgs)",
+                        DATABASE_CALLS, "context")
+                .build();
+    }
+
+    private String getFromStatementForFetch() {
+        final String statement = getJoinStatementForFetch();
+        return statement.substring(statement.indexOf(" FROM "));
+    }
+
+    private MethodSpec buildGetCursorBySelectionMethod() {
+        final ClassName set = ClassName.get(Set.class),
+                linkedHashSet = ClassName.get(LinkedHashSet.class);
+        final CodeBlock.Builder keyColumns = CodeBlock.builder();
+        for (final String column : getSelectionKeyColumns()) {
+            keyColumns.addStatement("columns.add($S)", column);
+        }
+
+        return MethodSpec.methodBuilder("getCursor")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(CURSOR)
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(STRING), "fields", Modifier.FINAL)
+                .addParameter(STRING, "whereClause", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(STRING), "whereArgs", Modifier.FINAL)
+                .addParameter(STRING, "groupBy", Modifier.FINAL)
+                .addParameter(STRING, "having", Modifier.FINAL)
+                .addParameter(STRING, "orderBy", Modifier.FINAL)
+                .addParameter(STRING, "limit", Modifier.FINAL)
+                .addStatement("final $T<$T> columns = new $T<>()", set, STRING, linkedHashSet)
+                .addCode(keyColumns.build())
+                .beginControlFlow("for (final String field : fields)")
+                .addStatement("final String column = $L.get(field)", FIELD_SELECTION_MAP_VAR_NAME)
+                .beginControlFlow("if (column == null)")
+                .addStatement("throw new $T(field + $S + $T.class.getName())",
+                        IllegalArgumentException.class, " is not a column field of ",
+                        getClassNameOfElement())
+                .endControlFlow()
+                .addStatement("columns.add(column)")
+                .endControlFlow()
+                .addStatement("final $T sql = new $T($S)", STRING_BUILDER, STRING_BUILDER,
+                        "SELECT ")
+                .beginControlFlow("for (final String column : columns)")
+                .addStatement("sql.append(column).append($S)", ", ")
+                .endControlFlow()
+                .addStatement("sql.setLength(sql.length() - 2)")
+                .addStatement("sql.append($S)\n"
+                                + ".append(whereClause != null ? $S + whereClause : $S)\n"
+                                + ".append(groupBy != null ? $S + groupBy : $S)\n"
+                                + ".append(having != null ? $S + having : $S)\n"
+                                + ".append(orderBy != null ? $S + orderBy : $S)\n"
+                                + ".append(limit != null ? $S + limit : $S)",
+                        getFromStatementForFetch(), " WHERE ", "", " GROUP BY ", "",
+                        " HAVING ", "", " ORDER BY ", "", " LIMIT ", "")
+                .addStatement("return $T.rawQuery(getReadableDatabase($L), sql.toString(), "
+                        + "whereArgs)", DATABASE_CALLS, "context")
+                .build();
+    }
+
+    private MethodSpec buildGetListMethod() {
+        final String cursorVarName = "cursor";
+        return MethodSpec.methodBuilder("getList")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(LIST, getClassNameOfElement()))
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(STRING, "whereClause", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(STRING), "whereArgs", Modifier.FINAL)
+                .addParameter(STRING, "groupBy", Modifier.FINAL)
+                .addParameter(STRING, "having", Modifier.FINAL)
+                .addParameter(STRING, "orderBy", Modifier.FINAL)
+                .addParameter(STRING, "limit", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "joinForeignKeys", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
                 .addStatement("final $T<$T> ret = new $T<>()", LIST, getClassNameOfElement(),
                         ARRAY_LIST)
-                .addStatement("final $T $L = getReadableDatabase($L)"
-                                + ".rawQuery(sql, whereArgs)",
-                        CURSOR, cursorVarName, "context")
+                .addStatement("final $T $L = getCursor(context, whereClause, whereArgs, "
+                        + "groupBy, having, orderBy, limit, joinForeignKeys)", CURSOR,
+                        cursorVarName)
                 .beginControlFlow("if (!$L.moveToFirst())", cursorVarName)
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
                 .endControlFlow()
                 .beginControlFlow("do")
                 .addStatement("ret.add(instantiateObject(cursor, context, "
-                        + "fetchForeignKeys, fetchRelationships, fromCache))")
+                        + "fetchPlan, fromCache))")
                 .endControlFlow("while(cursor.moveToNext())")
                 .addStatement("$L.close()", cursorVarName)
                 .addStatement("return ret")
@@ -663,7 +1002,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
     private Element findEnclosedRelationshipElement(final Element enclosing,
                                                     final String fieldName) {
         for (final Element enclosed : getFields(enclosing)) {
-            final SQLiteRelationship rel = enclosed.getAnnotation(SQLiteRelationship.class);
+            final SQLiteRelationship rel = getRelationship(enclosed);
             if (rel == null || !fieldName.equals(rel.backReference())) continue;
 
             return enclosed;
@@ -675,7 +1014,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
     private Element findRelatedForeignKeyElement(final Element enclosing,
                                                  final String relatedFieldName) {
         for (final Element enclosed : getFields(enclosing)) {
-            final SQLiteColumn sqliteColumn = enclosed.getAnnotation(SQLiteColumn.class);
+            final SQLiteColumn sqliteColumn = getColumn(enclosed);
             if (sqliteColumn == null
                     || !sqliteColumn.foreignKey().enabled()
                     || !relatedFieldName.equals(enclosed.getSimpleName().toString())) {
@@ -710,19 +1049,84 @@ final class SQLiteDAOClass extends JavaWritableClass {
         }
     }
 
+    private MethodSpec buildInstantiateObjectDelegateMethod() {
+        return MethodSpec.methodBuilder("instantiateObject")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(CURSOR, "cursor", Modifier.FINAL)
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
+                .returns(getClassNameOfElement())
+                .addStatement("return instantiateObject(cursor, context, $S, fetchPlan, "
+                        + "fromCache)", "")
+                .build();
+    }
+
+    private MethodSpec buildInstantiateObjectByPrefixMethod() {
+        return MethodSpec.methodBuilder("instantiateObject")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(CURSOR, "cursor", Modifier.FINAL)
+                .addParameter(CONTEXT, "context", Modifier.FINAL)
+                .addParameter(STRING, "columnPrefix", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
+                .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
+                .returns(getClassNameOfElement())
+                .addStatement("return instantiateObject(cursor, context, columnPrefix, "
+                        + "mapColumns(cursor, columnPrefix), fetchPlan, fromCache)")
+                .build();
+    }
+
+    /**
+     * The fields of the columns of a cursor only depend on its columns, so callers mapping many
+     * rows of the same cursor resolve them once and pass them to every instantiateObject call.
+     */
+    private MethodSpec buildMapColumnsMethod() {
+        return MethodSpec.methodBuilder("mapColumns")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameter(CURSOR, "cursor", Modifier.FINAL)
+                .addParameter(STRING, "columnPrefix", Modifier.FINAL)
+                .returns(ArrayTypeName.of(STRING))
+                .addStatement("final $T[] ret = new $T[cursor.getColumnCount()]", STRING, STRING)
+                .beginControlFlow("for (int i = 0; i < ret.length; i++)")
+                .addStatement("final String columnName = cursor.getColumnName(i)")
+                .beginControlFlow("if (columnName.startsWith(columnPrefix))")
+                .addStatement("ret[i] = $L.get(columnName.substring(columnPrefix.length()))",
+                        COLUMN_FIELD_MAP_VAR_NAME)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return ret")
+                .build();
+    }
+
+    private static CodeBlock getRelationshipFetchBlock(final String spanVarName,
+                                                       final CodeBlock fetch) {
+        if (fetch.isEmpty()) return fetch;
+
+        return CodeBlock.builder()
+                .addStatement("final $T $L = $T.beginRelationshipFetch()", TRACER_SPAN,
+                        spanVarName, DATABASE_CALLS)
+                .beginControlFlow("try")
+                .add(fetch)
+                .nextControlFlow("finally")
+                .addStatement("$T.endRelationshipFetch($L)", DATABASE_CALLS, spanVarName)
+                .endControlFlow()
+                .build();
+    }
+
     private MethodSpec buildInstantiateObjectMethod() {
         final ClassName elementCn = getClassNameOfElement();
 
         final CodeBlock.Builder sqliteFieldsBuilder = CodeBlock.builder(),
                 relationshipsBuilder = CodeBlock.builder();
+        final List<Element> joinableForeignKeys = getJoinableForeignKeyFields();
         boolean primaryKeyAdded = false;
         int relCounter = 1;
         for (final Map.Entry<Element, List<Element>> entry : getTypeFieldMap(mElement).entrySet()) {
             for (final Element enclosed : getFields(entry.getKey())) {
-                final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
+                final SQLiteColumn field = getColumn(enclosed);
                 if (field == null) {
-                    final SQLiteRelationship relationship = enclosed
-                            .getAnnotation(SQLiteRelationship.class);
+                    final SQLiteRelationship relationship = getRelationship(enclosed);
                     if (relationship == null) continue;
 
                     final Element typeElement = mTypeUtils.asElement(enclosed.asType());
@@ -753,7 +1157,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
 
                     final Element relatedForeignElem = findRelatedForeignKeyElement(
                             relationClassElem, relationship.backReference());
-                    final SQLiteColumn f = relatedForeignElem.getAnnotation(SQLiteColumn.class);
+                    final SQLiteColumn f = getColumn(relatedForeignElem);
 
                     final TypeName tn = ClassName.get(
                             mElementUtils.getPackageOf(relatedForeignElem).toString(),
@@ -763,7 +1167,8 @@ final class SQLiteDAOClass extends JavaWritableClass {
 
                     final CodeBlock.Builder relationshipBuilder = CodeBlock.builder()
                             .addStatement("final $T dao$L = new $T(null)", tn, relCounter, tn)
-                            .beginControlFlow("if (fetchRelationships)");
+                            .beginControlFlow("if (fetchPlan.fetchRelationship($S))",
+                                    enclosed.getSimpleName());
 
                     if (mTypeUtils.isSameType(mTypeUtils.erasure(enclosed.asType()),
                             enclosed.asType())) {
@@ -771,20 +1176,18 @@ final class SQLiteDAOClass extends JavaWritableClass {
                                 .addStatement("ret.$L = dao$L.getSingle(\ncontext, \n\"`$L` = \" + "
                                                 + "\n$T.valueOf(ret.$L), "
                                                 + "\nnull, \nnull, \nnull, \nnull, "
-                                                + "\nfetchForeignKeys, \nfetchRelationships,"
-                                                + "\ntrue)",
+                                                + "\nfetchPlan.child($S), \nfalse, \ntrue)",
                                         enclosed.getSimpleName(), relCounter++, dbFieldName, STRING,
-                                        f.foreignKey().fieldReference());
+                                        f.foreignKey().fieldReference(), enclosed.getSimpleName());
                     } else if (mTypeUtils.isAssignable(mTypeUtils.erasure(enclosed.asType()),
                             getTypeMirror(Collection.class))) {
                         relationshipBuilder
                                 .addStatement("ret.$L = dao$L.getList(\ncontext, \n\"`$L` = \" + "
                                                 + "\n$T.valueOf(ret.$L), "
                                                 + "\nnull, \nnull, \nnull, \nnull, \nnull, "
-                                                + "\nfetchForeignKeys, \nfetchRelationships,"
-                                                + "\ntrue)",
+                                                + "\nfetchPlan.child($S), \nfalse, \ntrue)",
                                         enclosed.getSimpleName(), relCounter++, dbFieldName, STRING,
-                                        f.foreignKey().fieldReference());
+                                        f.foreignKey().fieldReference(), enclosed.getSimpleName());
                     }
 
                     relationshipBuilder.endControlFlow();
@@ -802,6 +1205,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 }
 
                 CodeBlock assignmentStatement;
+                boolean deserialized = false;
                 if (foreignKey.enabled()) {
                     final Element foreignKeyRefElement = findForeignKeyReferencedField(enclosed,
                             foreignKey);
@@ -819,12 +1223,10 @@ final class SQLiteDAOClass extends JavaWritableClass {
                                     foreignKeyRefElement)
                                     .getSimpleName().toString() + "_DAO");
 
-                    assignmentStatement = CodeBlock.builder()
-                            .beginControlFlow("if (fetchForeignKeys)")
-                            .addStatement("final $T dao = new $T(null)", tn, tn)
+                    final CodeBlock getSingleStatement = CodeBlock.builder()
                             .addStatement("ret.$L = dao.getSingle(context, $S, "
                                             + "new $T[] { $T.valueOf($L) }, "
-                                            + "fetchForeignKeys, fetchRelationships, true)",
+                                            + "childPlan, true)",
                                     fieldName, String.format("SELECT * FROM %s WHERE"
                                                     + " `%s` = ? LIMIT 1",
                                             findTableNameOfElement(
@@ -832,7 +1234,48 @@ final class SQLiteDAOClass extends JavaWritableClass {
                                                     foreignKeyRefElement),
                                             dbFieldName),
                                     STRING, STRING, cursorBlock.toString())
-                            .endControlFlow()
+                            .build();
+                    final CodeBlock fetchStatement = getRelationshipFetchBlock("foreignKeyFetch",
+                            getSingleStatement);
+
+                    final CodeBlock.Builder fetchBuilder = CodeBlock.builder()
+                            .beginControlFlow("if (fetchPlan.fetchForeignKey($S))", fieldName)
+                            .addStatement("final $T childPlan = fetchPlan.child($S)", FETCH_PLAN,
+                                    fieldName)
+                            .addStatement("final $T key = cursor.isNull(i) ? null : ($T) $L",
+                                    TypeName.OBJECT, foreignKeyRefElementTypeName.box(),
+                                    cursorBlock)
+                            .beginControlFlow("if (childPlan.isShared($T.class, $S, key))",
+                                    typeName, dbFieldName)
+                            .addStatement("ret.$L = childPlan.getShared($T.class, $S, key)",
+                                    fieldName, typeName, dbFieldName)
+                            .nextControlFlow("else")
+                            .addStatement("final $T dao = new $T(null)", tn, tn);
+                    if (joinableForeignKeys.contains(enclosed)) {
+                        final String columnPrefix = getForeignKeyColumnPrefix(enclosed);
+                        fetchBuilder
+                                .addStatement("final int joinedIndex = cursor.getColumnIndex("
+                                        + "columnPrefix + $S)", columnPrefix + dbFieldName)
+                                .beginControlFlow("if (joinedIndex >= 0)")
+                                .addStatement("ret.$L = cursor.isNull(joinedIndex)\n? null\n"
+                                                + ": dao.instantiateObject(cursor, context, "
+                                                + "columnPrefix + $S, childPlan, true)", fieldName,
+                                        columnPrefix)
+                                .nextControlFlow("else")
+                                .add(fetchStatement)
+                                .endControlFlow();
+                    } else {
+                        fetchBuilder.add(fetchStatement);
+                    }
+
+                    fetchBuilder.addStatement("childPlan.share($T.class, $S, key, ret.$L)",
+                            typeName, dbFieldName, fieldName)
+                            .endControlFlow();
+
+                    assignmentStatement = CodeBlock.builder()
+                            .add(fetchBuilder.endControlFlow().build())
+                            .addStatement("snapshot.put($S, cursor.isNull(i) ? null : ($T) $L)",
+                                    fieldName, foreignKeyRefElementTypeName.box(), cursorBlock)
                             .build();
                 } else if (typeName.equals(TypeName.BOOLEAN)
                         || typeName.equals(ClassName.get(Boolean.class))) {
@@ -864,13 +1307,17 @@ final class SQLiteDAOClass extends JavaWritableClass {
                     assignmentStatement = CodeBlock.of("ret.$L = new $T(cursor.getLong(i));\n",
                             fieldName, DATE);
                 } else {
+                    deserialized = true;
                     assignmentStatement = CodeBlock.builder()
                             .beginControlFlow("try")
-                            .addStatement("final $T bis = new $T(cursor.getBlob(i))", BYTE_ARRAY_IS,
+                            .addStatement("final byte[] bytes = cursor.getBlob(i)")
+                            .addStatement("final $T bis = new $T(bytes)", BYTE_ARRAY_IS,
                                     BYTE_ARRAY_IS)
                             .addStatement("final $T ois = new $T(bis)", OBJECT_IS, OBJECT_IS)
                             .addStatement("ret.$L = ($T) ois.readObject()", fieldName,
                                     ClassName.get(enclosed.asType()))
+                            .addStatement("snapshot.putBlob($S, ret.$L, bytes)", fieldName,
+                                    fieldName)
                             .nextControlFlow("catch ($T | $T e)", IO_EXCEPTION,
                                     CLASS_NOT_FOUND_EXCEPTION)
                             .addStatement("throw new $T(e)", RUNTIME_EXCEPTION)
@@ -878,10 +1325,24 @@ final class SQLiteDAOClass extends JavaWritableClass {
                             .build();
                 }
 
+                if (typeName.equals(DATE)) {
+                    assignmentStatement = CodeBlock.builder()
+                            .add(assignmentStatement)
+                            .addStatement("snapshot.put($S, ret.$L.getTime())", fieldName,
+                                    fieldName)
+                            .build();
+                } else if (!foreignKey.enabled() && !deserialized) {
+                    assignmentStatement = CodeBlock.builder()
+                            .add(assignmentStatement)
+                            .addStatement("snapshot.put($S, ret.$L)", fieldName, fieldName)
+                            .build();
+                }
+
                 if (pk.enabled() && !primaryKeyAdded) {
                     primaryKeyAdded = true;
                     assignmentStatement = CodeBlock.builder()
                             .add(assignmentStatement)
+                            .beginControlFlow("if (!partial && fetchPlan.usesInstanceCache())")
                             .addStatement("$L.put(ret.$L, ret)", INSTANCE_CACHE_VAR_NAME,
                                     fieldName)
                             .addStatement("$T.getWorker().postDelayed(new $T() {\n"
@@ -891,6 +1352,7 @@ final class SQLiteDAOClass extends JavaWritableClass {
                                             + "  }\n"
                                             + "}, 15 * 1000)", getHelperClassName(), RUNNABLE,
                                     INSTANCE_CACHE_VAR_NAME, fieldName)
+                            .endControlFlow()
                             .build();
                 }
 
@@ -902,20 +1364,43 @@ final class SQLiteDAOClass extends JavaWritableClass {
             }
         }
 
+        // When only some of the columns are selected, the object is kept out of the cache and the
+        // fields that were not loaded are left out of the next save unless they are changed
         final Element pkElement = getPrimaryKeyField();
+        final CodeBlock partialStatement = CodeBlock.builder()
+                .addStatement("int mappedColumns = 0")
+                .beginControlFlow("for (final String columnField : columnFields)")
+                .beginControlFlow("if (columnField != null)")
+                .addStatement("mappedColumns++")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("final boolean partial = mappedColumns < $L.size()",
+                        COLUMN_FIELD_MAP_VAR_NAME)
+                .build();
+        final CodeBlock unloadedFieldsStatement = CodeBlock.builder()
+                .beginControlFlow("if (partial)")
+                .addStatement("putUnloadedFields(ret, snapshot)")
+                .endControlFlow()
+                .build();
+
         final CodeBlock.Builder fetchFromCacheStatement = CodeBlock.builder();
         if (pkElement != null) {
-            final SQLiteColumn field = pkElement.getAnnotation(SQLiteColumn.class);
+            final SQLiteColumn field = getColumn(pkElement);
             final PrimaryKey pk = field.primaryKey();
             if (pk.enabled()) {
                 final TypeName pkTypeName = ClassName.get(pkElement.asType());
                 fetchFromCacheStatement
-                        .addStatement("final $T pkVal = cursor.$L(cursor.getColumnIndex($S))",
+                        .beginControlFlow("if (fromCache && fetchPlan.usesInstanceCache())")
+                        .addStatement("final $T pkVal = cursor.$L(cursor.getColumnIndex("
+                                        + "columnPrefix + $S))",
                                 pkTypeName, getCursorMethodFromTypeName(pkTypeName),
                                 getDBFieldName(pkElement, getTableName(mElement)))
-                        .beginControlFlow("if (fromCache && $L.containsKey(pkVal))",
+                        .addStatement("final $T cached = $L.get(pkVal)", elementCn,
                                 INSTANCE_CACHE_VAR_NAME)
-                        .addStatement("return $L.get(pkVal)", INSTANCE_CACHE_VAR_NAME)
+                        .addStatement("$T.onCacheLookup(cached != null)", DATABASE_CALLS)
+                        .beginControlFlow("if (cached != null)")
+                        .addStatement("return cached")
+                        .endControlFlow()
                         .endControlFlow();
             }
         }
@@ -924,37 +1409,96 @@ final class SQLiteDAOClass extends JavaWritableClass {
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(CURSOR, "cursor", Modifier.FINAL)
                 .addParameter(CONTEXT, "context", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchForeignKeys", Modifier.FINAL)
-                .addParameter(TypeName.BOOLEAN, "fetchRelationships", Modifier.FINAL)
+                .addParameter(STRING, "columnPrefix", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(STRING), "columnFields", Modifier.FINAL)
+                .addParameter(FETCH_PLAN, "fetchPlan", Modifier.FINAL)
                 .addParameter(TypeName.BOOLEAN, "fromCache", Modifier.FINAL)
                 .returns(elementCn)
                 .addCode(fetchFromCacheStatement.build())
                 .addStatement("final $T ret = new $T()", elementCn, elementCn)
-                .beginControlFlow("for (int i = 0; i < cursor.getColumnCount(); i++)")
-                .addStatement("final String name = cursor.getColumnName(i)")
-                .beginControlFlow("if (!$L.containsKey(name))", COLUMN_FIELD_MAP_VAR_NAME)
+                .addStatement("final $T snapshot = new $T()", ENTITY_SNAPSHOT, ENTITY_SNAPSHOT)
+                .addCode(partialStatement)
+                .beginControlFlow("for (int i = 0; i < columnFields.length; i++)")
+                .addStatement("final String fieldName = columnFields[i]")
+                .beginControlFlow("if (fieldName == null)")
                 .addStatement("continue")
                 .endControlFlow()
-                .addStatement("final String fieldName = $L.get(name)", COLUMN_FIELD_MAP_VAR_NAME)
                 .addCode(sqliteFieldsBuilder.build())
                 .endControlFlow()
-                .addCode(relationshipsBuilder.build())
+                .addCode(unloadedFieldsStatement)
+                .addStatement("$L.attach(ret, snapshot)", SNAPSHOTS_VAR_NAME)
+                .addCode(getRelationshipFetchBlock("relationshipFetch",
+                        relationshipsBuilder.build()))
                 .addStatement("return ret")
                 .build();
     }
 
+    private MethodSpec buildPutUnloadedFieldsMethod() {
+        // Records the fields as getContentValues would, without serializing values that can not
+        // change, since the fields of partially loaded objects are mostly left at their defaults
+        final CodeBlock.Builder putStatements = CodeBlock.builder();
+        for (final List<Element> fields : getTypeFieldMap(mElement).values()) {
+            for (final Element enclosed : fields) {
+                final SQLiteColumn field = getColumn(enclosed);
+                if (field == null) continue;
+
+                final PrimaryKey pk = field.primaryKey();
+                if (pk.enabled() && pk.autoIncrement()) {
+                    continue;
+                }
+
+                final ForeignKey fk = field.foreignKey();
+                final Name fieldName = enclosed.getSimpleName();
+                if (fk.enabled()) {
+                    putStatements.beginControlFlow("if (ret.$L != null)", fieldName)
+                            .addStatement("snapshot.putUnloaded($S, ret.$L.$L)", fieldName,
+                                    fieldName,
+                                    findForeignKeyReferencedField(enclosed, fk).getSimpleName())
+                            .endControlFlow();
+                } else if (SQLiteColumnType.valueOf(getFieldType(enclosed, field))
+                        == SQLiteColumnType.BLOB) {
+                    putStatements.addStatement("snapshot.putUnloadedBlob($S, ret.$L)", fieldName,
+                            fieldName);
+                } else if (DATE.equals(ClassName.get(enclosed.asType()))) {
+                    putStatements.beginControlFlow("if (ret.$L != null)", fieldName)
+                            .addStatement("snapshot.putUnloaded($S, ret.$L.getTime())",
+                                    fieldName, fieldName)
+                            .endControlFlow();
+                } else {
+                    putStatements.addStatement("snapshot.putUnloaded($S, ret.$L)", fieldName,
+                            fieldName);
+                }
+            }
+        }
+
+        return MethodSpec.methodBuilder("putUnloadedFields")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(getClassNameOfElement(), "ret", Modifier.FINAL)
+                .addParameter(ENTITY_SNAPSHOT, "snapshot", Modifier.FINAL)
+                .addCode(putStatements.build())
+                .build();
+    }
+
+    private MethodSpec buildClearInstanceCacheMethod() {
+        return MethodSpec.methodBuilder("clearInstanceCache")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addStatement("$L.clear()", INSTANCE_CACHE_VAR_NAME)
+                .build();
+    }
+
     @Override
     JavaFile writeJava() {
-        final TypeSpec typeSpec = TypeSpec.classBuilder(
-                ClassName.bestGuess(getPackageName()
-                        + "."
-                        + getClassName((TypeElement) mElement, getPackageName()) + "_DAO"))
+        final TypeSpec typeSpec = TypeSpec.classBuilder(getDAOClassName())
+                .addOriginatingElement(getTopLevelElement(mElement))
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                 .addSuperinterface(ParameterizedTypeName.get(SQLITE_DAO, getClassNameOfElement()))
                 .addStaticBlock(getStaticInitializer())
                 .addFields(Arrays.asList(
                         buildInstanceCacheField(),
+                        buildSnapshotsField(),
                         buildFieldColumnMapField(),
+                        buildFieldSelectionMapField(),
+                        buildMaxSqlVariablesField(),
                         buildTargetField()
                 ))
                 .addMethods(buildGetContentValuesMethods())
@@ -963,7 +1507,11 @@ final class SQLiteDAOClass extends JavaWritableClass {
                         buildCtor(),
                         buildGetReadableDatabaseMethod(),
                         buildGetWritableDatabaseMethod(),
+                        buildInstantiateObjectDelegateMethod(),
+                        buildInstantiateObjectByPrefixMethod(),
                         buildInstantiateObjectMethod(),
+                        buildPutUnloadedFieldsMethod(),
+                        buildMapColumnsMethod(),
                         buildSaveMethod(),
                         buildSaveByQueryMethod(),
                         buildDeleteMethod(),
@@ -972,7 +1520,12 @@ final class SQLiteDAOClass extends JavaWritableClass {
                         buildGetSingleMethod(),
                         buildGetSingleByIdMethod(),
                         buildGetListByRawQueryMethod(),
-                        buildGetListMethod()
+                        buildGetListMethod(),
+                        buildGetMapByIdsMethod(),
+                        buildGetCursorByRawQueryMethod(),
+                        buildGetCursorMethod(),
+                        buildGetCursorBySelectionMethod(),
+                        buildClearInstanceCacheMethod()
                 ))
                 .build();
 
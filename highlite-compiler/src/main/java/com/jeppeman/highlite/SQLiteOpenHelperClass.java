@@ -1,23 +1,33 @@
 package com.jeppeman.highlite;
 
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 
@@ -29,18 +39,28 @@ import javax.lang.model.util.Types;
  */
 final class SQLiteOpenHelperClass extends JavaWritableClass {
 
+    private static final String SCHEMA_TABLE_NAME = "highlite_schema";
+    private static final String INDEX_TABLE_NAME = "highlite_index";
+    private static final Pattern REFERENCED_TABLE_PATTERN = Pattern.compile(
+            "REFERENCES (\\S+?)\\(");
+
     private final Element mElement;
     private final String mPackageName;
     private final String mDatabaseName;
     private final Map<Element, SQLiteTable> mTableElementMap;
     private final Elements mElementUtils;
     private final int mVersion;
+    private final File mSchemaLocation;
+    private SchemaSnapshot mPreviousSnapshot;
+    private SchemaSnapshot mCurrentSnapshot;
 
     SQLiteOpenHelperClass(final Element element,
                           final String packageName,
                           final String databaseName,
                           final Map<Element, SQLiteTable> tableElementMap,
                           final int version,
+                          final File schemaLocation,
+                          final RoundMetadata metadata,
                           final Elements elementUtils,
                           final Types typeUtils) {
         mElement = element;
@@ -48,8 +68,10 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
         mDatabaseName = databaseName;
         mTableElementMap = tableElementMap;
         mVersion = version;
+        mSchemaLocation = schemaLocation;
         mElementUtils = elementUtils;
         mTypeUtils = typeUtils;
+        mMetadata = metadata;
     }
 
     private ClassName getHelperClassName() {
@@ -64,6 +86,225 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 : CodeBlock.of("");
     }
 
+    /**
+     * The fingerprint of a table is a hash of everything that goes into upgrading it, i.e. its
+     * create statement, its indexes and whether columns are automatically added and deleted. It
+     * is persisted when the table is created or upgraded, so that subsequent upgrades can skip
+     * tables whose definitions have not changed since.
+     */
+    private String getSchemaFingerprint(final Element element, final SQLiteTable table) {
+        final StringBuilder definition = new StringBuilder(getCreateStatement(element))
+                .append(table.autoAddColumns())
+                .append(table.autoDeleteColumns());
+        for (final String index : getIndexDefinitions(element, table).values()) {
+            definition.append(index);
+        }
+        try {
+            final StringBuilder fingerprint = new StringBuilder();
+            for (final byte b : MessageDigest.getInstance("SHA-1")
+                    .digest(definition.toString().getBytes(StandardCharsets.UTF_8))) {
+                fingerprint.append(String.format("%02x", b));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ProcessingException(element, "Unable to compute schema fingerprint: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the create statements of the indexes of a table, keyed by index name. These are the
+     * indexes declared on the table followed by an index for every foreign key column that is not
+     * already indexed. The statements are written the way SQLite keeps them in sqlite_master, so
+     * that they can be compared with existing indexes.
+     */
+    private Map<String, String> getIndexDefinitions(final Element element,
+                                                    final SQLiteTable table) {
+        final Map<String, String> ret = new LinkedHashMap<>();
+        if (!table.autoCreate()) {
+            if (table.indexes().length > 0) {
+                throw new ProcessingException(element,
+                        "Indexes can only be declared on tables that are created automatically");
+            }
+            return ret;
+        }
+
+        final String tableName = getTableName(element);
+        final List<String> columnNames = new ArrayList<>(),
+                foreignKeyColumnNames = new ArrayList<>();
+        for (final Element enclosed : getFields(element)) {
+            final SQLiteColumn field = getColumn(enclosed);
+            if (field == null) continue;
+
+            columnNames.add(getDBFieldName(enclosed, tableName));
+            if (field.foreignKey().enabled() && field.foreignKey().createIndex()
+                    && !field.primaryKey().enabled() && !field.unique()) {
+                foreignKeyColumnNames.add(getDBFieldName(enclosed, tableName));
+            }
+        }
+
+        for (final Index index : table.indexes()) {
+            final List<String> parts = new ArrayList<>();
+            final StringBuilder defaultName = new StringBuilder("index_").append(tableName);
+            for (final String column : index.columns()) {
+                final String[] split = column.trim().split("\\s+");
+                if (!columnNames.contains(split[0]) || split.length > 2 || (split.length == 2
+                        && !split[1].equalsIgnoreCase("ASC")
+                        && !split[1].equalsIgnoreCase("DESC"))) {
+                    throw new ProcessingException(element, String.format(
+                            "Invalid index column %s, expected one of %s optionally followed "
+                                    + "by ASC or DESC", column, columnNames));
+                }
+
+                parts.add("`" + split[0] + "`"
+                        + (split.length == 2 ? " " + split[1].toUpperCase() : ""));
+                defaultName.append('_').append(split[0]);
+            }
+
+            if (!index.expression().isEmpty()) {
+                if (index.name().isEmpty()) {
+                    throw new ProcessingException(element,
+                            "Indexes on expressions need to be named");
+                }
+                parts.add(index.expression());
+            }
+
+            if (parts.isEmpty()) {
+                throw new ProcessingException(element,
+                        "Indexes need to have either columns or an expression");
+            }
+
+            final String name = index.name().isEmpty() ? defaultName.toString() : index.name();
+            if (ret.containsKey(name)) {
+                throw new ProcessingException(element,
+                        String.format("Duplicate index %s", name));
+            }
+
+            final StringBuilder definition = new StringBuilder("CREATE ")
+                    .append(index.unique() ? "UNIQUE " : "")
+                    .append("INDEX `").append(name).append("` ON `").append(tableName)
+                    .append("` (");
+            for (int i = 0; i < parts.size(); i++) {
+                definition.append(i > 0 ? ", " : "").append(parts.get(i));
+            }
+            definition.append(")");
+            if (!index.where().isEmpty()) {
+                definition.append(" WHERE ").append(index.where());
+            }
+            ret.put(name, definition.toString());
+        }
+
+        for (final String column : foreignKeyColumnNames) {
+            // Indexes of all rows that lead with the column cover it already
+            boolean indexed = false;
+            for (final String definition : ret.values()) {
+                indexed |= definition.contains("` (`" + column + "`")
+                        && !definition.contains(" WHERE ");
+            }
+            if (indexed) continue;
+
+            final String name = "index_" + tableName + "_" + column;
+            if (!ret.containsKey(name)) {
+                ret.put(name, String.format("CREATE INDEX `%s` ON `%s` (`%s`)", name, tableName,
+                        column));
+            }
+        }
+
+        return ret;
+    }
+
+    private CodeBlock getSyncIndexesStatement(final Element element, final SQLiteTable table) {
+        final Map<String, String> indexes = getIndexDefinitions(element, table);
+        if (indexes.isEmpty()) {
+            return CodeBlock.of("syncIndexes(database, $S, new $T[0][]);\n", getTableName(element),
+                    STRING);
+        }
+
+        final CodeBlock.Builder code = CodeBlock.builder()
+                .add("syncIndexes(database, $S, new $T[][] {", getTableName(element), STRING)
+                .indent();
+        boolean first = true;
+        for (final Map.Entry<String, String> index : indexes.entrySet()) {
+            code.add(first ? "\n" : ",\n")
+                    .add("{ $S, $S }", index.getKey(), index.getValue());
+            first = false;
+        }
+        return code.unindent()
+                .add(" });\n")
+                .build();
+    }
+
+    private SchemaSnapshot buildSchemaSnapshot() {
+        final SchemaSnapshot snapshot = new SchemaSnapshot(mVersion);
+        for (final Map.Entry<Element, SQLiteTable> tableElementEntry
+                : mTableElementMap.entrySet()) {
+
+            final SQLiteTable table = tableElementEntry.getValue();
+            final Element element = tableElementEntry.getKey();
+            if (!table.autoCreate()) continue;
+
+            final Map<String, String> columnsMap = new LinkedHashMap<>(),
+                    foreignKeysMap = new LinkedHashMap<>();
+            collectColumnDefinitions(element, columnsMap, foreignKeysMap);
+            for (final Map.Entry<String, String> foreignKey : foreignKeysMap.entrySet()) {
+                // Remove the trailing comma used when assembling create statements at runtime
+                foreignKey.setValue(foreignKey.getValue().substring(0,
+                        foreignKey.getValue().length() - 2));
+            }
+
+            final String tableName = getTableName(element);
+            final Map<String, String> renamedFromMap = new LinkedHashMap<>();
+            for (final Element enclosed : getFields(element)) {
+                final SQLiteColumn field = getColumn(enclosed);
+                if (field == null || field.renamedFrom().isEmpty()) continue;
+
+                renamedFromMap.put(getDBFieldName(enclosed, tableName), field.renamedFrom());
+            }
+
+            snapshot.putTable(new SchemaSnapshot.Table(tableName,
+                    getSchemaFingerprint(element, table), table.autoAddColumns(),
+                    table.autoDeleteColumns(), columnsMap, foreignKeysMap, renamedFromMap,
+                    getIndexDefinitions(element, table)));
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Exports the schema of the current version, and reads the schema of the previous version to
+     * precompute migrations from, if a schema location has been configured.
+     */
+    private void exportSchema() {
+        if (mSchemaLocation == null) return;
+
+        final File directory = new File(mSchemaLocation,
+                ((TypeElement) mElement).getQualifiedName().toString());
+        try {
+            mPreviousSnapshot = SchemaSnapshot.readPrevious(directory, mVersion);
+            mCurrentSnapshot = buildSchemaSnapshot();
+            mCurrentSnapshot.write(directory);
+        } catch (IOException e) {
+            throw new ProcessingException(mElement, "Unable to export schema: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private FieldSpec buildCreateSchemaTableField() {
+        return FieldSpec.builder(STRING, "CREATE_SCHEMA_TABLE", Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer("$S", "CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE_NAME + " ("
+                        + "`table_name` TEXT PRIMARY KEY, `fingerprint` TEXT NOT NULL);")
+                .build();
+    }
+
+    private FieldSpec buildCreateIndexTableField() {
+        return FieldSpec.builder(STRING, "CREATE_INDEX_TABLE", Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer("$S", "CREATE TABLE IF NOT EXISTS " + INDEX_TABLE_NAME + " ("
+                        + "`index_name` TEXT PRIMARY KEY, `table_name` TEXT NOT NULL);")
+                .build();
+    }
+
     private FieldSpec buildHandlerField() {
         return FieldSpec.builder(HANDLER, "sHandler", Modifier.STATIC, Modifier.FINAL)
                 .build();
@@ -162,6 +403,11 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .addStatement("boolean $L = false", shouldRecreateVarName)
                 .addStatement("final $T<$T> $L = new $T<>()", LIST, STRING, newUniqueColsVarName,
                         ARRAY_LIST)
+                .add("// Keep the existing definitions to tell which columns have changed\n")
+                .addStatement("final $T $L = $L", STRING, tableName + "ExistingColumns",
+                        createSqlStatementVarName)
+                .addStatement("final $T $L = $L", STRING, tableName + "ExistingForeignKeys",
+                        foreignKeysVarName)
                 .build();
     }
 
@@ -190,23 +436,58 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .add("\n// Create a new table and copy the data from the old table to it and "
                         + "rename it after\n")
                 .beginControlFlow("if ($L && $L)", shouldRecreateVarName, tableExistsVarName)
-                .add(getRecreateStatement("database", tableName,
+                .add(getRecreateStatement("database", tableName, table,
                         createSqlStatementVarName, colsToSaveVarName))
                 .endControlFlow()
                 .add("\n// Add any new unique indices\n")
                 .beginControlFlow("if ($L.size() > 0)", newUniqueColsVarName)
-                .addStatement("database.execSQL($S)", "BEGIN TRANSACTION;")
                 .beginControlFlow("for (final String field : $L)", newUniqueColsVarName)
-                .addStatement("database.execSQL($T.format("
-                                + "\"CREATE UNIQUE INDEX `%s` ON $L(`%s`);\", field, field))",
-                        STRING, tableName)
+                .addStatement("database.execSQL($T.format($S, field, field))", STRING,
+                        "CREATE UNIQUE INDEX IF NOT EXISTS `%s` ON " + tableName + "(`%s`);")
                 .endControlFlow()
-                .addStatement("database.execSQL($S)", "COMMIT;")
                 .endControlFlow()
                 .add("\n")
                 .build();
     }
 
+    private CodeBlock getAddColumnInPlaceBlock(final String tableName) {
+        return CodeBlock.builder()
+                .beginControlFlow("if (entry.getValue()[1].length() > 0)")
+                .add("// Foreign key constraints can only be added by recreating the table\n")
+                .addStatement("$L = true", tableName + "ShouldRecreate")
+                .endControlFlow()
+                .beginControlFlow("if (entry.getValue()[0].contains($S))", " UNIQUE")
+                .add("// Mark column for UNIQUE constraint addition after the column has been "
+                        + "added\n")
+                .addStatement("$L.add(entry.getValue()[0].split($S)[1])",
+                        tableName + "NewUniqueCols", "`")
+                .endControlFlow()
+                .add("// Add the new column in place, if the table needs to be recreated anyway "
+                        + "the tables that\n// will be copied between have matching columns\n")
+                .add("// Since UNIQUE columns can't be added, remove constraint if it exists. "
+                        + "\n// It will be added as a unique index\n")
+                .addStatement("database.execSQL($S \n+ entry.getValue()[0].replace($S, $S))",
+                        "ALTER TABLE `" + tableName + "` ADD COLUMN ", " UNIQUE", "")
+                .build();
+    }
+
+    private CodeBlock getDropColumnsInPlaceBlock(final String tableName) {
+        return CodeBlock.builder()
+                .add("\n// Drop deleted columns in place if possible, otherwise recreate the "
+                        + "table without them\n")
+                .beginControlFlow("for (final $T column : $L)", STRING, tableName + "Cols")
+                .beginControlFlow("if ($L.containsKey(column) || $L)",
+                        tableName + "CurrentFields", tableName + "ShouldRecreate")
+                .addStatement("continue")
+                .endControlFlow()
+                .beginControlFlow("if (!dropColumn(database, $S, column, $L, $L))", tableName,
+                        tableName + "ExistingColumns", tableName + "ExistingForeignKeys")
+                .addStatement("$L = true", tableName + "ShouldRecreate")
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
     private CodeBlock getUpgradeBlock(final Element element, final SQLiteTable table) {
         final String tableName = getTableName(element),
                 currentFieldsVar = tableName + "CurrentFields",
@@ -216,81 +497,29 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 foreignKeysVarName = tableName + "ForeignKeys",
                 shouldRecreateVarName = tableName + "ShouldRecreate",
                 tableExistsVarName = tableName + "Exists",
-                newUniqueColsVarName = tableName + "NewUniqueCols";
+                newUniqueColsVarName = tableName + "NewUniqueCols",
+                existingColumnsVarName = tableName + "ExistingColumns",
+                existingForeignKeysVarName = tableName + "ExistingForeignKeys";
 
         final CodeBlock.Builder recreateStatement = CodeBlock.builder();
         final Map<String, String> columnsMap = new LinkedHashMap<>(),
                 foreignKeysMap = new LinkedHashMap<>();
+        collectColumnDefinitions(element, columnsMap, foreignKeysMap);
 
-        for (final Element enclosed : getFields(element)) {
-            final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
-
-            if (field == null) continue;
-
-            final StringBuilder fieldCreator = new StringBuilder();
-            final String fieldName = getDBFieldName(enclosed, getTableName(element));
-            fieldCreator.append("`");
-            fieldCreator.append(fieldName);
-            fieldCreator.append("`");
-            fieldCreator.append(" ");
-            fieldCreator.append(getFieldType(enclosed, field));
-
-            final PrimaryKey primaryKey = field.primaryKey();
-            if (primaryKey.enabled()) {
-                final String tableNameOfPrimary = findTableNameOfElement(element, enclosed);
-                fieldCreator.append(" PRIMARY KEY");
-                if (tableName.equals(tableNameOfPrimary)) {
-                    fieldCreator.append(
-                            primaryKey.autoIncrement()
-                                    ? " AUTOINCREMENT"
-                                    : ""
-                    );
-                } else {
-                    fieldCreator.append(" NOT NULL");
-                    String foreignKeyBuilder = String.format(
-                            "FOREIGN KEY(`%s`) REFERENCES %s(`%s`)", fieldName,
-                            tableNameOfPrimary,
-                            getDBFieldName(enclosed, null))
-                            + " ON DELETE CASCADE"
-                            + " ON UPDATE CASCADE, ";
-
-                    foreignKeysMap.put(fieldName, foreignKeyBuilder);
-                }
-            }
-
-            if (field.unique()) {
-                fieldCreator.append(" UNIQUE");
-            }
-
-            if (field.notNull()) {
-                fieldCreator.append(" NOT NULL");
-            }
-
-            final ForeignKey foreignKey = field.foreignKey();
-            if (foreignKey.enabled()) {
-                final Element foreignKeyRefElement = findForeignKeyReferencedField(enclosed,
-                        foreignKey);
-                final StringBuilder foreignKeyBuilder = new StringBuilder();
-                foreignKeyBuilder.append(
-                        String.format("FOREIGN KEY(`%s`) REFERENCES %s(`%s`)",
-                                fieldName, findTableNameOfElement(
-                                        mTypeUtils.asElement(enclosed.asType()),
-                                        foreignKeyRefElement),
-                                getDBFieldName(foreignKeyRefElement, null)));
-                if (foreignKey.cascadeOnDelete()) {
-                    foreignKeyBuilder.append(" ON DELETE CASCADE");
-                }
-
-                if (foreignKey.cascadeOnUpdate()) {
-                    foreignKeyBuilder.append(" ON UPDATE CASCADE");
-                }
-
-                foreignKeyBuilder.append(", ");
+        if (table.backgroundMigration()) {
+            recreateStatement
+                    .add("// Inspect the table as it is, rather than as a pending migration would "
+                            + "leave it\n")
+                    .addStatement("$T.cancel(database, $S)", BACKGROUND_MIGRATION, tableName);
+        }
 
-                foreignKeysMap.put(fieldName, foreignKeyBuilder.toString());
-            }
+        for (final Element enclosed : getFields(element)) {
+            final SQLiteColumn field = getColumn(enclosed);
+            if (field == null || field.renamedFrom().isEmpty()) continue;
 
-            columnsMap.put(fieldName, fieldCreator.toString());
+            final String fieldName = getDBFieldName(enclosed, tableName);
+            recreateStatement.addStatement("renameColumn(database, $S, $S, $S, $S)", tableName,
+                    field.renamedFrom(), fieldName, columnsMap.get(fieldName));
         }
 
         final CodeBlock initialRecreationBlock = getInitialRecreationBlock(tableName, columnsMap,
@@ -307,19 +536,10 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                     .beginControlFlow("for (final $T.Entry<$T, $T[]> entry : $L.entrySet())", MAP,
                             STRING, STRING, currentFieldsVar)
                     .beginControlFlow("if (!$L.contains(entry.getKey()))", dbColsVarName)
+                    .add(getAddColumnInPlaceBlock(tableName))
+                    .nextControlFlow("else if (isColumnChanged($L, $L, entry))",
+                            existingColumnsVarName, existingForeignKeysVarName)
                     .addStatement("$L = true", shouldRecreateVarName)
-                    .beginControlFlow("if (entry.getValue()[0].contains($S))", " UNIQUE")
-                    .add("// Mark column for UNIQUE constraint addition after table has been "
-                            + "recreated\n")
-                    .addStatement("$L.add(entry.getValue()[0].split($S)[1])", newUniqueColsVarName,
-                            "`")
-                    .endControlFlow()
-                    .add("// Adding the new column to the table so that the tables that will be "
-                            + "copied between have matching columns\n")
-                    .add("// Since UNIQUE columns can't be added, remove constraint if it exists. "
-                            + "\n// It will be added when the table is recreated\n")
-                    .addStatement("database.execSQL($S + entry.getValue()[0].replace($S, $S))",
-                            "ALTER TABLE `" + tableName + "` ADD COLUMN ", " UNIQUE", "")
                     .endControlFlow()
                     .add("\n")
                     .addStatement("$L.append($S)", colsToSaveVarName, "`")
@@ -329,6 +549,7 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                     .addStatement("$L += entry.getValue()[1]", foreignKeysVarName)
                     .addStatement("$L += entry.getValue()[0] + $S", createSqlStatementVarName, ", ")
                     .endControlFlow()
+                    .add(getDropColumnsInPlaceBlock(tableName))
                     .add(getUpgradeTableCopyBlock(element, table));
         } else if (table.autoAddColumns() && !table.autoDeleteColumns()) {
             recreateStatement
@@ -355,23 +576,14 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                                     + "\"`?\\\\)[^,]+\", \nfk.substring(0, fk.length() - 2))",
                             foreignKeysVarName, foreignKeysVarName)
                     .endControlFlow()
-                    .beginControlFlow("if (entry.getValue()[0].contains($S))", " UNIQUE")
-                    .add("// Mark column for UNIQUE constraint addition after table has been "
-                            + "recreated\n")
-                    .addStatement("$L.add(entry.getValue()[0].split($S)[1])", newUniqueColsVarName,
-                            "`")
-                    .endControlFlow()
+                    .beginControlFlow("if (isColumnChanged($L, $L, entry))",
+                            existingColumnsVarName, existingForeignKeysVarName)
                     .addStatement("$L = true", shouldRecreateVarName)
+                    .endControlFlow()
                     .addStatement("continue")
                     .endControlFlow()
                     .add("\n")
-                    .addStatement("$L = true", shouldRecreateVarName)
-                    .add("// Adding the new column to the table so that the tables that will be "
-                            + "copied between have matching columns\n")
-                    .add("// Since UNIQUE columns can't be added, remove constraint if it exists. "
-                            + "\n// It will be added when the table is recreated\n")
-                    .addStatement("database.execSQL($S \n+ entry.getValue()[0].replace($S, $S))",
-                            "ALTER TABLE `" + tableName + "` ADD COLUMN ", " UNIQUE", "")
+                    .add(getAddColumnInPlaceBlock(tableName))
                     .add("// Add new column and foreign key definitions to create statement\n")
                     .addStatement("$L += entry.getValue()[1]", foreignKeysVarName)
                     .addStatement("$L += entry.getValue()[0] + $S", createSqlStatementVarName, ", ")
@@ -402,7 +614,11 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                     .addStatement("$L.append(column)", colsToSaveVarName)
                     .addStatement("$L.append($S)", colsToSaveVarName, "`")
                     .addStatement("$L.append($S)", colsToSaveVarName, ", ")
-                    .nextControlFlow("else")
+                    .nextControlFlow("else if ($L || !dropColumn(database, $S, column, $L, $L))",
+                            shouldRecreateVarName, tableName, existingColumnsVarName,
+                            existingForeignKeysVarName)
+                    .add("// The column could not be dropped in place, recreate the table "
+                            + "without it\n")
                     .addStatement("$L = true", shouldRecreateVarName)
                     .endControlFlow()
                     .endControlFlow()
@@ -415,7 +631,7 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                             foreignKeysVarName, createSqlStatementVarName,
                             foreignKeysVarName, ");")
                     .beginControlFlow("if ($L && $L)", shouldRecreateVarName, tableExistsVarName)
-                    .add(getRecreateStatement("database", tableName,
+                    .add(getRecreateStatement("database", tableName, table,
                             createSqlStatementVarName, colsToSaveVarName))
                     .endControlFlow()
                     .add("\n");
@@ -426,12 +642,102 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .build();
     }
 
+    /**
+     * Collects the column definitions of a table, e.g. "`id` INTEGER PRIMARY KEY", along with
+     * the foreign key definitions of the columns that have them, keyed by column name.
+     */
+    private void collectColumnDefinitions(final Element element,
+                                          final Map<String, String> columnsMap,
+                                          final Map<String, String> foreignKeysMap) {
+        final String tableName = getTableName(element);
+        for (final Element enclosed : getFields(element)) {
+            final SQLiteColumn field = getColumn(enclosed);
+
+            if (field == null) continue;
+
+            final StringBuilder fieldCreator = new StringBuilder();
+            final String fieldName = getDBFieldName(enclosed, getTableName(element));
+            fieldCreator.append("`");
+            fieldCreator.append(fieldName);
+            fieldCreator.append("`");
+            fieldCreator.append(" ");
+            fieldCreator.append(getFieldType(enclosed, field));
+
+            final PrimaryKey primaryKey = field.primaryKey();
+            if (primaryKey.enabled()) {
+                final String tableNameOfPrimary = findTableNameOfElement(element, enclosed);
+                fieldCreator.append(" PRIMARY KEY");
+                if (tableName.equals(tableNameOfPrimary)) {
+                    fieldCreator.append(
+                            primaryKey.autoIncrement()
+                                    ? " AUTOINCREMENT"
+                                    : ""
+                    );
+                } else {
+                    fieldCreator.append(" NOT NULL");
+                    String foreignKeyBuilder = String.format(
+                            "FOREIGN KEY(`%s`) REFERENCES %s(`%s`)", fieldName,
+                            tableNameOfPrimary,
+                            getDBFieldName(enclosed, null))
+                            + " ON DELETE CASCADE"
+                            + " ON UPDATE CASCADE, ";
+
+                    foreignKeysMap.put(fieldName, foreignKeyBuilder);
+                }
+            }
+
+            if (field.unique()) {
+                fieldCreator.append(" UNIQUE");
+            }
+
+            if (field.notNull()) {
+                fieldCreator.append(" NOT NULL");
+            }
+
+            final ForeignKey foreignKey = field.foreignKey();
+            if (foreignKey.enabled()) {
+                final Element foreignKeyRefElement = findForeignKeyReferencedField(enclosed,
+                        foreignKey);
+                final StringBuilder foreignKeyBuilder = new StringBuilder();
+                foreignKeyBuilder.append(
+                        String.format("FOREIGN KEY(`%s`) REFERENCES %s(`%s`)",
+                                fieldName, findTableNameOfElement(
+                                        mTypeUtils.asElement(enclosed.asType()),
+                                        foreignKeyRefElement),
+                                getDBFieldName(foreignKeyRefElement, null)));
+                if (foreignKey.cascadeOnDelete()) {
+                    foreignKeyBuilder.append(" ON DELETE CASCADE");
+                }
+
+                if (foreignKey.cascadeOnUpdate()) {
+                    foreignKeyBuilder.append(" ON UPDATE CASCADE");
+                }
+
+                foreignKeyBuilder.append(", ");
+
+                foreignKeysMap.put(fieldName, foreignKeyBuilder.toString());
+            }
+
+            columnsMap.put(fieldName, fieldCreator.toString());
+        }
+    }
+
     private CodeBlock getRecreateStatement(final String dbVarName,
                                            final String tableName,
+                                           final SQLiteTable table,
                                            final String colsWithTypesVarName,
                                            final String colsVarName) {
+        if (table.backgroundMigration()) {
+            return CodeBlock.builder()
+                    .add("// The table is copied in the background, see $T\n", BACKGROUND_MIGRATION)
+                    .addStatement("$T.start($L, $S, \n$L.replace($S, $S), \n$L.toString())",
+                            BACKGROUND_MIGRATION, dbVarName, tableName, colsWithTypesVarName,
+                            "CREATE TABLE " + tableName,
+                            "CREATE TABLE `" + tableName + "_migration`", colsVarName)
+                    .build();
+        }
+
         return CodeBlock.builder()
-                .addStatement("$L.execSQL($S)", dbVarName, "BEGIN TRANSACTION;")
                 .addStatement("$L.execSQL($L.replace($S, $S))", dbVarName, colsWithTypesVarName,
                         "CREATE TABLE " + tableName, "CREATE TABLE " + tableName + "_backup")
                 .addStatement("$L.execSQL(String.format(\"INSERT INTO $L_backup SELECT "
@@ -441,7 +747,6 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                         String.format("DROP TABLE %s;", tableName))
                 .addStatement("$L.execSQL($S)", dbVarName,
                         String.format("ALTER TABLE %s_backup RENAME TO %s;", tableName, tableName))
-                .addStatement("$L.execSQL($S)", dbVarName, "COMMIT;")
                 .build();
     }
 
@@ -467,7 +772,7 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
         final String endOfColumnSpec = ",\n" + getIndent(2);
 
         for (final Element enclosed : getFields(element)) {
-            final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
+            final SQLiteColumn field = getColumn(enclosed);
             if (field == null) continue;
 
             final String tableName = getTableName(element);
@@ -632,7 +937,7 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 : mTableElementMap.entrySet()) {
 
             for (final Element enclosed : getFields(tableElementEntry.getKey())) {
-                final SQLiteColumn field = enclosed.getAnnotation(SQLiteColumn.class);
+                final SQLiteColumn field = getColumn(enclosed);
                 if (!foundForeignKey && field != null && field.foreignKey().enabled()) {
 
                     code.beginControlFlow("if (!database.isReadOnly())")
@@ -644,14 +949,26 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
             }
         }
 
+        for (final SQLiteTable table : mTableElementMap.values()) {
+            if (table.backgroundMigration()) {
+                code.beginControlFlow("if (!database.isReadOnly())")
+                        .addStatement("$T.resume(database, this, sHandler)", BACKGROUND_MIGRATION)
+                        .endControlFlow();
+                break;
+            }
+        }
+
         code.add(onOpenStatement.build());
 
         return MethodSpec.methodBuilder("onOpen")
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(AnnotationSpec.builder(Override.class).build())
                 .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
-                .addStatement("super.onOpen(database)")
-                .addCode(code.build())
+                .addCode(getTracedBlock("SPAN_OPEN", CodeBlock.builder().build(),
+                        CodeBlock.builder()
+                                .addStatement("super.onOpen(database)")
+                                .add(code.build())
+                                .build()))
                 .build();
     }
 
@@ -699,6 +1016,21 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
             code.add(getCreateBlock(element, table));
         }
 
+        code.addStatement("database.execSQL(CREATE_SCHEMA_TABLE)");
+        for (final Map.Entry<Element, SQLiteTable> tableElementEntry
+                : mTableElementMap.entrySet()) {
+
+            final SQLiteTable table = tableElementEntry.getValue();
+            final Element element = tableElementEntry.getKey();
+            if (!table.autoCreate()) continue;
+
+            code.addStatement("putSchemaFingerprint(database, $S, $S)", getTableName(element),
+                    getSchemaFingerprint(element, table));
+            if (!getIndexDefinitions(element, table).isEmpty()) {
+                code.add(getSyncIndexesStatement(element, table));
+            }
+        }
+
         code.add(onCreateStatement.build());
 
 
@@ -706,7 +1038,8 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(AnnotationSpec.builder(Override.class).build())
                 .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
-                .addCode(code.build())
+                .addCode(getTracedBlock("SPAN_CREATE", CodeBlock.builder().build(),
+                        code.build()))
                 .build();
     }
 
@@ -781,13 +1114,78 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                     ClassName.get(mElement.asType()), enclosed.getSimpleName());
         }
 
+        code.add("// Upgrade every table in one transaction, with foreign keys checked once at "
+                        + "the end rather\n// than after every intermediate step\n")
+                .addStatement("database.beginTransaction()")
+                .beginControlFlow("try")
+                .addStatement("database.execSQL($S)", "PRAGMA defer_foreign_keys=ON;")
+                .addStatement("database.execSQL(CREATE_SCHEMA_TABLE)")
+                .addStatement("final $T<$T, $T> fingerprints = getSchemaFingerprints(database)",
+                        MAP, STRING, STRING)
+                .add(getCheckedTablesBlock())
+                .add("// Violations that are already there must not fail the upgrade, so they "
+                        + "are counted before\n// the tables are changed\n")
+                .addStatement("final $T<$T, $T> foreignKeyViolations = "
+                        + "getForeignKeyViolations(database, checkedTables)", MAP, STRING,
+                        INTEGER);
         for (final Map.Entry<Element, SQLiteTable> tableElementEntry
                 : mTableElementMap.entrySet()) {
 
-            code.addStatement("onUpgrade$L(database)", tableElementEntry.getKey().getSimpleName());
+            final SQLiteTable table = tableElementEntry.getValue();
+            final Element element = tableElementEntry.getKey();
+            if (!table.autoCreate()) {
+                // Tables that are not created automatically may have been created in any shape,
+                // they are always inspected
+                code.addStatement("onUpgrade$L(database)", element.getSimpleName());
+                continue;
+            }
+
+            final String tableName = getTableName(element),
+                    fingerprint = getSchemaFingerprint(element, table);
+            final SchemaSnapshot.Table previousTable = mPreviousSnapshot != null
+                    ? mPreviousSnapshot.getTable(tableName)
+                    : null;
+            code.beginControlFlow("if (!$S.equals(fingerprints.get($S)))", fingerprint, tableName);
+            if (previousTable != null && !table.backgroundMigration()) {
+                final SchemaSnapshot.Table currentTable = mCurrentSnapshot.getTable(tableName);
+                code.beginControlFlow("if ($S.equals(fingerprints.get($S)))",
+                        previousTable.getFingerprint(), tableName)
+                        .add("// Migration from schema version $L, computed at compile time\n",
+                                mPreviousSnapshot.getVersion());
+                final SchemaSnapshot.Migration migration =
+                        currentTable.getMigrationFrom(previousTable);
+                if (migration.getInPlaceStatements() == null) {
+                    addExecStatements(code, migration.getCopyStatements());
+                } else if (migration.getMinSQLiteVersion() > 0) {
+                    final boolean dropsColumns = migration.getMinSQLiteVersion()
+                            == SchemaSnapshot.SQLITE_VERSION_DROP_COLUMN;
+                    code.beginControlFlow("if (getSQLiteVersion(database) >= $L)", dropsColumns
+                            ? "SQLITE_VERSION_DROP_COLUMN"
+                            : "SQLITE_VERSION_RENAME_COLUMN");
+                    addExecStatements(code, migration.getInPlaceStatements());
+                    code.nextControlFlow("else");
+                    addExecStatements(code, migration.getCopyStatements());
+                    code.endControlFlow();
+                } else {
+                    addExecStatements(code, migration.getInPlaceStatements());
+                }
+                code.nextControlFlow("else")
+                        .addStatement("onUpgrade$L(database)", element.getSimpleName())
+                        .endControlFlow();
+            } else {
+                code.addStatement("onUpgrade$L(database)", element.getSimpleName());
+            }
+            code.add(getSyncIndexesStatement(element, table))
+                    .addStatement("putSchemaFingerprint(database, $S, $S)", tableName, fingerprint)
+                    .endControlFlow();
         }
 
-        code.add(onUpgradeStatements.build());
+        code.add(onUpgradeStatements.build())
+                .addStatement("checkForeignKeys(database, checkedTables, foreignKeyViolations)")
+                .addStatement("database.setTransactionSuccessful()")
+                .nextControlFlow("finally")
+                .addStatement("database.endTransaction()")
+                .endControlFlow();
 
         return MethodSpec.methodBuilder("onUpgrade")
                 .addModifiers(Modifier.PUBLIC)
@@ -795,7 +1193,456 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
                 .addParameter(TypeName.INT, "oldVersion", Modifier.FINAL)
                 .addParameter(TypeName.INT, "newVersion", Modifier.FINAL)
-                .addCode(code.build())
+                .addCode(getTracedBlock("SPAN_UPGRADE", CodeBlock.builder()
+                        .addStatement("span.setAttribute($T.ATTRIBUTE_OLD_VERSION, oldVersion)",
+                                HIGHLITE_TRACER)
+                        .addStatement("span.setAttribute($T.ATTRIBUTE_NEW_VERSION, newVersion)",
+                                HIGHLITE_TRACER)
+                        .build(), code.build()))
+                .build();
+    }
+
+    /**
+     * Collects the tables whose foreign keys are checked after upgrading, being the tables that
+     * will be changed and the tables that refer to them, so that upgrades that leave every table
+     * as it is do not scan the database.
+     */
+    private CodeBlock getCheckedTablesBlock() {
+        final CodeBlock.Builder upgraded = CodeBlock.builder()
+                .addStatement("final $T<$T> upgradedTables = new $T<>()", LIST, STRING,
+                        ARRAY_LIST),
+                referencing = CodeBlock.builder()
+                        .addStatement("final $T<$T> checkedTables = new $T<>(upgradedTables)",
+                                LIST, STRING, ARRAY_LIST);
+        for (final Map.Entry<Element, SQLiteTable> tableElementEntry
+                : mTableElementMap.entrySet()) {
+            final Element element = tableElementEntry.getKey();
+            final SQLiteTable table = tableElementEntry.getValue();
+            final String tableName = getTableName(element);
+            if (table.autoCreate()) {
+                upgraded.beginControlFlow("if (!$S.equals(fingerprints.get($S)))",
+                        getSchemaFingerprint(element, table), tableName)
+                        .addStatement("upgradedTables.add($S)", tableName)
+                        .endControlFlow();
+            } else {
+                upgraded.addStatement("upgradedTables.add($S)", tableName);
+            }
+
+            final Map<String, String> columnsMap = new LinkedHashMap<>(),
+                    foreignKeysMap = new LinkedHashMap<>();
+            collectColumnDefinitions(element, columnsMap, foreignKeysMap);
+            final List<String> referencedTables = new ArrayList<>();
+            for (final String foreignKey : foreignKeysMap.values()) {
+                final Matcher matcher = REFERENCED_TABLE_PATTERN.matcher(foreignKey);
+                if (matcher.find() && !referencedTables.contains(matcher.group(1))
+                        && !tableName.equals(matcher.group(1))) {
+                    referencedTables.add(matcher.group(1));
+                }
+            }
+            if (referencedTables.isEmpty()) continue;
+
+            final StringBuilder condition = new StringBuilder("!checkedTables.contains($S) && (");
+            final List<Object> args = new ArrayList<>();
+            args.add(tableName);
+            for (final String referencedTable : referencedTables) {
+                condition.append(args.size() > 1 ? "\n|| " : "")
+                        .append("upgradedTables.contains($S)");
+                args.add(referencedTable);
+            }
+            referencing.beginControlFlow("if (" + condition.append(")") + ")", args.toArray())
+                    .addStatement("checkedTables.add($S)", tableName)
+                    .endControlFlow();
+        }
+
+        return upgraded.add(referencing.build()).build();
+    }
+
+    /**
+     * Wraps a block in a span of the tracer set through SQLiteOperator, which is a no-op unless
+     * one is set.
+     */
+    private static CodeBlock getTracedBlock(final String spanName,
+                                            final CodeBlock attributes,
+                                            final CodeBlock body) {
+        return CodeBlock.builder()
+                .addStatement("final $T span = $T.beginSpan($T.$L)", TRACER_SPAN, DATABASE_CALLS,
+                        HIGHLITE_TRACER, spanName)
+                .addStatement("span.setAttribute($T.ATTRIBUTE_DATABASE, getDatabaseName())",
+                        HIGHLITE_TRACER)
+                .add(attributes)
+                .beginControlFlow("try")
+                .add(body)
+                .nextControlFlow("finally")
+                .addStatement("$T.endSpan(span)", DATABASE_CALLS)
+                .endControlFlow()
+                .build();
+    }
+
+    private static void addExecStatements(final CodeBlock.Builder code,
+                                          final List<String> statements) {
+        for (final String statement : statements) {
+            code.addStatement("database.execSQL($S)", statement);
+        }
+    }
+
+    private MethodSpec buildSyncIndexesMethod() {
+        return MethodSpec.methodBuilder("syncIndexes")
+                .addJavadoc("Brings the indexes of a table in line with its declared indexes, "
+                        + "given as pairs of names and\ncreate statements. Indexes that have "
+                        + "been created by earlier calls and are no longer\ndeclared are "
+                        + "dropped, indexes created by other means are left as they are.\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(STRING, "tableName", Modifier.FINAL)
+                .addParameter(ArrayTypeName.of(ArrayTypeName.of(STRING)), "indexes",
+                        Modifier.FINAL)
+                .addStatement("database.execSQL(CREATE_INDEX_TABLE)")
+                .addStatement("final $T<$T, $T> declared = new $T<>()", MAP, STRING, STRING,
+                        LINKED_HASHMAP)
+                .beginControlFlow("for (final $T[] index : indexes)", STRING)
+                .addStatement("declared.put(index[0], index[1])")
+                .endControlFlow()
+                .addStatement("final $T<$T> managed = new $T<>()", LIST, STRING, ARRAY_LIST)
+                .addStatement("final $T managedCursor = database.rawQuery($S, \nnew $T[] { "
+                                + "tableName })", CURSOR, "SELECT `index_name` FROM "
+                                + INDEX_TABLE_NAME + " WHERE `table_name` = ?;", STRING)
+                .beginControlFlow("try")
+                .beginControlFlow("while (managedCursor.moveToNext())")
+                .addStatement("managed.add(managedCursor.getString(0))")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("managedCursor.close()")
+                .endControlFlow()
+                .beginControlFlow("for (final $T name : managed)", STRING)
+                .beginControlFlow("if (!declared.containsKey(name))")
+                .addStatement("database.execSQL($S + name + $S)", "DROP INDEX IF EXISTS `", "`;")
+                .addStatement("database.execSQL($S, new $T[] { name })", "DELETE FROM "
+                        + INDEX_TABLE_NAME + " WHERE `index_name` = ?;", Object.class)
+                .endControlFlow()
+                .endControlFlow()
+                .beginControlFlow("for (final $T<$T, $T> index : declared.entrySet())", MAP_ENTRY,
+                        STRING, STRING)
+                .addStatement("final $T cursor = database.rawQuery($S, \nnew $T[] { $S, "
+                                + "index.getKey() })", CURSOR,
+                        "SELECT `sql` FROM sqlite_master WHERE `type` = ? AND `name` = ?;",
+                        STRING, "index")
+                .addStatement("final $T existing", STRING)
+                .beginControlFlow("try")
+                .addStatement("existing = cursor.moveToFirst() ? cursor.getString(0) : null")
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .beginControlFlow("if (!index.getValue().equals(existing))")
+                .beginControlFlow("if (existing != null)")
+                .addStatement("database.execSQL($S + index.getKey() + $S)", "DROP INDEX `", "`;")
+                .endControlFlow()
+                .addStatement("database.execSQL(index.getValue())")
+                .endControlFlow()
+                .addStatement("database.execSQL($S, \nnew $T[] { index.getKey(), tableName })",
+                        "INSERT OR REPLACE INTO " + INDEX_TABLE_NAME
+                                + " (`index_name`, `table_name`) VALUES (?, ?);", Object.class)
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec buildGetForeignKeyViolationsMethod() {
+        return MethodSpec.methodBuilder("getForeignKeyViolations")
+                .addJavadoc("@param tables the tables to check, tables that do not exist are "
+                        + "skipped\n@return the number of rows violating foreign keys, by the "
+                        + "table of the rows and the table\nthey refer to\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(ParameterizedTypeName.get(LIST, STRING), "tables", Modifier.FINAL)
+                .returns(ParameterizedTypeName.get(MAP, STRING, INTEGER))
+                .addStatement("final $T<$T, $T> violations = new $T<>()", MAP, STRING, INTEGER,
+                        HASHMAP)
+                .beginControlFlow("for (final $T table : tables)", STRING)
+                .addStatement("final $T tableCursor = database.rawQuery(\n$S, \n"
+                                + "new $T[] { $S, table })", CURSOR,
+                        "SELECT 1 FROM sqlite_master WHERE `type` = ? AND `name` = ?;", STRING,
+                        "table")
+                .addStatement("final boolean exists = tableCursor.moveToFirst()")
+                .addStatement("tableCursor.close()")
+                .beginControlFlow("if (!exists)")
+                .addStatement("continue")
+                .endControlFlow()
+                .addStatement("final $T cursor = database.rawQuery($S + table + $S, null)",
+                        CURSOR, "PRAGMA foreign_key_check(`", "`);")
+                .beginControlFlow("try")
+                .beginControlFlow("while (cursor.moveToNext())")
+                .addStatement("final $T key = cursor.getString(0) + $S + cursor.getString(2)",
+                        STRING, " referencing ")
+                .addStatement("final $T count = violations.get(key)", INTEGER)
+                .addStatement("violations.put(key, count == null ? 1 : count + 1)")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return violations")
+                .build();
+    }
+
+    private MethodSpec buildCheckForeignKeysMethod() {
+        return MethodSpec.methodBuilder("checkForeignKeys")
+                .addJavadoc("Checks the foreign keys of the given tables, which are deferred "
+                        + "while upgrading. Violations\nthat were already there before the "
+                        + "upgrade are logged rather than failing the upgrade.\n\n"
+                        + "@throws $T if the upgrade violates a foreign key\n",
+                        SQLITE_CONSTRAINT_EXCEPTION)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(ParameterizedTypeName.get(LIST, STRING), "tables", Modifier.FINAL)
+                .addParameter(ParameterizedTypeName.get(MAP, STRING, INTEGER),
+                        "previousViolations", Modifier.FINAL)
+                .beginControlFlow("for (final $T<$T, $T> entry : "
+                                + "getForeignKeyViolations(database, tables).entrySet())",
+                        MAP_ENTRY, STRING, INTEGER)
+                .addStatement("final $T previous = previousViolations.get(entry.getKey())",
+                        INTEGER)
+                .beginControlFlow("if (previous == null || entry.getValue() > previous)")
+                .addStatement("throw new $T($S + entry.getKey())", SQLITE_CONSTRAINT_EXCEPTION,
+                        "Upgrade violates foreign key of ")
+                .endControlFlow()
+                .addStatement("$T.w($S, $S + entry.getKey() + $S)", LOG, "HighLite",
+                        "Foreign key of ", " was violated before the upgrade")
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec buildGetSchemaFingerprintsMethod() {
+        return MethodSpec.methodBuilder("getSchemaFingerprints")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .returns(ParameterizedTypeName.get(MAP, STRING, STRING))
+                .addStatement("final $T<$T, $T> fingerprints = new $T<>()", MAP, STRING, STRING,
+                        HASHMAP)
+                .addStatement("final $T cursor = database.rawQuery($S, null)", CURSOR,
+                        "SELECT `table_name`, `fingerprint` FROM " + SCHEMA_TABLE_NAME + ";")
+                .beginControlFlow("try")
+                .beginControlFlow("while (cursor.moveToNext())")
+                .addStatement("fingerprints.put(cursor.getString(0), cursor.getString(1))")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .addStatement("return fingerprints")
+                .build();
+    }
+
+    private MethodSpec buildPutSchemaFingerprintMethod() {
+        return MethodSpec.methodBuilder("putSchemaFingerprint")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(STRING, "tableName", Modifier.FINAL)
+                .addParameter(STRING, "fingerprint", Modifier.FINAL)
+                .addStatement("database.execSQL($S, new $T[] { tableName, fingerprint })",
+                        "INSERT OR REPLACE INTO " + SCHEMA_TABLE_NAME
+                                + " (`table_name`, `fingerprint`) VALUES (?, ?);",
+                        Object.class)
+                .build();
+    }
+
+    private FieldSpec buildSQLiteVersionField() {
+        return FieldSpec.builder(TypeName.INT, "sSQLiteVersion", Modifier.PRIVATE,
+                Modifier.STATIC)
+                .build();
+    }
+
+    private FieldSpec buildSQLiteVersionConstantField(final String name, final int version) {
+        return FieldSpec.builder(TypeName.INT, name, Modifier.PRIVATE, Modifier.STATIC,
+                Modifier.FINAL)
+                .initializer("$L", version)
+                .build();
+    }
+
+    private MethodSpec buildGetSQLiteVersionMethod() {
+        return MethodSpec.methodBuilder("getSQLiteVersion")
+                .addJavadoc("@return the version of SQLite on the device, e.g. 3035005 for "
+                        + "3.35.5\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .returns(TypeName.INT)
+                .beginControlFlow("if (sSQLiteVersion == 0)")
+                .addStatement("final $T cursor = database.rawQuery($S, null)", CURSOR,
+                        "SELECT sqlite_version();")
+                .beginControlFlow("try")
+                .beginControlFlow("if (cursor.moveToFirst())")
+                .addStatement("final $T[] parts = cursor.getString(0).split($S)", STRING, "\\.")
+                .beginControlFlow("for (int i = 0; i < 3; i++)")
+                .addStatement("sSQLiteVersion = sSQLiteVersion * 1000 "
+                        + "+ (i < parts.length ? Integer.parseInt(parts[i]) : 0)")
+                .endControlFlow()
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return sSQLiteVersion")
+                .build();
+    }
+
+    private MethodSpec buildGetColumnDefinitionMethod() {
+        return MethodSpec.methodBuilder("getColumnDefinition")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(STRING, "columns", Modifier.FINAL)
+                .addParameter(STRING, "column", Modifier.FINAL)
+                .returns(STRING)
+                .addStatement("final $T matcher = $T.compile($S + $T.quote(column) + $S)"
+                                + ".matcher(columns)", MATCHER, PATTERN, "(?:^|[(,])\\s*`?",
+                        PATTERN, "`?(\\s[^,]*)")
+                .addStatement("return matcher.find() \n? ($S + column + $S + matcher.group(1))"
+                        + ".replaceAll($S, $S).trim() \n: null", "`", "`", "\\s+", " ")
+                .build();
+    }
+
+    private MethodSpec buildGetForeignKeyDefinitionMethod() {
+        return MethodSpec.methodBuilder("getForeignKeyDefinition")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(STRING, "foreignKeys", Modifier.FINAL)
+                .addParameter(STRING, "column", Modifier.FINAL)
+                .returns(STRING)
+                .addStatement("final $T matcher = $T.compile($S + $T.quote(column) + $S)"
+                                + ".matcher(foreignKeys)", MATCHER, PATTERN,
+                        "FOREIGN KEY\\s*\\(`?", PATTERN, "`?\\)[^,]*")
+                .addStatement("return matcher.find() \n? matcher.group().replaceAll($S, $S).trim()"
+                        + " \n: null", "\\s+", " ")
+                .build();
+    }
+
+    private MethodSpec buildIsColumnChangedMethod() {
+        return MethodSpec.methodBuilder("isColumnChanged")
+                .addJavadoc("Compares the definition of an existing column with its current "
+                        + "definition, as put in the map of\ncurrent fields of a table\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(STRING, "existingColumns", Modifier.FINAL)
+                .addParameter(STRING, "existingForeignKeys", Modifier.FINAL)
+                .addParameter(ParameterizedTypeName.get(MAP_ENTRY, STRING,
+                        ArrayTypeName.of(STRING)), "column", Modifier.FINAL)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("final $T foreignKey = column.getValue()[1].length() > 0 \n"
+                                + "? column.getValue()[1].substring(0, "
+                                + "column.getValue()[1].length() - 2).replaceAll($S, $S).trim() "
+                                + "\n: null", STRING, "\\s+", " ")
+                .addStatement("final $T existingForeignKey = getForeignKeyDefinition("
+                        + "existingForeignKeys, column.getKey())", STRING)
+                .addStatement("return !column.getValue()[0].replaceAll($S, $S).trim()\n"
+                                + ".equals(getColumnDefinition(existingColumns, column.getKey()))"
+                                + "\n|| (foreignKey == null \n? existingForeignKey != null "
+                                + "\n: !foreignKey.equals(existingForeignKey))",
+                        "\\s+", " ")
+                .build();
+    }
+
+    private MethodSpec buildDropColumnMethod() {
+        return MethodSpec.methodBuilder("dropColumn")
+                .addJavadoc("Drops a column in place, which is only possible as of SQLite "
+                        + "3.35.0 and for columns that are not\npart of any constraint or "
+                        + "index.\n\n@return true if the column was dropped\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(STRING, "tableName", Modifier.FINAL)
+                .addParameter(STRING, "column", Modifier.FINAL)
+                .addParameter(STRING, "existingColumns", Modifier.FINAL)
+                .addParameter(STRING, "existingForeignKeys", Modifier.FINAL)
+                .returns(TypeName.BOOLEAN)
+                .addStatement("final $T definition = getColumnDefinition(existingColumns, column)",
+                        STRING)
+                .beginControlFlow("if (getSQLiteVersion(database) < SQLITE_VERSION_DROP_COLUMN"
+                        + "\n|| definition == null"
+                        + "\n|| definition.contains($S)"
+                        + "\n|| definition.contains($S)"
+                        + "\n|| getForeignKeyDefinition(existingForeignKeys, column) != null)",
+                        " PRIMARY KEY", " UNIQUE")
+                .addStatement("return false")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .addStatement("database.execSQL($S + tableName + $S + column + $S)",
+                        "ALTER TABLE `", "` DROP COLUMN `", "`;")
+                .addStatement("return true")
+                .nextControlFlow("catch ($T e)", SQLITE_EXCEPTION)
+                .addComment("E.g. the column is indexed, fall back to recreating the table")
+                .addStatement("return false")
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec buildRenameColumnMethod() {
+        return MethodSpec.methodBuilder("renameColumn")
+                .addJavadoc("Renames a column if the table still has it under its previous "
+                        + "name. As of SQLite 3.25.0 the column\nis renamed in place, before "
+                        + "that its values are copied to a new column and the previous\ncolumn "
+                        + "is left to be deleted or kept like any other column that has been "
+                        + "removed.\nColumns that can not be added in place, e.g. NOT NULL "
+                        + "columns without defaults, are renamed by\nrecreating the table.\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(SQLITE_DATABASE, "database", Modifier.FINAL)
+                .addParameter(STRING, "tableName", Modifier.FINAL)
+                .addParameter(STRING, "from", Modifier.FINAL)
+                .addParameter(STRING, "to", Modifier.FINAL)
+                .addParameter(STRING, "definition", Modifier.FINAL)
+                .addStatement("final $T cursor = database.rawQuery($S + tableName + $S, null)",
+                        CURSOR, "PRAGMA table_info(`", "`)")
+                .addStatement("final $T<$T> columns = new $T<>()", LIST, STRING, ARRAY_LIST)
+                .beginControlFlow("try")
+                .beginControlFlow("while (cursor.moveToNext())")
+                .addStatement("columns.add(cursor.getString(COL_NAME_INDEX))")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .beginControlFlow("if (!columns.contains(from) || columns.contains(to))")
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if (getSQLiteVersion(database) >= SQLITE_VERSION_RENAME_COLUMN)")
+                .addStatement("database.execSQL($S + tableName + $S + from + $S + to + $S)",
+                        "ALTER TABLE `", "` RENAME COLUMN `", "` TO `", "`;")
+                .nextControlFlow("else if (!definition.contains($S)"
+                                + "\n&& !definition.contains($S)"
+                                + "\n&& !definition.contains($S))",
+                        " PRIMARY KEY", " UNIQUE", " NOT NULL")
+                .addStatement("database.execSQL($S + tableName + $S + definition)",
+                        "ALTER TABLE `", "` ADD COLUMN ")
+                .addStatement("database.execSQL($S + tableName + $S + to + $S + from + $S)",
+                        "UPDATE `", "` SET `", "` = `", "`;")
+                .nextControlFlow("else")
+                .addStatement("final $T createCursor = database.rawQuery(\n$S, \n"
+                                + "new $T[] { $S, tableName })", CURSOR,
+                        "SELECT `sql` FROM sqlite_master WHERE `type` = ? AND `name` = ?;",
+                        STRING, "table")
+                .addStatement("$T create", STRING)
+                .beginControlFlow("try")
+                .beginControlFlow("if (!createCursor.moveToFirst())")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("create = createCursor.getString(0)")
+                .nextControlFlow("finally")
+                .addStatement("createCursor.close()")
+                .endControlFlow()
+                .addStatement("final $T fromColumns = new $T(), toColumns = new $T()",
+                        STRING_BUILDER, STRING_BUILDER, STRING_BUILDER)
+                .beginControlFlow("for (final $T column : columns)", STRING)
+                .beginControlFlow("if (fromColumns.length() > 0)")
+                .addStatement("fromColumns.append($S)", ", ")
+                .addStatement("toColumns.append($S)", ", ")
+                .endControlFlow()
+                .addStatement("fromColumns.append('`').append(column).append('`')")
+                .addStatement("toColumns.append('`').append(column.equals(from) ? to : column)"
+                        + ".append('`')")
+                .endControlFlow()
+                .addStatement("create = create.replace($S + from + $S, $S + to + $S)\n"
+                                + ".replace($S + from + $S, $S + to + $S)\n"
+                                + ".replace($S + tableName, $S + tableName + $S)",
+                        "`", "` ", "`", "` ", "FOREIGN KEY(`", "`)", "FOREIGN KEY(`", "`)",
+                        "CREATE TABLE ", "CREATE TABLE ", "_backup")
+                .addStatement("database.execSQL(create)")
+                .addStatement("database.execSQL($S + tableName + $S + toColumns + $S "
+                                + "\n+ fromColumns + $S + tableName + $S)",
+                        "INSERT INTO ", "_backup (", ") SELECT ", " FROM ", ";")
+                .addStatement("database.execSQL($S + tableName + $S)", "DROP TABLE ", ";")
+                .addStatement("database.execSQL($S + tableName + $S + tableName + $S)",
+                        "ALTER TABLE ", "_backup RENAME TO ", ";")
+                .endControlFlow()
                 .build();
     }
 
@@ -809,6 +1656,22 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                 .build();
     }
 
+    private MethodSpec buildClearInstanceCachesMethod() {
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder("clearInstanceCaches")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(Override.class).build());
+        for (final Element tableElement : mTableElementMap.keySet()) {
+            final String packageName = mElementUtils
+                    .getPackageOf(tableElement)
+                    .getQualifiedName()
+                    .toString();
+            builder.addStatement("$T.clearInstanceCache()", ClassName.bestGuess(packageName + "."
+                    + getClassName((TypeElement) tableElement, packageName) + "_DAO"));
+        }
+
+        return builder.build();
+    }
+
     private MethodSpec buildGetWorkerMethod() {
         return MethodSpec.methodBuilder("getWorker")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
@@ -821,14 +1684,27 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
     public JavaFile writeJava() {
         final String className = (String.valueOf(mDatabaseName.charAt(0)).toUpperCase()
                 + mDatabaseName.substring(1)).replaceAll("\\.", "_");
-        final TypeSpec typeSpec = TypeSpec.classBuilder(
-                className + "_OpenHelper")
+        exportSchema();
+        final TypeSpec.Builder builder = TypeSpec.classBuilder(className + "_OpenHelper")
+                .addOriginatingElement(getTopLevelElement(mElement));
+        for (final Element tableElement : mTableElementMap.keySet()) {
+            builder.addOriginatingElement(getTopLevelElement(tableElement));
+        }
+
+        final TypeSpec typeSpec = builder
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                 .superclass(SQLITE_OPEN_HELPER)
                 .addSuperinterface(HIGHLITE_OPEN_HELPER)
                 .addStaticBlock(getStaticInitializer())
                 .addFields(Arrays.asList(
                         buildColNameIndexField(),
+                        buildCreateSchemaTableField(),
+                        buildCreateIndexTableField(),
+                        buildSQLiteVersionConstantField("SQLITE_VERSION_RENAME_COLUMN",
+                                SchemaSnapshot.SQLITE_VERSION_RENAME_COLUMN),
+                        buildSQLiteVersionConstantField("SQLITE_VERSION_DROP_COLUMN",
+                                SchemaSnapshot.SQLITE_VERSION_DROP_COLUMN),
+                        buildSQLiteVersionField(),
                         buildDbNameField(),
                         buildDbVersionField(),
                         buildInstanceField(),
@@ -841,7 +1717,19 @@ final class SQLiteOpenHelperClass extends JavaWritableClass {
                         buildOnCreateMethod(),
                         buildOnUpgradeMethod(),
                         buildDeleteDatabaseMethod(),
-                        buildGetWorkerMethod()
+                        buildClearInstanceCachesMethod(),
+                        buildGetWorkerMethod(),
+                        buildGetForeignKeyViolationsMethod(),
+                        buildCheckForeignKeysMethod(),
+                        buildSyncIndexesMethod(),
+                        buildGetSchemaFingerprintsMethod(),
+                        buildPutSchemaFingerprintMethod(),
+                        buildGetSQLiteVersionMethod(),
+                        buildGetColumnDefinitionMethod(),
+                        buildGetForeignKeyDefinitionMethod(),
+                        buildIsColumnChangedMethod(),
+                        buildDropColumnMethod(),
+                        buildRenameColumnMethod()
                 ))
                 .addMethods(buildOnUpgradeSubMethods())
                 .build();
@@ -0,0 +1,276 @@
+package com.jeppeman.highlite;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates the mapper of a class annotated with {@link SQLiteProjection}. Every field of the
+ * projection is checked against the column fields of its table when compiling, the mapper looks
+ * up the index of each column once per cursor and reads the columns by index.
+ *
+ * @author jesper
+ */
+final class SQLiteProjectionClass extends JavaWritableClass {
+
+    private static final ClassName SQLITE_PROJECTION_MAPPER = ClassName.get(
+            "com.jeppeman.highlite", "SQLiteProjectionMapper");
+    private static final String FIELDS_VAR_NAME = "FIELDS";
+
+    private final Element mElement;
+    private final Element mTableElement;
+    private final Elements mElementUtils;
+    private final Map<Element, String> mColumnNames = new LinkedHashMap<>();
+    private final Map<Element, Element> mColumnFields = new LinkedHashMap<>();
+
+    SQLiteProjectionClass(final Element element,
+                          final RoundMetadata metadata,
+                          final Elements elementUtils,
+                          final Types typeUtils) {
+        mElement = element;
+        mMetadata = metadata;
+        mElementUtils = elementUtils;
+        mTypeUtils = typeUtils;
+
+        TypeMirror mirror = null;
+        try {
+            element.getAnnotation(SQLiteProjection.class).table();
+        } catch (MirroredTypeException e) {
+            mirror = e.getTypeMirror();
+        }
+
+        mTableElement = mTypeUtils.asElement(mirror);
+        if (mTableElement == null || mTableElement.getAnnotation(SQLiteTable.class) == null) {
+            throw new ProcessingException(element, String.format("%s is not annotated with %s",
+                    mirror, SQLiteTable.class.getCanonicalName()));
+        }
+
+        validateClass();
+        mapFields();
+    }
+
+    private String getPackageName() {
+        return mElementUtils
+                .getPackageOf(mElement)
+                .getQualifiedName()
+                .toString();
+    }
+
+    private void validateClass() {
+        if (mElement.getKind() != ElementKind.CLASS
+                || mElement.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new ProcessingException(mElement, String.format("%s has to be a concrete class",
+                    mElement.getSimpleName()));
+        }
+
+        final List<ExecutableElement> constructors = ElementFilter.constructorsIn(
+                mElement.getEnclosedElements());
+        for (final ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty()
+                    && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return;
+            }
+        }
+
+        throw new ProcessingException(mElement, String.format("%s needs a non-private constructor "
+                + "without parameters", mElement.getSimpleName()));
+    }
+
+    private void mapFields() {
+        for (final Element enclosed : ElementFilter.fieldsIn(mElement.getEnclosedElements())) {
+            if (enclosed.getModifiers().contains(Modifier.STATIC)) continue;
+
+            if (enclosed.getModifiers().contains(Modifier.PRIVATE)
+                    || enclosed.getModifiers().contains(Modifier.FINAL)) {
+                throw new ProcessingException(enclosed, String.format("%s can neither be private "
+                        + "nor final", enclosed.getSimpleName()));
+            }
+
+            final Element columnField = findColumnField(enclosed);
+            final SQLiteColumn column = getColumn(columnField);
+            final Element valueField = column.foreignKey().enabled()
+                    ? findForeignKeyReferencedField(columnField, column.foreignKey())
+                    : columnField;
+            if (!TypeName.get(enclosed.asType()).box().equals(
+                    TypeName.get(valueField.asType()).box())) {
+                throw new ProcessingException(enclosed, String.format("%s has to be of type %s "
+                                + "to be projected from %s.%s", enclosed.getSimpleName(),
+                        valueField.asType(), mTableElement.getSimpleName(),
+                        columnField.getSimpleName()));
+            }
+
+            mColumnFields.put(enclosed, columnField);
+        }
+
+        if (mColumnFields.isEmpty()) {
+            throw new ProcessingException(mElement, String.format("%s has no fields to project",
+                    mElement.getSimpleName()));
+        }
+    }
+
+    private Element findColumnField(final Element projectionField) {
+        final String name = projectionField.getSimpleName().toString();
+        for (final Map.Entry<Element, List<Element>> entry
+                : getTypeFieldMap(mTableElement).entrySet()) {
+            for (final Element enclosed : getFields(entry.getKey())) {
+                if (getColumn(enclosed) == null
+                        || !name.equals(enclosed.getSimpleName().toString())) continue;
+
+                mColumnNames.put(projectionField, getDBFieldName(enclosed,
+                        getTableName(entry.getKey())));
+                return enclosed;
+            }
+        }
+
+        throw new ProcessingException(projectionField, String.format("%s is not a column field "
+                + "of %s", name, mTableElement.getSimpleName()));
+    }
+
+    private CodeBlock getReadStatement(final Element field, final String index) {
+        final TypeName typeName = TypeName.get(field.asType());
+        final boolean nullable = !typeName.isPrimitive();
+        final CodeBlock read;
+        if (typeName.box().equals(ClassName.get(Boolean.class))) {
+            read = CodeBlock.of("cursor.getInt($L) != 0", index);
+        } else if (typeName.box().equals(ClassName.get(Float.class))) {
+            read = CodeBlock.of("cursor.getFloat($L)", index);
+        } else if (typeName.box().equals(ClassName.get(Double.class))) {
+            read = CodeBlock.of("cursor.getDouble($L)", index);
+        } else if (typeName.box().equals(ClassName.get(Short.class))) {
+            read = CodeBlock.of("cursor.getShort($L)", index);
+        } else if (typeName.box().equals(ClassName.get(Integer.class))) {
+            read = CodeBlock.of("cursor.getInt($L)", index);
+        } else if (typeName.box().equals(ClassName.get(Long.class))) {
+            read = CodeBlock.of("cursor.getLong($L)", index);
+        } else if (typeName.equals(STRING)) {
+            return CodeBlock.of("row.$L = cursor.getString($L);\n", field.getSimpleName(), index);
+        } else if (typeName.equals(DATE)) {
+            read = CodeBlock.of("new $T(cursor.getLong($L))", DATE, index);
+        } else {
+            return CodeBlock.builder()
+                    .beginControlFlow("if (!cursor.isNull($L))", index)
+                    .beginControlFlow("try")
+                    .addStatement("final $T bis = new $T(cursor.getBlob($L))", BYTE_ARRAY_IS,
+                            BYTE_ARRAY_IS, index)
+                    .addStatement("row.$L = ($T) new $T(bis).readObject()",
+                            field.getSimpleName(), typeName, OBJECT_IS)
+                    .nextControlFlow("catch ($T | $T e)", IO_EXCEPTION, CLASS_NOT_FOUND_EXCEPTION)
+                    .addStatement("throw new $T(e)", RUNTIME_EXCEPTION)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .build();
+        }
+
+        return nullable
+                ? CodeBlock.of("row.$L = cursor.isNull($L) ? null : $L;\n", field.getSimpleName(),
+                index, read)
+                : CodeBlock.of("row.$L = $L;\n", field.getSimpleName(), read);
+    }
+
+    private FieldSpec buildFieldsField() {
+        final StringBuilder initializer = new StringBuilder("{");
+        final List<Object> args = new ArrayList<>();
+        for (final Element columnField : mColumnFields.values()) {
+            initializer.append(args.isEmpty() ? "$S" : ", $S");
+            args.add(columnField.getSimpleName().toString());
+        }
+
+        return FieldSpec.builder(ArrayTypeName.of(STRING), FIELDS_VAR_NAME, Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL)
+                .initializer(initializer.append("}").toString(), args.toArray())
+                .build();
+    }
+
+    private MethodSpec buildGetTableMethod() {
+        return MethodSpec.methodBuilder("getTable")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(Class.class),
+                        WildcardTypeName.subtypeOf(Object.class)))
+                .addStatement("return $T.class", ClassName.get((TypeElement) mTableElement))
+                .build();
+    }
+
+    private MethodSpec buildGetFieldsMethod() {
+        return MethodSpec.methodBuilder("getFields")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ArrayTypeName.of(STRING))
+                .addStatement("return $L.clone()", FIELDS_VAR_NAME)
+                .build();
+    }
+
+    private MethodSpec buildMapMethod() {
+        final ClassName projection = ClassName.get((TypeElement) mElement);
+        final CodeBlock.Builder indices = CodeBlock.builder(), reads = CodeBlock.builder();
+        for (final Map.Entry<Element, String> entry : mColumnNames.entrySet()) {
+            final String index = entry.getKey().getSimpleName() + "Index";
+            indices.addStatement("final int $L = cursor.getColumnIndexOrThrow($S)", index,
+                    entry.getValue());
+            reads.add(getReadStatement(entry.getKey(), index));
+        }
+
+        return MethodSpec.methodBuilder("map")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(CURSOR, "cursor", Modifier.FINAL)
+                .returns(ParameterizedTypeName.get(LIST, projection))
+                .addStatement("final $T<$T> ret = new $T<>(cursor.getCount())", LIST, projection,
+                        ARRAY_LIST)
+                .addCode(indices.build())
+                .beginControlFlow("while (cursor.moveToNext())")
+                .addStatement("final $T row = new $T()", projection, projection)
+                .addCode(reads.build())
+                .addStatement("ret.add(row)")
+                .endControlFlow()
+                .addStatement("return ret")
+                .build();
+    }
+
+    @Override
+    JavaFile writeJava() {
+        final TypeSpec typeSpec = TypeSpec.classBuilder(
+                ClassName.bestGuess(getPackageName()
+                        + "."
+                        + getClassName((TypeElement) mElement, getPackageName()) + "_Projection"))
+                .addOriginatingElement(getTopLevelElement(mElement))
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(SQLITE_PROJECTION_MAPPER,
+                        ClassName.get((TypeElement) mElement)))
+                .addField(buildFieldsField())
+                .addMethods(Arrays.asList(
+                        buildGetTableMethod(),
+                        buildGetFieldsMethod(),
+                        buildMapMethod()
+                ))
+                .build();
+
+        return JavaFile.builder(getPackageName(), typeSpec)
+                .addFileComment("Generated code from HighLite. Do not modify!")
+                .build();
+    }
+}
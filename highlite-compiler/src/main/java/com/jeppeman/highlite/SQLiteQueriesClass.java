@@ -0,0 +1,674 @@
+package com.jeppeman.highlite;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates the implementation of an interface annotated with {@link SQLiteQueries}. The query of
+ * every method is checked against the tables of the database when compiling, and is kept in a
+ * constant of the implementation. The parameters are bound with their own types by a cursor
+ * factory and single values are read from the first column of the cursor by index, table classes
+ * are instantiated by their DAOs.
+ *
+ * @author jesper
+ */
+final class SQLiteQueriesClass extends JavaWritableClass {
+
+    private static final ClassName CURSOR_FACTORY = SQLITE_DATABASE.nestedClass("CursorFactory");
+    private static final ClassName SQLITE_CURSOR = ClassName.get("android.database.sqlite",
+            "SQLiteCursor");
+    private static final ClassName SQLITE_CURSOR_DRIVER = ClassName.get("android.database.sqlite",
+            "SQLiteCursorDriver");
+    private static final ClassName SQLITE_PROGRAM_QUERY = ClassName.get("android.database.sqlite",
+            "SQLiteQuery");
+    private static final TypeName BLOB = ArrayTypeName.of(TypeName.BYTE);
+
+    private static final Pattern TOKEN = Pattern.compile("'(?:[^']|'')*'"
+            + "|--[^\\n]*"
+            + "|/\\*.*?\\*/"
+            + "|`([^`]*)`"
+            + "|\"([^\"]*)\""
+            + "|(\\?\\d*|[:@$][A-Za-z_]\\w*)"
+            + "|\\d+(?:\\.\\d*)?(?:[eE][+-]?\\d+)?"
+            + "|([A-Za-z_]\\w*)"
+            + "|(\\S)", Pattern.DOTALL);
+    private static final Set<String> CLAUSE_KEYWORDS = new HashSet<>(Arrays.asList("WHERE",
+            "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "OUTER", "ON", "USING",
+            "GROUP", "ORDER", "LIMIT", "HAVING", "UNION", "EXCEPT", "INTERSECT", "WINDOW",
+            "INDEXED", "NOT"));
+    // The keywords of SQLite, which are never taken for columns when they are not quoted
+    private static final Set<String> SQL_KEYWORDS = new HashSet<>(Arrays.asList("ABORT",
+            "ACTION", "ADD", "AFTER", "ALL", "ALTER", "ALWAYS", "ANALYZE", "AND", "AS", "ASC",
+            "ATTACH", "AUTOINCREMENT", "BEFORE", "BEGIN", "BETWEEN", "BY", "CASCADE", "CASE",
+            "CAST", "CHECK", "COLLATE", "COLUMN", "COMMIT", "CONFLICT", "CONSTRAINT", "CREATE",
+            "CROSS", "CURRENT", "CURRENT_DATE", "CURRENT_TIME", "CURRENT_TIMESTAMP", "DATABASE",
+            "DEFAULT", "DEFERRABLE", "DEFERRED", "DELETE", "DESC", "DETACH", "DISTINCT", "DO",
+            "DROP", "EACH", "ELSE", "END", "ESCAPE", "EXCEPT", "EXCLUDE", "EXCLUSIVE", "EXISTS",
+            "EXPLAIN", "FAIL", "FALSE", "FILTER", "FIRST", "FOLLOWING", "FOR", "FOREIGN", "FROM",
+            "FULL", "GENERATED", "GLOB", "GROUP", "GROUPS", "HAVING", "IF", "IGNORE",
+            "IMMEDIATE", "IN", "INDEX", "INDEXED", "INITIALLY", "INNER", "INSERT", "INSTEAD",
+            "INTERSECT", "INTO", "IS", "ISNULL", "JOIN", "KEY", "LAST", "LEFT", "LIKE", "LIMIT",
+            "MATCH", "MATERIALIZED", "NATURAL", "NO", "NOT", "NOTHING", "NOTNULL", "NULL",
+            "NULLS", "OF", "OFFSET", "ON", "OR", "ORDER", "OTHERS", "OUTER", "OVER", "PARTITION",
+            "PLAN", "PRAGMA", "PRECEDING", "PRIMARY", "QUERY", "RAISE", "RANGE", "RECURSIVE",
+            "REFERENCES", "REGEXP", "REINDEX", "RELEASE", "RENAME", "REPLACE", "RESTRICT",
+            "RETURNING", "RIGHT", "ROLLBACK", "ROW", "ROWS", "SAVEPOINT", "SELECT", "SET",
+            "TABLE", "TEMP", "TEMPORARY", "THEN", "TIES", "TO", "TRANSACTION", "TRIGGER", "TRUE",
+            "UNBOUNDED", "UNION", "UNIQUE", "UPDATE", "USING", "VACUUM", "VALUES", "VIEW",
+            "VIRTUAL", "WHEN", "WHERE", "WINDOW", "WITH", "WITHOUT"));
+    // Columns that every table has without declaring them
+    private static final Set<String> IMPLICIT_COLUMNS = new HashSet<>(Arrays.asList("rowid",
+            "oid", "_rowid_"));
+
+    private final Element mElement;
+    private final Element mDatabaseElement;
+    private final String mDatabaseName;
+    private final Map<Element, SQLiteTable> mTableElementMap;
+    private final Elements mElementUtils;
+    private final Map<String, Element> mTablesByName = new HashMap<>();
+    private final Map<String, Set<String>> mColumnsByTable = new HashMap<>();
+
+    SQLiteQueriesClass(final Element element,
+                       final Element databaseElement,
+                       final String databaseName,
+                       final Map<Element, SQLiteTable> tableElementMap,
+                       final RoundMetadata metadata,
+                       final Elements elementUtils,
+                       final Types typeUtils) {
+        mElement = element;
+        mDatabaseElement = databaseElement;
+        mDatabaseName = databaseName;
+        mTableElementMap = tableElementMap;
+        mMetadata = metadata;
+        mElementUtils = elementUtils;
+        mTypeUtils = typeUtils;
+    }
+
+    private String getPackageName() {
+        return mElementUtils
+                .getPackageOf(mElement)
+                .getQualifiedName()
+                .toString();
+    }
+
+    private ClassName getHelperClassName() {
+        return ClassName.get(mElementUtils.getPackageOf(mDatabaseElement).getQualifiedName()
+                        .toString(),
+                (String.valueOf(mDatabaseName.charAt(0)).toUpperCase()
+                        + mDatabaseName.substring(1) + "_OpenHelper").replaceAll("\\.", "_"));
+    }
+
+    private ClassName getDAOClassName(final Element tableElement) {
+        final String packageName = mElementUtils
+                .getPackageOf(tableElement)
+                .getQualifiedName()
+                .toString();
+        return ClassName.bestGuess(packageName + "."
+                + getClassName((TypeElement) tableElement, packageName) + "_DAO");
+    }
+
+    private void mapTables() {
+        for (final Element tableElement : mTableElementMap.keySet()) {
+            final String tableName = getTableName(tableElement);
+            final Set<String> columns = new HashSet<>();
+            for (final Element enclosed : getFields(tableElement)) {
+                if (getColumn(enclosed) == null) continue;
+
+                columns.add(getDBFieldName(enclosed, tableName).toLowerCase(Locale.US));
+            }
+
+            mTablesByName.put(tableName.toLowerCase(Locale.US), tableElement);
+            mColumnsByTable.put(tableName.toLowerCase(Locale.US), columns);
+        }
+    }
+
+    /**
+     * A token of a query, only the parts of the syntax that the validation needs are told apart.
+     */
+    private static final class Token {
+        static final int LITERAL = 0, QUOTED = 1, PARAMETER = 2, WORD = 3, SYMBOL = 4,
+                DOUBLE_QUOTED = 5;
+
+        final int mKind;
+        final String mText;
+
+        Token(final int kind, final String text) {
+            mKind = kind;
+            mText = text;
+        }
+
+        boolean isIdentifier() {
+            return mKind == QUOTED || mKind == WORD || mKind == DOUBLE_QUOTED;
+        }
+
+        boolean isKeyword() {
+            return mKind == WORD && SQL_KEYWORDS.contains(mText.toUpperCase(Locale.US));
+        }
+
+        boolean is(final String text) {
+            return (mKind == WORD || mKind == SYMBOL) && mText.equalsIgnoreCase(text);
+        }
+    }
+
+    private static List<Token> tokenize(final String sql) {
+        final List<Token> tokens = new ArrayList<>();
+        final Matcher matcher = TOKEN.matcher(sql);
+        while (matcher.find()) {
+            final String token = matcher.group();
+            if (token.startsWith("--") || token.startsWith("/*")) continue;
+
+            if (matcher.group(1) != null) {
+                tokens.add(new Token(Token.QUOTED, matcher.group(1)));
+            } else if (matcher.group(2) != null) {
+                // Can be a string as well, so it is not checked against the columns
+                tokens.add(new Token(Token.DOUBLE_QUOTED, matcher.group(2)));
+            } else if (matcher.group(3) != null) {
+                tokens.add(new Token(Token.PARAMETER, token));
+            } else if (matcher.group(4) != null) {
+                tokens.add(new Token(Token.WORD, token));
+            } else if (matcher.group(5) != null) {
+                tokens.add(new Token(Token.SYMBOL, token));
+            } else {
+                tokens.add(new Token(Token.LITERAL, token));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * The tables a query reads from, mapped by their names and aliases in the query.
+     */
+    private static final class QueryTables {
+        final Map<String, String> mTablesByAlias = new HashMap<>();
+        final Set<String> mTables = new HashSet<>();
+        final Set<String> mUnknownSources = new HashSet<>();
+        final Set<Integer> mTableTokens = new HashSet<>();
+    }
+
+    private int getParameterCount(final ExecutableElement method, final List<Token> tokens) {
+        int count = 0;
+        for (final Token token : tokens) {
+            if (token.mKind != Token.PARAMETER) continue;
+            if (!token.mText.equals("?")) {
+                throw new ProcessingException(method, String.format("Only ? placeholders are "
+                        + "supported in queries, found %s", token.mText));
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    private Set<String> getCommonTableExpressions(final List<Token> tokens) {
+        final Set<String> ret = new HashSet<>();
+        if (tokens.isEmpty() || !tokens.get(0).is("WITH")) return ret;
+
+        int i = 1;
+        if (i < tokens.size() && tokens.get(i).is("RECURSIVE")) i++;
+        while (i < tokens.size() && tokens.get(i).isIdentifier()) {
+            ret.add(tokens.get(i++).mText.toLowerCase(Locale.US));
+            if (i < tokens.size() && tokens.get(i).is("(")) i = skipParentheses(tokens, i);
+            if (i < tokens.size() && tokens.get(i).is("AS")) i++;
+            if (i < tokens.size() && tokens.get(i).is("(")) i = skipParentheses(tokens, i);
+            if (i >= tokens.size() || !tokens.get(i).is(",")) break;
+            i++;
+        }
+
+        return ret;
+    }
+
+    private static int skipParentheses(final List<Token> tokens, int i) {
+        int depth = 0;
+        for (; i < tokens.size(); i++) {
+            if (tokens.get(i).is("(")) depth++;
+            else if (tokens.get(i).is(")") && --depth == 0) return i + 1;
+        }
+
+        return i;
+    }
+
+    private QueryTables getTables(final ExecutableElement method, final List<Token> tokens) {
+        final Set<String> commonTableExpressions = getCommonTableExpressions(tokens);
+        final QueryTables ret = new QueryTables();
+        for (int i = 0; i < tokens.size(); i++) {
+            final boolean from = tokens.get(i).is("FROM")
+                    && (i == 0 || !tokens.get(i - 1).is("DISTINCT"));
+            if (!from && !tokens.get(i).is("JOIN")) continue;
+
+            int j = i + 1;
+            while (j < tokens.size() && tokens.get(j).isIdentifier()) {
+                if (j + 2 < tokens.size() && tokens.get(j + 1).is(".")) j += 2;
+
+                final String table = tokens.get(j).mText.toLowerCase(Locale.US);
+                ret.mTableTokens.add(j++);
+                if (commonTableExpressions.contains(table)) {
+                    ret.mUnknownSources.add(table);
+                } else if (mTablesByName.containsKey(table)) {
+                    ret.mTables.add(table);
+                    ret.mTablesByAlias.put(table, table);
+                } else {
+                    throw new ProcessingException(method, String.format("%s is not a table of "
+                            + "the database %s", tokens.get(j - 1).mText, mDatabaseName));
+                }
+
+                if (j < tokens.size() && tokens.get(j).is("AS")) j++;
+                if (j < tokens.size() && tokens.get(j).isIdentifier()
+                        && !CLAUSE_KEYWORDS.contains(tokens.get(j).mText.toUpperCase(Locale.US))) {
+                    final String alias = tokens.get(j).mText.toLowerCase(Locale.US);
+                    ret.mTableTokens.add(j++);
+                    if (ret.mTables.contains(table)) {
+                        ret.mTablesByAlias.put(alias, table);
+                    } else {
+                        ret.mUnknownSources.add(alias);
+                    }
+                }
+
+                if (!from || j >= tokens.size() || !tokens.get(j).is(",")) break;
+                j++;
+            }
+
+            // The tables of a sub query after FROM or JOIN are found as the tokens are walked
+            if (j == i + 1 && (j >= tokens.size() || !tokens.get(j).is("("))) {
+                throw new ProcessingException(method, "Expected a table after "
+                        + tokens.get(i).mText.toUpperCase(Locale.US));
+            }
+        }
+
+        return ret;
+    }
+
+    private void validateColumns(final ExecutableElement method,
+                                 final List<Token> tokens,
+                                 final QueryTables tables) {
+        final Set<String> aliases = new HashSet<>();
+        for (int i = 1; i < tokens.size(); i++) {
+            if (tokens.get(i).isIdentifier() && !tokens.get(i).isKeyword()
+                    && (tokens.get(i - 1).is("AS") || isImplicitAlias(tokens, i))) {
+                aliases.add(tokens.get(i).mText.toLowerCase(Locale.US));
+            }
+        }
+
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (!token.isIdentifier() || tables.mTableTokens.contains(i)
+                    || (i > 0 && tokens.get(i - 1).is("AS"))
+                    || (i + 1 < tokens.size() && tokens.get(i + 1).is("."))) continue;
+
+            final String column = token.mText.toLowerCase(Locale.US);
+            if (i > 1 && tokens.get(i - 1).is(".") && tokens.get(i - 2).isIdentifier()) {
+                final String table = tables.mTablesByAlias.get(
+                        tokens.get(i - 2).mText.toLowerCase(Locale.US));
+                if (table != null && !mColumnsByTable.get(table).contains(column)) {
+                    throw new ProcessingException(method, String.format("%s is not a column of "
+                            + "the table %s", token.mText, table));
+                }
+                continue;
+            }
+
+            // Keywords, function names, collations and strings are not columns
+            if (token.mKind == Token.DOUBLE_QUOTED || token.isKeyword()
+                    || (token.mKind == Token.WORD && i + 1 < tokens.size()
+                    && tokens.get(i + 1).is("("))
+                    || (i > 0 && tokens.get(i - 1).is("COLLATE"))
+                    || aliases.contains(column) || IMPLICIT_COLUMNS.contains(column)
+                    || !tables.mUnknownSources.isEmpty()) continue;
+
+            boolean found = false;
+            for (final String table : tables.mTables) {
+                found |= mColumnsByTable.get(table).contains(column);
+            }
+
+            if (!found) {
+                throw new ProcessingException(method, String.format("%s is not a column of "
+                        + "any of the tables %s", token.mText, tables.mTables));
+            }
+        }
+    }
+
+    /**
+     * Tells whether an identifier names the expression before it without AS, as in
+     * "SELECT COUNT(*) total FROM ..." or "FROM (SELECT ...) t".
+     */
+    private static boolean isImplicitAlias(final List<Token> tokens, final int i) {
+        final Token previous = tokens.get(i - 1);
+        if (previous.is(")")) return true;
+        if (previous.mKind == Token.SYMBOL || previous.isKeyword()
+                || (i > 1 && tokens.get(i - 2).is("COLLATE"))) return false;
+
+        final Token next = i + 1 < tokens.size() ? tokens.get(i + 1) : null;
+        return next != null && (next.is(",") || next.is("FROM"));
+    }
+
+    private static TypeName unbox(final TypeName type) {
+        return type.isBoxedPrimitive() ? type.unbox() : type;
+    }
+
+    private static boolean isValueType(final TypeName type) {
+        final TypeName unboxed = unbox(type);
+        return unboxed.equals(TypeName.LONG)
+                || unboxed.equals(TypeName.INT)
+                || unboxed.equals(TypeName.SHORT)
+                || unboxed.equals(TypeName.BOOLEAN)
+                || unboxed.equals(TypeName.FLOAT)
+                || unboxed.equals(TypeName.DOUBLE)
+                || unboxed.equals(STRING)
+                || unboxed.equals(DATE)
+                || unboxed.equals(BLOB);
+    }
+
+    private CodeBlock buildBindStatement(final VariableElement parameter, final int index) {
+        final TypeName type = TypeName.get(parameter.asType());
+        final TypeName unboxed = unbox(type);
+        final String name = parameter.getSimpleName().toString();
+        final CodeBlock bind;
+        if (unboxed.equals(TypeName.BOOLEAN)) {
+            bind = CodeBlock.of("query.bindLong($L, $L ? 1 : 0)", index, name);
+        } else if (unboxed.equals(TypeName.FLOAT) || unboxed.equals(TypeName.DOUBLE)) {
+            bind = CodeBlock.of("query.bindDouble($L, $L)", index, name);
+        } else if (unboxed.equals(STRING)) {
+            bind = CodeBlock.of("query.bindString($L, $L)", index, name);
+        } else if (unboxed.equals(BLOB)) {
+            bind = CodeBlock.of("query.bindBlob($L, $L)", index, name);
+        } else if (unboxed.equals(DATE)) {
+            bind = CodeBlock.of("query.bindLong($L, $L.getTime())", index, name);
+        } else {
+            bind = CodeBlock.of("query.bindLong($L, $L)", index, name);
+        }
+
+        if (type.isPrimitive()) {
+            return CodeBlock.builder().addStatement("$L", bind).build();
+        }
+
+        return CodeBlock.builder()
+                .beginControlFlow("if ($L == null)", name)
+                .addStatement("query.bindNull($L)", index)
+                .nextControlFlow("else")
+                .addStatement("$L", bind)
+                .endControlFlow()
+                .build();
+    }
+
+    private static CodeBlock readFirstColumn(final TypeName type) {
+        final TypeName unboxed = unbox(type);
+        if (unboxed.equals(TypeName.LONG)) return CodeBlock.of("cursor.getLong(0)");
+        if (unboxed.equals(TypeName.INT)) return CodeBlock.of("cursor.getInt(0)");
+        if (unboxed.equals(TypeName.SHORT)) return CodeBlock.of("cursor.getShort(0)");
+        if (unboxed.equals(TypeName.BOOLEAN)) return CodeBlock.of("cursor.getInt(0) != 0");
+        if (unboxed.equals(TypeName.FLOAT)) return CodeBlock.of("cursor.getFloat(0)");
+        if (unboxed.equals(TypeName.DOUBLE)) return CodeBlock.of("cursor.getDouble(0)");
+        if (unboxed.equals(STRING)) return CodeBlock.of("cursor.getString(0)");
+        if (unboxed.equals(DATE)) return CodeBlock.of("new $T(cursor.getLong(0))", DATE);
+        return CodeBlock.of("cursor.getBlob(0)");
+    }
+
+    private static String getSqlFieldName(final ExecutableElement method,
+                                          final Set<String> usedNames) {
+        final String base = method.getSimpleName().toString()
+                .replaceAll("(.)(\\p{Upper})", "$1_$2")
+                .toUpperCase(Locale.US) + "_SQL";
+        String name = base;
+        for (int i = 2; !usedNames.add(name); i++) {
+            name = base + "_" + i;
+        }
+
+        return name;
+    }
+
+    private MethodSpec buildQueryMethod(final ExecutableElement method, final String sqlField) {
+        final SQLiteQueryMethod queryMethod = method.getAnnotation(SQLiteQueryMethod.class);
+        final String sql = queryMethod.value();
+        final List<Token> tokens = tokenize(sql);
+        if (tokens.isEmpty() || (!tokens.get(0).is("SELECT") && !tokens.get(0).is("WITH"))) {
+            throw new ProcessingException(method, String.format("Only SELECT statements can be "
+                    + "declared with %s", SQLiteQueryMethod.class.getCanonicalName()));
+        }
+
+        final List<? extends VariableElement> parameters = method.getParameters();
+        final int parameterCount = getParameterCount(method, tokens);
+        if (parameterCount != parameters.size()) {
+            throw new ProcessingException(method, String.format("The query has %d placeholders "
+                    + "but the method has %d parameters", parameterCount, parameters.size()));
+        }
+
+        final QueryTables tables = getTables(method, tokens);
+        validateColumns(method, tokens, tables);
+
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder(
+                method.getSimpleName().toString())
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.get(method.getReturnType()));
+
+        final CodeBlock.Builder binds = CodeBlock.builder();
+        final StringBuilder args = new StringBuilder();
+        for (int i = 0; i < parameters.size(); i++) {
+            final VariableElement parameter = parameters.get(i);
+            if (!isValueType(TypeName.get(parameter.asType()))) {
+                throw new ProcessingException(parameter, String.format("Parameters of type %s "
+                        + "can't be bound to queries", parameter.asType()));
+            }
+
+            builder.addParameter(TypeName.get(parameter.asType()),
+                    parameter.getSimpleName().toString(), Modifier.FINAL);
+            binds.add(buildBindStatement(parameter, i + 1));
+            args.append(i > 0 ? ", " : "").append(parameter.getSimpleName());
+        }
+
+        if (parameters.isEmpty()) {
+            builder.addStatement("final $T cursor = $T.rawQuery(getReadableDatabase(), $L, null)",
+                    CURSOR, DATABASE_CALLS, sqlField);
+        } else {
+            final TypeSpec factory = TypeSpec.anonymousClassBuilder("")
+                    .addSuperinterface(CURSOR_FACTORY)
+                    .addMethod(MethodSpec.methodBuilder("newCursor")
+                            .addAnnotation(Override.class)
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(CURSOR)
+                            .addParameter(SQLITE_DATABASE, "db", Modifier.FINAL)
+                            .addParameter(SQLITE_CURSOR_DRIVER, "driver", Modifier.FINAL)
+                            .addParameter(STRING, "editTable", Modifier.FINAL)
+                            .addParameter(SQLITE_PROGRAM_QUERY, "query", Modifier.FINAL)
+                            .addCode(binds.build())
+                            .addStatement("return new $T(driver, editTable, query)",
+                                    SQLITE_CURSOR)
+                            .build())
+                    .build();
+            builder.addStatement("final $T cursor = $T.rawQueryWithFactory(getReadableDatabase(), "
+                            + "$L, $L, new $T[] { $L })", CURSOR, DATABASE_CALLS, factory,
+                    sqlField, Object.class, args);
+        }
+
+        builder.beginControlFlow("try")
+                .addCode(buildReadBlock(method, queryMethod, tables))
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow();
+
+        return builder.build();
+    }
+
+    private CodeBlock buildReadBlock(final ExecutableElement method,
+                                     final SQLiteQueryMethod queryMethod,
+                                     final QueryTables tables) {
+        final TypeMirror returnType = method.getReturnType();
+        final TypeName returnTypeName = TypeName.get(returnType);
+        final boolean list = returnType.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) returnType).getTypeArguments().size() == 1
+                && mTypeUtils.asElement(returnType).toString().equals(List.class.getName());
+        final TypeMirror rowType = list
+                ? ((DeclaredType) returnType).getTypeArguments().get(0)
+                : returnType;
+        final TypeName rowTypeName = TypeName.get(rowType);
+
+        final CodeBlock.Builder block = CodeBlock.builder();
+        if (isValueType(rowTypeName)) {
+            if (list) {
+                return block.addStatement("final $T ret = new $T<>(cursor.getCount())",
+                        returnTypeName, ARRAY_LIST)
+                        .beginControlFlow("while (cursor.moveToNext())")
+                        .addStatement("ret.add(cursor.isNull(0) ? null : $L)",
+                                readFirstColumn(rowTypeName))
+                        .endControlFlow()
+                        .addStatement("return ret")
+                        .build();
+            }
+
+            return block.beginControlFlow("if (!cursor.moveToFirst() || cursor.isNull(0))")
+                    .addStatement("return $L", rowTypeName.isPrimitive()
+                            ? rowTypeName.equals(TypeName.BOOLEAN) ? "false" : "0"
+                            : "null")
+                    .endControlFlow()
+                    .addStatement("return $L", readFirstColumn(rowTypeName))
+                    .build();
+        }
+
+        final Element rowElement = rowType.getKind() == TypeKind.DECLARED
+                ? mTypeUtils.asElement(rowType)
+                : null;
+        if (rowElement == null || !mTableElementMap.containsKey(rowElement)) {
+            throw new ProcessingException(method, String.format("%s is neither a value nor a "
+                    + "table of the database %s", rowType, mDatabaseName));
+        }
+
+        final String tableName = getTableName(rowElement);
+        if (!tables.mTables.contains(tableName.toLowerCase(Locale.US))) {
+            throw new ProcessingException(method, String.format("The query has to select from "
+                    + "%s to return %s", tableName, rowType));
+        }
+
+        final ClassName daoClassName = getDAOClassName(rowElement);
+        final CodeBlock fetchPlan = CodeBlock.of("$T.of($L, $L)", FETCH_PLAN,
+                queryMethod.fetchForeignKeys(), queryMethod.fetchRelationships());
+        if (list) {
+            return block.addStatement("final $T dao = new $T(null)", daoClassName, daoClassName)
+                    .addStatement("final $T fetchPlan = $L", FETCH_PLAN, fetchPlan)
+                    .addStatement("final $T[] columnFields = $T.mapColumns(cursor, $S)", STRING,
+                            daoClassName, "")
+                    .addStatement("final $T ret = new $T<>(cursor.getCount())",
+                            returnTypeName, ARRAY_LIST)
+                    .beginControlFlow("while (cursor.moveToNext())")
+                    .addStatement("ret.add(dao.instantiateObject(cursor, mContext, $S, "
+                            + "columnFields, fetchPlan, false))", "")
+                    .endControlFlow()
+                    .addStatement("return ret")
+                    .build();
+        }
+
+        return block.beginControlFlow("if (!cursor.moveToFirst())")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("return new $T(null).instantiateObject(cursor, mContext, $L, false)",
+                        daoClassName, fetchPlan)
+                .build();
+    }
+
+    private List<MethodSpec> buildQueryMethods(final Map<String, String> sqlFields) {
+        final List<MethodSpec> ret = new ArrayList<>();
+        final Set<String> usedNames = new HashSet<>();
+        for (final ExecutableElement method
+                : ElementFilter.methodsIn(mElement.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.STATIC)) continue;
+
+            if (method.getAnnotation(SQLiteQueryMethod.class) == null) {
+                throw new ProcessingException(method, String.format("Methods of %s have to be "
+                                + "annotated with %s", mElement.getSimpleName(),
+                        SQLiteQueryMethod.class.getCanonicalName()));
+            }
+
+            if (!method.getTypeParameters().isEmpty()) {
+                throw new ProcessingException(method, "Query methods can't have type parameters");
+            }
+
+            final String sqlField = getSqlFieldName(method, usedNames);
+            ret.add(buildQueryMethod(method, sqlField));
+            sqlFields.put(sqlField, method.getAnnotation(SQLiteQueryMethod.class).value());
+        }
+
+        return ret;
+    }
+
+    @Override
+    JavaFile writeJava() {
+        if (mElement.getKind() != ElementKind.INTERFACE) {
+            throw new ProcessingException(mElement, String.format("%s can only be declared on "
+                    + "interfaces", SQLiteQueries.class.getCanonicalName()));
+        }
+
+        mapTables();
+
+        final Map<String, String> sqlFields = new LinkedHashMap<>();
+        final List<MethodSpec> queryMethods = buildQueryMethods(sqlFields);
+
+        final TypeSpec.Builder builder = TypeSpec.classBuilder(
+                ClassName.bestGuess(getPackageName()
+                        + "."
+                        + getClassName((TypeElement) mElement, getPackageName()) + "_Impl"))
+                .addOriginatingElement(getTopLevelElement(mElement))
+                .addOriginatingElement(getTopLevelElement(mDatabaseElement));
+        for (final Element tableElement : mTableElementMap.keySet()) {
+            builder.addOriginatingElement(getTopLevelElement(tableElement));
+        }
+
+        for (final Map.Entry<String, String> sqlField : sqlFields.entrySet()) {
+            builder.addField(FieldSpec.builder(STRING, sqlField.getKey(), Modifier.PRIVATE,
+                    Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", sqlField.getValue())
+                    .build());
+        }
+
+        final TypeSpec typeSpec = builder
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(ClassName.get((TypeElement) mElement))
+                .addField(CONTEXT, "mContext", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(CONTEXT, "context", Modifier.FINAL)
+                        .addStatement("mContext = context.getApplicationContext()")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("getReadableDatabase")
+                        .addModifiers(Modifier.PRIVATE)
+                        .returns(SQLITE_DATABASE)
+                        .addStatement("return $T.getInstance(mContext).getReadableDatabase()",
+                                getHelperClassName())
+                        .build())
+                .addMethods(queryMethods)
+                .build();
+
+        return JavaFile.builder(getPackageName(), typeSpec)
+                .addFileComment("Generated code from HighLite. Do not modify!")
+                .build();
+    }
+}
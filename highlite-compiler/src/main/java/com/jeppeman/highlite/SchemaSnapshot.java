@@ -0,0 +1,612 @@
+package com.jeppeman.highlite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The schema of a database as it was at a given version, i.e. the definitions of its tables and
+ * their columns. Snapshots are exported as JSON files by the {@link HighLiteProcessor} when the
+ * {@value #OPTION_SCHEMA_LOCATION} option is set, one file per database version, and the snapshot
+ * of the previous version is used to compute the statements needed to migrate each table to its
+ * current definition at compile time.
+ *
+ * @author jesper
+ */
+final class SchemaSnapshot {
+
+    static final String OPTION_SCHEMA_LOCATION = "highlite.schemaLocation";
+
+    static final int SQLITE_VERSION_RENAME_COLUMN = 3025000;
+    static final int SQLITE_VERSION_DROP_COLUMN = 3035000;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final int mVersion;
+    private final Map<String, Table> mTables = new LinkedHashMap<>();
+
+    SchemaSnapshot(final int version) {
+        mVersion = version;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    Table getTable(final String name) {
+        return mTables.get(name);
+    }
+
+    void putTable(final Table table) {
+        mTables.put(table.mName, table);
+    }
+
+    /**
+     * The definition of a single table, column and foreign key definitions are keyed by the name
+     * of the column they apply to and index definitions by the name of the index.
+     */
+    static final class Table {
+
+        private final String mName;
+        private final String mFingerprint;
+        private final boolean mAutoAddColumns;
+        private final boolean mAutoDeleteColumns;
+        private final Map<String, String> mColumns;
+        private final Map<String, String> mForeignKeys;
+        private final Map<String, String> mRenamedFrom;
+        private final Map<String, String> mIndexes;
+
+        Table(final String name,
+              final String fingerprint,
+              final boolean autoAddColumns,
+              final boolean autoDeleteColumns,
+              final Map<String, String> columns,
+              final Map<String, String> foreignKeys,
+              final Map<String, String> renamedFrom,
+              final Map<String, String> indexes) {
+            mName = name;
+            mFingerprint = fingerprint;
+            mAutoAddColumns = autoAddColumns;
+            mAutoDeleteColumns = autoDeleteColumns;
+            mColumns = columns;
+            mForeignKeys = foreignKeys;
+            mRenamedFrom = renamedFrom;
+            mIndexes = indexes;
+        }
+
+        String getFingerprint() {
+            return mFingerprint;
+        }
+
+        /**
+         * Computes the statements that migrate this table from a previous definition. Columns
+         * are added, renamed and dropped in place whenever SQLite allows it for the columns in
+         * question, any other change is made by copying the table. Columns are only added and
+         * removed if the table is set to do so automatically, in line with the upgrades done at
+         * runtime.
+         *
+         * @param previous the definition of the table in the previous snapshot
+         * @return the migration, without statements if the definition has not changed
+         */
+        Migration getMigrationFrom(final Table previous) {
+            if (mFingerprint.equals(previous.mFingerprint)) {
+                return new Migration(new ArrayList<String>(), 0, null);
+            }
+
+            // Current column name -> previous column name
+            final Map<String, String> keptColumns = new LinkedHashMap<>();
+            final Map<String, String> columns = new LinkedHashMap<>(),
+                    foreignKeys = new LinkedHashMap<>();
+            final List<String> inPlace = new ArrayList<>();
+            final List<String> renames = new ArrayList<>(),
+                    drops = new ArrayList<>();
+            boolean canMigrateInPlace = filter(previous.mForeignKeys, mColumns)
+                    .equals(filter(mForeignKeys, previous.mColumns));
+            int minSQLiteVersion = 0;
+            for (final Map.Entry<String, String> column : mColumns.entrySet()) {
+                final String name = column.getKey(),
+                        renamedFrom = mRenamedFrom.get(name);
+                if (previous.mColumns.containsKey(name)) {
+                    keptColumns.put(name, name);
+                    canMigrateInPlace &= previous.mColumns.get(name).equals(column.getValue());
+                } else if (renamedFrom != null && previous.mColumns.containsKey(renamedFrom)
+                        && !mColumns.containsKey(renamedFrom)) {
+                    keptColumns.put(name, renamedFrom);
+                    canMigrateInPlace &= previous.mColumns.get(renamedFrom)
+                            .equals(column.getValue().replace("`" + name + "`",
+                                    "`" + renamedFrom + "`"))
+                            && !mForeignKeys.containsKey(name);
+                    renames.add(String.format("ALTER TABLE `%s` RENAME COLUMN `%s` TO `%s`;",
+                            mName, renamedFrom, name));
+                    minSQLiteVersion = Math.max(minSQLiteVersion, SQLITE_VERSION_RENAME_COLUMN);
+                } else if (mAutoAddColumns) {
+                    canMigrateInPlace &= isAddableInPlace(column.getValue())
+                            && !mForeignKeys.containsKey(name);
+                    inPlace.add(String.format("ALTER TABLE `%s` ADD COLUMN %s;", mName,
+                            column.getValue()));
+                } else {
+                    continue;
+                }
+
+                columns.put(name, column.getValue());
+                if (mForeignKeys.containsKey(name)) {
+                    foreignKeys.put(name, mForeignKeys.get(name));
+                }
+            }
+
+            for (final Map.Entry<String, String> column : previous.mColumns.entrySet()) {
+                final String name = column.getKey();
+                if (mColumns.containsKey(name) || keptColumns.containsValue(name)) continue;
+
+                if (mAutoDeleteColumns) {
+                    canMigrateInPlace &= isAddableInPlace(column.getValue())
+                            && !previous.mForeignKeys.containsKey(name)
+                            && !isIndexed(previous.mIndexes, name);
+                    drops.add(String.format("ALTER TABLE `%s` DROP COLUMN `%s`;", mName, name));
+                    minSQLiteVersion = Math.max(minSQLiteVersion, SQLITE_VERSION_DROP_COLUMN);
+                } else {
+                    keptColumns.put(name, name);
+                    columns.put(name, column.getValue());
+                    if (previous.mForeignKeys.containsKey(name)) {
+                        foreignKeys.put(name, previous.mForeignKeys.get(name));
+                    }
+                }
+            }
+
+            final List<String> definitions = new ArrayList<>(columns.values());
+            definitions.addAll(foreignKeys.values());
+            final List<String> copy = new ArrayList<>();
+            copy.add(String.format("CREATE TABLE %s_backup (%s);", mName, join(definitions)));
+            copy.add(String.format("INSERT INTO %s_backup (%s) SELECT %s FROM %s;", mName,
+                    join(quote(keptColumns.keySet())), join(quote(keptColumns.values())), mName));
+            copy.add(String.format("DROP TABLE %s;", mName));
+            copy.add(String.format("ALTER TABLE %s_backup RENAME TO %s;", mName, mName));
+
+            if (!canMigrateInPlace) {
+                return new Migration(null, 0, copy);
+            }
+
+            inPlace.addAll(0, renames);
+            inPlace.addAll(drops);
+            return new Migration(inPlace, minSQLiteVersion, minSQLiteVersion > 0 ? copy : null);
+        }
+
+        private static boolean isIndexed(final Map<String, String> indexes, final String column) {
+            for (final String index : indexes.values()) {
+                if (index.contains("`" + column + "`")) return true;
+            }
+            return false;
+        }
+
+        private static boolean isAddableInPlace(final String definition) {
+            return !definition.contains(" PRIMARY KEY")
+                    && !definition.contains(" UNIQUE")
+                    && !definition.contains(" NOT NULL");
+        }
+
+        private static Map<String, String> filter(final Map<String, String> map,
+                                                  final Map<String, String> keys) {
+            final Map<String, String> ret = new LinkedHashMap<>();
+            for (final Map.Entry<String, String> entry : map.entrySet()) {
+                if (keys.containsKey(entry.getKey())) {
+                    ret.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return ret;
+        }
+
+        private static List<String> quote(final Collection<String> names) {
+            final List<String> ret = new ArrayList<>();
+            for (final String name : names) {
+                ret.add("`" + name + "`");
+            }
+            return ret;
+        }
+
+        private static String join(final List<String> parts) {
+            final StringBuilder builder = new StringBuilder();
+            for (final String part : parts) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(part);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * The statements that migrate a table, either in place, by copying the table, or in place
+     * if the version of SQLite on the device is recent enough and by copying otherwise.
+     */
+    static final class Migration {
+
+        private final List<String> mInPlaceStatements;
+        private final int mMinSQLiteVersion;
+        private final List<String> mCopyStatements;
+
+        Migration(final List<String> inPlaceStatements,
+                  final int minSQLiteVersion,
+                  final List<String> copyStatements) {
+            mInPlaceStatements = inPlaceStatements;
+            mMinSQLiteVersion = minSQLiteVersion;
+            mCopyStatements = copyStatements;
+        }
+
+        /**
+         * @return the statements that migrate the table in place, or null if it has to be copied
+         */
+        List<String> getInPlaceStatements() {
+            return mInPlaceStatements;
+        }
+
+        /**
+         * @return the version of SQLite required by the in place statements, 0 if any version
+         */
+        int getMinSQLiteVersion() {
+            return mMinSQLiteVersion;
+        }
+
+        /**
+         * @return the statements that migrate the table by copying it, or null if it can always
+         * be migrated in place
+         */
+        List<String> getCopyStatements() {
+            return mCopyStatements;
+        }
+    }
+
+    /**
+     * Finds the snapshot of the latest version before the given one.
+     *
+     * @param directory the directory holding the snapshots of a database
+     * @param version   the current version of the database
+     * @return the snapshot, or null if there is none
+     */
+    static SchemaSnapshot readPrevious(final File directory, final int version)
+            throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) return null;
+
+        int previousVersion = -1;
+        for (final File file : files) {
+            final String name = file.getName();
+            if (!name.matches("\\d+\\.json")) continue;
+
+            final int fileVersion = Integer.parseInt(name.substring(0, name.indexOf('.')));
+            if (fileVersion < version && fileVersion > previousVersion) {
+                previousVersion = fileVersion;
+            }
+        }
+
+        return previousVersion >= 0
+                ? read(new File(directory, previousVersion + ".json"))
+                : null;
+    }
+
+    private static SchemaSnapshot read(final File file) throws IOException {
+        final StringBuilder json = new StringBuilder();
+        try (InputStream in = new FileInputStream(file);
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            final char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+        }
+
+        try {
+            return fromJson(new JsonParser(json.toString()).parse());
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed schema snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SchemaSnapshot fromJson(final Object json) {
+        final Map<String, Object> root = (Map<String, Object>) json;
+        final SchemaSnapshot snapshot = new SchemaSnapshot(
+                ((Number) root.get("version")).intValue());
+        for (final Object tableJson : (List<Object>) root.get("tables")) {
+            final Map<String, Object> table = (Map<String, Object>) tableJson;
+            snapshot.putTable(new Table((String) table.get("name"),
+                    (String) table.get("fingerprint"),
+                    (Boolean) table.get("autoAddColumns"),
+                    (Boolean) table.get("autoDeleteColumns"),
+                    toDefinitions((List<Object>) table.get("columns"), "column", "definition"),
+                    toDefinitions((List<Object>) table.get("foreignKeys"), "column",
+                            "definition"),
+                    toDefinitions((List<Object>) table.get("columns"), "column", "renamedFrom"),
+                    toDefinitions((List<Object>) table.get("indexes"), "name", "definition")));
+        }
+        return snapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> toDefinitions(final List<Object> json,
+                                                     final String keyName,
+                                                     final String valueName) {
+        final Map<String, String> ret = new LinkedHashMap<>();
+        if (json == null) return ret;
+
+        for (final Object definitionJson : json) {
+            final Map<String, Object> definition = (Map<String, Object>) definitionJson;
+            if (definition.containsKey(valueName)) {
+                ret.put((String) definition.get(keyName), (String) definition.get(valueName));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes this snapshot to {@code <version>.json} in the given directory.
+     *
+     * @param directory the directory holding the snapshots of a database
+     */
+    void write(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, mVersion + ".json")),
+                StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+
+    private String toJson() {
+        final StringBuilder json = new StringBuilder()
+                .append("{\n")
+                .append("  \"formatVersion\": ").append(FORMAT_VERSION).append(",\n")
+                .append("  \"version\": ").append(mVersion).append(",\n")
+                .append("  \"tables\": [");
+        boolean first = true;
+        for (final Table table : mTables.values()) {
+            json.append(first ? "\n" : ",\n")
+                    .append("    {\n")
+                    .append("      \"name\": ").append(quoteJson(table.mName)).append(",\n")
+                    .append("      \"fingerprint\": ").append(quoteJson(table.mFingerprint))
+                    .append(",\n")
+                    .append("      \"autoAddColumns\": ").append(table.mAutoAddColumns)
+                    .append(",\n")
+                    .append("      \"autoDeleteColumns\": ").append(table.mAutoDeleteColumns)
+                    .append(",\n")
+                    .append("      \"columns\": ");
+            appendDefinitions(json, "column", table.mColumns, table.mRenamedFrom);
+            json.append(",\n      \"foreignKeys\": ");
+            appendDefinitions(json, "column", table.mForeignKeys, null);
+            json.append(",\n      \"indexes\": ");
+            appendDefinitions(json, "name", table.mIndexes, null);
+            json.append("\n    }");
+            first = false;
+        }
+        return json.append(first ? "]\n" : "\n  ]\n").append("}\n").toString();
+    }
+
+    private static void appendDefinitions(final StringBuilder json,
+                                          final String keyName,
+                                          final Map<String, String> definitions,
+                                          final Map<String, String> renamedFrom) {
+        if (definitions.isEmpty()) {
+            json.append("[]");
+            return;
+        }
+
+        json.append("[");
+        boolean first = true;
+        for (final Map.Entry<String, String> definition : definitions.entrySet()) {
+            json.append(first ? "\n" : ",\n")
+                    .append("        { ").append(quoteJson(keyName)).append(": ")
+                    .append(quoteJson(definition.getKey()))
+                    .append(", \"definition\": ").append(quoteJson(definition.getValue()));
+            if (renamedFrom != null && renamedFrom.containsKey(definition.getKey())) {
+                json.append(", \"renamedFrom\": ")
+                        .append(quoteJson(renamedFrom.get(definition.getKey())));
+            }
+            json.append(" }");
+            first = false;
+        }
+        json.append("\n      ]");
+    }
+
+    private static String quoteJson(final String value) {
+        final StringBuilder ret = new StringBuilder("\"");
+        for (final char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    ret.append("\\\"");
+                    break;
+                case '\\':
+                    ret.append("\\\\");
+                    break;
+                case '\n':
+                    ret.append("\\n");
+                    break;
+                case '\t':
+                    ret.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        ret.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        ret.append(c);
+                    }
+            }
+        }
+        return ret.append("\"").toString();
+    }
+
+    /**
+     * Minimal parser for the JSON written by {@link #toJson()}, objects are parsed into maps,
+     * arrays into lists, and numbers into longs.
+     */
+    private static final class JsonParser {
+
+        private final String mJson;
+        private int mPos;
+
+        JsonParser(final String json) {
+            mJson = json;
+        }
+
+        Object parse() {
+            final Object value = parseValue();
+            skipWhitespace();
+            if (mPos != mJson.length()) {
+                throw new IllegalArgumentException("Unexpected content at " + mPos);
+            }
+            return value;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            final char c = peek();
+            if (c == '{') return parseObject();
+            if (c == '[') return parseArray();
+            if (c == '"') return parseString();
+            if (mJson.startsWith("true", mPos)) {
+                mPos += 4;
+                return true;
+            }
+            if (mJson.startsWith("false", mPos)) {
+                mPos += 5;
+                return false;
+            }
+            if (mJson.startsWith("null", mPos)) {
+                mPos += 4;
+                return null;
+            }
+
+            final int start = mPos;
+            while (mPos < mJson.length() && "-0123456789".indexOf(mJson.charAt(mPos)) >= 0) {
+                mPos++;
+            }
+            if (start == mPos) {
+                throw new IllegalArgumentException("Unexpected character at " + mPos);
+            }
+            return Long.parseLong(mJson.substring(start, mPos));
+        }
+
+        private Map<String, Object> parseObject() {
+            final Map<String, Object> ret = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                mPos++;
+                return ret;
+            }
+
+            do {
+                skipWhitespace();
+                final String key = parseString();
+                skipWhitespace();
+                expect(':');
+                ret.put(key, parseValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+            return ret;
+        }
+
+        private List<Object> parseArray() {
+            final List<Object> ret = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                mPos++;
+                return ret;
+            }
+
+            do {
+                ret.add(parseValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect(']');
+            return ret;
+        }
+
+        private String parseString() {
+            expect('"');
+            final StringBuilder ret = new StringBuilder();
+            char c;
+            while ((c = next()) != '"') {
+                if (c != '\\') {
+                    ret.append(c);
+                    continue;
+                }
+
+                final char escaped = next();
+                switch (escaped) {
+                    case 'n':
+                        ret.append('\n');
+                        break;
+                    case 't':
+                        ret.append('\t');
+                        break;
+                    case 'r':
+                        ret.append('\r');
+                        break;
+                    case 'b':
+                        ret.append('\b');
+                        break;
+                    case 'f':
+                        ret.append('\f');
+                        break;
+                    case 'u':
+                        ret.append((char) Integer.parseInt(mJson.substring(mPos, mPos + 4), 16));
+                        mPos += 4;
+                        break;
+                    default:
+                        ret.append(escaped);
+                }
+            }
+            return ret.toString();
+        }
+
+        private void skipWhitespace() {
+            while (mPos < mJson.length() && Character.isWhitespace(mJson.charAt(mPos))) {
+                mPos++;
+            }
+        }
+
+        private char peek() {
+            if (mPos >= mJson.length()) {
+                throw new IllegalArgumentException("Unexpected end of input");
+            }
+            return mJson.charAt(mPos);
+        }
+
+        private char next() {
+            final char c = peek();
+            mPos++;
+            return c;
+        }
+
+        private boolean consume(final char c) {
+            if (mPos < mJson.length() && mJson.charAt(mPos) == c) {
+                mPos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + (mPos - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.jeppeman.highlite;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tracks the time the processors take for a large schema: {@value #TABLES} synthetic tables in
+ * {@value #DATABASES} databases, each with a handful of columns, a foreign key to the previous
+ * table and a relationship to the next one. The generated files are kept in memory rather than
+ * compiled, since they need the Android runtime, so the time measured is that of the processors.
+ */
+public class HighLiteProcessorBenchmarkTest {
+
+    private static final int DATABASES = 5;
+    private static final int TABLES = 500;
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 5;
+
+    @Test
+    public void processLargeSchema() {
+        final List<JavaFileObject> sources = getSources();
+
+        long best = Long.MAX_VALUE, total = 0;
+        for (int i = 0; i < WARMUP_RUNS + RUNS; i++) {
+            final InMemoryFiler filer = new InMemoryFiler();
+            final TimedProcessor helpers = new TimedProcessor(new HighLiteProcessor(), filer),
+                    daos = new TimedProcessor(new HighLiteDAOProcessor(), filer);
+            final Compilation compilation = javac()
+                    .withProcessors(helpers, daos)
+                    .withOptions("-proc:only")
+                    .compile(sources);
+
+            assertThat(compilation).succeeded();
+            assertEquals(DATABASES + TABLES, filer.mSources.size());
+
+            if (i < WARMUP_RUNS) continue;
+
+            final long nanos = helpers.mNanos + daos.mNanos;
+            best = Math.min(best, nanos);
+            total += nanos;
+        }
+
+        System.out.println(String.format(Locale.US,
+                "Processed %d tables in %d databases: best %.1f ms, mean %.1f ms over %d runs",
+                TABLES, DATABASES, best / 1e6, total / 1e6 / RUNS, RUNS));
+    }
+
+    private static List<JavaFileObject> getSources() {
+        final List<JavaFileObject> sources = new ArrayList<>();
+        for (int i = 0; i < DATABASES; i++) {
+            sources.add(JavaFileObjects.forSourceString("bench.Database" + i, ""
+                    + "package bench;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.SQLiteDatabaseDescriptor;\n"
+                    + "\n"
+                    + "@SQLiteDatabaseDescriptor(dbName = \"database" + i + ".db\", dbVersion = 1)\n"
+                    + "public class Database" + i + " {\n"
+                    + "}\n"));
+        }
+
+        final int tablesPerDatabase = TABLES / DATABASES;
+        for (int i = 0; i < TABLES; i++) {
+            final boolean first = i % tablesPerDatabase == 0,
+                    last = i % tablesPerDatabase == tablesPerDatabase - 1;
+            sources.add(JavaFileObjects.forSourceString("bench.Table" + i, ""
+                    + "package bench;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.ForeignKey;\n"
+                    + "import com.jeppeman.highlite.PrimaryKey;\n"
+                    + "import com.jeppeman.highlite.SQLiteColumn;\n"
+                    + "import com.jeppeman.highlite.SQLiteRelationship;\n"
+                    + "import com.jeppeman.highlite.SQLiteTable;\n"
+                    + "\n"
+                    + "import java.util.Date;\n"
+                    + "import java.util.List;\n"
+                    + "\n"
+                    + "@SQLiteTable(database = Database" + i / tablesPerDatabase + ".class)\n"
+                    + "public class Table" + i + " {\n"
+                    + "    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))\n"
+                    + "    public long id;\n"
+                    + "\n"
+                    + "    @SQLiteColumn(unique = true)\n"
+                    + "    public String name;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public int count;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public double amount;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public Date created;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public boolean active;\n"
+                    + (first ? "" : ""
+                    + "\n"
+                    + "    @SQLiteColumn(foreignKey = @ForeignKey(fieldReference = \"id\","
+                    + " cascadeOnDelete = true))\n"
+                    + "    public Table" + (i - 1) + " parent;\n")
+                    + (last ? "" : ""
+                    + "\n"
+                    + "    @SQLiteRelationship(backReference = \"parent\")\n"
+                    + "    public List<Table" + (i + 1) + "> children;\n")
+                    + "}\n"));
+        }
+
+        return sources;
+    }
+
+    /**
+     * Runs a processor, adding up the time spent in it over all rounds, with a {@link Filer} that
+     * keeps the generated sources in memory.
+     */
+    private static final class TimedProcessor implements Processor {
+
+        private final Processor mDelegate;
+        private final InMemoryFiler mFiler;
+        private long mNanos;
+
+        TimedProcessor(final Processor delegate, final InMemoryFiler filer) {
+            mDelegate = delegate;
+            mFiler = filer;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return mDelegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return mDelegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return mDelegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            final long start = System.nanoTime();
+            mDelegate.init(new ProcessingEnvironment() {
+                @Override
+                public Map<String, String> getOptions() {
+                    return processingEnv.getOptions();
+                }
+
+                @Override
+                public Messager getMessager() {
+                    return processingEnv.getMessager();
+                }
+
+                @Override
+                public Filer getFiler() {
+                    return mFiler;
+                }
+
+                @Override
+                public Elements getElementUtils() {
+                    return processingEnv.getElementUtils();
+                }
+
+                @Override
+                public Types getTypeUtils() {
+                    return processingEnv.getTypeUtils();
+                }
+
+                @Override
+                public SourceVersion getSourceVersion() {
+                    return processingEnv.getSourceVersion();
+                }
+
+                @Override
+                public Locale getLocale() {
+                    return processingEnv.getLocale();
+                }
+            });
+            mNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean process(final Set<? extends TypeElement> annotations,
+                               final RoundEnvironment roundEnv) {
+            final long start = System.nanoTime();
+            try {
+                return mDelegate.process(annotations, roundEnv);
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(final Element element,
+                                                             final AnnotationMirror annotation,
+                                                             final ExecutableElement member,
+                                                             final String userText) {
+            return mDelegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+    private static final class InMemoryFiler implements Filer {
+
+        private final List<StringWriter> mSources = new ArrayList<>();
+
+        @Override
+        public JavaFileObject createSourceFile(final CharSequence name,
+                                               final Element... originatingElements) {
+            final StringWriter source = new StringWriter();
+            mSources.add(source);
+            return new SimpleJavaFileObject(URI.create("mem:///"
+                    + name.toString().replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public Writer openWriter() {
+                    return source;
+                }
+
+                @Override
+                public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                    return source.toString();
+                }
+            };
+        }
+
+        @Override
+        public JavaFileObject createClassFile(final CharSequence name,
+                                              final Element... originatingElements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileObject createResource(final JavaFileManager.Location location,
+                                         final CharSequence pkg,
+                                         final CharSequence relativeName,
+                                         final Element... originatingElements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileObject getResource(final JavaFileManager.Location location,
+                                      final CharSequence pkg,
+                                      final CharSequence relativeName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
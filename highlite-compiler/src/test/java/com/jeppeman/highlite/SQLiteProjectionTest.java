@@ -0,0 +1,113 @@
+package com.jeppeman.highlite;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the fields of classes annotated with {@link SQLiteProjection} are validated against
+ * the column fields of their tables when compiling.
+ */
+public class SQLiteProjectionTest {
+
+    private static final JavaFileObject DATABASE = JavaFileObjects.forSourceString(
+            "test.TestDatabase", ""
+                    + "package test;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.SQLiteDatabaseDescriptor;\n"
+                    + "\n"
+                    + "@SQLiteDatabaseDescriptor(dbName = \"test.db\", dbVersion = 1)\n"
+                    + "public class TestDatabase {\n"
+                    + "}\n");
+
+    private static final JavaFileObject COMPANY = JavaFileObjects.forSourceString(
+            "test.Company", ""
+                    + "package test;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.PrimaryKey;\n"
+                    + "import com.jeppeman.highlite.SQLiteColumn;\n"
+                    + "import com.jeppeman.highlite.SQLiteTable;\n"
+                    + "\n"
+                    + "import java.util.Date;\n"
+                    + "import java.util.List;\n"
+                    + "\n"
+                    + "@SQLiteTable(database = TestDatabase.class)\n"
+                    + "public class Company {\n"
+                    + "    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))\n"
+                    + "    public long id;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public String name;\n"
+                    + "\n"
+                    + "    @SQLiteColumn(\"created_at\")\n"
+                    + "    public Date created;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public List<String> tags;\n"
+                    + "}\n");
+
+    private static Compilation compile(final String... fields) {
+        final StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("\n")
+                .append("import com.jeppeman.highlite.SQLiteProjection;\n")
+                .append("\n")
+                .append("import java.util.Date;\n")
+                .append("import java.util.List;\n")
+                .append("\n")
+                .append("@SQLiteProjection(table = Company.class)\n")
+                .append("public class CompanyRow {\n");
+        for (final String field : fields) {
+            source.append("    ").append(field).append("\n");
+        }
+        source.append("}\n");
+
+        return javac()
+                .withProcessors(new HighLiteDAOProcessor())
+                .withOptions("-proc:only")
+                .compile(DATABASE, COMPANY,
+                        JavaFileObjects.forSourceString("test.CompanyRow", source.toString()));
+    }
+
+    @Test
+    public void validProjection() {
+        final Compilation compilation = compile("long id;", "public String name;",
+                "Date created;", "List<String> tags;", "static int COUNT;");
+
+        // The generated files need the Android runtime, so only the errors of the processor count
+        for (final Diagnostic<? extends JavaFileObject> error : compilation.errors()) {
+            assertFalse(error.getMessage(Locale.US), error.getMessage(Locale.US)
+                    .startsWith("Unable to generate"));
+        }
+        assertThat(compilation).generatedSourceFile("test.CompanyRow_Projection");
+    }
+
+    @Test
+    public void unknownField() {
+        assertThat(compile("String title;"))
+                .hadErrorContaining("title is not a column field of Company");
+    }
+
+    @Test
+    public void wrongType() {
+        assertThat(compile("long created;"))
+                .hadErrorContaining("created has to be of type java.util.Date to be projected "
+                        + "from Company.created");
+    }
+
+    @Test
+    public void inaccessibleField() {
+        assertThat(compile("private String name;"))
+                .hadErrorContaining("name can neither be private nor final");
+    }
+}
@@ -0,0 +1,149 @@
+package com.jeppeman.highlite;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the queries declared with {@link SQLiteQueryMethod} are validated against the
+ * schema when compiling.
+ */
+public class SQLiteQueriesTest {
+
+    private static final JavaFileObject DATABASE = JavaFileObjects.forSourceString(
+            "test.TestDatabase", ""
+                    + "package test;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.SQLiteDatabaseDescriptor;\n"
+                    + "\n"
+                    + "@SQLiteDatabaseDescriptor(dbName = \"test.db\", dbVersion = 1)\n"
+                    + "public class TestDatabase {\n"
+                    + "}\n");
+
+    private static final JavaFileObject COMPANY = JavaFileObjects.forSourceString(
+            "test.Company", ""
+                    + "package test;\n"
+                    + "\n"
+                    + "import com.jeppeman.highlite.PrimaryKey;\n"
+                    + "import com.jeppeman.highlite.SQLiteColumn;\n"
+                    + "import com.jeppeman.highlite.SQLiteTable;\n"
+                    + "\n"
+                    + "import java.util.Date;\n"
+                    + "\n"
+                    + "@SQLiteTable(database = TestDatabase.class)\n"
+                    + "public class Company {\n"
+                    + "    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))\n"
+                    + "    public long id;\n"
+                    + "\n"
+                    + "    @SQLiteColumn\n"
+                    + "    public String name;\n"
+                    + "\n"
+                    + "    @SQLiteColumn(\"created_at\")\n"
+                    + "    public Date created;\n"
+                    + "}\n");
+
+    private static Compilation compile(final String... methods) {
+        final StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("\n")
+                .append("import com.jeppeman.highlite.SQLiteQueries;\n")
+                .append("import com.jeppeman.highlite.SQLiteQueryMethod;\n")
+                .append("\n")
+                .append("import java.util.Date;\n")
+                .append("import java.util.List;\n")
+                .append("\n")
+                .append("@SQLiteQueries(database = TestDatabase.class)\n")
+                .append("public interface CompanyQueries {\n");
+        for (final String method : methods) {
+            source.append("    ").append(method).append("\n");
+        }
+        source.append("}\n");
+
+        return javac()
+                .withProcessors(new HighLiteProcessor())
+                .withOptions("-proc:only")
+                .compile(DATABASE, COMPANY,
+                        JavaFileObjects.forSourceString("test.CompanyQueries", source.toString()));
+    }
+
+    @Test
+    public void validQueries() {
+        final Compilation compilation = compile(
+                "@SQLiteQueryMethod(\"SELECT * FROM company WHERE `name` = ? "
+                        + "AND `created_at` > ?\")",
+                "List<Company> find(String name, Date createdAfter);",
+                "@SQLiteQueryMethod(\"SELECT c.* FROM company AS c WHERE c.id = ?\")",
+                "Company get(long id);",
+                "@SQLiteQueryMethod(\"SELECT COUNT(*) AS `total` FROM company "
+                        + "WHERE name = 'it''s ?'\")",
+                "int count();",
+                "@SQLiteQueryMethod(\"SELECT upper(name) upper_name, rowid FROM company "
+                        + "WHERE created_at IS NOT NULL AND name LIKE ? COLLATE NOCASE "
+                        + "ORDER BY upper_name DESC LIMIT 10\")",
+                "List<String> names(String pattern);");
+
+        // The generated files need the Android runtime, so only the errors of the processor count
+        for (final Diagnostic<? extends JavaFileObject> error : compilation.errors()) {
+            assertFalse(error.getMessage(Locale.US), error.getMessage(Locale.US)
+                    .startsWith("Unable to generate"));
+        }
+        assertThat(compilation).generatedSourceFile("test.CompanyQueries_Impl");
+    }
+
+    @Test
+    public void unknownTable() {
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM companies\")",
+                "List<Company> all();"))
+                .hadErrorContaining("companies is not a table of the database test.db");
+    }
+
+    @Test
+    public void unknownColumn() {
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company WHERE `created` > ?\")",
+                "List<Company> createdAfter(Date date);"))
+                .hadErrorContaining("created is not a column of any of the tables");
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company c WHERE c.title = ?\")",
+                "List<Company> byTitle(String title);"))
+                .hadErrorContaining("title is not a column of the table company");
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company WHERE nmae = ?\")",
+                "List<Company> byName(String name);"))
+                .hadErrorContaining("nmae is not a column of any of the tables");
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company ORDER BY creatd\")",
+                "List<Company> ordered();"))
+                .hadErrorContaining("creatd is not a column of any of the tables");
+    }
+
+    @Test
+    public void placeholderCount() {
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company WHERE `name` = ?\")",
+                "List<Company> byName(String name, long id);"))
+                .hadErrorContaining("The query has 1 placeholders but the method has 2 parameters");
+    }
+
+    @Test
+    public void unsupportedTypes() {
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company WHERE `name` = ?\")",
+                "List<Company> byName(Object name);"))
+                .hadErrorContaining("Parameters of type java.lang.Object can't be bound");
+        assertThat(compile("@SQLiteQueryMethod(\"SELECT * FROM company\")",
+                "List<Object> all();"))
+                .hadErrorContaining("java.lang.Object is neither a value nor a table");
+    }
+
+    @Test
+    public void onlySelectStatements() {
+        assertThat(compile("@SQLiteQueryMethod(\"DELETE FROM company\")",
+                "int deleteAll();"))
+                .hadErrorContaining("Only SELECT statements can be declared");
+    }
+}
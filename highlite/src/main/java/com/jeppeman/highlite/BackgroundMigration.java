@@ -0,0 +1,406 @@
+package com.jeppeman.highlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies tables that have to be recreated on upgrade in the background rather than as part of
+ * the upgrade itself, for tables annotated with {@code backgroundMigration = true}. The upgrade
+ * only creates the new table, empty, along with triggers that mirror every write made to the
+ * existing table into it. The existing table keeps serving reads and writes while its rows are
+ * copied in chunks of consecutive rowids on the worker of the database, one transaction per
+ * chunk. Once every row has been copied the existing table is dropped and the new table takes
+ * its place.
+ * <p>
+ * The progress of every migration is kept in the database, in the same transactions as the
+ * chunks themselves, so a migration interrupted by the process being killed resumes where it
+ * left off the next time the database is opened.
+ * <p>
+ * Rows are copied with plain inserts, so rows violating a constraint of the new table, such as
+ * a column that became unique, fail the migration with a
+ * {@link android.database.sqlite.SQLiteConstraintException} rather than being dropped, just as
+ * they would fail an upgrade copying the table in place.
+ * <p>
+ * Dropping the existing table requires foreign keys to be turned off, since dropping a table
+ * that other tables refer to would otherwise cascade to or violate their foreign keys. Foreign
+ * keys can only be turned off outside of transactions, where other threads could write to the
+ * database without them, so if they are on once every row has been copied the new table takes
+ * the place of the existing table the next time the database is opened, before the database is
+ * handed to anyone else. The triggers keep the new table up to date until then.
+ *
+ * @author jesper
+ */
+public final class BackgroundMigration {
+
+    /**
+     * Receives progress of background migrations, on the worker of the database, or on the
+     * thread opening the database for migrations finished as it is opened.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every copied chunk.
+         *
+         * @param tableName  the name of the table being migrated
+         * @param copiedRows the number of rows copied so far
+         * @param totalRows  the number of rows of the table when the migration started, or
+         *                   the number of rows copied so far if rows have been added since
+         */
+        void onProgress(@NonNull String tableName, long copiedRows, long totalRows);
+
+        /**
+         * Called once the new table has taken the place of the existing table.
+         *
+         * @param tableName the name of the migrated table
+         */
+        void onFinished(@NonNull String tableName);
+    }
+
+    static final String MIGRATION_TABLE_NAME = "highlite_migration";
+    static final String TABLE_SUFFIX = "_migration";
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final String CREATE_MIGRATION_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + MIGRATION_TABLE_NAME + " (`table_name` TEXT PRIMARY KEY, `columns` TEXT NOT NULL, "
+            + "`last_rowid` INTEGER NOT NULL, `copied_rows` INTEGER NOT NULL, "
+            + "`total_rows` INTEGER NOT NULL);";
+    private static final String[] TRIGGERS = {"insert", "update", "delete"};
+
+    private static volatile Listener sListener;
+    private static volatile int sChunkSize = DEFAULT_CHUNK_SIZE;
+
+    private BackgroundMigration() {
+
+    }
+
+    /**
+     * Sets the listener to receive the progress of background migrations with.
+     *
+     * @param listener the listener, or null to stop receiving progress
+     */
+    public static void setListener(final @Nullable Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Sets the number of rows copied per transaction, {@link #DEFAULT_CHUNK_SIZE} by default.
+     * Smaller chunks hold the database for shorter periods of time, larger chunks finish sooner.
+     *
+     * @param chunkSize the number of rows copied per transaction
+     */
+    public static void setChunkSize(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+
+        sChunkSize = chunkSize;
+    }
+
+    /**
+     * Starts migrating a table in the background, called by generated upgrades in place of
+     * copying the table.
+     *
+     * @param database        the database being upgraded
+     * @param tableName       the name of the table to migrate
+     * @param createStatement the statement creating the new table, named as the table with
+     *                        {@link #TABLE_SUFFIX} appended
+     * @param columns         the quoted and comma separated columns to copy
+     */
+    public static void start(final @NonNull SQLiteDatabase database,
+                             final @NonNull String tableName,
+                             final @NonNull String createStatement,
+                             final @NonNull String columns) {
+        cancel(database, tableName);
+
+        final String migrationTableName = tableName + TABLE_SUFFIX;
+        final StringBuilder newValues = new StringBuilder("NEW.rowid");
+        for (final String column : columns.split(", ")) {
+            newValues.append(", NEW.").append(column);
+        }
+        final String insert = String.format("DELETE FROM `%s` WHERE rowid = NEW.rowid; "
+                        + "INSERT INTO `%s` (rowid, %s) VALUES (%s);", migrationTableName,
+                migrationTableName, columns, newValues),
+                delete = String.format("DELETE FROM `%s` WHERE rowid = OLD.rowid;",
+                        migrationTableName);
+
+        database.execSQL(createStatement);
+        database.execSQL(String.format("CREATE TRIGGER `%s_insert` AFTER INSERT ON `%s` "
+                + "BEGIN %s END;", migrationTableName, tableName, insert));
+        database.execSQL(String.format("CREATE TRIGGER `%s_update` AFTER UPDATE ON `%s` "
+                + "BEGIN %s %s END;", migrationTableName, tableName, delete, insert));
+        database.execSQL(String.format("CREATE TRIGGER `%s_delete` AFTER DELETE ON `%s` "
+                + "BEGIN %s END;", migrationTableName, tableName, delete));
+        database.execSQL("INSERT INTO " + MIGRATION_TABLE_NAME + " (`table_name`, `columns`, "
+                        + "`last_rowid`, `copied_rows`, `total_rows`) VALUES (?, ?, ?, 0, "
+                        + "(SELECT COUNT(*) FROM `" + tableName + "`));",
+                new Object[]{tableName, columns, Long.MIN_VALUE});
+    }
+
+    /**
+     * Cancels the migration of a table, if there is one, leaving the existing table as it is.
+     * Generated upgrades cancel pending migrations of a table before inspecting it, since the
+     * table may have to be migrated to a different definition than the one of the pending
+     * migration.
+     *
+     * @param database  the database being upgraded
+     * @param tableName the name of the table
+     */
+    public static void cancel(final @NonNull SQLiteDatabase database,
+                              final @NonNull String tableName) {
+        final String migrationTableName = tableName + TABLE_SUFFIX;
+        database.execSQL(CREATE_MIGRATION_TABLE);
+        for (final String trigger : TRIGGERS) {
+            database.execSQL(String.format("DROP TRIGGER IF EXISTS `%s_%s`;", migrationTableName,
+                    trigger));
+        }
+        database.execSQL(String.format("DROP TABLE IF EXISTS `%s`;", migrationTableName));
+        database.execSQL("DELETE FROM " + MIGRATION_TABLE_NAME + " WHERE `table_name` = ?;",
+                new Object[]{tableName});
+    }
+
+    /**
+     * Schedules the pending migrations of a database on its worker, called by generated helpers
+     * whenever the database is opened. Tables that have been copied already take the place of
+     * the existing tables right away, since no other thread can reach the database yet.
+     *
+     * @param database the database that was opened
+     * @param helper   the helper of the database
+     * @param worker   the worker of the database
+     */
+    public static void resume(final @NonNull SQLiteDatabase database,
+                              final @NonNull SQLiteOpenHelper helper,
+                              final @NonNull Handler worker) {
+        for (final String tableName : getPendingTables(database)) {
+            if (isCopied(database, tableName)) {
+                swap(database, tableName, isForeignKeysEnabled(database));
+                notifyFinished(tableName);
+                continue;
+            }
+
+            worker.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (copyChunk(helper.getWritableDatabase(), tableName)) {
+                        worker.post(this);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @param database the database to look for migrations in
+     * @return the names of the tables with pending migrations
+     */
+    @NonNull
+    public static List<String> getPendingTables(final @NonNull SQLiteDatabase database) {
+        final List<String> tableNames = new ArrayList<>();
+        final Cursor tableCursor = database.rawQuery(
+                "SELECT 1 FROM sqlite_master WHERE `type` = ? AND `name` = ?;",
+                new String[]{"table", MIGRATION_TABLE_NAME});
+        try {
+            if (!tableCursor.moveToFirst()) return tableNames;
+        } finally {
+            tableCursor.close();
+        }
+
+        final Cursor cursor = database.rawQuery("SELECT `table_name` FROM "
+                + MIGRATION_TABLE_NAME + ";", null);
+        try {
+            while (cursor.moveToNext()) {
+                tableNames.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return tableNames;
+    }
+
+    /**
+     * Copies the next chunk of rows of a table being migrated, or replaces the table with the
+     * new table if every row has been copied and foreign keys are off.
+     *
+     * @param database  the database containing the table
+     * @param tableName the name of the table
+     * @return true if there are more rows to copy
+     */
+    @WorkerThread
+    static boolean copyChunk(final @NonNull SQLiteDatabase database,
+                             final @NonNull String tableName) {
+        final String migrationTableName = tableName + TABLE_SUFFIX;
+        final long copiedRows, totalRows, chunkRows;
+        final boolean finished;
+        database.beginTransaction();
+        try {
+            final Cursor progressCursor = database.rawQuery("SELECT `columns`, `last_rowid`, "
+                    + "`copied_rows`, `total_rows` FROM " + MIGRATION_TABLE_NAME
+                    + " WHERE `table_name` = ?;", new String[]{tableName});
+            final String columns;
+            final long lastRowId;
+            try {
+                if (!progressCursor.moveToFirst()) return false;
+
+                columns = progressCursor.getString(0);
+                lastRowId = progressCursor.getLong(1);
+                copiedRows = progressCursor.getLong(2);
+                totalRows = progressCursor.getLong(3);
+            } finally {
+                progressCursor.close();
+            }
+
+            final Cursor chunkCursor = database.rawQuery(String.format("SELECT COUNT(*), "
+                            + "MAX(rowid) FROM (SELECT rowid FROM `%s` WHERE rowid > ? "
+                            + "ORDER BY rowid LIMIT %d);", tableName, sChunkSize),
+                    new String[]{String.valueOf(lastRowId)});
+            final Long chunkEnd;
+            try {
+                chunkCursor.moveToFirst();
+                chunkRows = chunkCursor.getLong(0);
+                chunkEnd = chunkCursor.isNull(1) ? null : chunkCursor.getLong(1);
+            } finally {
+                chunkCursor.close();
+            }
+
+            finished = chunkEnd == null;
+            if (finished) {
+                // Rows added from now on are copied by the triggers
+                database.execSQL("UPDATE " + MIGRATION_TABLE_NAME + " SET `last_rowid` = ? "
+                        + "WHERE `table_name` = ?;", new Object[]{Long.MAX_VALUE, tableName});
+            } else {
+                // Rows of the chunk written since the migration started were copied by the
+                // triggers already
+                database.execSQL(String.format("DELETE FROM `%s` WHERE rowid > ? AND rowid <= ?;",
+                        migrationTableName), new Object[]{lastRowId, chunkEnd});
+                database.execSQL(String.format("INSERT INTO `%s` (rowid, %s) "
+                                + "SELECT rowid, %s FROM `%s` WHERE rowid > ? AND rowid <= ?;",
+                        migrationTableName, columns, columns, tableName),
+                        new Object[]{lastRowId, chunkEnd});
+                database.execSQL("UPDATE " + MIGRATION_TABLE_NAME + " SET `last_rowid` = ?, "
+                                + "`copied_rows` = ? WHERE `table_name` = ?;",
+                        new Object[]{chunkEnd, copiedRows + chunkRows, tableName});
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (finished) {
+            // Left to the next time the database is opened if foreign keys are on
+            if (isForeignKeysEnabled(database)) return false;
+
+            swap(database, tableName, false);
+            notifyFinished(tableName);
+            return false;
+        }
+
+        final Listener listener = sListener;
+        if (listener != null) {
+            listener.onProgress(tableName, copiedRows + chunkRows,
+                    Math.max(totalRows, copiedRows + chunkRows));
+        }
+
+        return true;
+    }
+
+    private static void notifyFinished(final String tableName) {
+        final Listener listener = sListener;
+        if (listener != null) {
+            listener.onFinished(tableName);
+        }
+    }
+
+    /**
+     * @return true if every row of a table being migrated has been copied
+     */
+    private static boolean isCopied(final SQLiteDatabase database, final String tableName) {
+        final Cursor cursor = database.rawQuery("SELECT 1 FROM " + MIGRATION_TABLE_NAME
+                        + " WHERE `table_name` = ? AND `last_rowid` = ?;",
+                new String[]{tableName, String.valueOf(Long.MAX_VALUE)});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean isForeignKeysEnabled(final SQLiteDatabase database) {
+        final Cursor cursor = database.rawQuery("PRAGMA foreign_keys;", null);
+        try {
+            return cursor.moveToFirst() && cursor.getInt(0) == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replaces a table with its migrated copy. Every row has been copied by now and the triggers
+     * keep the copies up to date, dropping the table drops the triggers along with it, while its
+     * indexes are recreated on the new table. If foreign keys are on they are turned off
+     * meanwhile, which must only happen while no other thread can reach the database, see
+     * {@link #resume(SQLiteDatabase, SQLiteOpenHelper, Handler)}.
+     */
+    private static void swap(final SQLiteDatabase database,
+                             final String tableName,
+                             final boolean foreignKeys) {
+        if (foreignKeys) {
+            database.execSQL("PRAGMA foreign_keys=OFF;");
+        }
+        try {
+            database.beginTransaction();
+            try {
+                final List<String> indexes = getIndexes(database, tableName);
+                database.execSQL(String.format("DROP TABLE `%s`;", tableName));
+                database.execSQL(String.format("ALTER TABLE `%s%s` RENAME TO `%s`;", tableName,
+                        TABLE_SUFFIX, tableName));
+                for (final String index : indexes) {
+                    try {
+                        database.execSQL(index);
+                    } catch (SQLiteException e) {
+                        // The index covers columns that the table no longer has
+                    }
+                }
+                database.execSQL("DELETE FROM " + MIGRATION_TABLE_NAME
+                        + " WHERE `table_name` = ?;", new Object[]{tableName});
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            if (foreignKeys) {
+                database.execSQL("PRAGMA foreign_keys=ON;");
+            }
+        }
+    }
+
+    /**
+     * @return the create statements of the indexes of a table, other than the ones SQLite
+     * creates for constraints of the table itself
+     */
+    private static List<String> getIndexes(final SQLiteDatabase database,
+                                           final String tableName) {
+        final List<String> indexes = new ArrayList<>();
+        final Cursor cursor = database.rawQuery("SELECT `sql` FROM sqlite_master "
+                        + "WHERE `type` = ? AND `tbl_name` = ? AND `sql` IS NOT NULL;",
+                new String[]{"index", tableName});
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return indexes;
+    }
+}
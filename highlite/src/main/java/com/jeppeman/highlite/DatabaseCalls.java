@@ -0,0 +1,358 @@
+package com.jeppeman.highlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.regex.Pattern;
+
+/**
+ * The calls generated DAOs make to their databases and to the runtime while executing an
+ * operation. Every statement executed by a generated DAO passes through here, which lets the
+ * diagnostics, metrics, strict mode and tracing enabled through {@link SQLiteOperator} inspect the
+ * statements in one place.
+ *
+ * @author jesper
+ */
+public final class DatabaseCalls {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+
+    private DatabaseCalls() {
+
+    }
+
+    /**
+     * @see SQLiteDatabase#rawQuery(String, String[])
+     */
+    public static Cursor rawQuery(final @NonNull SQLiteDatabase database,
+                                  final @NonNull String sql,
+                                  final @Nullable String[] selectionArgs) {
+        QueryPlanDiagnostics.check(database, sql, sql, selectionArgs);
+        return query(database, null, sql, selectionArgs, selectionArgs);
+    }
+
+    /**
+     * Executes a query whose arguments are bound by the cursor factory with their own types
+     * rather than as strings, used by the generated implementations of {@link SQLiteQueries}.
+     *
+     * @param database the database to query
+     * @param factory  the factory binding the arguments to the query
+     * @param sql      the query
+     * @param args     the arguments bound by the factory, only used by the diagnostics and metrics
+     * @return the cursor created by the factory
+     * @see SQLiteDatabase#rawQueryWithFactory(SQLiteDatabase.CursorFactory, String, String[],
+     * String)
+     */
+    public static Cursor rawQueryWithFactory(final @NonNull SQLiteDatabase database,
+                                             final @NonNull SQLiteDatabase.CursorFactory factory,
+                                             final @NonNull String sql,
+                                             final @NonNull Object[] args) {
+        if (QueryPlanDiagnostics.isEnabled()) {
+            QueryPlanDiagnostics.check(database, sql, sql, toStrings(args));
+        }
+        return query(database, factory, sql, null, args);
+    }
+
+    private static Cursor query(final SQLiteDatabase database,
+                                final SQLiteDatabase.CursorFactory factory,
+                                final String sql,
+                                final String[] selectionArgs,
+                                final Object[] args) {
+        final OperationRecorder recorder = OperationRecorder.current();
+        final boolean onMainThread = MainThreadStrictMode.isOnMainThread();
+        if (recorder == null && !onMainThread && !Tracing.isEnabled()) {
+            return database.rawQueryWithFactory(factory, sql, selectionArgs, null);
+        }
+
+        final HighLiteTracer.Span span = Tracing.begin(HighLiteTracer.SPAN_QUERY);
+        final Cursor cursor;
+        final int rowsRead;
+        final long nanos;
+        try {
+            final long start = System.nanoTime();
+            cursor = database.rawQueryWithFactory(factory, sql, selectionArgs, null);
+            // Queries are executed lazily, counting the rows executes it
+            rowsRead = cursor.getCount();
+            nanos = System.nanoTime() - start;
+            trace(span, null, sql, rowsRead);
+        } finally {
+            Tracing.end(span);
+        }
+        if (recorder != null) {
+            recorder.onStatement(sql, args, nanos, rowsRead, 0);
+        }
+        if (onMainThread) {
+            try {
+                MainThreadStrictMode.onViolation(sql, nanos);
+            } catch (MainThreadViolation e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * @see SQLiteDatabase#insertOrThrow(String, String, ContentValues)
+     */
+    public static long insertOrThrow(final @NonNull SQLiteDatabase database,
+                                     final @NonNull String table,
+                                     final @NonNull ContentValues values) {
+        final OperationRecorder recorder = OperationRecorder.current();
+        final boolean onMainThread = MainThreadStrictMode.isOnMainThread();
+        if (recorder == null && !onMainThread && !Tracing.isEnabled()) {
+            return database.insertOrThrow(table, null, values);
+        }
+
+        final String sql = getInsertSql(table, values);
+        final HighLiteTracer.Span span = Tracing.begin(HighLiteTracer.SPAN_INSERT);
+        final long id;
+        final long nanos;
+        try {
+            final long start = System.nanoTime();
+            id = database.insertOrThrow(table, null, values);
+            nanos = System.nanoTime() - start;
+            trace(span, table, sql, 1);
+        } finally {
+            Tracing.end(span);
+        }
+        if (recorder != null) {
+            recorder.onStatement(sql, recorder.mCaptureArgs ? getArgs(values, null) : null,
+                    nanos, 0, 1);
+        }
+        if (onMainThread) {
+            MainThreadStrictMode.onViolation(sql, nanos);
+        }
+        return id;
+    }
+
+    /**
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     */
+    public static int update(final @NonNull SQLiteDatabase database,
+                             final @NonNull String table,
+                             final @NonNull ContentValues values,
+                             final @Nullable String whereClause,
+                             final @Nullable String[] whereArgs) {
+        final OperationRecorder recorder = OperationRecorder.current();
+        final boolean onMainThread = MainThreadStrictMode.isOnMainThread();
+        final boolean traced = Tracing.isEnabled();
+        if (recorder == null && !onMainThread && !traced
+                && !QueryPlanDiagnostics.isEnabled()) {
+            return database.update(table, values, whereClause, whereArgs);
+        }
+
+        final String sql = getUpdateSql(table, values, whereClause);
+        if (whereClause != null) {
+            QueryPlanDiagnostics.check(database, sql,
+                    "SELECT rowid FROM " + table + " WHERE " + whereClause, whereArgs);
+        }
+        if (recorder == null && !onMainThread && !traced) {
+            return database.update(table, values, whereClause, whereArgs);
+        }
+
+        final HighLiteTracer.Span span = Tracing.begin(HighLiteTracer.SPAN_UPDATE);
+        final int rowsWritten;
+        final long nanos;
+        try {
+            final long start = System.nanoTime();
+            rowsWritten = database.update(table, values, whereClause, whereArgs);
+            nanos = System.nanoTime() - start;
+            trace(span, table, sql, rowsWritten);
+        } finally {
+            Tracing.end(span);
+        }
+        if (recorder != null) {
+            recorder.onStatement(sql, recorder.mCaptureArgs ? getArgs(values, whereArgs) : null,
+                    nanos, 0, rowsWritten);
+        }
+        if (onMainThread) {
+            MainThreadStrictMode.onViolation(sql, nanos);
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * @see SQLiteDatabase#delete(String, String, String[])
+     */
+    public static int delete(final @NonNull SQLiteDatabase database,
+                             final @NonNull String table,
+                             final @Nullable String whereClause,
+                             final @Nullable String[] whereArgs) {
+        final String sql = "DELETE FROM " + table
+                + (whereClause != null ? " WHERE " + whereClause : "");
+        if (whereClause != null) {
+            QueryPlanDiagnostics.check(database, sql,
+                    "SELECT rowid FROM " + table + " WHERE " + whereClause, whereArgs);
+        }
+        final OperationRecorder recorder = OperationRecorder.current();
+        final boolean onMainThread = MainThreadStrictMode.isOnMainThread();
+        if (recorder == null && !onMainThread && !Tracing.isEnabled()) {
+            return database.delete(table, whereClause, whereArgs);
+        }
+
+        final HighLiteTracer.Span span = Tracing.begin(HighLiteTracer.SPAN_DELETE);
+        final int rowsWritten;
+        final long nanos;
+        try {
+            final long start = System.nanoTime();
+            rowsWritten = database.delete(table, whereClause, whereArgs);
+            nanos = System.nanoTime() - start;
+            trace(span, table, sql, rowsWritten);
+        } finally {
+            Tracing.end(span);
+        }
+        if (recorder != null) {
+            recorder.onStatement(sql, whereArgs, nanos, 0, rowsWritten);
+        }
+        if (onMainThread) {
+            MainThreadStrictMode.onViolation(sql, nanos);
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Records a lookup in the instance cache of a generated DAO.
+     *
+     * @param hit whether the object was found in the cache
+     */
+    public static void onCacheLookup(final boolean hit) {
+        final OperationRecorder recorder = OperationRecorder.current();
+        if (recorder != null) {
+            recorder.onCacheLookup(hit);
+        }
+    }
+
+    /**
+     * Marks the start of fetching foreign keys or relationships, statements executed until the
+     * matching call to {@link #endRelationshipFetch(HighLiteTracer.Span)} are attributed to the
+     * fetching.
+     *
+     * @return the span to pass to {@link #endRelationshipFetch(HighLiteTracer.Span)}
+     */
+    @NonNull
+    public static HighLiteTracer.Span beginRelationshipFetch() {
+        final OperationRecorder recorder = OperationRecorder.current();
+        if (recorder != null) {
+            recorder.beginRelationshipFetch();
+        }
+        return Tracing.begin(HighLiteTracer.SPAN_RELATIONSHIP_FETCH);
+    }
+
+    /**
+     * Marks the end of fetching foreign keys or relationships.
+     *
+     * @param span the span returned by {@link #beginRelationshipFetch()}
+     */
+    public static void endRelationshipFetch(final @NonNull HighLiteTracer.Span span) {
+        Tracing.end(span);
+        final OperationRecorder recorder = OperationRecorder.current();
+        if (recorder != null) {
+            recorder.endRelationshipFetch();
+        }
+    }
+
+    /**
+     * Starts a span as a child of the innermost span open on the current thread, used by
+     * generated helpers to trace creating, upgrading and opening databases.
+     *
+     * @param name the name of the span
+     * @return the span to pass to {@link #endSpan(HighLiteTracer.Span)}
+     */
+    @NonNull
+    public static HighLiteTracer.Span beginSpan(final @NonNull String name) {
+        return Tracing.begin(name);
+    }
+
+    /**
+     * Ends a span started by {@link #beginSpan(String)}.
+     *
+     * @param span the span
+     */
+    public static void endSpan(final @NonNull HighLiteTracer.Span span) {
+        Tracing.end(span);
+    }
+
+    private static void trace(final HighLiteTracer.Span span,
+                              final String table,
+                              final String sql,
+                              final int rows) {
+        if (span == HighLiteTracer.Span.NO_OP) return;
+
+        if (table != null) {
+            span.setAttribute(HighLiteTracer.ATTRIBUTE_TABLE, table);
+        }
+        span.setAttribute(HighLiteTracer.ATTRIBUTE_SQL, toShape(sql));
+        span.setAttribute(HighLiteTracer.ATTRIBUTE_ROWS, rows);
+    }
+
+    /**
+     * Replaces the string and numeric literals of a statement with ?, so that statements that
+     * only differ in inlined values get the same shape.
+     */
+    static String toShape(final @NonNull String sql) {
+        return NUMERIC_LITERAL.matcher(
+                STRING_LITERAL.matcher(sql.trim()).replaceAll("?")).replaceAll("?");
+    }
+
+    /**
+     * Gets the values bound to an insert or update, in the order of the placeholders of the
+     * statements built for them.
+     */
+    private static Object[] getArgs(final ContentValues values, final String[] whereArgs) {
+        final int whereArgCount = whereArgs != null ? whereArgs.length : 0;
+        final Object[] args = new Object[values.size() + whereArgCount];
+        int i = 0;
+        for (final String column : values.keySet()) {
+            args[i++] = values.get(column);
+        }
+        if (whereArgs != null) {
+            System.arraycopy(whereArgs, 0, args, i, whereArgCount);
+        }
+        return args;
+    }
+
+    private static String[] toStrings(final Object[] args) {
+        final String[] ret = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            ret[i] = args[i] != null ? String.valueOf(args[i]) : null;
+        }
+        return ret;
+    }
+
+    private static String getInsertSql(final String table, final ContentValues values) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        final StringBuilder placeholders = new StringBuilder();
+        for (final String column : values.keySet()) {
+            if (placeholders.length() > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(column);
+            placeholders.append('?');
+        }
+        return sql.append(") VALUES (").append(placeholders).append(')').toString();
+    }
+
+    private static String getUpdateSql(final String table,
+                                       final ContentValues values,
+                                       final String whereClause) {
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        boolean first = true;
+        for (final String column : values.keySet()) {
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ?");
+            first = false;
+        }
+        if (whereClause != null) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        return sql.toString();
+    }
+}
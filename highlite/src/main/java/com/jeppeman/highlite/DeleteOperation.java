@@ -25,15 +25,18 @@ public class DeleteOperation<T> extends QueryableOperation<DeleteOperation<T>>
         implements Operation<Integer, Integer> {
 
     private final Context mContext;
+    private final Class<T> mClass;
     @Nullable
     private final SQLiteDAO<T> mGenerated;
     @Nullable
     private final SQLiteDAO<T>[] mObjectsToDelete;
 
     DeleteOperation(final @NonNull Context context,
+                    final @NonNull Class<T> cls,
                     final @Nullable SQLiteDAO<T> generated,
                     final @Nullable SQLiteDAO<T>[] objectsToDelete) {
         mContext = context;
+        mClass = cls;
         mGenerated = generated;
         mObjectsToDelete = objectsToDelete;
     }
@@ -45,6 +48,16 @@ public class DeleteOperation<T> extends QueryableOperation<DeleteOperation<T>>
      */
     @WorkerThread
     public int executeBlocking() {
+        final OperationRecorder recorder = OperationRecorder.begin(mClass,
+                OperationMetrics.Kind.DELETE);
+        try {
+            return execute();
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
+
+    private int execute() {
         if (mObjectsToDelete != null && mObjectsToDelete.length > 0) {
             int nDeletedObjects = 0;
             for (final SQLiteDAO<T> objectToDelete : mObjectsToDelete) {
@@ -0,0 +1,298 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The column values of an object as they were when it was last loaded from or written to the
+ * database. Generated DAOs capture a snapshot for every object they instantiate or save, and
+ * compare against it on the next save so that only changed columns are written. Snapshots are
+ * held weakly by object identity in a {@link Store} of each DAO, and are invalidated as a whole
+ * whenever records are changed by a query, since that may happen behind the back of objects
+ * already loaded. Objects that were loaded with only some of their columns keep the values of the
+ * columns that were not loaded through invalidations, so that saving them never overwrites those
+ * columns with defaults.
+ *
+ * @author jesper
+ */
+public final class EntitySnapshot {
+
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    private static final Object UNSERIALIZED = new Object();
+
+    private final Map<String, Object> mValues;
+    private final Map<String, Object> mBlobReferences;
+    private final Set<String> mUnloaded;
+    private int mGeneration;
+
+    public EntitySnapshot() {
+        mValues = new HashMap<>();
+        mBlobReferences = new HashMap<>();
+        mUnloaded = new HashSet<>();
+    }
+
+    private EntitySnapshot(final @NonNull EntitySnapshot other) {
+        mValues = new HashMap<>(other.mValues);
+        mBlobReferences = new HashMap<>(other.mBlobReferences);
+        mUnloaded = new HashSet<>(other.mUnloaded);
+    }
+
+    /**
+     * Invalidates every snapshot taken so far, subsequent saves of already loaded objects will
+     * write all of their columns, except for the columns of partially loaded objects that were
+     * never loaded nor changed. The snapshots are trimmed as they are looked up.
+     */
+    public static void invalidateAll() {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * @return a modifiable copy of this snapshot
+     */
+    public EntitySnapshot copy() {
+        return new EntitySnapshot(this);
+    }
+
+    public void put(final @NonNull String fieldName, final @Nullable Object value) {
+        markLoaded(fieldName, value);
+        mValues.put(fieldName, value);
+        mBlobReferences.remove(fieldName);
+    }
+
+    /**
+     * Records the value of a serialized field along with the object it was serialized from.
+     *
+     * @param fieldName the name of the field
+     * @param reference the field value
+     * @param bytes     the serialized field value
+     */
+    public void putBlob(final @NonNull String fieldName,
+                        final @Nullable Object reference,
+                        final @Nullable byte[] bytes) {
+        markLoaded(fieldName, bytes);
+        mValues.put(fieldName, bytes);
+        mBlobReferences.put(fieldName, reference);
+    }
+
+    /**
+     * Records the value of a field that was not loaded from the database, for objects that were
+     * loaded with only some of their columns. The value is that of the field as it was left
+     * after instantiation, so that the field is only written if it is changed. Fields that
+     * already have a value in this snapshot are left as they are.
+     *
+     * @param fieldName the name of the field
+     * @param value     the value of the field, as it would be written to the database
+     */
+    public void putUnloaded(final @NonNull String fieldName, final @Nullable Object value) {
+        if (mValues.containsKey(fieldName)) return;
+
+        mValues.put(fieldName, value);
+        mUnloaded.add(fieldName);
+    }
+
+    /**
+     * Records the value of a serialized field that was not loaded from the database, see
+     * {@link #putUnloaded(String, Object)}. Values that can not change, such as null, are only
+     * serialized if they have to be compared against.
+     *
+     * @param fieldName the name of the field
+     * @param reference the value of the field
+     */
+    public void putUnloadedBlob(final @NonNull String fieldName,
+                                final @Nullable Object reference) {
+        if (mValues.containsKey(fieldName)) return;
+
+        mValues.put(fieldName, reference == null || isImmutable(reference)
+                ? UNSERIALIZED
+                : serialize(reference));
+        mBlobReferences.put(fieldName, reference);
+        mUnloaded.add(fieldName);
+    }
+
+    private void markLoaded(final String fieldName, final Object value) {
+        // A field that was not loaded is only known to the database once it has been changed
+        if (!mUnloaded.isEmpty() && isChanged(fieldName, value)) {
+            mUnloaded.remove(fieldName);
+        }
+    }
+
+    /**
+     * @return the serialized value recorded for the given field
+     */
+    @Nullable
+    public byte[] getBlob(final @NonNull String fieldName) {
+        final Object value = getValue(fieldName);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    /**
+     * Checks whether a serialized field still holds the very same object as when the snapshot
+     * was taken, and that object is immutable, in which case it does not need to be serialized
+     * again to find out whether it has changed.
+     *
+     * @param fieldName the name of the field
+     * @param reference the current field value
+     * @return true if the field is known to be unchanged without serializing it
+     */
+    public boolean isSameBlob(final @NonNull String fieldName, final @Nullable Object reference) {
+        return reference != null
+                && mBlobReferences.containsKey(fieldName)
+                && mBlobReferences.get(fieldName) == reference
+                && isImmutable(reference);
+    }
+
+    /**
+     * @param fieldName the name of the field
+     * @param value     the current value of the field, as it would be written to the database
+     * @return true if the value differs from the one in the snapshot, or if the snapshot has no
+     * value for the field
+     */
+    public boolean isChanged(final @NonNull String fieldName, final @Nullable Object value) {
+        if (!mValues.containsKey(fieldName)) return true;
+
+        final Object snapshotValue = getValue(fieldName);
+        if (snapshotValue instanceof byte[] && value instanceof byte[]) {
+            return !Arrays.equals((byte[]) snapshotValue, (byte[]) value);
+        }
+
+        return snapshotValue == null ? value != null : !snapshotValue.equals(value);
+    }
+
+    private Object getValue(final String fieldName) {
+        final Object value = mValues.get(fieldName);
+        return value == UNSERIALIZED ? serialize(mBlobReferences.get(fieldName)) : value;
+    }
+
+    private static boolean isImmutable(final Object reference) {
+        return reference instanceof Enum
+                || reference instanceof String
+                || reference instanceof Number
+                || reference instanceof Boolean
+                || reference instanceof Character;
+    }
+
+    private static byte[] serialize(final Object reference) {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(reference);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Holds the snapshots of the objects of one table. The objects are spread over stripes by
+     * identity, each guarded by its own lock, so that DAOs of different tables and threads
+     * working on different objects seldom wait for each other.
+     */
+    public static final class Store {
+
+        private static final int STRIPES = 16;
+
+        private final Stripe[] mStripes = new Stripe[STRIPES];
+
+        public Store() {
+            for (int i = 0; i < STRIPES; i++) {
+                mStripes[i] = new Stripe();
+            }
+        }
+
+        /**
+         * Looks up the snapshot of the given object.
+         *
+         * @param entity the object to get the snapshot of
+         * @return the snapshot, or null if there is no valid snapshot of the object
+         */
+        @Nullable
+        public EntitySnapshot of(final @NonNull Object entity) {
+            final IdentityKey key = new IdentityKey(entity, null);
+            final Stripe stripe = mStripes[key.mHashCode & (STRIPES - 1)];
+            synchronized (stripe) {
+                stripe.purge();
+                final EntitySnapshot snapshot = stripe.mSnapshots.get(key);
+                final int generation = GENERATION.get();
+                if (snapshot == null || snapshot.mGeneration == generation) return snapshot;
+
+                if (snapshot.mUnloaded.isEmpty()) {
+                    stripe.mSnapshots.remove(key);
+                    return null;
+                }
+
+                // The snapshot may be in use by a save, so the trimmed one replaces it
+                final EntitySnapshot trimmed = snapshot.copy();
+                trimmed.mValues.keySet().retainAll(trimmed.mUnloaded);
+                trimmed.mBlobReferences.keySet().retainAll(trimmed.mUnloaded);
+                trimmed.mGeneration = generation;
+                stripe.mSnapshots.put(key, trimmed);
+                return trimmed;
+            }
+        }
+
+        /**
+         * Associates a snapshot with the given object, replacing any previous snapshot.
+         *
+         * @param entity   the object the snapshot was taken of
+         * @param snapshot the snapshot
+         */
+        public void attach(final @NonNull Object entity, final @NonNull EntitySnapshot snapshot) {
+            snapshot.mGeneration = GENERATION.get();
+            final Stripe stripe = mStripes[System.identityHashCode(entity) & (STRIPES - 1)];
+            synchronized (stripe) {
+                stripe.purge();
+                stripe.mSnapshots.put(new IdentityKey(entity, stripe.mQueue), snapshot);
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final Map<IdentityKey, EntitySnapshot> mSnapshots = new HashMap<>();
+        private final ReferenceQueue<Object> mQueue = new ReferenceQueue<>();
+
+        private void purge() {
+            Reference<?> ref;
+            while ((ref = mQueue.poll()) != null) {
+                mSnapshots.remove(ref);
+            }
+        }
+    }
+
+    private static final class IdentityKey extends WeakReference<Object> {
+
+        private final int mHashCode;
+
+        IdentityKey(final Object referent, final ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            mHashCode = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof IdentityKey)) return false;
+
+            final Object referent = get();
+            return referent != null && referent == ((IdentityKey) o).get();
+        }
+    }
+}
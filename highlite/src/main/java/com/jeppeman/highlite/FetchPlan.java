@@ -0,0 +1,244 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes which foreign keys and relationships to load when objects are fetched, and how deep
+ * into the object graph to follow them. A plan is either made up of named paths, e.g. "company"
+ * and "company.owner", in which case exactly those fields are loaded, or of the all-or-nothing
+ * flags set through {@link QueryableOperation#fetchForeignKeys(boolean)} and
+ * {@link QueryableOperation#fetchRelationships(boolean)}. Generated DAOs consult the plan for
+ * every foreign key and relationship field they are about to load, and pass on the plan for
+ * that field when they recurse.
+ * <p>
+ * A plan is created per executed operation and carries an identity map shared by all plans
+ * derived from it, through which objects referenced by foreign keys are loaded only once per
+ * operation and shared between all rows referencing them.
+ *
+ * @author jesper
+ */
+public final class FetchPlan {
+
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    private final boolean mAllForeignKeys;
+    private final boolean mAllRelationships;
+    private final Node mNode;
+    private final int mRemainingDepth;
+    private final Map<SharedKey, Object> mShared;
+
+    private FetchPlan(final boolean allForeignKeys,
+                      final boolean allRelationships,
+                      final Node node,
+                      final int remainingDepth,
+                      final Map<SharedKey, Object> shared) {
+        mAllForeignKeys = allForeignKeys;
+        mAllRelationships = allRelationships;
+        mNode = node;
+        mRemainingDepth = remainingDepth;
+        mShared = shared;
+    }
+
+    /**
+     * Creates a plan that loads all foreign keys and/or all relationships, however deep the
+     * object graph goes.
+     */
+    public static FetchPlan of(final boolean fetchForeignKeys, final boolean fetchRelationships) {
+        return of(fetchForeignKeys, fetchRelationships, UNLIMITED_DEPTH);
+    }
+
+    /**
+     * Creates a plan that loads all foreign keys and/or all relationships down to the given
+     * depth, where depth 1 means that only the fields of the fetched objects themselves are
+     * loaded.
+     */
+    public static FetchPlan of(final boolean fetchForeignKeys,
+                               final boolean fetchRelationships,
+                               final int maxDepth) {
+        return new FetchPlan(fetchForeignKeys, fetchRelationships, null, maxDepth,
+                new HashMap<SharedKey, Object>());
+    }
+
+    /**
+     * Creates a plan that loads the given dot separated field paths and nothing else, e.g.
+     * "company" loads the company of an employee and "company.owner" also loads the owner of
+     * that company.
+     */
+    public static FetchPlan ofPaths(final @NonNull Collection<String> paths, final int maxDepth) {
+        final Node root = new Node();
+        for (final String path : paths) {
+            Node current = root;
+            for (final String fieldName : path.split("\\.")) {
+                if (fieldName.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid fetch path: " + path);
+                }
+
+                Node child = current.mChildren.get(fieldName);
+                if (child == null) {
+                    child = new Node();
+                    current.mChildren.put(fieldName, child);
+                }
+                current = child;
+            }
+        }
+
+        return new FetchPlan(false, false, root, maxDepth, new HashMap<SharedKey, Object>());
+    }
+
+    /**
+     * @return a plan equal to this one, with an identity map of its own, for operations that
+     * load objects over a longer period of time and should not hold on to every object they
+     * have loaded
+     */
+    FetchPlan withNewIdentityMap() {
+        return new FetchPlan(mAllForeignKeys, mAllRelationships, mNode, mRemainingDepth,
+                new HashMap<SharedKey, Object>());
+    }
+
+    /**
+     * @param fieldName the name of a foreign key field
+     * @return true if the foreign key should be loaded
+     */
+    public boolean fetchForeignKey(final @NonNull String fieldName) {
+        return includes(fieldName, mAllForeignKeys);
+    }
+
+    /**
+     * @param fieldName the name of a relationship field
+     * @return true if the relationship should be loaded
+     */
+    public boolean fetchRelationship(final @NonNull String fieldName) {
+        return includes(fieldName, mAllRelationships);
+    }
+
+    private boolean includes(final String fieldName, final boolean all) {
+        if (mRemainingDepth <= 0) return false;
+
+        return mNode != null ? mNode.mChildren.containsKey(fieldName) : all;
+    }
+
+    /**
+     * Objects are only shared through the instance cache of the generated DAOs when loaded with
+     * an unrestricted plan, since objects loaded with a plan of named paths or limited depth may
+     * lack fields that other fetches expect to be loaded. Restricted plans are finite, so they do
+     * not need the cache to break cycles in the object graph either.
+     *
+     * @return true if objects loaded with this plan may be taken from and put in the cache
+     */
+    public boolean usesInstanceCache() {
+        return mNode == null && mRemainingDepth == UNLIMITED_DEPTH;
+    }
+
+    /**
+     * @param fieldName the name of the foreign key or relationship field being loaded
+     * @return the plan to load the objects referenced by the field with
+     */
+    public FetchPlan child(final @NonNull String fieldName) {
+        final Node childNode;
+        if (mNode != null) {
+            childNode = mNode.mChildren.get(fieldName);
+            if (childNode == null) {
+                return new FetchPlan(false, false, new Node(), 0, mShared);
+            }
+        } else {
+            childNode = null;
+        }
+
+        return new FetchPlan(mAllForeignKeys, mAllRelationships, childNode,
+                mRemainingDepth == UNLIMITED_DEPTH ? UNLIMITED_DEPTH : mRemainingDepth - 1,
+                mShared);
+    }
+
+    /**
+     * Checks whether an object has already been loaded with this plan during the operation.
+     *
+     * @param type   the class of the object
+     * @param column the column the object was looked up by
+     * @param value  the value of the column
+     * @return true if an object, or the absence of one, has been recorded through
+     * {@link #share(Class, String, Object, Object)}
+     */
+    public boolean isShared(final @NonNull Class<?> type,
+                            final @NonNull String column,
+                            final Object value) {
+        return mShared.containsKey(new SharedKey(this, type, column, value));
+    }
+
+    /**
+     * @return the object recorded through {@link #share(Class, String, Object, Object)}
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E getShared(final @NonNull Class<E> type,
+                           final @NonNull String column,
+                           final Object value) {
+        return (E) mShared.get(new SharedKey(this, type, column, value));
+    }
+
+    /**
+     * Records an object loaded with this plan, so that it is shared by every row referencing it
+     * for the rest of the operation. Objects are only shared between lookups made with
+     * equivalent plans, since they would otherwise differ in which of their fields are loaded.
+     *
+     * @param type   the class of the object
+     * @param column the column the object was looked up by
+     * @param value  the value of the column
+     * @param entity the loaded object, or null if there was none
+     */
+    public void share(final @NonNull Class<?> type,
+                      final @NonNull String column,
+                      final Object value,
+                      final Object entity) {
+        mShared.put(new SharedKey(this, type, column, value), entity);
+    }
+
+    private static final class SharedKey {
+
+        private final Node mNode;
+        private final int mRemainingDepth;
+        private final Class<?> mType;
+        private final String mColumn;
+        private final Object mValue;
+
+        SharedKey(final FetchPlan plan,
+                  final Class<?> type,
+                  final String column,
+                  final Object value) {
+            mNode = plan.mNode;
+            mRemainingDepth = plan.mRemainingDepth;
+            mType = type;
+            mColumn = column;
+            mValue = value;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SharedKey)) return false;
+
+            final SharedKey other = (SharedKey) o;
+            return mNode == other.mNode
+                    && mRemainingDepth == other.mRemainingDepth
+                    && mType.equals(other.mType)
+                    && mColumn.equals(other.mColumn)
+                    && (mValue == null ? other.mValue == null : mValue.equals(other.mValue));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(mNode);
+            result = 31 * result + mRemainingDepth;
+            result = 31 * result + mType.hashCode();
+            result = 31 * result + mColumn.hashCode();
+            result = 31 * result + (mValue != null ? mValue.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> mChildren = new HashMap<>();
+    }
+}
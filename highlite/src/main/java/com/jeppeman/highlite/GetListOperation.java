@@ -1,10 +1,14 @@
 package com.jeppeman.highlite;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.annotation.WorkerThread;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import io.reactivex.BackpressureStrategy;
@@ -29,14 +33,204 @@ public class GetListOperation<T> extends RawQueryableOperation<GetListOperation<
         implements Operation<T, List<T>> {
 
     private final Context mContext;
+    private final Class<T> mClass;
     private final SQLiteDAO<T> mGenerated;
+    private Collection<?> mIds;
+    private String[] mSelectedFields;
 
     GetListOperation(final @NonNull Context context,
+                     final @NonNull Class<T> cls,
                      final @NonNull SQLiteDAO<T> generated) {
         mContext = context;
+        mClass = cls;
         mGenerated = generated;
     }
 
+    /**
+     * Restricts the operation to the records whose primary keys are contained in the given
+     * collection. Objects still held by the instance cache are served from it, the rest are
+     * fetched with chunked IN queries. The resulting list is ordered as the given ids, ids that
+     * do not correspond to a record are left out. Numeric ids are converted to the type of a
+     * numeric primary key, ids of any other type than the primary key's never match a record.
+     *
+     * @param ids the primary keys of the records to fetch
+     * @return itself
+     */
+    public GetListOperation<T> byIds(final @NonNull Collection<?> ids) {
+        mQuery = null;
+        mRawQueryClause = null;
+        mRawQueryArgs = null;
+        mIds = ids;
+        return this;
+    }
+
+    /**
+     * Restricts the columns that are read to those of the given fields, along with the primary
+     * key, so that fields that are not displayed, such as serialized ones, are neither read nor
+     * deserialized. The remaining fields of the fetched objects keep the values they are given
+     * when instantiated, and are only written on save if they are changed afterwards. Partially
+     * loaded objects are not kept in the instance cache. Foreign keys are fetched as usual when
+     * their fields are selected but are never joined, and the selection can not be combined with
+     * {@link #byIds(Collection)} or raw queries.
+     *
+     * @param fields the names of the fields to read
+     * @return itself
+     */
+    public GetListOperation<T> select(final @NonNull String... fields) {
+        mSelectedFields = fields;
+        return this;
+    }
+
+    /**
+     * Fetches the columns of a projection rather than whole objects, the query of this operation
+     * is carried over to the returned operation and has to be attached before calling this method.
+     *
+     * @param projection a class annotated with {@link SQLiteProjection} whose table is {@link T}
+     * @param <P>        the type of the projection
+     * @return an executable {@link ProjectionOperation<P>}
+     */
+    public <P> ProjectionOperation<P> select(final @NonNull Class<P> projection) {
+        if (mIds != null || mRawQueryClause != null) {
+            throw new RuntimeException("Projections can not be combined with byIds or raw queries");
+        }
+
+        return new ProjectionOperation<>(mContext, mClass, mGenerated, projection, mQuery,
+                mQuery != null ? getWhereArgsAsStringArray() : null);
+    }
+
+    /**
+     * @see {@link RawQueryableOperation#withRawQuery(String, Object...)}
+     */
+    @Override
+    public GetListOperation<T> withRawQuery(final @NonNull String rawQueryClause,
+                                           final Object... rawQueryArgs) {
+        mIds = null;
+        return super.withRawQuery(rawQueryClause, rawQueryArgs);
+    }
+
+    /**
+     * @see {@link QueryableOperation#withQuery(SQLiteQuery)}
+     */
+    @Override
+    public GetListOperation<T> withQuery(final @NonNull SQLiteQuery query) {
+        mIds = null;
+        return super.withQuery(query);
+    }
+
+    /**
+     * Fetches the records specified with {@link #byIds(Collection)} and maps them to objects of
+     * type {@link T}, blocking operation.
+     *
+     * @param <K> the type of the ids passed to {@link #byIds(Collection)}
+     * @return a map from the given ids to their corresponding objects, ordered as the given ids
+     */
+    @WorkerThread
+    @SuppressWarnings("unchecked")
+    public <K> Map<K, T> executeBlockingAsMap() {
+        if (mIds == null) {
+            throw new RuntimeException("No ids provided to getList, see byIds(Collection)");
+        } else if (mSelectedFields != null) {
+            throw new RuntimeException("select can not be combined with byIds");
+        }
+
+        final OperationRecorder recorder = OperationRecorder.begin(mClass,
+                OperationMetrics.Kind.GET_LIST);
+        try {
+            return (Map<K, T>) mGenerated.getMapByIds(mContext, mIds, getFetchPlan(),
+                    mFetchForeignKeysByJoin);
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
+
+    /**
+     * Opens a cursor for the query of this operation and wraps it in a {@link LazyList}, which maps
+     * rows to objects of type {@link T} only when they are accessed. The returned list has to be
+     * closed with {@link LazyList#close()} when it is no longer used.
+     *
+     * @return a {@link LazyList} backed by an open cursor
+     */
+    @WorkerThread
+    public LazyList<T> asLazyList() {
+        return asLazyList(LazyList.DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the number of mapped objects to keep around for repeated access
+     * @return a {@link LazyList} backed by an open cursor
+     * @see #asLazyList()
+     */
+    @WorkerThread
+    public LazyList<T> asLazyList(final int cacheSize) {
+        if (mIds != null) {
+            throw new RuntimeException("asLazyList can not be combined with byIds");
+        }
+
+        final Cursor cursor;
+        if (mSelectedFields != null) {
+            cursor = getSelectionCursor();
+        } else if (mQuery != null) {
+            cursor = mGenerated.getCursor(mContext, mQuery.mWhereClause,
+                    getWhereArgsAsStringArray(), mQuery.mGroupByClause, mQuery.mHavingClause,
+                    mQuery.mOrderByClause, mQuery.mLimitClause, mFetchForeignKeysByJoin);
+        } else if (mRawQueryClause != null) {
+            cursor = mGenerated.getCursor(mContext, mRawQueryClause,
+                    getRawQueryArgsAsStringArray());
+        } else {
+            cursor = mGenerated.getCursor(mContext, null, null, null, null, null, null,
+                    mFetchForeignKeysByJoin);
+        }
+
+        return new LazyList<>(mContext, mGenerated, cursor, getFetchPlan(), cacheSize);
+    }
+
+    private Cursor getSelectionCursor() {
+        if (mIds != null || mRawQueryClause != null) {
+            throw new RuntimeException("select can not be combined with byIds or raw queries");
+        }
+
+        return mQuery != null
+                ? mGenerated.getCursor(mContext, mSelectedFields, mQuery.mWhereClause,
+                getWhereArgsAsStringArray(), mQuery.mGroupByClause, mQuery.mHavingClause,
+                mQuery.mOrderByClause, mQuery.mLimitClause)
+                : mGenerated.getCursor(mContext, mSelectedFields, null, null, null, null, null,
+                null);
+    }
+
+    private List<T> getSelection() {
+        final Cursor cursor = getSelectionCursor();
+        try {
+            final List<T> ret = new ArrayList<>(cursor.getCount());
+            final FetchPlan fetchPlan = getFetchPlan();
+            while (cursor.moveToNext()) {
+                ret.add(mGenerated.instantiateObject(cursor, mContext, fetchPlan, false));
+            }
+            return ret;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String[] getWhereArgsAsStringArray() {
+        if (mQuery.mWhereArgs == null) return null;
+
+        final String[] whereArgsAsStringArray = new String[mQuery.mWhereArgs.length];
+        for (int i = 0; i < mQuery.mWhereArgs.length; i++) {
+            whereArgsAsStringArray[i] = String.valueOf(mQuery.mWhereArgs[i]);
+        }
+        return whereArgsAsStringArray;
+    }
+
+    private String[] getRawQueryArgsAsStringArray() {
+        if (mRawQueryArgs == null) return null;
+
+        final String[] rawQueryArgsAsStringArray = new String[mRawQueryArgs.length];
+        for (int i = 0; i < mRawQueryArgs.length; i++) {
+            rawQueryArgsAsStringArray[i] = String.valueOf(mRawQueryArgs[i]);
+        }
+        return rawQueryArgsAsStringArray;
+    }
+
     /**
      * Fetches multiple rows from a database and maps them to objects of type {@link T}, blocking
      * operation.
@@ -45,37 +239,32 @@ public class GetListOperation<T> extends RawQueryableOperation<GetListOperation<
      */
     @WorkerThread
     public List<T> executeBlocking() {
-        if (mQuery != null) {
-            final String[] whereArgsAsStringArray;
-            if (mQuery.mWhereArgs != null) {
-                whereArgsAsStringArray = new String[mQuery.mWhereArgs.length];
-                for (int i = 0; i < mQuery.mWhereArgs.length; i++) {
-                    whereArgsAsStringArray[i] = String.valueOf(mQuery.mWhereArgs[i]);
-                }
-            } else {
-                whereArgsAsStringArray = null;
-            }
+        final OperationRecorder recorder = OperationRecorder.begin(mClass,
+                OperationMetrics.Kind.GET_LIST);
+        try {
+            return execute();
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
 
+    private List<T> execute() {
+        if (mSelectedFields != null) {
+            return getSelection();
+        } else if (mIds != null) {
+            return new ArrayList<>(mGenerated.getMapByIds(mContext, mIds, getFetchPlan(),
+                    mFetchForeignKeysByJoin).values());
+        } else if (mQuery != null) {
             return mGenerated.getList(mContext, mQuery.mWhereClause,
-                    whereArgsAsStringArray, mQuery.mGroupByClause, mQuery.mHavingClause,
-                    mQuery.mOrderByClause, mQuery.mLimitClause, mFetchForeignKeys,
-                    mFetchRelationShips, false);
+                    getWhereArgsAsStringArray(), mQuery.mGroupByClause, mQuery.mHavingClause,
+                    mQuery.mOrderByClause, mQuery.mLimitClause, getFetchPlan(),
+                    mFetchForeignKeysByJoin, false);
         } else if (mRawQueryClause != null) {
-            final String[] rawQueryArgsAsStringArray;
-            if (mRawQueryArgs != null) {
-                rawQueryArgsAsStringArray = new String[mRawQueryArgs.length];
-                for (int i = 0; i < mRawQueryArgs.length; i++) {
-                    rawQueryArgsAsStringArray[i] = String.valueOf(mRawQueryArgs[i]);
-                }
-            } else {
-                rawQueryArgsAsStringArray = null;
-            }
-
             return mGenerated.getList(mContext, mRawQueryClause,
-                    rawQueryArgsAsStringArray, mFetchForeignKeys, mFetchRelationShips, false);
+                    getRawQueryArgsAsStringArray(), getFetchPlan(), false);
         } else {
             return mGenerated.getList(mContext, null, null, null, null, null, null,
-                    mFetchForeignKeys, mFetchRelationShips, false);
+                    getFetchPlan(), mFetchForeignKeysByJoin, false);
         }
     }
 
@@ -25,14 +25,17 @@ public class GetSingleOperation<T> extends RawQueryableOperation<GetSingleOperat
         implements Operation<T, T> {
 
     private final Context mContext;
+    private final Class<T> mClass;
     private final SQLiteDAO<T> mGenerated;
     @Nullable
     private final Object mId;
 
     GetSingleOperation(final @NonNull Context context,
+                       final @NonNull Class<T> cls,
                        final @NonNull SQLiteDAO<T> generated,
                        final @Nullable Object id) {
         mContext = context;
+        mClass = cls;
         mGenerated = generated;
         mId = id;
     }
@@ -46,8 +49,19 @@ public class GetSingleOperation<T> extends RawQueryableOperation<GetSingleOperat
     @WorkerThread
     @Nullable
     public T executeBlocking() {
+        final OperationRecorder recorder = OperationRecorder.begin(mClass,
+                OperationMetrics.Kind.GET_SINGLE);
+        try {
+            return execute();
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
+
+    private T execute() {
         if (mId != null) {
-            return mGenerated.getSingle(mContext, mId, mFetchForeignKeys, mFetchRelationShips);
+            return mGenerated.getSingle(mContext, mId, getFetchPlan(),
+                    mFetchForeignKeysByJoin);
         } else if (mQuery != null) {
             final String[] whereArgsAsStringArray;
             if (mQuery.mWhereArgs != null) {
@@ -61,7 +75,7 @@ public class GetSingleOperation<T> extends RawQueryableOperation<GetSingleOperat
 
             return mGenerated.getSingle(mContext, mQuery.mWhereClause,
                     whereArgsAsStringArray, mQuery.mGroupByClause, mQuery.mHavingClause,
-                    mQuery.mOrderByClause, mFetchForeignKeys, mFetchRelationShips, false);
+                    mQuery.mOrderByClause, getFetchPlan(), mFetchForeignKeysByJoin, false);
         } else if (mRawQueryClause != null) {
             final String[] rawQueryArgsAsStringArray;
             if (mRawQueryArgs != null) {
@@ -74,7 +88,7 @@ public class GetSingleOperation<T> extends RawQueryableOperation<GetSingleOperat
             }
 
             return mGenerated.getSingle(mContext, mRawQueryClause,
-                    rawQueryArgsAsStringArray, mFetchForeignKeys, mFetchRelationShips, false);
+                    rawQueryArgsAsStringArray, getFetchPlan(), false);
         }
 
         throw new RuntimeException("No id or query provided to getSingle");
@@ -0,0 +1,22 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the metrics of every blocking operation executed through a {@link SQLiteOperator},
+ * see {@link SQLiteOperator#setMetrics(HighLiteMetrics)}. Non-blocking operations execute their
+ * blocking counterparts and are reported as well. Listeners are called on the thread that
+ * executed the operation, right after it finished, so they should return quickly.
+ *
+ * @author jesper
+ * @see InMemoryMetrics
+ */
+public interface HighLiteMetrics {
+
+    /**
+     * Called when an operation has finished, successfully or not.
+     *
+     * @param metrics the metrics of the operation
+     */
+    void onOperation(@NonNull OperationMetrics metrics);
+}
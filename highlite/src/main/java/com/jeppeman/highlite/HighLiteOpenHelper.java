@@ -4,4 +4,10 @@ import android.content.Context;
 
 public interface HighLiteOpenHelper {
     void deleteDatabase(Context context);
+
+    /**
+     * Clears the instance caches of the DAOs of every table of the database, called when a
+     * transaction is rolled back since the cached objects may have been loaded in it.
+     */
+    void clearInstanceCaches();
 }
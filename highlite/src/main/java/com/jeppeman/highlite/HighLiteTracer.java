@@ -0,0 +1,141 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Traces what HighLite does, see {@link SQLiteOperator#setTracer(HighLiteTracer)}. Spans are
+ * started around operations, around every statement executed by generated DAOs, around foreign
+ * key and relationship fetching and around creating, upgrading and opening databases. Spans are
+ * started and ended on the same thread and are strictly nested, a span started while another one
+ * is open on the same thread is passed that one as its parent.
+ *
+ * @author jesper
+ */
+public interface HighLiteTracer {
+
+    /**
+     * An operation executed through a {@link SQLiteOperator}.
+     */
+    String SPAN_OPERATION = "highlite.operation";
+    /**
+     * A query executed by a generated DAO.
+     */
+    String SPAN_QUERY = "highlite.query";
+    /**
+     * An insert executed by a generated DAO.
+     */
+    String SPAN_INSERT = "highlite.insert";
+    /**
+     * An update executed by a generated DAO.
+     */
+    String SPAN_UPDATE = "highlite.update";
+    /**
+     * A delete executed by a generated DAO.
+     */
+    String SPAN_DELETE = "highlite.delete";
+    /**
+     * Fetching the foreign keys or relationships of an object.
+     */
+    String SPAN_RELATIONSHIP_FETCH = "highlite.relationship_fetch";
+    /**
+     * Creating a database, see {@link android.database.sqlite.SQLiteOpenHelper#onCreate}.
+     */
+    String SPAN_CREATE = "highlite.create";
+    /**
+     * Upgrading a database, see {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade}.
+     */
+    String SPAN_UPGRADE = "highlite.upgrade";
+    /**
+     * Opening a database, see {@link android.database.sqlite.SQLiteOpenHelper#onOpen}.
+     */
+    String SPAN_OPEN = "highlite.open";
+
+    /**
+     * The simple name of the class an operation is executed for.
+     */
+    String ATTRIBUTE_ENTITY = "entity";
+    /**
+     * The kind of an operation, see {@link OperationMetrics.Kind}.
+     */
+    String ATTRIBUTE_KIND = "kind";
+    /**
+     * The table an insert, update or delete is executed on.
+     */
+    String ATTRIBUTE_TABLE = "table";
+    /**
+     * The shape of a statement, i.e. the statement with its literals replaced by ?.
+     */
+    String ATTRIBUTE_SQL = "sql";
+    /**
+     * The number of rows read by a query, or written by an insert, update or delete.
+     */
+    String ATTRIBUTE_ROWS = "rows";
+    /**
+     * The name of a database.
+     */
+    String ATTRIBUTE_DATABASE = "database";
+    /**
+     * The version a database is upgraded from.
+     */
+    String ATTRIBUTE_OLD_VERSION = "oldVersion";
+    /**
+     * The version a database is upgraded to.
+     */
+    String ATTRIBUTE_NEW_VERSION = "newVersion";
+
+    /**
+     * The default tracer, which does nothing. While it is set no spans are started at all.
+     */
+    HighLiteTracer NO_OP = new HighLiteTracer() {
+        @NonNull
+        @Override
+        public Span startSpan(final @NonNull String name, final @Nullable Span parent) {
+            return Span.NO_OP;
+        }
+    };
+
+    /**
+     * Starts a span.
+     *
+     * @param name   the name of the span, one of the SPAN_ constants
+     * @param parent the innermost span open on the current thread, or null if there is none
+     * @return the started span
+     */
+    @NonNull
+    Span startSpan(@NonNull String name, @Nullable Span parent);
+
+    /**
+     * A span started by a {@link HighLiteTracer}.
+     */
+    interface Span {
+
+        /**
+         * A span that does nothing.
+         */
+        Span NO_OP = new Span() {
+            @Override
+            public void setAttribute(final @NonNull String key, final @Nullable Object value) {
+
+            }
+
+            @Override
+            public void end() {
+
+            }
+        };
+
+        /**
+         * Sets an attribute of the span.
+         *
+         * @param key   the key of the attribute, one of the ATTRIBUTE_ constants
+         * @param value the value of the attribute
+         */
+        void setAttribute(@NonNull String key, @Nullable Object value);
+
+        /**
+         * Ends the span, it is called exactly once per span.
+         */
+        void end();
+    }
+}
@@ -0,0 +1,84 @@
+package com.jeppeman.highlite;
+
+/**
+ * A histogram of durations with exponentially growing buckets: the first bucket holds durations
+ * below one microsecond, every following bucket holds durations up to twice as long as the
+ * previous one. Percentiles are therefore approximate, they are reported as the upper bound of
+ * the bucket they fall into, capped by the longest duration recorded.
+ *
+ * @author jesper
+ */
+public final class Histogram {
+
+    private static final int BUCKET_COUNT = 40;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSumNanos;
+    private long mMaxNanos;
+
+    synchronized void record(final long nanos) {
+        final long micros = Math.max(0, nanos) / NANOS_PER_MICRO;
+        final int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mBuckets[bucket]++;
+        mCount++;
+        mSumNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the sum of the durations recorded in nanoseconds
+     */
+    public synchronized long getSumNanos() {
+        return mSumNanos;
+    }
+
+    /**
+     * @return the longest duration recorded in nanoseconds
+     */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @return the mean of the durations recorded in nanoseconds
+     */
+    public synchronized long getMeanNanos() {
+        return mCount > 0 ? mSumNanos / mCount : 0;
+    }
+
+    /**
+     * @param percentile the percentile to get, between 0 and 100
+     * @return the approximate duration in nanoseconds that the given percentage of the recorded
+     * durations do not exceed
+     */
+    public synchronized long getPercentileNanos(final double percentile) {
+        if (mCount == 0) return 0;
+
+        final long rank = (long) Math.ceil(mCount * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(mMaxNanos, (1L << i) * NANOS_PER_MICRO);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus", mCount,
+                getMeanNanos() / NANOS_PER_MICRO, getPercentileNanos(50) / NANOS_PER_MICRO,
+                getPercentileNanos(90) / NANOS_PER_MICRO, getPercentileNanos(99) / NANOS_PER_MICRO,
+                mMaxNanos / NANOS_PER_MICRO);
+    }
+}
@@ -0,0 +1,218 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link HighLiteMetrics} that aggregates operations in memory, grouped by entity type, kind
+ * of operation and statement shape. Each group keeps histograms of the time spent in total, in
+ * SQL, in mapping and in fetching foreign keys and relationships, along with row and cache
+ * counts, which makes it easy to find out which tables and queries cost the most:
+ *
+ * <pre>
+ * final InMemoryMetrics metrics = new InMemoryMetrics();
+ * SQLiteOperator.setMetrics(metrics);
+ * ...
+ * for (InMemoryMetrics.Stats stats : metrics.getStats()) {
+ *     Log.d(TAG, stats.toString());
+ * }
+ * </pre>
+ *
+ * @author jesper
+ */
+public class InMemoryMetrics implements HighLiteMetrics {
+
+    private final Map<String, Stats> mStats = new HashMap<>();
+
+    @Override
+    public void onOperation(final @NonNull OperationMetrics metrics) {
+        final String key = metrics.getEntityType().getName() + " " + metrics.getKind() + " "
+                + metrics.getSql();
+        Stats stats;
+        synchronized (mStats) {
+            stats = mStats.get(key);
+            if (stats == null) {
+                stats = new Stats(metrics.getEntityType(), metrics.getKind(), metrics.getSql());
+                mStats.put(key, stats);
+            }
+        }
+        stats.add(metrics);
+    }
+
+    /**
+     * @return the aggregated groups, the ones that took the most time in total first
+     */
+    @NonNull
+    public List<Stats> getStats() {
+        final List<Stats> ret;
+        synchronized (mStats) {
+            ret = new ArrayList<>(mStats.values());
+        }
+        Collections.sort(ret, new Comparator<Stats>() {
+            @Override
+            public int compare(final Stats o1, final Stats o2) {
+                final long t1 = o1.getTotalTime().getSumNanos(),
+                        t2 = o2.getTotalTime().getSumNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Discards everything aggregated so far.
+     */
+    public void reset() {
+        synchronized (mStats) {
+            mStats.clear();
+        }
+    }
+
+    /**
+     * The aggregated metrics of the operations of one kind, executed for one entity type with
+     * one statement shape.
+     */
+    public static final class Stats {
+
+        private final Class<?> mEntityType;
+        private final OperationMetrics.Kind mKind;
+        private final String mSql;
+        private final Histogram mTotalTime = new Histogram();
+        private final Histogram mSqlTime = new Histogram();
+        private final Histogram mMappingTime = new Histogram();
+        private final Histogram mRelationshipTime = new Histogram();
+        private long mRowsRead;
+        private long mRowsWritten;
+        private long mCacheHits;
+        private long mCacheMisses;
+
+        Stats(final Class<?> entityType, final OperationMetrics.Kind kind, final String sql) {
+            mEntityType = entityType;
+            mKind = kind;
+            mSql = sql;
+        }
+
+        void add(final OperationMetrics metrics) {
+            mTotalTime.record(metrics.getTotalNanos());
+            mSqlTime.record(metrics.getSqlNanos());
+            mMappingTime.record(metrics.getMappingNanos());
+            mRelationshipTime.record(metrics.getRelationshipNanos());
+            synchronized (this) {
+                mRowsRead += metrics.getRowsRead();
+                mRowsWritten += metrics.getRowsWritten();
+                mCacheHits += metrics.getCacheHits();
+                mCacheMisses += metrics.getCacheMisses();
+            }
+        }
+
+        /**
+         * @return the class the operations were executed for
+         */
+        @NonNull
+        public Class<?> getEntityType() {
+            return mEntityType;
+        }
+
+        /**
+         * @return the kind of the operations
+         */
+        @NonNull
+        public OperationMetrics.Kind getKind() {
+            return mKind;
+        }
+
+        /**
+         * @return the statement shape of the operations, see {@link OperationMetrics#getSql()}
+         */
+        @Nullable
+        public String getSql() {
+            return mSql;
+        }
+
+        /**
+         * @return the number of operations
+         */
+        public long getCount() {
+            return mTotalTime.getCount();
+        }
+
+        /**
+         * @return the total times of the operations
+         */
+        @NonNull
+        public Histogram getTotalTime() {
+            return mTotalTime;
+        }
+
+        /**
+         * @return the times the operations spent executing statements
+         */
+        @NonNull
+        public Histogram getSqlTime() {
+            return mSqlTime;
+        }
+
+        /**
+         * @return the times the operations spent mapping
+         */
+        @NonNull
+        public Histogram getMappingTime() {
+            return mMappingTime;
+        }
+
+        /**
+         * @return the times the operations spent fetching foreign keys and relationships
+         */
+        @NonNull
+        public Histogram getRelationshipTime() {
+            return mRelationshipTime;
+        }
+
+        /**
+         * @return the number of rows read by the operations
+         */
+        public synchronized long getRowsRead() {
+            return mRowsRead;
+        }
+
+        /**
+         * @return the number of rows written by the operations
+         */
+        public synchronized long getRowsWritten() {
+            return mRowsWritten;
+        }
+
+        /**
+         * @return the number of objects the operations found in the instance cache
+         */
+        public synchronized long getCacheHits() {
+            return mCacheHits;
+        }
+
+        /**
+         * @return the number of objects the operations looked up in the instance cache but
+         * did not find there
+         */
+        public synchronized long getCacheMisses() {
+            return mCacheMisses;
+        }
+
+        @Override
+        public String toString() {
+            return mEntityType.getSimpleName() + " " + mKind + " " + mSql
+                    + "\n  total: " + mTotalTime
+                    + "\n  sql: " + mSqlTime
+                    + "\n  mapping: " + mMappingTime
+                    + "\n  relationships: " + mRelationshipTime
+                    + "\n  rows read: " + getRowsRead() + ", rows written: " + getRowsWritten()
+                    + ", cache hits: " + getCacheHits() + ", cache misses: " + getCacheMisses();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.jeppeman.highlite;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A read-only, random access {@link java.util.List} backed by an open {@link Cursor}. Rows are
+ * mapped to objects of type {@link T} when they are requested through {@link #get(int)}, and the
+ * most recently mapped objects are kept in a small LRU cache. Opening the list does not map
+ * anything, which makes it suitable for large result sets where only a window of the rows is
+ * looked at. The list holds on to the cursor until {@link #close()} is called.
+ *
+ * @param <T> the type of object to map rows to
+ * @author jesper
+ */
+public final class LazyList<T> extends AbstractList<T> implements RandomAccess, Closeable {
+
+    static final int DEFAULT_CACHE_SIZE = 64;
+
+    private final Context mContext;
+    private final SQLiteDAO<T> mGenerated;
+    private final Cursor mCursor;
+    private final FetchPlan mFetchPlan;
+    private final Map<Integer, T> mCache;
+    private int mSize = -1;
+
+    LazyList(final @NonNull Context context,
+             final @NonNull SQLiteDAO<T> generated,
+             final @NonNull Cursor cursor,
+             final @NonNull FetchPlan fetchPlan,
+             final int cacheSize) {
+        mContext = context;
+        mGenerated = generated;
+        mCursor = cursor;
+        mFetchPlan = fetchPlan;
+        mCache = new LinkedHashMap<Integer, T>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, T> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    private void assertOpen() {
+        if (mCursor.isClosed()) {
+            throw new IllegalStateException("The list has been closed");
+        }
+    }
+
+    /**
+     * Maps the row at the given position to an object of type {@link T}, or returns it from the
+     * cache if it was recently mapped.
+     *
+     * @param index the position of the row
+     * @return the object mapped from the row
+     */
+    @Override
+    @WorkerThread
+    public synchronized T get(final int index) {
+        assertOpen();
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        T ret = mCache.get(index);
+        if (ret != null) return ret;
+
+        // Objects referenced by foreign keys are shared within a row only, the list would
+        // otherwise keep every one of them for as long as it is open
+        mCursor.moveToPosition(index);
+        ret = mGenerated.instantiateObject(mCursor, mContext, mFetchPlan.withNewIdentityMap(),
+                false);
+        mCache.put(index, ret);
+        return ret;
+    }
+
+    /**
+     * The number of rows in the result set, counted the first time this method is called.
+     *
+     * @return the number of rows
+     */
+    @Override
+    @WorkerThread
+    public synchronized int size() {
+        assertOpen();
+        if (mSize < 0) {
+            mSize = mCursor.getCount();
+        }
+        return mSize;
+    }
+
+    /**
+     * @return true if {@link #close()} has been called, otherwise false
+     */
+    public synchronized boolean isClosed() {
+        return mCursor.isClosed();
+    }
+
+    /**
+     * Closes the underlying cursor and drops the cached objects, the list can not be accessed
+     * after this.
+     */
+    @Override
+    public synchronized void close() {
+        mCache.clear();
+        mCursor.close();
+    }
+}
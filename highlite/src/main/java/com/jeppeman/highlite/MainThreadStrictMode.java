@@ -0,0 +1,48 @@
+package com.jeppeman.highlite;
+
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Detects statements executed by generated DAOs on the main thread, see
+ * {@link SQLiteOperator#setMainThreadStrictMode(boolean, boolean)}.
+ *
+ * @author jesper
+ */
+final class MainThreadStrictMode {
+
+    private static volatile boolean sEnabled;
+    private static volatile boolean sThrow;
+
+    private MainThreadStrictMode() {
+
+    }
+
+    static void setEnabled(final boolean enabled, final boolean throwOnViolation) {
+        sThrow = throwOnViolation;
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return true if strict mode is enabled and the current thread is the main thread
+     */
+    static boolean isOnMainThread() {
+        return sEnabled && Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * Reports a statement that was executed on the main thread, by throwing or by logging a
+     * warning depending on how strict mode was enabled.
+     *
+     * @param sql   the statement
+     * @param nanos the time it took to execute the statement
+     * @throws MainThreadViolation if strict mode was enabled to throw
+     */
+    static void onViolation(final String sql, final long nanos) {
+        final MainThreadViolation violation = new MainThreadViolation(sql, nanos);
+        if (sThrow) {
+            throw violation;
+        }
+        Log.w(QueryPlanDiagnostics.TAG, violation.getMessage(), violation);
+    }
+}
@@ -0,0 +1,42 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown, or logged, when strict mode is enabled and a generated DAO executes a statement on the
+ * main thread, see {@link SQLiteOperator#setMainThreadStrictMode(boolean, boolean)}. The stack
+ * trace points at the call that caused it.
+ *
+ * @author jesper
+ */
+public final class MainThreadViolation extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mSql;
+    private final long mElapsedNanos;
+
+    MainThreadViolation(final @NonNull String sql, final long elapsedNanos) {
+        super(String.format("Statement executed on the main thread, took %.2f ms: %s",
+                elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1), sql));
+        mSql = sql;
+        mElapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the statement that was executed on the main thread
+     */
+    @NonNull
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the time it took to execute the statement in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+}
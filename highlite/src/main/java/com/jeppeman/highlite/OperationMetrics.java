@@ -0,0 +1,150 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The metrics of a single operation, passed to {@link HighLiteMetrics#onOperation}. The time of
+ * an operation is split into time spent executing statements, time spent fetching foreign keys
+ * and relationships, including the statements executed for them, and the rest, which is
+ * mostly mapping rows to objects.
+ *
+ * @author jesper
+ */
+public final class OperationMetrics {
+
+    /**
+     * The kinds of operations.
+     */
+    public enum Kind {
+        GET_SINGLE,
+        GET_LIST,
+        SAVE,
+        DELETE
+    }
+
+    private final Class<?> mEntityType;
+    private final Kind mKind;
+    private final String mSql;
+    private final int mStatementCount;
+    private final int mRowsRead;
+    private final int mRowsWritten;
+    private final int mCacheHits;
+    private final int mCacheMisses;
+    private final long mTotalNanos;
+    private final long mSqlNanos;
+    private final long mRelationshipNanos;
+
+    OperationMetrics(final @NonNull OperationRecorder recorder, final long totalNanos) {
+        mEntityType = recorder.mEntityType;
+        mKind = recorder.mKind;
+        mSql = recorder.mSql != null ? DatabaseCalls.toShape(recorder.mSql) : null;
+        mStatementCount = recorder.mStatementCount;
+        mRowsRead = recorder.mRowsRead;
+        mRowsWritten = recorder.mRowsWritten;
+        mCacheHits = recorder.mCacheHits;
+        mCacheMisses = recorder.mCacheMisses;
+        mTotalNanos = totalNanos;
+        mSqlNanos = recorder.mSqlNanos;
+        mRelationshipNanos = recorder.mRelationshipNanos;
+    }
+
+    /**
+     * @return the class annotated with {@link SQLiteTable} that the operation was executed for
+     */
+    @NonNull
+    public Class<?> getEntityType() {
+        return mEntityType;
+    }
+
+    /**
+     * @return the kind of the operation
+     */
+    @NonNull
+    public Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return the shape, i.e. the statement with its literals replaced by ?, of the last
+     * statement the operation executed outside of foreign key and relationship fetching, or
+     * null if it did not execute any, e.g. when everything was served from the instance cache
+     */
+    @Nullable
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the number of statements executed, including the ones for foreign keys and
+     * relationships
+     */
+    public int getStatementCount() {
+        return mStatementCount;
+    }
+
+    /**
+     * @return the number of rows returned by queries, including the ones for foreign keys and
+     * relationships
+     */
+    public int getRowsRead() {
+        return mRowsRead;
+    }
+
+    /**
+     * @return the number of rows inserted, updated or deleted
+     */
+    public int getRowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return the number of objects served from the instance cache
+     */
+    public int getCacheHits() {
+        return mCacheHits;
+    }
+
+    /**
+     * @return the number of objects looked up in the instance cache but not found there
+     */
+    public int getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    /**
+     * @return the wall time of the whole operation in nanoseconds
+     */
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * @return the time spent executing statements outside of foreign key and relationship
+     * fetching in nanoseconds
+     */
+    public long getSqlNanos() {
+        return mSqlNanos;
+    }
+
+    /**
+     * @return the time spent fetching foreign keys and relationships in nanoseconds
+     */
+    public long getRelationshipNanos() {
+        return mRelationshipNanos;
+    }
+
+    /**
+     * @return the remaining time of the operation in nanoseconds, which is mostly spent mapping
+     * rows to objects and objects to content values
+     */
+    public long getMappingNanos() {
+        return Math.max(0, mTotalNanos - mSqlNanos - mRelationshipNanos);
+    }
+
+    @Override
+    public String toString() {
+        return mEntityType.getSimpleName() + " " + mKind + " " + mSql
+                + " (" + mTotalNanos / 1000 + " us)";
+    }
+}
@@ -0,0 +1,146 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Collects the metrics of the operation running on the current thread. Operations begin and end
+ * a recording, the statements and cache lookups made by generated DAOs in between are added to
+ * it by {@link DatabaseCalls}. Nothing is recorded unless metrics, the slow operation log or
+ * tracing are enabled.
+ *
+ * @author jesper
+ */
+final class OperationRecorder {
+
+    private static final ThreadLocal<OperationRecorder> CURRENT = new ThreadLocal<>();
+    private static volatile HighLiteMetrics sMetrics;
+
+    final Class<?> mEntityType;
+    final OperationMetrics.Kind mKind;
+    final long mStartNanos;
+    final boolean mCaptureArgs;
+    String mSql;
+    Object[] mArgs;
+    int mStatementCount;
+    int mRowsRead;
+    int mRowsWritten;
+    int mCacheHits;
+    int mCacheMisses;
+    long mSqlNanos;
+    long mRelationshipNanos;
+    private final HighLiteTracer.Span mSpan;
+    private int mRelationshipDepth;
+    private long mRelationshipStartNanos;
+
+    private OperationRecorder(final Class<?> entityType, final OperationMetrics.Kind kind) {
+        mEntityType = entityType;
+        mKind = kind;
+        mCaptureArgs = SlowOperationLog.isEnabled();
+        mSpan = Tracing.begin(HighLiteTracer.SPAN_OPERATION);
+        mStartNanos = System.nanoTime();
+    }
+
+    static void setMetrics(final @Nullable HighLiteMetrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * Begins recording an operation on the current thread.
+     *
+     * @param entityType the class the operation is executed for
+     * @param kind       the kind of the operation
+     * @return the recorder to pass to {@link #end(OperationRecorder)}, or null if nothing is to
+     * be recorded, i.e. if neither metrics, the slow operation log nor tracing are enabled, or
+     * if another operation is already recorded on the current thread
+     */
+    @Nullable
+    static OperationRecorder begin(final @NonNull Class<?> entityType,
+                                   final @NonNull OperationMetrics.Kind kind) {
+        if (!isEnabled() || CURRENT.get() != null) return null;
+
+        final OperationRecorder recorder = new OperationRecorder(entityType, kind);
+        CURRENT.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * Ends a recording and reports it.
+     *
+     * @param recorder the recorder returned by {@link #begin(Class, OperationMetrics.Kind)}
+     */
+    static void end(final @Nullable OperationRecorder recorder) {
+        if (recorder == null) return;
+
+        CURRENT.remove();
+        final long totalNanos = System.nanoTime() - recorder.mStartNanos;
+        recorder.endSpan();
+        final HighLiteMetrics metrics = sMetrics;
+        if (metrics != null) {
+            metrics.onOperation(new OperationMetrics(recorder, totalNanos));
+        }
+        SlowOperationLog.onOperation(recorder, totalNanos);
+    }
+
+    /**
+     * @return the recorder of the operation running on the current thread, or null if none is
+     * recorded
+     */
+    @Nullable
+    static OperationRecorder current() {
+        return isEnabled() ? CURRENT.get() : null;
+    }
+
+    private static boolean isEnabled() {
+        return sMetrics != null || SlowOperationLog.isEnabled() || Tracing.isEnabled();
+    }
+
+    private void endSpan() {
+        if (mSpan == HighLiteTracer.Span.NO_OP) return;
+
+        mSpan.setAttribute(HighLiteTracer.ATTRIBUTE_ENTITY, mEntityType.getSimpleName());
+        mSpan.setAttribute(HighLiteTracer.ATTRIBUTE_KIND, mKind.name());
+        if (mSql != null) {
+            mSpan.setAttribute(HighLiteTracer.ATTRIBUTE_SQL, DatabaseCalls.toShape(mSql));
+        }
+        mSpan.setAttribute(HighLiteTracer.ATTRIBUTE_ROWS, mRowsRead + mRowsWritten);
+        Tracing.end(mSpan);
+    }
+
+    void onStatement(final @NonNull String sql,
+                     final @Nullable Object[] args,
+                     final long nanos,
+                     final int rowsRead,
+                     final int rowsWritten) {
+        mStatementCount++;
+        mRowsRead += rowsRead;
+        mRowsWritten += rowsWritten;
+        if (mRelationshipDepth == 0) {
+            mSql = sql;
+            mArgs = args;
+            mSqlNanos += nanos;
+        }
+    }
+
+    void onCacheLookup(final boolean hit) {
+        if (hit) {
+            mCacheHits++;
+        } else {
+            mCacheMisses++;
+        }
+    }
+
+    void beginRelationshipFetch() {
+        if (mRelationshipDepth == 0) {
+            mRelationshipStartNanos = System.nanoTime();
+        }
+        mRelationshipDepth++;
+    }
+
+    void endRelationshipFetch() {
+        mRelationshipDepth--;
+        if (mRelationshipDepth == 0) {
+            mRelationshipNanos += System.nanoTime() - mRelationshipStartNanos;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.jeppeman.highlite;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Single;
+
+/**
+ * This class fetches some of the columns of one or more rows from a table and maps them to
+ * objects of a class annotated with {@link SQLiteProjection}. Only the columns of the fields of
+ * the projection are selected, and they are mapped by index by a generated
+ * {@link SQLiteProjectionMapper}, foreign keys and relationships are never fetched. The fetching
+ * can be blocking or non-blocking returning {@link Single<List<P>>}s
+ *
+ * @param <P> the type of projection to map rows to
+ * @author jesper
+ */
+public class ProjectionOperation<P> implements Operation<P, List<P>> {
+
+    private static final Map<Class<?>, SQLiteProjectionMapper<?>> MAPPER_CACHE =
+            new ConcurrentHashMap<>();
+
+    private final Context mContext;
+    private final Class<?> mTableClass;
+    private final SQLiteDAO<?> mGenerated;
+    private final SQLiteProjectionMapper<P> mMapper;
+    private final SQLiteQuery mQuery;
+    private final String[] mWhereArgs;
+
+    ProjectionOperation(final @NonNull Context context,
+                        final @NonNull Class<?> tableClass,
+                        final @NonNull SQLiteDAO<?> generated,
+                        final @NonNull Class<P> projection,
+                        final SQLiteQuery query,
+                        final String[] whereArgs) {
+        mContext = context;
+        mTableClass = tableClass;
+        mGenerated = generated;
+        mMapper = getMapper(projection);
+        mQuery = query;
+        mWhereArgs = whereArgs;
+
+        if (!tableClass.equals(mMapper.getTable())) {
+            throw new IllegalArgumentException(projection.getName() + " is a projection of "
+                    + mMapper.getTable().getName() + ", not of " + tableClass.getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> SQLiteProjectionMapper<P> getMapper(final Class<P> projection) {
+        SQLiteProjectionMapper<P> mapper = (SQLiteProjectionMapper<P>) MAPPER_CACHE.get(projection);
+        if (mapper != null) return mapper;
+
+        try {
+            mapper = (SQLiteProjectionMapper<P>) Class.forName(
+                    projection.getCanonicalName() + "_Projection")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Generated class not found, " + projection.getName()
+                    + " has to be annotated with " + SQLiteProjection.class.getName(), e);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("Unable to create the mapper of "
+                    + projection.getName(), e);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Unable to create the mapper of "
+                    + projection.getName(), cause);
+        }
+
+        MAPPER_CACHE.put(projection, mapper);
+        return mapper;
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P}, blocking
+     * operation.
+     *
+     * @return a list of objects of type {@link P} mapped from database records
+     */
+    @WorkerThread
+    public List<P> executeBlocking() {
+        final OperationRecorder recorder = OperationRecorder.begin(mTableClass,
+                OperationMetrics.Kind.GET_LIST);
+        try {
+            final Cursor cursor = mQuery != null
+                    ? mGenerated.getCursor(mContext, mMapper.getFields(), mQuery.mWhereClause,
+                    mWhereArgs, mQuery.mGroupByClause, mQuery.mHavingClause,
+                    mQuery.mOrderByClause, mQuery.mLimitClause)
+                    : mGenerated.getCursor(mContext, mMapper.getFields(), null, null, null, null,
+                    null, null);
+            try {
+                return mMapper.map(cursor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P},
+     * non-blocking operation.
+     *
+     * @param strategy the backpressure strategy used for the {@link Flowable}.
+     *                 (see {@link BackpressureStrategy})
+     * @return an {@link Flowable<P>} where an object of type {@link P} mapped from a database
+     * record is passed as the parameter to
+     * {@link io.reactivex.observers.DisposableObserver#onNext(Object)}
+     */
+    @Override
+    public Flowable<P> asFlowable(BackpressureStrategy strategy) {
+        return Flowable.create(new FlowableOnSubscribe<P>() {
+            @Override
+            public void subscribe(FlowableEmitter<P> e) {
+                final List<P> items = executeBlocking();
+                for (final P item : items) {
+                    e.onNext(item);
+                }
+                e.onComplete();
+            }
+        }, strategy);
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P},
+     * non-blocking operation.
+     *
+     * @return an {@link Observable<P>} where an object of type {@link P} mapped from a database
+     * record is passed as the parameter to
+     * {@link io.reactivex.observers.DisposableObserver#onNext(Object)}
+     */
+    @Override
+    public Observable<P> asObservable() {
+        return Observable.create(new ObservableOnSubscribe<P>() {
+            @Override
+            public void subscribe(ObservableEmitter<P> e) {
+                final List<P> items = executeBlocking();
+                for (final P item : items) {
+                    e.onNext(item);
+                }
+                e.onComplete();
+            }
+        });
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P},
+     * non-blocking operation.
+     *
+     * @return an {@link Single<P>} where a list of objects of type {@link P} mapped from a database
+     * record is passed as the parameter to
+     * {@link io.reactivex.observers.DisposableSingleObserver#onSuccess(Object)}
+     */
+    @Override
+    public Single<List<P>> asSingle() {
+        return Single.fromCallable(new Callable<List<P>>() {
+            @Override
+            public List<P> call() {
+                return executeBlocking();
+            }
+        });
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P},
+     * non-blocking operation.
+     *
+     * @return an {@link Maybe<P>} where a list of objects of type {@link P} mapped from a database
+     * record is passed as the parameter to
+     * {@link io.reactivex.observers.DisposableMaybeObserver#onSuccess(Object)}
+     */
+    @Override
+    public Maybe<List<P>> asMaybe() {
+        return Maybe.fromCallable(new Callable<List<P>>() {
+            @Override
+            public List<P> call() {
+                return executeBlocking();
+            }
+        });
+    }
+
+    /**
+     * Fetches multiple rows from a database and maps them to objects of type {@link P},
+     * non-blocking operation.
+     *
+     * @return an {@link Completable<P>}
+     */
+    @Override
+    public Completable asCompletable() {
+        return Completable.fromCallable(new Callable<List<P>>() {
+            @Override
+            public List<P> call() {
+                return executeBlocking();
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package com.jeppeman.highlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs EXPLAIN QUERY PLAN once for every distinct shape of statement executed by generated DAOs,
+ * and records the shapes that scan whole tables or sort in temporary b-trees.
+ *
+ * @author jesper
+ */
+final class QueryPlanDiagnostics {
+
+    static final String TAG = "HighLite";
+
+    private static final Set<String> CHECKED_SHAPES = new HashSet<>();
+    private static final List<QueryPlanIssue> ISSUES = new ArrayList<>();
+
+    private static volatile boolean sEnabled;
+    private static volatile boolean sLog;
+
+    private QueryPlanDiagnostics() {
+
+    }
+
+    static void setEnabled(final boolean enabled, final boolean log) {
+        sEnabled = enabled;
+        sLog = log;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static synchronized List<QueryPlanIssue> getIssues() {
+        return new ArrayList<>(ISSUES);
+    }
+
+    static synchronized void clear() {
+        CHECKED_SHAPES.clear();
+        ISSUES.clear();
+    }
+
+    /**
+     * Checks the plan of a statement, unless diagnostics are disabled or a statement of the same
+     * shape has been checked already.
+     *
+     * @param database    the database the statement is executed on
+     * @param sql         the statement as it is executed
+     * @param explainedSql the statement to explain, a query selecting the same rows for
+     *                    statements that are not queries
+     * @param args        the arguments of the statement
+     */
+    static void check(final SQLiteDatabase database,
+                      final String sql,
+                      final String explainedSql,
+                      final String[] args) {
+        if (!sEnabled) return;
+
+        final String shape = DatabaseCalls.toShape(sql);
+        synchronized (QueryPlanDiagnostics.class) {
+            if (!CHECKED_SHAPES.add(shape)) return;
+        }
+
+        final List<String> plan = new ArrayList<>();
+        boolean fullScan = false;
+        boolean tempBTreeForOrderBy = false;
+        try {
+            final Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + explainedSql, args);
+            try {
+                final int detailIndex = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    final String detail = cursor.getString(detailIndex);
+                    plan.add(detail);
+                    fullScan |= isFullScan(detail);
+                    tempBTreeForOrderBy |= detail.startsWith("USE TEMP B-TREE FOR ORDER BY");
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            // Not a statement that can be explained, the statement itself will fail if invalid
+            return;
+        }
+
+        if (!fullScan && !tempBTreeForOrderBy) return;
+
+        final QueryPlanIssue issue = new QueryPlanIssue(shape, plan, fullScan,
+                tempBTreeForOrderBy);
+        synchronized (QueryPlanDiagnostics.class) {
+            ISSUES.add(issue);
+        }
+        if (sLog) {
+            Log.w(TAG, "Query plan issue: " + issue);
+        }
+    }
+
+    /**
+     * Plain scans read every row of a table, as opposed to scans of indexes, subqueries and
+     * constant rows. Older versions of SQLite call them SCAN TABLE, newer versions just SCAN.
+     */
+    private static boolean isFullScan(final String detail) {
+        return detail.startsWith("SCAN ")
+                && !detail.contains(" USING ")
+                && !detail.startsWith("SCAN SUBQUERY")
+                && !detail.startsWith("SCAN CONSTANT ROW");
+    }
+}
@@ -0,0 +1,71 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A statement whose query plan scans a whole table or sorts its rows in a temporary b-tree,
+ * as recorded by the diagnostics enabled through
+ * {@link SQLiteOperator#setQueryPlanDiagnostics(boolean, boolean)}. Either usually means that
+ * an index is missing.
+ *
+ * @author jesper
+ */
+public final class QueryPlanIssue {
+
+    private final String mSql;
+    private final List<String> mPlan;
+    private final boolean mFullScan;
+    private final boolean mTempBTreeForOrderBy;
+
+    QueryPlanIssue(final String sql,
+                   final List<String> plan,
+                   final boolean fullScan,
+                   final boolean tempBTreeForOrderBy) {
+        mSql = sql;
+        mPlan = Collections.unmodifiableList(plan);
+        mFullScan = fullScan;
+        mTempBTreeForOrderBy = tempBTreeForOrderBy;
+    }
+
+    /**
+     * @return the shape of the statement, i.e. the statement with its literals replaced by ?
+     */
+    @NonNull
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the details of the query plan of the statement, one per step
+     */
+    @NonNull
+    public List<String> getPlan() {
+        return mPlan;
+    }
+
+    /**
+     * @return true if the statement scans a whole table
+     */
+    public boolean isFullScan() {
+        return mFullScan;
+    }
+
+    /**
+     * @return true if the statement sorts its rows in a temporary b-tree for ORDER BY
+     */
+    public boolean usesTempBTreeForOrderBy() {
+        return mTempBTreeForOrderBy;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(mSql);
+        for (final String step : mPlan) {
+            builder.append("\n  ").append(step);
+        }
+        return builder.toString();
+    }
+}
@@ -3,6 +3,7 @@ package com.jeppeman.highlite;
 import android.support.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,6 +19,9 @@ public abstract class QueryableOperation<T extends QueryableOperation> {
     SQLiteQuery mQuery;
     boolean mFetchForeignKeys = true;
     boolean mFetchRelationShips = true;
+    boolean mFetchForeignKeysByJoin;
+    List<String> mFetchPaths;
+    int mMaxDepth = FetchPlan.UNLIMITED_DEPTH;
 
     QueryableOperation() {
 
@@ -64,6 +68,25 @@ public abstract class QueryableOperation<T extends QueryableOperation> {
 
     public T fetchForeignKeys(final boolean fetch) {
         mFetchForeignKeys = fetch;
+        if (!fetch) {
+            mFetchForeignKeysByJoin = false;
+        }
+        return (T) this;
+    }
+
+    /**
+     * Fetches foreign keys in the same query as the objects referencing them, by LEFT JOINing
+     * the referenced tables, instead of issuing a separate query per foreign key and row. Only
+     * foreign keys declared directly in the queried class and referencing a table without
+     * super tables are joined, others are fetched as usual. Note that columns that exist in
+     * both the queried table and a joined table have to be qualified with the table name in
+     * where clauses, e.g. "employees.`id` = ?". Raw queries are not affected.
+     *
+     * @return itself
+     */
+    public T fetchForeignKeysByJoin() {
+        mFetchForeignKeys = true;
+        mFetchForeignKeysByJoin = true;
         return (T) this;
     }
 
@@ -71,4 +94,41 @@ public abstract class QueryableOperation<T extends QueryableOperation> {
         mFetchRelationShips = fetch;
         return (T) this;
     }
+
+    /**
+     * Declares the foreign key and relationship fields to load as dot separated paths, e.g.
+     * fetch("company", "company.owner") loads the company of each fetched employee along with
+     * the owner of that company, and nothing else. When paths are declared the flags set through
+     * {@link #fetchForeignKeys(boolean)} and {@link #fetchRelationships(boolean)} are ignored.
+     *
+     * @param paths the paths of the fields to load
+     * @return itself
+     */
+    public T fetch(final @NonNull String... paths) {
+        mFetchPaths = Arrays.asList(paths);
+        return (T) this;
+    }
+
+    /**
+     * Limits how deep into the object graph foreign keys and relationships are followed, where
+     * a depth of 1 means that only the fields of the fetched objects themselves are loaded and
+     * a depth of 0 means that no foreign keys or relationships are loaded at all.
+     *
+     * @param maxDepth the maximum depth
+     * @return itself
+     */
+    public T maxDepth(final int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must not be negative");
+        }
+
+        mMaxDepth = maxDepth;
+        return (T) this;
+    }
+
+    FetchPlan getFetchPlan() {
+        return mFetchPaths != null
+                ? FetchPlan.ofPaths(mFetchPaths, mMaxDepth)
+                : FetchPlan.of(mFetchForeignKeys, mFetchRelationShips, mMaxDepth);
+    }
 }
\ No newline at end of file
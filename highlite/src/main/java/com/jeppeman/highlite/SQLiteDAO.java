@@ -1,7 +1,9 @@
 package com.jeppeman.highlite;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -21,13 +23,12 @@ public interface SQLiteDAO<T> {
     int deleteByQuery(Context context, String whereClause, String[] whereArgs);
     T getSingle(Context context,
                 Object id,
-                boolean fetchForeignKeys,
-                boolean fetchRelationShips);
+                FetchPlan fetchPlan,
+                boolean joinForeignKeys);
     T getSingle(Context context,
                 String rawQueryClause,
                 String[] rawQueryArgs,
-                boolean fetchForeignKeys,
-                boolean fetchRelationShips,
+                FetchPlan fetchPlan,
                 boolean fromCache);
     T getSingle(Context context,
                 String whereClause,
@@ -35,14 +36,13 @@ public interface SQLiteDAO<T> {
                 String groupBy,
                 String having,
                 String orderBy,
-                boolean fetchForeignKeys,
-                boolean fetchRelationShips,
+                FetchPlan fetchPlan,
+                boolean joinForeignKeys,
                 boolean fromCache);
     List<T> getList(Context context,
                     String rawQueryClause,
                     String[] rawQueryArgs,
-                    boolean fetchForeignKeys,
-                    boolean fetchRelationShips,
+                    FetchPlan fetchPlan,
                     boolean fromCache);
     List<T> getList(Context context,
                     String whereClause,
@@ -51,7 +51,34 @@ public interface SQLiteDAO<T> {
                     String having,
                     String orderBy,
                     String limit,
-                    boolean fetchForeignKeys,
-                    boolean fetchRelationShips,
+                    FetchPlan fetchPlan,
+                    boolean joinForeignKeys,
                     boolean fromCache);
+    Cursor getCursor(Context context,
+                     String rawQueryClause,
+                     String[] rawQueryArgs);
+    Cursor getCursor(Context context,
+                     String whereClause,
+                     String[] whereArgs,
+                     String groupBy,
+                     String having,
+                     String orderBy,
+                     String limit,
+                     boolean joinForeignKeys);
+    Cursor getCursor(Context context,
+                     String[] fields,
+                     String whereClause,
+                     String[] whereArgs,
+                     String groupBy,
+                     String having,
+                     String orderBy,
+                     String limit);
+    T instantiateObject(Cursor cursor,
+                        Context context,
+                        FetchPlan fetchPlan,
+                        boolean fromCache);
+    Map<Object, T> getMapByIds(Context context,
+                               Collection<?> ids,
+                               FetchPlan fetchPlan,
+                               boolean joinForeignKeys);
 }
\ No newline at end of file
@@ -5,12 +5,20 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
 
 /**
  * Performs database operations by delegating calls to a generated DAO. Operations can
@@ -25,6 +33,8 @@ public final class SQLiteOperator<T> {
 
     private static final Map<Class<?>, Constructor> DAO_CTOR_CACHE = new LinkedHashMap<>();
     private static final Map<Class<?>, SQLiteOpenHelper> HELPER_CACHE = new LinkedHashMap<>();
+    private static final AtomicInteger SAVEPOINT_COUNTER = new AtomicInteger();
+    private static final Method BEGIN_TRANSACTION_READ_ONLY = getBeginTransactionReadOnly();
 
     private final Class<T> mClass;
     private final Context mContext;
@@ -71,6 +81,309 @@ public final class SQLiteOperator<T> {
         helper.deleteDatabase(context);
     }
 
+    /**
+     * Runs a block of operations in a single transaction on the database described by the given
+     * class, so that the writes of all operations in the block are committed at once, or not at
+     * all if the block throws. Operations on any table of the database can be mixed in the block
+     * as long as they are executed blocking on the calling thread. If a transaction is already
+     * in progress on the calling thread the block is run in a savepoint instead, which is rolled
+     * back on its own if the block throws, leaving the enclosing transaction intact.
+     *
+     * @param context       the context
+     * @param databaseClass the class annotated with {@link SQLiteDatabaseDescriptor}
+     * @param block         the operations to run in the transaction
+     * @param <R>           the result type of the block
+     * @return the result of the block
+     */
+    @WorkerThread
+    public static <R> R inTransaction(final @NonNull Context context,
+                                      final @NonNull Class<?> databaseClass,
+                                      final @NonNull Callable<R> block) {
+        final SQLiteDatabase db = getWritableDatabase(context, databaseClass);
+        if (db.inTransaction()) {
+            final String savepoint = "highlite_savepoint_" + SAVEPOINT_COUNTER.incrementAndGet();
+            db.execSQL("SAVEPOINT " + savepoint);
+            boolean successful = false;
+            try {
+                final R ret = block.call();
+                successful = true;
+                return ret;
+            } catch (Exception e) {
+                throw e instanceof RuntimeException
+                        ? (RuntimeException) e
+                        : new RuntimeException(e);
+            } finally {
+                if (!successful) {
+                    // The comment keeps SQLiteSession from taking the statement for a rollback of
+                    // the whole transaction, which it would otherwise end
+                    db.execSQL("/* savepoint */ ROLLBACK TO " + savepoint);
+                    onRollback(context, databaseClass);
+                }
+                db.execSQL("RELEASE " + savepoint);
+            }
+        }
+
+        db.beginTransaction();
+        boolean successful = false;
+        try {
+            final R ret = block.call();
+            db.setTransactionSuccessful();
+            successful = true;
+            return ret;
+        } catch (Exception e) {
+            throw e instanceof RuntimeException
+                    ? (RuntimeException) e
+                    : new RuntimeException(e);
+        } finally {
+            db.endTransaction();
+            if (!successful) {
+                onRollback(context, databaseClass);
+            }
+        }
+    }
+
+    /**
+     * Snapshots taken of objects saved in a rolled back transaction no longer match the
+     * database, and objects cached by the DAOs may have been loaded in it.
+     */
+    private static void onRollback(final Context context, final Class<?> databaseClass) {
+        EntitySnapshot.invalidateAll();
+        ((HighLiteOpenHelper) getGeneratedHelper(context, databaseClass)).clearInstanceCaches();
+    }
+
+    /**
+     * Runs a block of operations in a single transaction, non-blocking operation.
+     *
+     * @param context       the context
+     * @param databaseClass the class annotated with {@link SQLiteDatabaseDescriptor}
+     * @param block         the operations to run in the transaction
+     * @return a {@link Completable} that runs the block when subscribed to
+     * @see #inTransaction(Context, Class, Callable)
+     */
+    public static Completable inTransactionAsCompletable(final @NonNull Context context,
+                                                         final @NonNull Class<?> databaseClass,
+                                                         final @NonNull Callable<?> block) {
+        return Completable.fromCallable(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return inTransaction(context, databaseClass, block);
+            }
+        });
+    }
+
+    /**
+     * Runs a block of reads, e.g. {@link GetListOperation}s and {@link GetSingleOperation}s
+     * executed blocking on the calling thread, in a single read transaction on the database
+     * described by the given class. All reads in the block hold on to the same connection and
+     * observe the same state of the database, writes committed by other threads meanwhile are
+     * not seen by them. The transaction is deferred on Android 15 and later, where it only takes
+     * a shared lock once the block reads, earlier versions can only begin transactions that take
+     * the write lock of the database up front. If a transaction is already in progress on the
+     * calling thread the block is simply run in it.
+     *
+     * @param context       the context
+     * @param databaseClass the class annotated with {@link SQLiteDatabaseDescriptor}
+     * @param block         the reads to run in the transaction
+     * @param <R>           the result type of the block
+     * @return the result of the block
+     */
+    @WorkerThread
+    public static <R> R readSnapshot(final @NonNull Context context,
+                                     final @NonNull Class<?> databaseClass,
+                                     final @NonNull Callable<R> block) {
+        final SQLiteDatabase db = getReadableDatabase(context, databaseClass);
+        if (db.inTransaction()) {
+            try {
+                return block.call();
+            } catch (Exception e) {
+                throw e instanceof RuntimeException
+                        ? (RuntimeException) e
+                        : new RuntimeException(e);
+            }
+        }
+
+        beginReadTransaction(db);
+        try {
+            final R ret = block.call();
+            db.setTransactionSuccessful();
+            return ret;
+        } catch (Exception e) {
+            throw e instanceof RuntimeException
+                    ? (RuntimeException) e
+                    : new RuntimeException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Begins a deferred transaction, which takes no lock until the first read and a shared lock
+     * then. Deferred transactions are public API from Android 15 on only, through
+     * {@code beginTransactionReadOnly}, earlier versions fall back to a non-exclusive
+     * transaction, which is an immediate transaction that holds off writers on other
+     * connections but lets readers proceed.
+     */
+    private static void beginReadTransaction(final SQLiteDatabase db) {
+        if (BEGIN_TRANSACTION_READ_ONLY == null) {
+            db.beginTransactionNonExclusive();
+            return;
+        }
+
+        try {
+            BEGIN_TRANSACTION_READ_ONLY.invoke(db);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Method getBeginTransactionReadOnly() {
+        try {
+            return SQLiteDatabase.class.getMethod("beginTransactionReadOnly");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a block of reads in a single read transaction, non-blocking operation.
+     *
+     * @param context       the context
+     * @param databaseClass the class annotated with {@link SQLiteDatabaseDescriptor}
+     * @param block         the reads to run in the transaction
+     * @param <R>           the result type of the block
+     * @return a {@link Single} where the result of the block is passed as the parameter to
+     * {@link io.reactivex.observers.DisposableSingleObserver#onSuccess(Object)}
+     * @see #readSnapshot(Context, Class, Callable)
+     */
+    public static <R> Single<R> readSnapshotAsSingle(final @NonNull Context context,
+                                                     final @NonNull Class<?> databaseClass,
+                                                     final @NonNull Callable<R> block) {
+        return Single.fromCallable(new Callable<R>() {
+            @Override
+            public R call() {
+                return readSnapshot(context, databaseClass, block);
+            }
+        });
+    }
+
+    /**
+     * Enables or disables query plan diagnostics. While enabled, EXPLAIN QUERY PLAN is run once
+     * for every distinct shape of statement executed by the generated DAOs, and the shapes that
+     * scan whole tables or use temporary b-trees for ORDER BY are recorded. This is meant for
+     * debug builds only, since it adds an extra query for every new shape.
+     *
+     * @param enabled whether the diagnostics are enabled
+     * @param log     whether recorded issues are also logged as warnings
+     * @see #getQueryPlanIssues()
+     */
+    public static void setQueryPlanDiagnostics(final boolean enabled, final boolean log) {
+        QueryPlanDiagnostics.setEnabled(enabled, log);
+    }
+
+    /**
+     * Gets the issues recorded since the query plan diagnostics were enabled or last cleared.
+     *
+     * @return the recorded issues, in the order they were found
+     * @see #setQueryPlanDiagnostics(boolean, boolean)
+     */
+    @NonNull
+    public static List<QueryPlanIssue> getQueryPlanIssues() {
+        return QueryPlanDiagnostics.getIssues();
+    }
+
+    /**
+     * Clears the recorded query plan issues, making every statement shape eligible to be checked
+     * again.
+     */
+    public static void clearQueryPlanIssues() {
+        QueryPlanDiagnostics.clear();
+    }
+
+    /**
+     * Sets the listener that receives the metrics of every operation, e.g. an
+     * {@link InMemoryMetrics}. Recording metrics adds a little overhead to every statement, none
+     * is added while no listener is set.
+     *
+     * @param metrics the listener, or null to stop recording metrics
+     */
+    public static void setMetrics(final @Nullable HighLiteMetrics metrics) {
+        OperationRecorder.setMetrics(metrics);
+    }
+
+    /**
+     * Enables the slow operation log, which keeps the most recent operations that took longer
+     * than a threshold in a ring buffer. For every such operation the log captures its last
+     * statement with the types and values of the bound arguments, the number of rows read and
+     * written, and the thread it was executed on. Calling this again reconfigures the log and
+     * keeps the most recent entries that fit the new capacity.
+     *
+     * @param thresholdMillis the duration an operation needs to reach to be logged
+     * @param capacity        the number of operations to keep
+     * @param redactArgs      whether to replace the values of bound arguments, which may hold
+     *                        personal data, with {@code <redacted>}. Their types are kept.
+     * @see #getSlowOperations()
+     */
+    public static void setSlowOperationLog(final long thresholdMillis,
+                                           final int capacity,
+                                           final boolean redactArgs) {
+        SlowOperationLog.enable(thresholdMillis, capacity, redactArgs);
+    }
+
+    /**
+     * Disables the slow operation log, the operations logged so far are kept.
+     */
+    public static void disableSlowOperationLog() {
+        SlowOperationLog.disable();
+    }
+
+    /**
+     * @return the operations kept by the slow operation log, the oldest first
+     * @see #setSlowOperationLog(long, int, boolean)
+     */
+    @NonNull
+    public static List<SlowOperation> getSlowOperations() {
+        return SlowOperationLog.getEntries();
+    }
+
+    /**
+     * Discards the operations kept by the slow operation log.
+     */
+    public static void clearSlowOperations() {
+        SlowOperationLog.clear();
+    }
+
+    /**
+     * Enables or disables main thread strict mode. While enabled, every statement a generated DAO
+     * executes on the main thread, including the ones fetching foreign keys and relationships,
+     * is reported along with the time it took, either by throwing a {@link MainThreadViolation}
+     * or by logging it as a warning. Throwing is meant for tests, where it makes calls that would
+     * cause jank fail. A statement that throws has already been executed.
+     *
+     * @param enabled          whether strict mode is enabled
+     * @param throwOnViolation whether violations are thrown rather than logged
+     */
+    public static void setMainThreadStrictMode(final boolean enabled,
+                                               final boolean throwOnViolation) {
+        MainThreadStrictMode.setEnabled(enabled, throwOnViolation);
+    }
+
+    /**
+     * Sets the tracer that receives spans for operations, for the statements executed by
+     * generated DAOs, for foreign key and relationship fetching and for creating, upgrading and
+     * opening databases. Spans are nested as they are executed, so HighLite operations can be
+     * part of the traces of an app.
+     *
+     * @param tracer the tracer, or null to restore the default {@link HighLiteTracer#NO_OP},
+     *               which does not start any spans
+     */
+    public static void setTracer(final @Nullable HighLiteTracer tracer) {
+        Tracing.setTracer(tracer);
+    }
+
     private static SQLiteOpenHelper getGeneratedHelper(final @NonNull Context context,
                                                        final @NonNull Class<?> cls) {
         SQLiteOpenHelper helper;
@@ -154,7 +467,7 @@ public final class SQLiteOperator<T> {
      * @return an executable {@link GetSingleOperation<T>}
      */
     public GetSingleOperation<T> getSingle(final @Nullable Object id) {
-        return new GetSingleOperation<>(mContext, getGeneratedDAO(null), id);
+        return new GetSingleOperation<>(mContext, mClass, getGeneratedDAO(null), id);
     }
 
     /**
@@ -175,7 +488,7 @@ public final class SQLiteOperator<T> {
      * @return an executable {@link GetListOperation<T>}
      */
     public GetListOperation<T> getList() {
-        return new GetListOperation<>(mContext, getGeneratedDAO(null));
+        return new GetListOperation<>(mContext, mClass, getGeneratedDAO(null));
     }
 
     /**
@@ -191,7 +504,7 @@ public final class SQLiteOperator<T> {
         for (int i = 0; i < objectsToInsert.length; i++) {
             generatedObjects[i] = getGeneratedDAO(objectsToInsert[i]);
         }
-        return new SaveOperation<>(mContext, generated, generatedObjects);
+        return new SaveOperation<>(mContext, mClass, generated, generatedObjects);
     }
 
     public SaveOperation<T> save(final @NonNull Collection<T> objectsToInsert) {
@@ -216,7 +529,7 @@ public final class SQLiteOperator<T> {
             }
         }
 
-        return new DeleteOperation<>(mContext, generated, generatedObjects);
+        return new DeleteOperation<>(mContext, mClass, generated, generatedObjects);
     }
 
     public DeleteOperation<T> delete(final @NonNull Collection<T> objectsToDelete) {
@@ -0,0 +1,19 @@
+package com.jeppeman.highlite;
+
+import android.database.Cursor;
+
+import java.util.List;
+
+/**
+ * Interface implemented by the generated mappers of classes annotated with
+ * {@link SQLiteProjection}, which lets a {@link ProjectionOperation} select and map the columns of
+ * a projection without invoking via reflection
+ *
+ * @param <P> the projection class
+ * @author jesper
+ */
+public interface SQLiteProjectionMapper<P> {
+    Class<?> getTable();
+    String[] getFields();
+    List<P> map(Cursor cursor);
+}
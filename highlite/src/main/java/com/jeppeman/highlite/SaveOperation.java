@@ -26,15 +26,18 @@ public class SaveOperation<T> extends QueryableOperation<SaveOperation<T>>
         implements Operation<Integer, Integer> {
 
     private final Context mContext;
+    private final Class<T> mClass;
     @Nullable
     private final SQLiteDAO<T> mGenerated;
     @Nullable
     private final SQLiteDAO<T>[] mObjectsToSave;
 
     SaveOperation(final @NonNull Context context,
+                  final @NonNull Class<T> cls,
                   final @Nullable SQLiteDAO<T> generated,
                   final @Nullable SQLiteDAO<T>[] objectsToSave) {
         mContext = context;
+        mClass = cls;
         mGenerated = generated;
         mObjectsToSave = objectsToSave;
     }
@@ -46,6 +49,16 @@ public class SaveOperation<T> extends QueryableOperation<SaveOperation<T>>
      */
     @WorkerThread
     public int executeBlocking() {
+        final OperationRecorder recorder = OperationRecorder.begin(mClass,
+                OperationMetrics.Kind.SAVE);
+        try {
+            return execute();
+        } finally {
+            OperationRecorder.end(recorder);
+        }
+    }
+
+    private int execute() {
         if (mObjectsToSave != null && mObjectsToSave.length > 0) {
             int nSavedObjects = 0;
             for (final SQLiteDAO<T> objectToUpdate : mObjectsToSave) {
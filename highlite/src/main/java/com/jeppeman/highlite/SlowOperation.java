@@ -0,0 +1,166 @@
+package com.jeppeman.highlite;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An operation that took longer than the threshold of the slow operation log, see
+ * {@link SQLiteOperator#setSlowOperationLog(long, int, boolean)}.
+ *
+ * @author jesper
+ */
+public final class SlowOperation {
+
+    static final String REDACTED = "<redacted>";
+
+    private final Class<?> mEntityType;
+    private final OperationMetrics.Kind mKind;
+    private final String mSql;
+    private final List<String> mArgTypes;
+    private final List<String> mArgs;
+    private final int mStatementCount;
+    private final int mRowsRead;
+    private final int mRowsWritten;
+    private final long mDurationNanos;
+    private final long mTimestamp;
+    private final String mThreadName;
+    private final boolean mMainThread;
+
+    SlowOperation(final @NonNull OperationRecorder recorder,
+                  final long durationNanos,
+                  final boolean redactArgs) {
+        mEntityType = recorder.mEntityType;
+        mKind = recorder.mKind;
+        mSql = recorder.mSql;
+        final Object[] args = recorder.mArgs != null ? recorder.mArgs : new Object[0];
+        final List<String> argTypes = new ArrayList<>(args.length),
+                argValues = new ArrayList<>(args.length);
+        for (final Object arg : args) {
+            argTypes.add(arg != null ? arg.getClass().getSimpleName() : "null");
+            argValues.add(redactArgs ? REDACTED : toString(arg));
+        }
+        mArgTypes = Collections.unmodifiableList(argTypes);
+        mArgs = Collections.unmodifiableList(argValues);
+        mStatementCount = recorder.mStatementCount;
+        mRowsRead = recorder.mRowsRead;
+        mRowsWritten = recorder.mRowsWritten;
+        mDurationNanos = durationNanos;
+        mTimestamp = System.currentTimeMillis();
+        mThreadName = Thread.currentThread().getName();
+        mMainThread = Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static String toString(final Object arg) {
+        return arg instanceof byte[]
+                ? "<" + ((byte[]) arg).length + " bytes>"
+                : String.valueOf(arg);
+    }
+
+    /**
+     * @return the class the operation was executed for
+     */
+    @NonNull
+    public Class<?> getEntityType() {
+        return mEntityType;
+    }
+
+    /**
+     * @return the kind of the operation
+     */
+    @NonNull
+    public OperationMetrics.Kind getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return the last statement the operation executed outside of foreign key and relationship
+     * fetching, as it was executed, or null if it did not execute any
+     */
+    @Nullable
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the types of the arguments bound to the statement returned by {@link #getSql()}.
+     * Arguments of queries are always bound as strings.
+     */
+    @NonNull
+    public List<String> getArgTypes() {
+        return mArgTypes;
+    }
+
+    /**
+     * @return the arguments bound to the statement returned by {@link #getSql()}, each one
+     * replaced by {@code <redacted>} if the log redacts arguments
+     */
+    @NonNull
+    public List<String> getArgs() {
+        return mArgs;
+    }
+
+    /**
+     * @return the number of statements executed, including the ones for foreign keys and
+     * relationships
+     */
+    public int getStatementCount() {
+        return mStatementCount;
+    }
+
+    /**
+     * @return the number of rows returned by queries, including the ones for foreign keys and
+     * relationships
+     */
+    public int getRowsRead() {
+        return mRowsRead;
+    }
+
+    /**
+     * @return the number of rows inserted, updated or deleted
+     */
+    public int getRowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return the wall time of the operation in nanoseconds
+     */
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * @return the time the operation finished, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the name of the thread that executed the operation
+     */
+    @NonNull
+    public String getThreadName() {
+        return mThreadName;
+    }
+
+    /**
+     * @return true if the operation was executed on the main thread
+     */
+    public boolean isMainThread() {
+        return mMainThread;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s took %d ms on %s%s: %s %s (%s), %d statements, "
+                        + "%d rows read, %d rows written", mEntityType.getSimpleName(), mKind,
+                mDurationNanos / 1000000, mThreadName, mMainThread ? " (main thread)" : "", mSql,
+                mArgs, mArgTypes, mStatementCount, mRowsRead, mRowsWritten);
+    }
+}
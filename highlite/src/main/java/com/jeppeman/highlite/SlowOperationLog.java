@@ -0,0 +1,93 @@
+package com.jeppeman.highlite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recent operations that took longer than a threshold in a ring buffer, see
+ * {@link SQLiteOperator#setSlowOperationLog(long, int, boolean)}.
+ *
+ * @author jesper
+ */
+final class SlowOperationLog {
+
+    private static volatile boolean sEnabled;
+    private static long sThresholdNanos;
+    private static boolean sRedactArgs;
+    private static SlowOperation[] sEntries = new SlowOperation[0];
+    private static int sNext;
+    private static int sSize;
+
+    private SlowOperationLog() {
+
+    }
+
+    static synchronized void enable(final long thresholdMillis,
+                                    final int capacity,
+                                    final boolean redactArgs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity has to be positive");
+        }
+
+        final List<SlowOperation> kept = getEntries();
+        sEntries = new SlowOperation[capacity];
+        sNext = 0;
+        sSize = 0;
+        for (final SlowOperation entry : kept.subList(Math.max(0, kept.size() - capacity),
+                kept.size())) {
+            add(entry);
+        }
+        sThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        sRedactArgs = redactArgs;
+        sEnabled = true;
+    }
+
+    static void disable() {
+        sEnabled = false;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static void onOperation(final OperationRecorder recorder, final long totalNanos) {
+        if (!sEnabled) return;
+
+        final boolean redactArgs;
+        synchronized (SlowOperationLog.class) {
+            if (totalNanos < sThresholdNanos) return;
+            redactArgs = sRedactArgs;
+        }
+
+        final SlowOperation entry = new SlowOperation(recorder, totalNanos, redactArgs);
+        synchronized (SlowOperationLog.class) {
+            add(entry);
+        }
+    }
+
+    /**
+     * @return the logged operations, the oldest first
+     */
+    static synchronized List<SlowOperation> getEntries() {
+        final List<SlowOperation> ret = new ArrayList<>(sSize);
+        for (int i = 0; i < sSize; i++) {
+            ret.add(sEntries[(sNext - sSize + i + sEntries.length) % sEntries.length]);
+        }
+        return ret;
+    }
+
+    static synchronized void clear() {
+        sNext = 0;
+        sSize = 0;
+        for (int i = 0; i < sEntries.length; i++) {
+            sEntries[i] = null;
+        }
+    }
+
+    private static void add(final SlowOperation entry) {
+        sEntries[sNext] = entry;
+        sNext = (sNext + 1) % sEntries.length;
+        sSize = Math.min(sSize + 1, sEntries.length);
+    }
+}
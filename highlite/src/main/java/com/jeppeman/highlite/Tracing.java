@@ -0,0 +1,68 @@
+package com.jeppeman.highlite;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Starts and ends the spans of the {@link HighLiteTracer} set through
+ * {@link SQLiteOperator#setTracer(HighLiteTracer)}, keeping track of the spans open on each
+ * thread so that every span can be passed its parent.
+ *
+ * @author jesper
+ */
+final class Tracing {
+
+    private static final ThreadLocal<Deque<HighLiteTracer.Span>> OPEN_SPANS =
+            new ThreadLocal<Deque<HighLiteTracer.Span>>() {
+                @Override
+                protected Deque<HighLiteTracer.Span> initialValue() {
+                    return new ArrayDeque<>();
+                }
+            };
+    private static volatile HighLiteTracer sTracer = HighLiteTracer.NO_OP;
+
+    private Tracing() {
+
+    }
+
+    static void setTracer(final @Nullable HighLiteTracer tracer) {
+        sTracer = tracer != null ? tracer : HighLiteTracer.NO_OP;
+    }
+
+    static boolean isEnabled() {
+        return sTracer != HighLiteTracer.NO_OP;
+    }
+
+    /**
+     * Starts a span as a child of the innermost span open on the current thread.
+     *
+     * @param name the name of the span
+     * @return the span, {@link HighLiteTracer.Span#NO_OP} if tracing is disabled
+     */
+    @NonNull
+    static HighLiteTracer.Span begin(final @NonNull String name) {
+        final HighLiteTracer tracer = sTracer;
+        if (tracer == HighLiteTracer.NO_OP) return HighLiteTracer.Span.NO_OP;
+
+        final Deque<HighLiteTracer.Span> openSpans = OPEN_SPANS.get();
+        final HighLiteTracer.Span span = tracer.startSpan(name, openSpans.peek());
+        openSpans.push(span);
+        return span;
+    }
+
+    /**
+     * Ends a span started by {@link #begin(String)}.
+     *
+     * @param span the span
+     */
+    static void end(final @NonNull HighLiteTracer.Span span) {
+        if (span == HighLiteTracer.Span.NO_OP) return;
+
+        final Deque<HighLiteTracer.Span> openSpans = OPEN_SPANS.get();
+        openSpans.remove(span);
+        span.end();
+    }
+}
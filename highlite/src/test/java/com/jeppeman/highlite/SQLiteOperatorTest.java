@@ -3,16 +3,22 @@ package com.jeppeman.highlite;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.jeppeman.highlite.test.table.TestDatabase;
 import com.jeppeman.highlite.test.table.TestEnum;
 import com.jeppeman.highlite.test.table.TestNonSerializable;
+import com.jeppeman.highlite.test.table.TestProjection;
+import com.jeppeman.highlite.test.table.TestQueries;
+import com.jeppeman.highlite.test.table.TestQueries_Impl;
 import com.jeppeman.highlite.test.table.TestSerializable;
 import com.jeppeman.highlite.test.table.TestTable;
 import com.jeppeman.highlite.test.table.TestTable10;
 import com.jeppeman.highlite.test.table.TestTable12;
+import com.jeppeman.highlite.test.table.TestTable14;
+import com.jeppeman.highlite.test.table.TestTable15;
 import com.jeppeman.highlite.test.table.TestTable2;
 import com.jeppeman.highlite.test.table.TestTable3;
 import com.jeppeman.highlite.test.table.TestTable4;
@@ -34,13 +40,19 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -56,6 +68,7 @@ public class SQLiteOperatorTest {
     @After
     public void finishComponentTesting() throws ClassNotFoundException {
         resetSingleton(getHelperClass(), "sInstance");
+        clearCache(SQLiteOperator.class, "HELPER_CACHE");
     }
 
     private Class<?> getHelperClass() throws ClassNotFoundException {
@@ -79,6 +92,24 @@ public class SQLiteOperatorTest {
         }
     }
 
+    private void clearCache(Class clazz, String fieldName) {
+        Field cache;
+        try {
+            cache = clazz.getDeclaredField(fieldName);
+            cache.setAccessible(true);
+            ((Map) cache.get(null)).clear();
+        } catch (Exception e) {
+            throw new RuntimeException();
+        }
+    }
+
+    private void forgetSchemaFingerprint(String tableName) throws Exception {
+        getHelperInstance()
+                .getWritableDatabase()
+                .execSQL("DELETE FROM highlite_schema WHERE `table_name` = ?",
+                        new Object[]{tableName});
+    }
+
     private SQLiteOpenHelper getHelperInstance() throws ClassNotFoundException,
             NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         return (SQLiteOpenHelper) getHelperClass()
@@ -310,6 +341,344 @@ public class SQLiteOperatorTest {
         assertEquals(2, list.size());
     }
 
+    @Test
+    public void testGetListByIds() throws Exception {
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        for (int i = 1; i <= 5; i++) {
+            TestTable table = new TestTable();
+            table.unique = i;
+            operator.save(table).executeBlocking();
+        }
+
+        List<TestTable> list = operator
+                .getList()
+                .byIds(Arrays.asList(4, 1, 99, 2))
+                .executeBlocking();
+        assertEquals(3, list.size());
+        assertEquals(4, list.get(0).id);
+        assertEquals(1, list.get(1).id);
+        assertEquals(2, list.get(2).id);
+
+        Map<Integer, TestTable> map = operator
+                .getList()
+                .byIds(Arrays.asList(5, 3))
+                .executeBlockingAsMap();
+        assertEquals(2, map.size());
+        assertEquals(5, map.get(5).id);
+        assertEquals(3, map.get(3).id);
+
+        Map<Object, TestTable> mixed = operator
+                .getList()
+                .byIds(Arrays.<Object>asList(2L, "1", 4))
+                .executeBlockingAsMap();
+        assertEquals(2, mixed.size());
+        assertEquals(2, mixed.get(2L).id);
+        assertEquals(4, mixed.get(4).id);
+        assertNull(mixed.get("1"));
+    }
+
+    @Test
+    public void testGetLazyList() throws Exception {
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        for (int i = 1; i <= 5; i++) {
+            TestTable table = new TestTable();
+            table.unique = i;
+            operator.save(table).executeBlocking();
+        }
+
+        LazyList<TestTable> list = operator
+                .getList()
+                .withQuery(SQLiteQuery.builder().where("`id` > ?", 1).build())
+                .asLazyList(2);
+        assertEquals(4, list.size());
+        assertEquals(2, list.get(0).id);
+        assertEquals(5, list.get(3).id);
+        assertTrue(list.get(3) == list.get(3));
+        int sum = 0;
+        for (TestTable table : list) {
+            sum += table.id;
+        }
+        assertEquals(14, sum);
+        list.close();
+        assertTrue(list.isClosed());
+        exception.expect(IllegalStateException.class);
+        list.get(0);
+    }
+
+    @Test
+    public void testSaveOnlyWritesChangedColumns() throws Exception {
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        TestTable table = new TestTable();
+        table.testString = "original";
+        table.upgradeAddTester = 1;
+        table.testEnum = TestEnum.TEST2;
+        operator.save(table).executeBlocking();
+
+        // Changes made behind the back of the saved object are kept since it does not touch them
+        getHelperInstance().getWritableDatabase()
+                .execSQL("UPDATE test_table SET upgradeAddTester = 5");
+        operator.save(table).executeBlocking();
+        table.testString = "changed";
+        operator.save(table).executeBlocking();
+
+        TestTable fetched = operator.getList().executeBlocking().get(0);
+        assertEquals("changed", fetched.testString);
+        assertEquals(5, fetched.upgradeAddTester);
+        assertEquals(TestEnum.TEST2, fetched.testEnum);
+
+        getHelperInstance().getWritableDatabase()
+                .execSQL("UPDATE test_table SET testFieldName = 'external'");
+        fetched.upgradeAddTester = 6;
+        operator.save(fetched).executeBlocking();
+        fetched = operator.getList().executeBlocking().get(0);
+        assertEquals("external", fetched.testString);
+        assertEquals(6, fetched.upgradeAddTester);
+
+        // Query updates invalidate snapshots, so the next save writes all columns
+        operator.save().withQuery(SQLiteQuery.builder()
+                .set("upgradeAddTester", 7)
+                .build()).executeBlocking();
+        operator.save(table).executeBlocking();
+        fetched = operator.getList().executeBlocking().get(0);
+        assertEquals("changed", fetched.testString);
+        assertEquals(1, fetched.upgradeAddTester);
+    }
+
+    @Test
+    public void testFetchForeignKeysByJoin() throws Exception {
+        TestTable parent = new TestTable();
+        parent.testString = "parent";
+        parent.testEnum = TestEnum.TEST3;
+        SQLiteOperator.from(getContext(), TestTable.class).save(parent).executeBlocking();
+
+        SQLiteOperator<TestTable4> operator = SQLiteOperator.from(getContext(), TestTable4.class);
+        TestTable4 withParent = new TestTable4();
+        withParent.uniqueField = "withParent";
+        withParent.foreignKey = parent;
+        TestTable4 withoutParent = new TestTable4();
+        withoutParent.uniqueField = "withoutParent";
+        operator.save(withParent, withoutParent).executeBlocking();
+
+        List<TestTable4> list = operator
+                .getList()
+                .withQuery(SQLiteQuery.builder().orderBy("testTable4.`id`").build())
+                .fetchForeignKeysByJoin()
+                .executeBlocking();
+        assertEquals(2, list.size());
+        assertEquals("withParent", list.get(0).uniqueField);
+        assertNotNull(list.get(0).foreignKey);
+        assertEquals(parent.id, list.get(0).foreignKey.id);
+        assertEquals("parent", list.get(0).foreignKey.testString);
+        assertEquals(TestEnum.TEST3, list.get(0).foreignKey.testEnum);
+        assertEquals("withoutParent", list.get(1).uniqueField);
+        assertNull(list.get(1).foreignKey);
+
+        TestTable4 single = operator
+                .getSingle(1)
+                .fetchForeignKeysByJoin()
+                .executeBlocking();
+        assertNotNull(single);
+        assertEquals("parent", single.foreignKey.testString);
+    }
+
+    @Test
+    public void testFetchPlans() throws Exception {
+        TestTable parent = new TestTable();
+        SQLiteOperator.from(getContext(), TestTable.class).save(parent).executeBlocking();
+
+        SQLiteOperator<TestTable4> operator = SQLiteOperator.from(getContext(), TestTable4.class);
+        TestTable4 t1 = new TestTable4();
+        t1.uniqueField = "t1";
+        t1.foreignKey = parent;
+        TestTable4 t2 = new TestTable4();
+        t2.uniqueField = "t2";
+        t2.foreignKey = parent;
+        operator.save(t1, t2).executeBlocking();
+
+        TestTable4 fetched = operator.getSingle(1).fetch("foreignKey").executeBlocking();
+        assertNotNull(fetched.foreignKey);
+        assertNull(fetched.foreignKey.table4Relation);
+
+        fetched = operator
+                .getSingle(1)
+                .fetch("foreignKey", "foreignKey.table4Relation")
+                .executeBlocking();
+        assertEquals(2, fetched.foreignKey.table4Relation.size());
+        assertNull(fetched.foreignKey.table4Relation.get(0).foreignKey);
+
+        fetched = operator.getSingle(1).maxDepth(1).executeBlocking();
+        assertNotNull(fetched.foreignKey);
+        assertNull(fetched.foreignKey.table4Relation);
+
+        fetched = operator.getSingle(1).maxDepth(2).executeBlocking();
+        assertEquals(2, fetched.foreignKey.table4Relation.size());
+        assertNull(fetched.foreignKey.table4Relation.get(1).foreignKey);
+
+        fetched = operator.getSingle(1).maxDepth(0).executeBlocking();
+        assertNull(fetched.foreignKey);
+    }
+
+    @Test
+    public void testForeignKeysSharedWithinOperation() throws Exception {
+        TestTable parent1 = new TestTable(), parent2 = new TestTable();
+        parent2.unique = 1;
+        SQLiteOperator.from(getContext(), TestTable.class)
+                .save(parent1, parent2)
+                .executeBlocking();
+
+        SQLiteOperator<TestTable4> operator = SQLiteOperator.from(getContext(), TestTable4.class);
+        for (int i = 0; i < 4; i++) {
+            TestTable4 table4 = new TestTable4();
+            table4.uniqueField = String.valueOf(i);
+            table4.foreignKey = i % 2 == 0 ? parent1 : parent2;
+            operator.save(table4).executeBlocking();
+        }
+
+        // A restricted plan bypasses the instance cache, so sharing is down to the operation
+        List<TestTable4> list = operator.getList().maxDepth(1).executeBlocking();
+        assertEquals(4, list.size());
+        assertTrue(list.get(0).foreignKey == list.get(2).foreignKey);
+        assertTrue(list.get(1).foreignKey == list.get(3).foreignKey);
+        assertTrue(list.get(0).foreignKey != list.get(1).foreignKey);
+
+        List<TestTable4> other = operator.getList().maxDepth(1).executeBlocking();
+        assertTrue(list.get(0).foreignKey != other.get(0).foreignKey);
+    }
+
+    @Test
+    public void testInTransaction() throws Exception {
+        final SQLiteOperator<TestTable> operator =
+                SQLiteOperator.from(getContext(), TestTable.class);
+        final SQLiteOperator<TestTable4> operator4 =
+                SQLiteOperator.from(getContext(), TestTable4.class);
+
+        try {
+            SQLiteOperator.inTransaction(getContext(), TestDatabase.class,
+                    new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            TestTable table = new TestTable();
+                            operator.save(table).executeBlocking();
+                            TestTable4 table4 = new TestTable4();
+                            table4.foreignKey = table;
+                            operator4.save(table4).executeBlocking();
+                            throw new IllegalStateException("rollback");
+                        }
+                    });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("rollback", e.getMessage());
+        }
+        assertEquals(0, operator.getList().executeBlocking().size());
+        assertEquals(0, operator4.getList().executeBlocking().size());
+
+        int saved = SQLiteOperator.inTransaction(getContext(), TestDatabase.class,
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        TestTable outer = new TestTable();
+                        operator.save(outer).executeBlocking();
+                        try {
+                            SQLiteOperator.inTransaction(getContext(), TestDatabase.class,
+                                    new Callable<Void>() {
+                                        @Override
+                                        public Void call() {
+                                            TestTable inner = new TestTable();
+                                            inner.unique = 1;
+                                            operator.save(inner).executeBlocking();
+                                            throw new IllegalStateException("rollback inner");
+                                        }
+                                    });
+                            fail();
+                        } catch (IllegalStateException e) {
+                            assertEquals("rollback inner", e.getMessage());
+                        }
+                        return operator.getList().executeBlocking().size();
+                    }
+                });
+        assertEquals(1, saved);
+        assertEquals(1, operator.getList().executeBlocking().size());
+
+        SQLiteOperator.inTransactionAsCompletable(getContext(), TestDatabase.class,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        TestTable table = new TestTable();
+                        table.unique = 2;
+                        operator.save(table).executeBlocking();
+                        return null;
+                    }
+                }).blockingAwait();
+        assertEquals(2, operator.getList().executeBlocking().size());
+    }
+
+    @Test
+    public void testRollbackClearsInstanceCaches() throws Exception {
+        final TestTable table = new TestTable();
+        table.testString = "committed";
+        SQLiteOperator.from(getContext(), TestTable.class).save(table).executeBlocking();
+        final SQLiteOperator<TestTable4> operator4 =
+                SQLiteOperator.from(getContext(), TestTable4.class);
+        final TestTable4 table4 = new TestTable4();
+        table4.foreignKey = table;
+        operator4.save(table4).executeBlocking();
+
+        try {
+            SQLiteOperator.inTransaction(getContext(), TestDatabase.class,
+                    new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            getHelperInstance().getWritableDatabase().execSQL(
+                                    "UPDATE test_table SET `testFieldName` = 'rolled back';");
+                            assertEquals("rolled back", operator4.getList().executeBlocking()
+                                    .get(0).foreignKey.testString);
+                            throw new IllegalStateException("rollback");
+                        }
+                    });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("rollback", e.getMessage());
+        }
+
+        assertEquals("committed", operator4.getList().executeBlocking()
+                .get(0).foreignKey.testString);
+    }
+
+    @Test
+    public void testReadSnapshot() throws Exception {
+        final SQLiteOperator<TestTable> operator =
+                SQLiteOperator.from(getContext(), TestTable.class);
+        final TestTable table = new TestTable();
+        table.testString = "snapshot";
+        operator.save(table).executeBlocking();
+
+        final List<TestTable> list = SQLiteOperator.readSnapshot(getContext(),
+                TestDatabase.class, new Callable<List<TestTable>>() {
+                    @Override
+                    public List<TestTable> call() throws Exception {
+                        assertTrue(SQLiteOperator
+                                .getReadableDatabase(getContext(), TestDatabase.class)
+                                .inTransaction());
+                        final List<TestTable> ret = operator.getList().executeBlocking();
+                        ret.add(operator.getSingle(table.id).executeBlocking());
+                        return ret;
+                    }
+                });
+        assertEquals(2, list.size());
+        assertEquals("snapshot", list.get(1).testString);
+        assertTrue(!SQLiteOperator.getReadableDatabase(getContext(), TestDatabase.class)
+                .inTransaction());
+
+        final TestTable single = SQLiteOperator.readSnapshotAsSingle(getContext(),
+                TestDatabase.class, new Callable<TestTable>() {
+                    @Override
+                    public TestTable call() throws Exception {
+                        return operator.getSingle(table.id).executeBlocking();
+                    }
+                }).blockingGet();
+        assertEquals(table.id, single.id);
+    }
+
     @Test
     public void testAutoCreateTableDisabled() throws Exception {
         TestTable t = new TestTable();
@@ -579,6 +948,7 @@ public class SQLiteOperatorTest {
                         + "      `testString` INTEGER,\n"
                         + "      `testStringLonger` TEXT\n"
                         + "    );");
+        forgetSchemaFingerprint("test_table2");
 
         getHelperInstance().onUpgrade(getHelperInstance().getWritableDatabase(), 1, 2);
     }
@@ -618,6 +988,7 @@ public class SQLiteOperatorTest {
         assertTrue(!testTableCols.contains(upgradeAddColName));
         assertTrue(testTableCols.contains(upgradeDeleteColName));
 
+        forgetSchemaFingerprint("test_table");
         getHelperInstance().onUpgrade(getHelperInstance().getWritableDatabase(), 1, 2);
         testTableCursor = getHelperInstance()
                 .getReadableDatabase()
@@ -635,6 +1006,751 @@ public class SQLiteOperatorTest {
         assertTrue(!testTableCols.contains(upgradeDeleteColName));
     }
 
+    @Test
+    public void testOnUpgradeSkipsTablesWithUnchangedFingerprint() throws Exception {
+        getHelperInstance()
+                .getWritableDatabase()
+                .execSQL("DROP TABLE test_table8;");
+
+        getHelperInstance().onUpgrade(getHelperInstance().getWritableDatabase(), 1, 2);
+        assertTrue(getColumnNames("test_table8").isEmpty());
+
+        forgetSchemaFingerprint("test_table8");
+        getHelperInstance().onUpgrade(getHelperInstance().getWritableDatabase(), 1, 2);
+        assertTrue(getColumnNames("test_table8").contains("testingEight"));
+
+        Cursor cursor = getHelperInstance()
+                .getReadableDatabase()
+                .rawQuery("SELECT COUNT(*) FROM highlite_schema WHERE `table_name` = ?",
+                        new String[]{"test_table8"});
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getInt(0));
+        cursor.close();
+    }
+
+    @Test
+    public void testOnUpgradeWithPrecomputedMigration() throws Exception {
+        // Recreate the tables as they were in schema version 0, see schemas/.../0.json
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("DROP TABLE test_table8;");
+        db.execSQL("CREATE TABLE test_table8 (`id` INTEGER PRIMARY KEY, `testingEight` TEXT, "
+                + "`created` INTEGER);");
+        db.execSQL("INSERT INTO test_table8 (`id`, `testingEight`) VALUES (1, 'eight');");
+        db.execSQL("DROP TABLE test_table;");
+        db.execSQL("CREATE TABLE test_table (`id` INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "`unique` INTEGER UNIQUE, `testEnum` BLOB, `testFieldName` TEXT, "
+                + "`testList` BLOB, `testBoolean` INTEGER, `testSerializable` BLOB, "
+                + "`testDate` INTEGER, `upgradeDeleteTester` TEXT);");
+        db.execSQL("INSERT INTO test_table (`id`, `testFieldName`, `upgradeDeleteTester`) "
+                + "VALUES (1, 'kept', 'deleted');");
+        db.execSQL("UPDATE highlite_schema SET `fingerprint` = ? WHERE `table_name` = ?",
+                new Object[]{"5f4fbd0c2a8be3a8b0b5d3c1a1b6c3e0b2bd7a10", "test_table8"});
+        db.execSQL("UPDATE highlite_schema SET `fingerprint` = ? WHERE `table_name` = ?",
+                new Object[]{"0b7a6dd4f1ec3a1fbd2a6c8e9d0e4c7a5b3f2e11", "test_table"});
+
+        getHelperInstance().onUpgrade(db, 0, 1);
+
+        // The added column was added in place rather than by copying the table
+        Cursor cursor = db.rawQuery("SELECT `sql` FROM sqlite_master WHERE `name` = ?",
+                new String[]{"test_table8"});
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getString(0).startsWith("CREATE TABLE test_table8 ("));
+        assertTrue(cursor.getString(0).contains("`modified` INTEGER"));
+        cursor.close();
+        assertEquals("eight", SQLiteOperator.from(getContext(), TestTable8.class)
+                .getSingle(1).executeBlocking().testingEight);
+
+        final List<String> cols = getColumnNames("test_table");
+        assertTrue(cols.contains("upgradeAddTester"));
+        assertTrue(!cols.contains("upgradeDeleteTester"));
+        cursor = db.rawQuery("SELECT `testFieldName` FROM test_table WHERE `id` = 1", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("kept", cursor.getString(0));
+        cursor.close();
+
+        // Both tables are up to date, the next upgrade leaves them alone
+        forgetSchemaFingerprint("test_table9");
+        getHelperInstance().onUpgrade(db, 1, 2);
+        cursor = db.rawQuery("SELECT `sql` FROM sqlite_master WHERE `name` = ?",
+                new String[]{"test_table8"});
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getString(0).startsWith("CREATE TABLE test_table8 ("));
+        cursor.close();
+    }
+
+    @Test
+    public void testOnUpgradeInPlace() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("DROP TABLE test_table8;");
+        db.execSQL("CREATE TABLE test_table8 (`id` INTEGER PRIMARY KEY, "
+                + "`testingEightOld` TEXT, `created` INTEGER);");
+        db.execSQL("INSERT INTO test_table8 (`id`, `testingEightOld`) VALUES (1, 'eight');");
+
+        forgetSchemaFingerprint("test_table8");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        // The renamed column kept its values and the added column was added without
+        // copying the table
+        final List<String> cols = getColumnNames("test_table8");
+        assertTrue(cols.contains("testingEight"));
+        assertTrue(cols.contains("modified"));
+        final Cursor cursor = db.rawQuery("SELECT `sql` FROM sqlite_master WHERE `name` = ?",
+                new String[]{"test_table8"});
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getString(0).startsWith("CREATE TABLE test_table8 ("));
+        cursor.close();
+        assertEquals("eight", SQLiteOperator.from(getContext(), TestTable8.class)
+                .getSingle(1).executeBlocking().testingEight);
+    }
+
+    @Test
+    public void testOnUpgradeRenamesNotNullColumn() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("DROP TABLE test_table15;");
+        db.execSQL("CREATE TABLE test_table15 (`id` INTEGER PRIMARY KEY, "
+                + "`nameOld` TEXT NOT NULL);");
+        db.execSQL("INSERT INTO test_table15 (`id`, `nameOld`) VALUES (1, 'fifteen');");
+
+        // SQLite older than 3.25.0 can not add a NOT NULL column in place, so the table is
+        // recreated with the column renamed
+        forgetSchemaFingerprint("test_table15");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        final List<String> cols = getColumnNames("test_table15");
+        assertTrue(cols.contains("name"));
+        assertFalse(cols.contains("nameOld"));
+        final Cursor cursor = db.rawQuery("SELECT `sql` FROM sqlite_master WHERE `name` = ?",
+                new String[]{"test_table15"});
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getString(0).contains("`name` TEXT NOT NULL"));
+        cursor.close();
+        assertEquals("fifteen", SQLiteOperator.from(getContext(), TestTable15.class)
+                .getSingle(1).executeBlocking().name);
+    }
+
+    @Test
+    public void testOnUpgradeWithPreExistingForeignKeyViolation() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("PRAGMA foreign_keys=OFF;");
+        db.execSQL("INSERT INTO testTable4 (`foreignKey`) VALUES (999);");
+        db.execSQL("PRAGMA foreign_keys=ON;");
+
+        // Rows that violated their foreign keys before the upgrade do not fail it
+        forgetSchemaFingerprint("testTable4");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        final Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM testTable4 "
+                + "WHERE `foreignKey` = 999;", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getInt(0));
+        cursor.close();
+    }
+
+    @Test
+    public void testOnUpgradeWithBackgroundMigration() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("DROP TABLE test_table14;");
+        db.execSQL("CREATE TABLE test_table14 (`id` INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "`code` TEXT);");
+        for (int i = 1; i <= 5; i++) {
+            db.execSQL("INSERT INTO test_table14 (`code`) VALUES (?);", new Object[]{"c" + i});
+        }
+
+        forgetSchemaFingerprint("test_table14");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        // The table keeps its previous definition until it has been copied
+        assertEquals(Collections.singletonList("test_table14"),
+                BackgroundMigration.getPendingTables(db));
+        final SQLiteOperator<TestTable14> operator =
+                SQLiteOperator.from(getContext(), TestTable14.class);
+        assertEquals(5, operator.getList().executeBlocking().size());
+
+        final List<Long> progress = new ArrayList<>();
+        final List<String> finished = new ArrayList<>();
+        BackgroundMigration.setChunkSize(2);
+        BackgroundMigration.setListener(new BackgroundMigration.Listener() {
+            @Override
+            public void onProgress(String tableName, long copiedRows, long totalRows) {
+                progress.add(copiedRows);
+            }
+
+            @Override
+            public void onFinished(String tableName) {
+                finished.add(tableName);
+            }
+        });
+        try {
+            assertTrue(BackgroundMigration.copyChunk(db, "test_table14"));
+
+            // Writes made during the migration are mirrored by triggers
+            final TestTable14 added = new TestTable14();
+            added.code = "c6";
+            operator.save(added).executeBlocking();
+            db.execSQL("DELETE FROM test_table14 WHERE `code` = ?;", new Object[]{"c1"});
+            db.execSQL("UPDATE test_table14 SET `code` = ? WHERE `code` = ?;",
+                    new Object[]{"c22", "c2"});
+
+            while (BackgroundMigration.copyChunk(db, "test_table14")) ;
+
+            // Foreign keys are on, so the new table takes the place of the existing table the
+            // next time the database is opened
+            assertTrue(finished.isEmpty());
+            getHelperInstance().onOpen(db);
+        } finally {
+            BackgroundMigration.setListener(null);
+            BackgroundMigration.setChunkSize(BackgroundMigration.DEFAULT_CHUNK_SIZE);
+        }
+
+        assertEquals(Arrays.asList(2L, 4L, 6L), progress);
+        assertEquals(Collections.singletonList("test_table14"), finished);
+        assertTrue(BackgroundMigration.getPendingTables(db).isEmpty());
+        final List<String> codes = new ArrayList<>();
+        for (final TestTable14 t : operator.getList().executeBlocking()) {
+            codes.add(t.code);
+        }
+        Collections.sort(codes);
+        assertEquals(Arrays.asList("c22", "c3", "c4", "c5", "c6"), codes);
+
+        // The new definition is in place
+        exception.expect(SQLiteConstraintException.class);
+        final TestTable14 duplicate = new TestTable14();
+        duplicate.code = "c3";
+        operator.save(duplicate).executeBlocking();
+    }
+
+    @Test
+    public void testBackgroundMigrationKeepsViolatingRows() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        db.execSQL("DROP TABLE test_table14;");
+        db.execSQL("CREATE TABLE test_table14 (`id` INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "`code` TEXT);");
+        db.execSQL("INSERT INTO test_table14 (`code`) VALUES ('c1');");
+        db.execSQL("INSERT INTO test_table14 (`code`) VALUES ('c1');");
+
+        forgetSchemaFingerprint("test_table14");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        try {
+            BackgroundMigration.copyChunk(db, "test_table14");
+            fail("Rows violating the unique column should fail the migration");
+        } catch (SQLiteConstraintException e) {
+            // Expected
+        }
+
+        assertEquals(Collections.singletonList("test_table14"),
+                BackgroundMigration.getPendingTables(db));
+        assertEquals(2, SQLiteOperator.from(getContext(), TestTable14.class)
+                .getList().executeBlocking().size());
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        final SQLiteDatabase db = getHelperInstance().getWritableDatabase();
+        final String indexSql = "CREATE INDEX `index_test_table8_testingEight_created` "
+                + "ON `test_table8` (`testingEight`, `created` DESC)";
+        assertEquals(indexSql, getIndexSql("index_test_table8_testingEight_created"));
+
+        // Indexes that were created by HighLite and are no longer declared are dropped, other
+        // indexes are left alone
+        db.execSQL("DROP INDEX `index_test_table8_testingEight_created`;");
+        db.execSQL("CREATE INDEX `stale_index` ON `test_table8` (`modified`);");
+        db.execSQL("INSERT INTO highlite_index (`index_name`, `table_name`) VALUES (?, ?);",
+                new Object[]{"stale_index", "test_table8"});
+        db.execSQL("CREATE INDEX `custom_index` ON `test_table8` (`modified`);");
+
+        forgetSchemaFingerprint("test_table8");
+        getHelperInstance().onUpgrade(db, 1, 2);
+
+        assertEquals(indexSql, getIndexSql("index_test_table8_testingEight_created"));
+        assertNull(getIndexSql("stale_index"));
+        assertNotNull(getIndexSql("custom_index"));
+    }
+
+    @Test
+    public void testForeignKeyIndexes() throws Exception {
+        assertEquals("CREATE INDEX `index_test_table10_fk1` ON `test_table10` (`fk1`)",
+                getIndexSql("index_test_table10_fk1"));
+        assertNotNull(getIndexSql("index_test_table10_fk2"));
+        assertNull(getIndexSql("index_test_table13_tttt"));
+
+        final Cursor cursor = getHelperInstance()
+                .getReadableDatabase()
+                .rawQuery("EXPLAIN QUERY PLAN SELECT * FROM test_table10 WHERE `fk1` = 1", null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getString(3).contains("index_test_table10_fk1"));
+        cursor.close();
+    }
+
+    @Test
+    public void testQueryPlanDiagnostics() throws Exception {
+        SQLiteOperator.setQueryPlanDiagnostics(true, false);
+        try {
+            SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(),
+                    TestTable.class);
+            TestTable table = new TestTable();
+            table.testString = "123";
+            operator.save(table).executeBlocking();
+
+            operator.getSingle(1).executeBlocking();
+            SQLiteOperator.from(getContext(), TestTable10.class).delete().withQuery(
+                    SQLiteQuery.builder().where("`fk1` = ?", 1).build()).executeBlocking();
+            assertTrue(SQLiteOperator.getQueryPlanIssues().isEmpty());
+
+            for (int i = 0; i < 2; i++) {
+                operator.getList().withQuery(
+                        SQLiteQuery.builder()
+                                .where("`testFieldName` = '" + i + "'")
+                                .orderBy("`upgradeAddTester`")
+                                .build()
+                ).executeBlocking();
+            }
+
+            final List<QueryPlanIssue> issues = SQLiteOperator.getQueryPlanIssues();
+            assertEquals(1, issues.size());
+            assertTrue(issues.get(0).getSql().contains("`testFieldName` = ?"));
+            assertTrue(issues.get(0).isFullScan());
+            assertTrue(issues.get(0).usesTempBTreeForOrderBy());
+
+            SQLiteOperator.clearQueryPlanIssues();
+            assertTrue(SQLiteOperator.getQueryPlanIssues().isEmpty());
+        } finally {
+            SQLiteOperator.setQueryPlanDiagnostics(false, false);
+            SQLiteOperator.clearQueryPlanIssues();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final InMemoryMetrics metrics = new InMemoryMetrics();
+        SQLiteOperator.setMetrics(metrics);
+        try {
+            SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(),
+                    TestTable.class);
+            TestTable t1 = new TestTable(), t2 = new TestTable();
+            t1.unique = 1;
+            t2.unique = 2;
+            operator.save(t1, t2).executeBlocking();
+            operator.getList().executeBlocking();
+            operator.getList().executeBlocking();
+            operator.getList().byIds(Arrays.asList(1L, 2L)).executeBlocking();
+
+            final List<InMemoryMetrics.Stats> stats = metrics.getStats();
+            InMemoryMetrics.Stats save = null, getList = null, getByIds = null;
+            for (InMemoryMetrics.Stats s : stats) {
+                assertEquals(TestTable.class, s.getEntityType());
+                if (s.getKind() == OperationMetrics.Kind.SAVE) {
+                    save = s;
+                } else if (s.getKind() == OperationMetrics.Kind.GET_LIST) {
+                    if (s.getSql() != null) {
+                        getList = s;
+                    } else {
+                        getByIds = s;
+                    }
+                }
+            }
+
+            assertNotNull(save);
+            assertEquals(1, save.getCount());
+            assertEquals(2, save.getRowsWritten());
+            assertTrue(save.getSql().startsWith("INSERT INTO test_table"));
+
+            assertNotNull(getList);
+            assertEquals(2, getList.getCount());
+            assertEquals(4, getList.getRowsRead());
+            assertEquals(2, getList.getTotalTime().getCount());
+            assertTrue(getList.getTotalTime().getSumNanos()
+                    >= getList.getSqlTime().getSumNanos());
+            assertTrue(getList.getTotalTime().getPercentileNanos(99)
+                    <= getList.getTotalTime().getMaxNanos());
+
+            // Everything is served from the instance cache, so no statement is executed
+            assertNotNull(getByIds);
+            assertEquals(2, getByIds.getCacheHits());
+            assertEquals(0, getByIds.getCacheMisses());
+
+            metrics.reset();
+            assertTrue(metrics.getStats().isEmpty());
+        } finally {
+            SQLiteOperator.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void testSlowOperationLog() throws Exception {
+        SQLiteOperator.setSlowOperationLog(0, 2, false);
+        try {
+            SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(),
+                    TestTable.class);
+            TestTable table = new TestTable();
+            table.testString = "secret";
+            operator.save(table).executeBlocking();
+            operator.getList().withQuery(SQLiteQuery.builder()
+                    .where("`testFieldName` = ?", "secret")
+                    .build()).executeBlocking();
+
+            List<SlowOperation> operations = SQLiteOperator.getSlowOperations();
+            assertEquals(2, operations.size());
+            final SlowOperation save = operations.get(0), getList = operations.get(1);
+            assertEquals(OperationMetrics.Kind.SAVE, save.getKind());
+            assertEquals(1, save.getRowsWritten());
+            assertTrue(save.getArgs().contains("secret"));
+            assertTrue(save.getArgTypes().contains("String"));
+            assertEquals(OperationMetrics.Kind.GET_LIST, getList.getKind());
+            assertTrue(getList.getSql().contains("`testFieldName` = ?"));
+            assertEquals(Collections.singletonList("secret"), getList.getArgs());
+            assertEquals(1, getList.getRowsRead());
+            assertEquals(Thread.currentThread().getName(), getList.getThreadName());
+
+            // The oldest entry is overwritten once the buffer is full, and arguments are
+            // redacted when asked to
+            SQLiteOperator.setSlowOperationLog(0, 2, true);
+            operator.getSingle(1).executeBlocking();
+            operations = SQLiteOperator.getSlowOperations();
+            assertEquals(2, operations.size());
+            assertEquals(OperationMetrics.Kind.GET_LIST, operations.get(0).getKind());
+            assertEquals(OperationMetrics.Kind.GET_SINGLE, operations.get(1).getKind());
+            assertEquals(Collections.singletonList("<redacted>"), operations.get(1).getArgs());
+
+            SQLiteOperator.setSlowOperationLog(60 * 1000, 2, true);
+            SQLiteOperator.clearSlowOperations();
+            operator.getSingle(1).executeBlocking();
+            assertTrue(SQLiteOperator.getSlowOperations().isEmpty());
+        } finally {
+            SQLiteOperator.disableSlowOperationLog();
+            SQLiteOperator.clearSlowOperations();
+        }
+    }
+
+    @Test
+    public void testMainThreadStrictMode() throws Exception {
+        final SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(),
+                TestTable.class);
+        operator.save(new TestTable()).executeBlocking();
+
+        SQLiteOperator.setMainThreadStrictMode(true, true);
+        try {
+            try {
+                operator.getList().executeBlocking();
+                fail("Expected a " + MainThreadViolation.class.getSimpleName());
+            } catch (MainThreadViolation e) {
+                assertTrue(e.getSql().startsWith("SELECT"));
+                assertTrue(e.getElapsedNanos() >= 0);
+            }
+
+            final List<Throwable> errors = new ArrayList<>();
+            final Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        operator.getList().executeBlocking();
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+            worker.start();
+            worker.join();
+            assertTrue(errors.isEmpty());
+
+            // Only reported when not throwing
+            SQLiteOperator.setMainThreadStrictMode(true, false);
+            assertEquals(1, operator.getList().executeBlocking().size());
+        } finally {
+            SQLiteOperator.setMainThreadStrictMode(false, false);
+        }
+    }
+
+    @Test
+    public void testTracer() throws Exception {
+        final List<RecordedSpan> spans = new ArrayList<>();
+        SQLiteOperator.setTracer(new HighLiteTracer() {
+            @Override
+            public Span startSpan(String name, Span parent) {
+                final RecordedSpan span = new RecordedSpan(name, (RecordedSpan) parent);
+                spans.add(span);
+                return span;
+            }
+        });
+        try {
+            SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(),
+                    TestTable.class);
+            operator.save(new TestTable()).executeBlocking();
+            operator.getList().executeBlocking();
+
+            final RecordedSpan save = spans.get(0);
+            assertEquals(HighLiteTracer.SPAN_OPERATION, save.mName);
+            assertEquals("SAVE", save.mAttributes.get(HighLiteTracer.ATTRIBUTE_KIND));
+            assertEquals("TestTable", save.mAttributes.get(HighLiteTracer.ATTRIBUTE_ENTITY));
+
+            RecordedSpan insert = null, getList = null, query = null, relationshipQuery = null;
+            for (RecordedSpan span : spans) {
+                assertTrue(span.mEnded);
+                if (HighLiteTracer.SPAN_INSERT.equals(span.mName)) {
+                    insert = span;
+                } else if (HighLiteTracer.SPAN_OPERATION.equals(span.mName) && span != save) {
+                    getList = span;
+                } else if (HighLiteTracer.SPAN_QUERY.equals(span.mName) && getList != null) {
+                    if (span.mParent == getList) {
+                        query = span;
+                    } else if (span.mParent != null && HighLiteTracer.SPAN_RELATIONSHIP_FETCH
+                            .equals(span.mParent.mName)) {
+                        relationshipQuery = span;
+                    }
+                }
+            }
+
+            // The database is opened by the first statement
+            assertTrue(spans.get(2).mParent == save);
+            assertTrue(HighLiteTracer.SPAN_CREATE.equals(spans.get(2).mName)
+                    || HighLiteTracer.SPAN_UPGRADE.equals(spans.get(2).mName)
+                    || HighLiteTracer.SPAN_OPEN.equals(spans.get(2).mName));
+
+            assertNotNull(insert);
+            assertTrue(insert.mParent == save);
+            assertEquals("test_table", insert.mAttributes.get(HighLiteTracer.ATTRIBUTE_TABLE));
+            assertEquals(1, insert.mAttributes.get(HighLiteTracer.ATTRIBUTE_ROWS));
+
+            assertNotNull(getList);
+            assertNotNull(query);
+            assertEquals(1, query.mAttributes.get(HighLiteTracer.ATTRIBUTE_ROWS));
+            assertTrue(((String) query.mAttributes.get(HighLiteTracer.ATTRIBUTE_SQL))
+                    .startsWith("SELECT"));
+            assertNotNull(relationshipQuery);
+            assertTrue(relationshipQuery.mParent.mParent == getList);
+        } finally {
+            SQLiteOperator.setTracer(null);
+        }
+    }
+
+    private static class RecordedSpan implements HighLiteTracer.Span {
+        final String mName;
+        final RecordedSpan mParent;
+        final Map<String, Object> mAttributes = new HashMap<>();
+        boolean mEnded;
+
+        RecordedSpan(String name, RecordedSpan parent) {
+            mName = name;
+            mParent = parent;
+        }
+
+        @Override
+        public void setAttribute(String key, Object value) {
+            mAttributes.put(key, value);
+        }
+
+        @Override
+        public void end() {
+            assertTrue(!mEnded);
+            mEnded = true;
+        }
+    }
+
+    private String getIndexSql(String indexName) throws Exception {
+        final Cursor cursor = getHelperInstance()
+                .getReadableDatabase()
+                .rawQuery("SELECT `sql` FROM sqlite_master WHERE `type` = ? AND `name` = ?",
+                        new String[]{"index", indexName});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<String> getColumnNames(String tableName) throws Exception {
+        final Cursor cursor = getHelperInstance()
+                .getReadableDatabase()
+                .rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        final List<String> cols = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            cols.add(cursor.getString(1));
+        }
+        cursor.close();
+        return cols;
+    }
+
+    @Test
+    public void testQueryMethods() throws Exception {
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        TestTable t1 = new TestTable(), t2 = new TestTable(), t3 = new TestTable();
+        t1.unique = 1;
+        t1.testString = "a";
+        t1.testDate = new Date(1000);
+        t1.testBoolean = true;
+        t2.unique = 2;
+        t2.testString = "a";
+        t2.testDate = new Date(3000);
+        t3.unique = 3;
+        t3.testString = "b";
+        t3.testDate = new Date(2000);
+        operator.save(t1, t2, t3).executeBlocking();
+
+        TestTable4 t4 = new TestTable4();
+        t4.uniqueField = "t4";
+        t4.foreignKey = t2;
+        SQLiteOperator.from(getContext(), TestTable4.class).save(t4).executeBlocking();
+
+        final TestQueries queries = new TestQueries_Impl(getContext());
+
+        List<TestTable> list = queries.getByStringCreatedAfter("a", new Date(500));
+        assertEquals(2, list.size());
+        assertEquals(1, list.get(0).unique);
+        assertEquals(2, list.get(1).unique);
+        assertEquals(new Date(1000), list.get(0).testDate);
+        list = queries.getByStringCreatedAfter("a", new Date(2000));
+        assertEquals(1, list.size());
+        assertEquals(2, list.get(0).unique);
+        assertTrue(queries.getByStringCreatedAfter(null, new Date(0)).isEmpty());
+
+        assertEquals("b", queries.getByUnique(3).testString);
+        assertNull(queries.getByUnique(4));
+
+        assertEquals(1, queries.getByBoolean(true).size());
+        assertEquals(2, queries.getByBoolean(null).size());
+
+        final TestTable byTable4 = queries.getByTable4("t4");
+        assertEquals(2, byTable4.unique);
+        assertEquals(1, byTable4.table4Relation.size());
+        assertNull(queries.getByTable4("none"));
+
+        assertEquals(2, queries.countFrom(2));
+        assertEquals(Arrays.asList("a", "a", "b"), queries.getStrings());
+        assertEquals(new Date(3000), queries.getLatestDate());
+    }
+
+    @Test
+    public void testSelectFields() throws Exception {
+        SQLiteOperator<TestTable9> inherited = SQLiteOperator.from(getContext(),
+                TestTable9.class);
+        TestTable9 t9 = new TestTable9();
+        t9.unique = 9;
+        t9.testingSeven = "seven";
+        t9.testingNine = "nine";
+        inherited.save(t9).executeBlocking();
+        TestTable9 partial9 = inherited.getList().select("testingNine").executeBlocking().get(0);
+        assertEquals(t9.id, partial9.id);
+        assertEquals("nine", partial9.testingNine);
+        assertNull(partial9.testingSeven);
+        partial9.testingNine = "ten";
+        inherited.save(partial9).executeBlocking();
+        TestTable9 fetched9 = inherited.getSingle(t9.id).executeBlocking();
+        assertEquals("ten", fetched9.testingNine);
+        assertEquals("seven", fetched9.testingSeven);
+        assertEquals(9, fetched9.unique);
+
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        TestTable t1 = new TestTable(), t2 = new TestTable();
+        t1.unique = 1;
+        t1.testString = "a";
+        t1.testDate = new Date(1000);
+        t1.testList = Arrays.asList("x", "y");
+        t2.unique = 2;
+        t2.testString = "b";
+        operator.save(t1, t2).executeBlocking();
+
+        List<TestTable> list = operator.getList()
+                .withQuery(SQLiteQuery.builder().where("`unique` = ?", 1).build())
+                .select("testString")
+                .executeBlocking();
+        assertEquals(1, list.size());
+        TestTable partial = list.get(0);
+        assertEquals(t1.id, partial.id);
+        assertEquals("a", partial.testString);
+        assertEquals(0, partial.unique);
+        assertNull(partial.testList);
+        assertNull(partial.testDate);
+
+        // The fields that were not selected are not written back
+        partial.testString = "c";
+        operator.save(partial).executeBlocking();
+        TestTable fetched = operator.getSingle(t1.id).executeBlocking();
+        assertEquals("c", fetched.testString);
+        assertEquals(1, fetched.unique);
+        assertEquals(new Date(1000), fetched.testDate);
+        assertEquals(Arrays.asList("x", "y"), fetched.testList);
+
+        // Not even after the snapshots have been invalidated by a query
+        partial = operator.getList()
+                .withQuery(SQLiteQuery.builder().where("`unique` = ?", 1).build())
+                .select("testString", "testDate")
+                .executeBlocking()
+                .get(0);
+        operator.save().withQuery(SQLiteQuery.builder()
+                .set("upgradeAddTester", 5)
+                .where("`unique` = ?", 2)
+                .build()).executeBlocking();
+        partial.testDate = new Date(2000);
+        partial.unique = 3;
+        operator.save(partial).executeBlocking();
+        fetched = operator.getSingle(t1.id).executeBlocking();
+        assertEquals("c", fetched.testString);
+        assertEquals(3, fetched.unique);
+        assertEquals(new Date(2000), fetched.testDate);
+        assertEquals(Arrays.asList("x", "y"), fetched.testList);
+
+        assertEquals(3, operator.getList().select("unique").asLazyList().size());
+
+        try {
+            operator.getList().select("table4Relation").executeBlocking();
+            fail("Relationships can not be selected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            operator.getList().byIds(Arrays.asList(1L)).select("testString").executeBlocking();
+            fail("select can not be combined with byIds");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        SQLiteOperator<TestTable> operator = SQLiteOperator.from(getContext(), TestTable.class);
+        TestTable t1 = new TestTable(), t2 = new TestTable();
+        t1.unique = 1;
+        t1.testString = "a";
+        t1.testBoolean = true;
+        t1.testDate = new Date(1000);
+        t1.testList = Arrays.asList("x", "y");
+        t2.unique = 2;
+        t2.testString = "b";
+        operator.save(t1, t2).executeBlocking();
+
+        List<TestProjection> rows = operator.getList()
+                .withQuery(SQLiteQuery.builder().orderBy("`unique` DESC").build())
+                .select(TestProjection.class)
+                .executeBlocking();
+        assertEquals(2, rows.size());
+        assertEquals(2, rows.get(0).unique);
+        assertEquals("b", rows.get(0).testString);
+        assertNull(rows.get(0).testBoolean);
+        assertNull(rows.get(0).testDate);
+        assertNull(rows.get(0).testList);
+        assertEquals(1, rows.get(1).unique);
+        assertEquals("a", rows.get(1).testString);
+        assertTrue(rows.get(1).testBoolean);
+        assertEquals(new Date(1000), rows.get(1).testDate);
+        assertEquals(Arrays.asList("x", "y"), rows.get(1).testList);
+
+        rows = operator.getList()
+                .withQuery(SQLiteQuery.builder().where("`testFieldName` = ?", "a").build())
+                .select(TestProjection.class)
+                .asSingle()
+                .blockingGet();
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.get(0).unique);
+
+        try {
+            SQLiteOperator.from(getContext(), TestTable2.class).getList()
+                    .select(TestProjection.class);
+            fail("TestProjection is not a projection of TestTable2");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testMultiForeignKey() throws Exception {
         SQLiteOperator<TestTable> t = SQLiteOperator.from(getContext(), TestTable.class);
@@ -0,0 +1,20 @@
+package com.jeppeman.highlite.test.table;
+
+import com.jeppeman.highlite.SQLiteProjection;
+
+import java.util.Date;
+import java.util.List;
+
+@SQLiteProjection(table = TestTable.class)
+public class TestProjection {
+
+    public long unique;
+
+    public String testString;
+
+    public Boolean testBoolean;
+
+    public Date testDate;
+
+    public List<String> testList;
+}
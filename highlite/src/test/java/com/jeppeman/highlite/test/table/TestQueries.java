@@ -0,0 +1,35 @@
+package com.jeppeman.highlite.test.table;
+
+import com.jeppeman.highlite.SQLiteQueries;
+import com.jeppeman.highlite.SQLiteQueryMethod;
+
+import java.util.Date;
+import java.util.List;
+
+@SQLiteQueries(database = TestDatabase.class)
+public interface TestQueries {
+
+    @SQLiteQueryMethod("SELECT * FROM test_table WHERE `testFieldName` = ? AND `testDate` > ? "
+            + "ORDER BY `unique`")
+    List<TestTable> getByStringCreatedAfter(String testString, Date createdAfter);
+
+    @SQLiteQueryMethod("SELECT * FROM test_table WHERE `unique` = ?")
+    TestTable getByUnique(long unique);
+
+    @SQLiteQueryMethod("SELECT * FROM test_table WHERE `testBoolean` IS ?")
+    List<TestTable> getByBoolean(Boolean testBoolean);
+
+    @SQLiteQueryMethod(value = "SELECT t.* FROM testTable4 t4 "
+            + "JOIN test_table t ON t.id = t4.foreignKey WHERE t4.uniqueField = ?",
+            fetchRelationships = true)
+    TestTable getByTable4(String uniqueField);
+
+    @SQLiteQueryMethod("SELECT COUNT(*) FROM test_table WHERE `unique` >= ?")
+    long countFrom(int unique);
+
+    @SQLiteQueryMethod("SELECT `testFieldName` FROM test_table ORDER BY `unique`")
+    List<String> getStrings();
+
+    @SQLiteQueryMethod("SELECT MAX(`testDate`) FROM test_table")
+    Date getLatestDate();
+}
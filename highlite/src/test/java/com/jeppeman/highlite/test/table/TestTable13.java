@@ -10,6 +10,6 @@ public class TestTable13 {
     @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))
     public int id;
 
-    @SQLiteColumn(foreignKey = @ForeignKey(fieldReference = "id"))
+    @SQLiteColumn(foreignKey = @ForeignKey(fieldReference = "id", createIndex = false))
     public TestTable12 tttt;
 }
@@ -0,0 +1,16 @@
+package com.jeppeman.highlite.test.table;
+
+import com.jeppeman.highlite.PrimaryKey;
+import com.jeppeman.highlite.SQLiteColumn;
+import com.jeppeman.highlite.SQLiteTable;
+
+@SQLiteTable(database = TestDatabase.class, tableName = "test_table14",
+        backgroundMigration = true)
+public class TestTable14 {
+
+    @SQLiteColumn(primaryKey = @PrimaryKey(autoIncrement = true))
+    public long id;
+
+    @SQLiteColumn(unique = true)
+    public String code;
+}
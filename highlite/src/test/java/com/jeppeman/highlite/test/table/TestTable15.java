@@ -0,0 +1,15 @@
+package com.jeppeman.highlite.test.table;
+
+import com.jeppeman.highlite.PrimaryKey;
+import com.jeppeman.highlite.SQLiteColumn;
+import com.jeppeman.highlite.SQLiteTable;
+
+@SQLiteTable(database = TestDatabase.class, tableName = "test_table15")
+public class TestTable15 {
+
+    @SQLiteColumn(primaryKey = @PrimaryKey)
+    public long id;
+
+    @SQLiteColumn(renamedFrom = "nameOld", notNull = true)
+    public String name = "";
+}
@@ -1,15 +1,17 @@
 package com.jeppeman.highlite.test.table;
 
+import com.jeppeman.highlite.Index;
 import com.jeppeman.highlite.PrimaryKey;
 import com.jeppeman.highlite.SQLiteColumn;
 import com.jeppeman.highlite.SQLiteTable;
 
-@SQLiteTable(database = TestDatabase.class)
+@SQLiteTable(database = TestDatabase.class,
+        indexes = @Index(columns = {"testingEight", "created DESC"}))
 public class TestTable8 extends TimestampedModel {
 
     @SQLiteColumn(primaryKey = @PrimaryKey)
     public long id;
 
-    @SQLiteColumn
+    @SQLiteColumn(renamedFrom = "testingEightOld")
     public String testingEight;
 }